@@ -41,4 +41,33 @@ public class BaggingClassifier extends Classifier
 		return new Classification (inst, this, new LabelVector (getLabelAlphabet(), scores));
 	}
 
+	/** Classifies the instances with each bagged classifier's batch scoring
+	 * in turn, dividing the instances among <tt>numThreads</tt> threads. */
+	public java.util.ArrayList classify (InstanceList instances, int numThreads)
+	{
+		return getClassifications (instances, getClassificationScores (instances, numThreads));
+	}
+
+	/** Scores the range with each bagged classifier's batch scoring in
+	 * turn, summing into <tt>scores</tt>. */
+	protected void getClassificationScores (InstanceList instances, int start, int end, double[][] scores)
+	{
+		int numClasses = getLabelAlphabet().size();
+		// The bagged classifiers score a view of the range into rows 0..end-start
+		InstanceList range = instances.subList (start, end);
+		double[][] baggedScores = new double[end - start][];
+		for (int i = 0; i < baggedScores.length; i++) {
+			baggedScores[i] = new double[numClasses];
+			java.util.Arrays.fill (scores[start + i], 0);
+		}
+		for (int c = 0; c < baggedClassifiers.length; c++) {
+			baggedClassifiers[c].getClassificationScores (range, 0, baggedScores.length, baggedScores);
+			for (int i = 0; i < baggedScores.length; i++)
+				for (int li = 0; li < numClasses; li++)
+					scores[start + i][li] += baggedScores[i][li];
+		}
+		for (int i = start; i < end; i++)
+			DenseVector.normalize (scores[i]);
+	}
+
 }
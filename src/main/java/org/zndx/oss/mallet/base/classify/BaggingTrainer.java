@@ -12,9 +12,19 @@
 package org.zndx.oss.mallet.base.classify;
 
 import org.zndx.oss.mallet.base.types.*;
+import org.zndx.oss.mallet.base.util.ParallelUtils;
 /**
 	 Bagging Trainer.
 
+	 Each bag is a bootstrap sample of the training list, made by
+	 <code>InstanceList.select</code> from randomly drawn indices, so the
+	 bags share the training instances rather than copying them.  Every
+	 bag draws its indices from its own random number generator, seeded
+	 from the trainer's seed, so the ensemble does not depend on the order
+	 in which the bags are trained.  With more than one thread the bags are
+	 trained concurrently, and the underlying trainer's <code>train</code>
+	 method must be safe to call from several threads at once.
+
    @author Andrew McCallum <a href="mailto:mccallum@cs.umass.edu">mccallum@cs.umass.edu</a>
  */
 
@@ -22,6 +32,8 @@ public class BaggingTrainer extends ClassifierTrainer
 {
 	ClassifierTrainer underlyingTrainer;
 	int numBags;
+	java.util.Random random = new java.util.Random ();
+	int numThreads = 1;
 	
 	public BaggingTrainer (ClassifierTrainer underlyingTrainer, int numBags)
 	{
@@ -33,20 +45,47 @@ public class BaggingTrainer extends ClassifierTrainer
 	{
 		this (underlyingTrainer, 10);
 	}
+
+	/** Makes the bags, and so the trained ensemble, reproducible. */
+	public void setRandomSeed (long seed)
+	{
+		random = new java.util.Random (seed);
+	}
+
+	/** Trains the bags on <tt>numThreads</tt> threads. */
+	public void setNumThreads (int numThreads)
+	{
+		if (numThreads < 1)
+			throw new IllegalArgumentException ("numThreads must be positive, was "+numThreads);
+		this.numThreads = numThreads;
+	}
+
+	public int getNumThreads () { return numThreads; }
 	
-	public Classifier train (InstanceList trainingList,
-													 InstanceList validationList,
-													 InstanceList testSet,
-													 ClassifierEvaluating evaluator,
-													 Classifier initialClassifier)
+	public Classifier train (final InstanceList trainingList,
+													 final InstanceList validationList,
+													 final InstanceList testSet,
+													 final ClassifierEvaluating evaluator,
+													 final Classifier initialClassifier)
 	{
-		Classifier[] classifiers = new Classifier[numBags];
-		java.util.Random r = new java.util.Random ();
+		final Classifier[] classifiers = new Classifier[numBags];
+		Runnable[] tasks = new Runnable[numBags];
 		for (int round = 0; round < numBags; round++) {
-			InstanceList bag = trainingList.sampleWithReplacement (r, trainingList.size());
-			classifiers[round] = underlyingTrainer.train (bag, validationList, testSet,
-																										evaluator, initialClassifier);
+			final int bagIndex = round;
+			final long seed = random.nextLong ();
+			tasks[round] = new Runnable () {
+				public void run () {
+					java.util.Random r = new java.util.Random (seed);
+					int[] sample = new int[trainingList.size()];
+					for (int i = 0; i < sample.length; i++)
+						sample[i] = r.nextInt (sample.length);
+					InstanceList bag = trainingList.select (sample);
+					classifiers[bagIndex] = underlyingTrainer.train (bag, validationList, testSet,
+																													 evaluator, initialClassifier);
+				}
+			};
 		}
+		ParallelUtils.runAll (tasks, numThreads);
 		return new BaggingClassifier (trainingList.getPipe(), classifiers);
 	}
 	
@@ -112,6 +112,9 @@ public class C45 extends Classifier implements Boostable, Serializable
 		// mininum number of instances allowed in this node
 		int m_minNumInsts;
 		Node m_parent, m_leftChild, m_rightChild;
+		// set while the tree is grown from presorted feature columns
+		transient PresortedSplitSearch m_search;
+		transient PresortedSplitSearch.Segments m_segments;
 		
 		public Node(InstanceList ilist, Node parent, int minNumInsts)
 		{
@@ -119,13 +122,24 @@ public class C45 extends Classifier implements Boostable, Serializable
 		}
 		
 		public Node(InstanceList ilist, Node parent, int minNumInsts, int[] instIndices)
+		{
+			this(ilist, parent, minNumInsts, instIndices, null);
+		}
+		
+		/**
+		 * @param gainRatio the GainRatio of the instances at instIndices,
+		 * or null to calculate it
+		 */
+		public Node(InstanceList ilist, Node parent, int minNumInsts, int[] instIndices, GainRatio gainRatio)
 		{
 			if (instIndices == null) {
 				instIndices = new int[ilist.size()];
 				for (int ii = 0; ii < instIndices.length; ii++)
 					instIndices[ii] = ii;
 			}
-			m_gainRatio = GainRatio.createGainRatio(ilist, instIndices, minNumInsts);
+			if (gainRatio == null)
+				gainRatio = GainRatio.createGainRatio(ilist, instIndices, minNumInsts);
+			m_gainRatio = gainRatio;
 			m_ilist = ilist;
 			m_instIndices = instIndices;
 			m_dataDict = m_ilist.getDataAlphabet();
@@ -182,6 +196,10 @@ public class C45 extends Classifier implements Boostable, Serializable
 		{
 			if (m_ilist == null)
 				throw new IllegalStateException ("Frozen.  Cannot split.");
+			if (m_search != null) {
+				m_search.split(this);
+				return;
+			}
 			int numLeftChildren = 0;
 			boolean[] toLeftChild = new boolean[m_instIndices.length];
 			for (int i = 0; i < m_instIndices.length; i++) {
@@ -254,6 +272,8 @@ public class C45 extends Classifier implements Boostable, Serializable
 			if (m_rightChild != null)
 				m_rightChild.stopGrowth();	  
 			m_ilist = null;
+			m_search = null;
+			m_segments = null;
 		}
 		
 		public String getName()
@@ -43,6 +43,8 @@ public class C45Trainer extends ClassifierTrainer implements Boostable
 	int m_maxDepth = 4;
 	int m_minNumInsts = 2;  // minimum number of instances in each node
 	boolean m_doPruning = true;
+	boolean m_usePresorted = true;
+	int m_numThreads = 1;
 	
 	/**
 	 * Uses default values: not depth limited tree with 
@@ -111,6 +113,37 @@ public class C45Trainer extends ClassifierTrainer implements Boostable
 		return m_minNumInsts;
 	}
 	
+	/**
+	 * Whether to grow the tree with a {@link PresortedSplitSearch}, which
+	 * sorts each feature once rather than at every node, at the cost of
+	 * memory for the sorted columns.  The tree is the same either way.
+	 */
+	public void setUsePresorted(boolean usePresorted)
+	{
+		m_usePresorted = usePresorted;
+	}
+	
+	public boolean getUsePresorted()
+	{
+		return m_usePresorted;
+	}
+	
+	/**
+	 * Sets the number of threads used to score the features of each node
+	 * when growing the tree with presorted columns.
+	 */
+	public void setNumThreads(int numThreads)
+	{
+		if (numThreads < 1)
+			throw new IllegalArgumentException("numThreads must be positive, was " + numThreads);
+		m_numThreads = numThreads;
+	}
+	
+	public int getNumThreads()
+	{
+		return m_numThreads;
+	}
+	
 	protected void splitTree(C45.Node node, int depth)
 	{
 		// Stop growing the tree when any of the following is true:
@@ -148,8 +181,20 @@ public class C45Trainer extends ClassifierTrainer implements Boostable
 		if (selectedFeatures != null)
 			// xxx Attend to FeatureSelection!!!
 			throw new UnsupportedOperationException ("FeatureSelection not yet implemented.");
-		C45.Node root = new C45.Node(trainingList, null, m_minNumInsts);
-		splitTree(root, 0);
+		C45.Node root;
+		PresortedSplitSearch search = null;
+		try {
+			if (m_usePresorted) {
+				search = new PresortedSplitSearch(trainingList, true, m_numThreads);
+				root = search.newC45Root(m_minNumInsts);
+			}
+			else
+				root = new C45.Node(trainingList, null, m_minNumInsts);
+			splitTree(root, 0);
+		} finally {
+			if (search != null)
+				search.shutdown();
+		}
 		C45 tree = new C45 (trainingList.getPipe(), root);
 		logger.info("C45 learned: (size=" + tree.getSize() + ")\n");
 		tree.print();
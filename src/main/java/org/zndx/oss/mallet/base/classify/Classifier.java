@@ -20,10 +20,14 @@ import org.zndx.oss.mallet.base.types.Alphabet;
 import org.zndx.oss.mallet.base.types.Label;
 import org.zndx.oss.mallet.base.types.Labeling;
 import org.zndx.oss.mallet.base.types.LabelAlphabet;
+import org.zndx.oss.mallet.base.types.LabelVector;
 import org.zndx.oss.mallet.base.types.FeatureVector;
 import org.zndx.oss.mallet.base.pipe.Pipe;
 import org.zndx.oss.mallet.base.util.ArrayListUtils;
+import org.zndx.oss.mallet.base.util.ParallelUtils;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.*;
 import java.io.PrintWriter;
 
@@ -62,6 +66,10 @@ public abstract class Classifier
 	Logger.getLogger("edu.umass.cs.mallet.base.classify.Classifier");
 
 	protected Pipe instancePipe;
+	// Made on the first batch call with more than one thread, and kept for
+	// later calls with the same number of threads
+	private transient ExecutorService executor;
+	private transient int executorThreads;
 
   /**
    * For serialization only.
@@ -112,6 +120,116 @@ public abstract class Classifier
 		return ret;
 	}
 		
+	/**
+	 * Classifies the instances on <tt>numThreads</tt> threads, returning
+	 * their Classifications in the order of the InstanceList.
+	 * <tt>classify(Instance)</tt> must be safe to call concurrently.  The
+	 * threads are kept for the next batch call with as many threads;
+	 * concurrent batch calls on one classifier should ask for the same
+	 * number.
+	 */
+	public ArrayList classify (final InstanceList instances, int numThreads)
+	{
+		final Classification[] ret = new Classification[instances.size()];
+		final int[] bounds = ParallelUtils.shardBoundaries (instances.size(), Math.max (1, numThreads));
+		Runnable[] tasks = new Runnable[bounds.length - 1];
+		for (int s = 0; s < tasks.length; s++) {
+			final int start = bounds[s], end = bounds[s+1];
+			tasks[s] = new Runnable () {
+				public void run () {
+					for (int i = start; i < end; i++)
+						ret[i] = classify (instances.getInstance (i));
+				}
+			};
+		}
+		runAll (tasks, numThreads);
+		return new ArrayList (Arrays.asList (ret));
+	}
+
+	/**
+	 * Puts the normalized label scores of each instance into the
+	 * corresponding row of <tt>scores</tt>, which must have at least
+	 * <tt>instances.size()</tt> rows of length <tt>getLabelAlphabet().size()</tt>.
+	 * The rows may be reused from one batch to the next, so that bulk
+	 * scoring allocates no Classifications or LabelVectors; call
+	 * <tt>getClassifications</tt> to create them when they are needed.
+	 * The instances are divided among <tt>numThreads</tt> threads.
+	 */
+	public void getClassificationScores (final InstanceList instances, final double[][] scores, int numThreads)
+	{
+		if (scores.length < instances.size())
+			throw new IllegalArgumentException ("Need "+instances.size()+" rows of scores, got "+scores.length);
+		final int[] bounds = ParallelUtils.shardBoundaries (instances.size(), Math.max (1, numThreads));
+		Runnable[] tasks = new Runnable[bounds.length - 1];
+		for (int s = 0; s < tasks.length; s++) {
+			final int start = bounds[s], end = bounds[s+1];
+			tasks[s] = new Runnable () {
+				public void run () {
+					getClassificationScores (instances, start, end, scores);
+				}
+			};
+		}
+		runAll (tasks, numThreads);
+	}
+
+	// Runs the tasks on this classifier's threads, or on the calling thread
+	private void runAll (Runnable[] tasks, int numThreads)
+	{
+		if (numThreads <= 1 || tasks.length <= 1)
+			ParallelUtils.runAll (tasks, 1);
+		else
+			ParallelUtils.runAll (tasks, getExecutor (numThreads));
+	}
+
+	private synchronized ExecutorService getExecutor (int numThreads)
+	{
+		if (executor != null && executorThreads != numThreads) {
+			executor.shutdown ();
+			executor = null;
+		}
+		if (executor == null) {
+			executor = ParallelUtils.newExecutor (numThreads, "Classifier");
+			executorThreads = numThreads;
+		}
+		return executor;
+	}
+
+	/** Returns a new <tt>instances.size()</tt> by <tt>getLabelAlphabet().size()</tt> array of label scores. */
+	public double[][] getClassificationScores (InstanceList instances, int numThreads)
+	{
+		double[][] scores = new double[instances.size()][getLabelAlphabet().size()];
+		getClassificationScores (instances, scores, numThreads);
+		return scores;
+	}
+
+	/**
+	 * Puts the label scores of instances <tt>start</tt> (inclusive) to
+	 * <tt>end</tt> (exclusive) into the corresponding rows of <tt>scores</tt>.
+	 * This is called concurrently on disjoint ranges.  The default calls
+	 * <tt>classify(Instance)</tt>; subclasses that can score an instance
+	 * directly into an array should override it.
+	 */
+	protected void getClassificationScores (InstanceList instances, int start, int end, double[][] scores)
+	{
+		for (int i = start; i < end; i++) {
+			Labeling labeling = classify (instances.getInstance (i)).getLabeling ();
+			double[] row = scores[i];
+			for (int li = 0; li < row.length; li++)
+				row[li] = labeling.value (li);
+		}
+	}
+
+	/** Creates the Classifications for label scores from <tt>getClassificationScores</tt>. */
+	public ArrayList getClassifications (InstanceList instances, double[][] scores)
+	{
+		LabelAlphabet labelAlphabet = getLabelAlphabet ();
+		ArrayList ret = new ArrayList (instances.size());
+		for (int i = 0; i < instances.size(); i++)
+			ret.add (new Classification (instances.getInstance (i), this,
+																	 new LabelVector (labelAlphabet, scores[i])));
+		return ret;
+	}
+
 	public abstract Classification classify (Instance instance);
 
 	public Classification classify (Object obj)
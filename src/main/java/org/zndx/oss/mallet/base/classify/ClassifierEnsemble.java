@@ -1,8 +1,11 @@
 package org.zndx.oss.mallet.base.classify;
 
 import org.zndx.oss.mallet.base.types.Instance;
+import org.zndx.oss.mallet.base.types.InstanceList;
 import org.zndx.oss.mallet.base.types.LabelVector;
 import org.zndx.oss.mallet.base.types.MatrixOps;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 /* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
    This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
@@ -27,6 +30,7 @@ public class ClassifierEnsemble extends Classifier
 
   public ClassifierEnsemble (Classifier[] classifiers, double[] weights)
   {
+    super (classifiers[0].getInstancePipe());
     this.ensemble = new Classifier[classifiers.length];
     for (int i = 0; i < classifiers.length; i++) {
       if (i > 0 && ensemble[i-1].getLabelAlphabet() != classifiers[i].getLabelAlphabet())
@@ -51,6 +55,35 @@ public class ClassifierEnsemble extends Classifier
     return new Classification (instance, this, new LabelVector (ensemble[0].getLabelAlphabet(), scores));
   }
 
+  /**
+   * Classifies the instances with each classifier's batch scoring in turn,
+   * dividing the instances among <tt>numThreads</tt> threads.
+   */
+  public ArrayList classify (InstanceList instances, int numThreads)
+  {
+    return getClassifications (instances, getClassificationScores (instances, numThreads));
+  }
+
+  protected void getClassificationScores (InstanceList instances, int start, int end, double[][] scores)
+  {
+    int numLabels = ensemble[0].getLabelAlphabet().size();
+    // The members score a view of the range into rows 0..end-start
+    InstanceList range = instances.subList (start, end);
+    double[][] memberScores = new double[end - start][];
+    for (int j = 0; j < memberScores.length; j++) {
+      memberScores[j] = new double[numLabels];
+      Arrays.fill (scores[start + j], 0);
+    }
+    for (int i = 0; i < ensemble.length; i++) {
+      ensemble[i].getClassificationScores (range, 0, memberScores.length, memberScores);
+      for (int j = 0; j < memberScores.length; j++)
+        for (int li = 0; li < numLabels; li++)
+          scores[start + j][li] += memberScores[j][li] * weights[i];
+    }
+    for (int j = start; j < end; j++)
+      expNormalize (scores[j]);
+  }
+
   private static void expNormalize (double[] a)
   {
     double max = MatrixOps.max (a);
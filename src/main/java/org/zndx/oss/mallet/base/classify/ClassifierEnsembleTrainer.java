@@ -1,6 +1,14 @@
 package org.zndx.oss.mallet.base.classify;
 
 import org.zndx.oss.mallet.base.types.InstanceList;
+import org.zndx.oss.mallet.base.types.Labeling;
+import org.zndx.oss.mallet.base.types.MatrixOps;
+import org.zndx.oss.mallet.base.maximize.Maximizable;
+import org.zndx.oss.mallet.base.maximize.LimitedMemoryBFGS;
+import org.zndx.oss.mallet.base.util.MalletLogger;
+import org.zndx.oss.mallet.base.util.ParallelUtils;
+import java.util.Arrays;
+import java.util.logging.Logger;
 
 /* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
    This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
@@ -10,23 +18,184 @@ import org.zndx.oss.mallet.base.types.InstanceList;
    information, see the file `LICENSE' included with this distribution. */
 
 /**
+ * Learns the weights of a {@link ClassifierEnsemble} of already-trained
+ * classifiers, by maximizing the conditional log-likelihood of the
+ * training labels, with a Gaussian prior on the weights.
+ * <p>
+ * The training set is scored once by each classifier, with its batch
+ * scoring spread over <tt>numThreads</tt> threads; the likelihood and its
+ * gradient are then computed from those scores, again on
+ * <tt>numThreads</tt> threads, at each step of the maximization.
  * @author <a href="mailto:mccallum@cs.umass.edu">Andrew McCallum</a>
  */
 public class ClassifierEnsembleTrainer extends ClassifierTrainer
 {
+  private static Logger logger = MalletLogger.getLogger(ClassifierEnsembleTrainer.class.getName());
+
   Classifier[] classifiers;
+  double gaussianPriorVariance = 1.0;
+  int numThreads = 1;
 
   public ClassifierEnsembleTrainer (Classifier[] classifiers)
   {
     this.classifiers = (Classifier[]) classifiers.clone();
   }
 
+  public void setGaussianPriorVariance (double gaussianPriorVariance)
+  {
+    this.gaussianPriorVariance = gaussianPriorVariance;
+  }
+
+  public void setNumThreads (int numThreads)
+  {
+    if (numThreads < 1)
+      throw new IllegalArgumentException ("numThreads must be positive, was "+numThreads);
+    this.numThreads = numThreads;
+  }
+
+  public int getNumThreads () { return numThreads; }
+
   public Classifier train (InstanceList trainingSet, InstanceList validationSet, InstanceList testSet,
                            ClassifierEvaluating evaluator,
                            Classifier initialClassifier)
   {
     if (initialClassifier != null) throw new IllegalArgumentException("initialClassifier not yet supported");
-    // Make an instance list, with features being the outputs of the ensemble classifiers
-    return null;
+    // The outputs of the ensemble classifiers are the features of a log-linear model
+    double[][][] scores = new double[classifiers.length][][];
+    for (int i = 0; i < classifiers.length; i++)
+      scores[i] = classifiers[i].getClassificationScores (trainingSet, numThreads);
+    MaximizableEnsemble me = new MaximizableEnsemble (trainingSet, scores);
+    LimitedMemoryBFGS maximizer = new LimitedMemoryBFGS ();
+    maximizer.maximize (me);
+    logger.info ("Ensemble weights "+Arrays.toString (me.weights)+", log-likelihood "+me.getValue ());
+    return new ClassifierEnsemble (classifiers, me.weights);
+  }
+
+  private class MaximizableEnsemble implements Maximizable.ByGradient
+  {
+    double[][][] scores;                // [classifier][instance][label]
+    int[] labelIndices;                 // -1 for unlabeled instances
+    double[] instanceWeights;
+    int numLabels;
+    double[] weights;
+    double[] cachedGradient;
+    double cachedValue;
+    boolean cachedStale = true;
+
+    MaximizableEnsemble (InstanceList ilist, double[][][] scores)
+    {
+      this.scores = scores;
+      this.numLabels = ilist.getTargetAlphabet().size();
+      this.labelIndices = new int[ilist.size()];
+      this.instanceWeights = new double[ilist.size()];
+      for (int ii = 0; ii < ilist.size(); ii++) {
+        Labeling labeling = ilist.getInstance(ii).getLabeling ();
+        labelIndices[ii] = (labeling == null) ? -1 : labeling.getBestIndex ();
+        instanceWeights[ii] = ilist.getInstanceWeight (ii);
+      }
+      this.weights = new double[scores.length];
+      Arrays.fill (weights, 1.0);
+      this.cachedGradient = new double[scores.length];
+    }
+
+    public int getNumParameters () { return weights.length; }
+
+    public void getParameters (double[] buffer)
+    {
+      System.arraycopy (weights, 0, buffer, 0, weights.length);
+    }
+
+    public double getParameter (int index) { return weights[index]; }
+
+    public void setParameters (double[] params)
+    {
+      System.arraycopy (params, 0, weights, 0, weights.length);
+      cachedStale = true;
+    }
+
+    public void setParameter (int index, double value)
+    {
+      weights[index] = value;
+      cachedStale = true;
+    }
+
+    public double getValue ()
+    {
+      if (cachedStale)
+        computeValueAndGradient ();
+      return cachedValue;
+    }
+
+    public void getValueGradient (double[] buffer)
+    {
+      if (cachedStale)
+        computeValueAndGradient ();
+      System.arraycopy (cachedGradient, 0, buffer, 0, cachedGradient.length);
+    }
+
+    private void computeValueAndGradient ()
+    {
+      final int[] bounds = ParallelUtils.shardBoundaries (labelIndices.length, numThreads);
+      final double[] shardValues = new double[numThreads];
+      final double[][] shardGradients = new double[numThreads][weights.length];
+      Runnable[] tasks = new Runnable[numThreads];
+      for (int shard = 0; shard < numThreads; shard++) {
+        final int thisShard = shard;
+        tasks[shard] = new Runnable () {
+          public void run () {
+            shardValues[thisShard] = accumulate (bounds[thisShard], bounds[thisShard+1],
+                                                 shardGradients[thisShard]);
+          }
+        };
+      }
+      ParallelUtils.runAll (tasks, numThreads);
+      cachedValue = 0;
+      Arrays.fill (cachedGradient, 0);
+      for (int shard = 0; shard < numThreads; shard++) {
+        cachedValue += shardValues[shard];
+        for (int i = 0; i < weights.length; i++)
+          cachedGradient[i] += shardGradients[shard][i];
+      }
+      for (int i = 0; i < weights.length; i++) {
+        cachedValue -= weights[i] * weights[i] / (2 * gaussianPriorVariance);
+        cachedGradient[i] -= weights[i] / gaussianPriorVariance;
+      }
+      cachedStale = false;
+    }
+
+    // Adds the gradient of the log-likelihood of instances [start,end)
+    // into gradient, and returns their log-likelihood
+    private double accumulate (int start, int end, double[] gradient)
+    {
+      double[] logits = new double[numLabels];
+      double[] probs = new double[numLabels];
+      double value = 0;
+      for (int ii = start; ii < end; ii++) {
+        int li = labelIndices[ii];
+        if (li < 0)
+          continue;
+        Arrays.fill (logits, 0);
+        for (int i = 0; i < scores.length; i++)
+          for (int l = 0; l < numLabels; l++)
+            logits[l] += weights[i] * scores[i][ii][l];
+        double max = MatrixOps.max (logits);
+        double sum = 0;
+        for (int l = 0; l < numLabels; l++) {
+          probs[l] = Math.exp (logits[l] - max);
+          sum += probs[l];
+        }
+        for (int l = 0; l < numLabels; l++)
+          probs[l] /= sum;
+        value += instanceWeights[ii] * (logits[li] - max - Math.log (sum));
+        for (int i = 0; i < scores.length; i++) {
+          double expected = 0;
+          for (int l = 0; l < numLabels; l++)
+            expected += probs[l] * scores[i][ii][l];
+          gradient[i] += instanceWeights[ii] * (scores[i][ii][li] - expected);
+        }
+      }
+      return value;
+    }
   }
+
 }
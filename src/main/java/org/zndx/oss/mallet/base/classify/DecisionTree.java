@@ -102,17 +102,25 @@ public class DecisionTree extends Classifier implements Serializable //implement
 		Labeling labeling;									// the class label distribution in the node (unsplit)
 		Node parent, child0, child1;
 		String name;
+		// set while the tree is grown from presorted feature columns
+		transient PresortedSplitSearch search;
+		transient PresortedSplitSearch.Segments segments;
 
 		// xxx Also calculate some sort of inverted entropy for feature induction,
 		// in order to find the one class needs a new feature with a negative weight.
 
 		public Node (InstanceList ilist, Node parent, FeatureSelection fs)
 		{
-			InfoGain ig = new InfoGain (ilist);
+			this (new InfoGain (ilist), ilist.getDataAlphabet(), parent, fs);
+			this.ilist = ilist;
+		}
+
+		// A node whose instances are held by a PresortedSplitSearch
+		Node (InfoGain ig, Alphabet dictionary, Node parent, FeatureSelection fs)
+		{
 			this.featureIndex = ig.getMaxValuedIndexIn (fs);
 			this.infoGain = ig.value(featureIndex);
-			this.ilist = ilist;
-			this.dictionary = ilist.getDataAlphabet();
+			this.dictionary = dictionary;
 			this.parent = parent;
 			this.labeling = ig.getBaseLabelDistribution();
 			this.labelEntropy = ig.getBaseEntropy();
@@ -144,10 +152,14 @@ public class DecisionTree extends Classifier implements Serializable //implement
 		public Node getFeatureAbsentChild () { return child0; }
 		public Node getFeaturePresentChild () { return child1; }
 		public double getSplitInfoGain () { return infoGain; }
-		public Object getSplitFeature () { return ilist.getDataAlphabet().lookupObject(featureIndex); }
+		public Object getSplitFeature () { return dictionary.lookupObject(featureIndex); }
 
 		public void split (FeatureSelection fs)
 		{
+			if (search != null) {
+				search.split (this, fs);
+				return;
+			}
 			if (ilist == null)
 				throw new IllegalStateException ("Frozen.  Cannot split.");
 			InstanceList ilist0 = new InstanceList (ilist.getPipe());
@@ -178,6 +190,8 @@ public class DecisionTree extends Classifier implements Serializable //implement
 				child1.stopGrowth();
 			}
 			ilist = null;
+			search = null;
+			segments = null;
 		}
 
 		public void induceFeatures (AugmentableFeatureVector afv, 
@@ -43,6 +43,8 @@ public class DecisionTreeTrainer extends ClassifierTrainer implements Boostable
 	int maxDepth = 5;
 	int maxNumNodes = 99999;							// ignored for now
 	double minInfoGainSplit = 0.001;
+	boolean usePresorted = true;
+	int numThreads = 1;
 	
 	public DecisionTreeTrainer (int maxDepth)
 	{
@@ -54,6 +56,23 @@ public class DecisionTreeTrainer extends ClassifierTrainer implements Boostable
 		this(4);
 	}
 
+	/** Whether to grow the tree with a {@link PresortedSplitSearch}, which
+			counts each node's features from columns built once for the training
+			list.  The tree is the same either way. */
+	public void setUsePresorted (boolean usePresorted)
+	{
+		this.usePresorted = usePresorted;
+	}
+
+	/** Sets the number of threads used to count the features of each node
+			when growing the tree with presorted columns. */
+	public void setNumThreads (int numThreads)
+	{
+		if (numThreads < 1)
+			throw new IllegalArgumentException ("numThreads must be positive, was "+numThreads);
+		this.numThreads = numThreads;
+	}
+
 	protected void splitTree (DecisionTree.Node node, FeatureSelection selectedFeatures, int depth)
 	{
 		if (depth == maxDepth || node.getSplitInfoGain() < minInfoGainSplit)
@@ -72,8 +91,19 @@ public class DecisionTreeTrainer extends ClassifierTrainer implements Boostable
 													 Classifier initialClassifier)
 	{
 		FeatureSelection selectedFeatures = trainingList.getFeatureSelection();
-		DecisionTree.Node root = new DecisionTree.Node (trainingList, null, selectedFeatures);
-		splitTree (root, selectedFeatures, 0);
+		DecisionTree.Node root;
+		PresortedSplitSearch search = null;
+		try {
+			if (usePresorted) {
+				search = new PresortedSplitSearch (trainingList, false, numThreads);
+				root = search.newDecisionTreeRoot (selectedFeatures);
+			} else
+				root = new DecisionTree.Node (trainingList, null, selectedFeatures);
+			splitTree (root, selectedFeatures, 0);
+		} finally {
+			if (search != null)
+				search.shutdown ();
+		}
 		root.stopGrowth();
 		System.out.println ("DecisionTree learned:");
 		root.print();
@@ -0,0 +1,390 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+
+
+
+package org.zndx.oss.mallet.base.classify;
+
+import org.zndx.oss.mallet.base.types.*;
+import org.zndx.oss.mallet.base.util.MalletLogger;
+import org.zndx.oss.mallet.base.util.ParallelUtils;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.logging.Logger;
+
+/**
+	 Trains and evaluates several ClassifierTrainers, such as one trainer
+	 with a sweep of settings, on each of a number of train/test splits.
+	 Each (trainer, split) pair is one job, and the jobs are run
+	 concurrently on at most <tt>numThreads</tt> threads.
+
+	 The splits are best made as index views, by {@link #splitIndices} or
+	 {@link #foldIndices} and <code>InstanceList.select</code>, so that all
+	 jobs share the instances of one list.  A job that hides some training
+	 labels does so on shallow copies of its training instances, leaving
+	 the shared instances untouched.  Trainers keep state while training,
+	 as NaiveBayesTrainer does, so no trainer is trained by two jobs at
+	 once: a Serializable trainer is copied by serialization for each of
+	 its jobs, which may then run at the same time, and the jobs of any
+	 other trainer are run one after another.
+
+	 For each job the runner records the accuracies on the three lists,
+	 the milliseconds spent training and evaluating, and the bytes
+	 allocated by the job's thread, where the JVM can measure it.  Only
+	 the job's own thread is counted, so the allocations of a trainer that
+	 trains on threads of its own, such as a MaxEntTrainer with more than
+	 one thread, are under-reported.  A job that throws records what it
+	 threw, which {@link Job#getFailure} returns, and the other jobs carry
+	 on.  {@link #writeReport} writes these as tab-separated lines.  A job's
+	 classifier and trials are dropped as soon as the job has finished, so
+	 that a long experiment does not hold every classifier at once;
+	 subclasses that need more of them, such as confusion matrices, or the
+	 classifier written to a file, get them from {@link #report}.
+ */
+
+public class ExperimentRunner
+{
+	private static Logger logger = MalletLogger.getLogger(ExperimentRunner.class.getName());
+
+	ClassifierTrainer[] trainers;
+	ArrayList jobs = new ArrayList ();
+	int numThreads = 1;
+	long wallMillis = -1;
+
+	public ExperimentRunner (ClassifierTrainer[] trainers)
+	{
+		this.trainers = (ClassifierTrainer[]) trainers.clone();
+	}
+
+	/** Runs the jobs on <tt>numThreads</tt> threads. */
+	public void setNumThreads (int numThreads)
+	{
+		if (numThreads < 1)
+			throw new IllegalArgumentException ("numThreads must be positive, was "+numThreads);
+		this.numThreads = numThreads;
+	}
+
+	public int getNumThreads () { return numThreads; }
+
+	/** Adds one job for each trainer, which trains on <tt>training</tt>
+	 * and then classifies all three lists, any of which but
+	 * <tt>training</tt> may be null.  If <tt>unlabeled</tt> is not null,
+	 * the labels of the training instances it marks are hidden from the
+	 * trainer. */
+	public void addSplit (int trialIndex, int foldIndex,
+												InstanceList training, InstanceList testing, InstanceList validation,
+												BitSet unlabeled)
+	{
+		for (int c = 0; c < trainers.length; c++)
+			jobs.add (new Job (c, trialIndex, foldIndex, training, testing, validation, unlabeled));
+	}
+
+	public int numJobs () { return jobs.size(); }
+
+	/** Returns the jobs in the order in which their splits were added,
+	 * and by trainer within a split. */
+	public Job getJob (int index) { return (Job) jobs.get (index); }
+
+	/** Runs all the jobs, and returns when they have finished. */
+	public void run ()
+	{
+		long start = System.currentTimeMillis();
+		byte[][] serialized = new byte[trainers.length][];
+		for (int c = 0; c < trainers.length; c++)
+			serialized[c] = serialize (trainers[c]);
+		ArrayList tasks = new ArrayList ();
+		ArrayList[] chains = new ArrayList[trainers.length];
+		for (int i = 0; i < jobs.size(); i++) {
+			Job job = (Job) jobs.get (i);
+			int c = job.trainerIndex;
+			job.serializedTrainer = serialized[c];
+			if (serialized[c] != null)
+				tasks.add (job);
+			else {
+				if (chains[c] == null) {
+					logger.info ("Trainer "+trainers[c]+" cannot be serialized; running its jobs one at a time");
+					chains[c] = new ArrayList ();
+					final ArrayList chain = chains[c];
+					tasks.add (new Runnable () {
+						public void run () {
+							for (int j = 0; j < chain.size(); j++)
+								((Job) chain.get (j)).run ();
+						}
+					});
+				}
+				chains[c].add (job);
+			}
+		}
+		ParallelUtils.runAll ((Runnable[]) tasks.toArray (new Runnable[tasks.size()]), numThreads);
+		wallMillis = System.currentTimeMillis() - start;
+		logger.info ("Ran "+jobs.size()+" jobs on "+Math.min (numThreads, Math.max (1, tasks.size()))
+								 +" threads in "+wallMillis+" ms");
+		int numFailed = numFailed ();
+		if (numFailed > 0)
+			logger.warning (numFailed+" of "+jobs.size()+" jobs failed");
+	}
+
+	// The trainer's serialized bytes, or null if it cannot be serialized
+	private static byte[] serialize (ClassifierTrainer trainer)
+	{
+		if (!(trainer instanceof Serializable))
+			return null;
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+			ObjectOutputStream oos = new ObjectOutputStream (bytes);
+			oos.writeObject (trainer);
+			oos.close ();
+			return bytes.toByteArray ();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private static ClassifierTrainer deserialize (byte[] bytes)
+	{
+		try {
+			ObjectInputStream ois = new ObjectInputStream (new ByteArrayInputStream (bytes));
+			return (ClassifierTrainer) ois.readObject ();
+		} catch (IOException e) {
+			throw new IllegalStateException ("Couldn't copy trainer: "+e);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException ("Couldn't copy trainer: "+e);
+		}
+	}
+
+	/** Called in the job's thread once it has been trained and evaluated,
+	 * with the classifier and the trials, which the job does not keep;
+	 * returns any text the job should keep, which is returned by
+	 * <code>Job.getReport()</code>.  The trials of lists that were null
+	 * are null.  By default does nothing and returns null. */
+	protected String report (Job job, Classifier classifier,
+													 Trial trainTrial, Trial testTrial, Trial validationTrial)
+	{
+		return null;
+	}
+
+	/** Returns the milliseconds taken by the last {@link #run}. */
+	public long getWallMillis () { return wallMillis; }
+
+	/** Returns the number of jobs that threw when last run. */
+	public int numFailed ()
+	{
+		int ret = 0;
+		for (int i = 0; i < jobs.size(); i++)
+			if (((Job) jobs.get (i)).failure != null)
+				ret++;
+		return ret;
+	}
+
+	/** Writes a header line, then one tab-separated line for each job, and
+	 * a last line with the total time.  Accuracies of empty lists, and
+	 * allocations the JVM cannot measure, are written as NaN and -1.  The
+	 * last column is empty, or what a failed job threw; the results that
+	 * such a job did not reach are written as NaN and -1. */
+	public void writeReport (PrintWriter out)
+	{
+		out.println ("trainer\ttrial\tfold\ttrainSize\ttestSize\tvalidationSize"
+								 +"\ttrainAccuracy\ttestAccuracy\tvalidationAccuracy"
+								 +"\ttrainMillis\tevaluateMillis\tallocatedBytes\tfailure");
+		for (int i = 0; i < jobs.size(); i++) {
+			Job job = (Job) jobs.get (i);
+			out.println (job.getTrainer().toString().replace ('\t', ' ')
+									 +"\t"+job.trialIndex+"\t"+job.foldIndex
+									 +"\t"+size (job.training)+"\t"+size (job.testing)+"\t"+size (job.validation)
+									 +"\t"+job.trainAccuracy+"\t"+job.testAccuracy
+									 +"\t"+job.validationAccuracy
+									 +"\t"+job.trainMillis+"\t"+job.evaluateMillis+"\t"+job.allocatedBytes
+									 +"\t"+(job.failure == null ? "" : oneLine (job.failure.toString())));
+		}
+		out.println ("# jobs="+jobs.size()+" failed="+numFailed()+" threads="+numThreads+" wallMillis="+wallMillis);
+		out.flush ();
+	}
+
+	private static String oneLine (String s)
+	{
+		return s.replace ('\t', ' ').replace ('\n', ' ').replace ('\r', ' ');
+	}
+
+	private static int size (InstanceList ilist)
+	{
+		return ilist == null ? 0 : ilist.size();
+	}
+
+	// NaN for a missing or empty list
+	private static double accuracy (Trial trial)
+	{
+		return (trial == null || trial.size() == 0) ? Double.NaN : trial.accuracy();
+	}
+
+	/** Returns the indices of a list of <tt>size</tt> instances, shuffled
+	 * by <tt>r</tt> and divided by <tt>proportions</tt>.  The division,
+	 * and the use of <tt>r</tt>, are the same as those of
+	 * <code>InstanceList.split (r, proportions)</code>. */
+	public static int[][] splitIndices (int size, java.util.Random r, double[] proportions)
+	{
+		ArrayList shuffled = new ArrayList (size);
+		for (int i = 0; i < size; i++)
+			shuffled.add (Integer.valueOf (i));
+		Collections.shuffle (shuffled, r);
+		// Same division as InstanceList.splitInOrder()
+		double[] maxind = new double[proportions.length];
+		System.arraycopy (proportions, 0, maxind, 0, proportions.length);
+		DenseVector.normalize (maxind);
+		for (int i = 1; i < maxind.length; i++)
+			maxind[i] += maxind[i-1];
+		for (int i = 0; i < maxind.length; i++)
+			maxind[i] = Math.rint (maxind[i] * size);
+		int[] counts = new int[proportions.length];
+		int j = 0;
+		for (int i = 0; i < size; i++) {
+			while (i >= maxind[j])
+				j++;
+			counts[j]++;
+		}
+		int[][] ret = new int[proportions.length][];
+		int start = 0;
+		for (j = 0; j < ret.length; j++) {
+			ret[j] = new int[counts[j]];
+			for (int i = 0; i < counts[j]; i++)
+				ret[j][i] = ((Integer) shuffled.get (start + i)).intValue ();
+			start += counts[j];
+		}
+		return ret;
+	}
+
+	/** Returns the indices of <tt>numFolds</tt> folds of nearly equal size,
+	 * as divided by <code>InstanceList.CrossValidationIterator</code>. */
+	public static int[][] foldIndices (int size, java.util.Random r, int numFolds)
+	{
+		if (numFolds < 2)
+			throw new IllegalArgumentException ("numFolds must be at least 2, was "+numFolds);
+		double[] proportions = new double[numFolds];
+		for (int i = 0; i < numFolds; i++)
+			proportions[i] = 1.0 / numFolds;
+		return splitIndices (size, r, proportions);
+	}
+
+	/** Returns the indices of all the folds but <tt>fold</tt>, in fold order. */
+	public static int[] otherFolds (int[][] folds, int fold)
+	{
+		int size = 0;
+		for (int f = 0; f < folds.length; f++)
+			if (f != fold)
+				size += folds[f].length;
+		int[] ret = new int[size];
+		size = 0;
+		for (int f = 0; f < folds.length; f++)
+			if (f != fold) {
+				System.arraycopy (folds[f], 0, ret, size, folds[f].length);
+				size += folds[f].length;
+			}
+		return ret;
+	}
+
+	// Bytes allocated so far by the current thread, or -1 if the JVM cannot say
+	private static long threadAllocatedBytes ()
+	{
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+			if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled())
+				return sunBean.getThreadAllocatedBytes (Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	/** One trainer trained on one split, and its results once run. */
+	public class Job implements Runnable
+	{
+		int trainerIndex, trialIndex, foldIndex;
+		InstanceList training, testing, validation;
+		BitSet unlabeled;
+		byte[] serializedTrainer;						// if not null, the job trains its own copy
+		double trainAccuracy = Double.NaN, testAccuracy = Double.NaN, validationAccuracy = Double.NaN;
+		String report;
+		Throwable failure;
+		long trainMillis = -1, evaluateMillis = -1, allocatedBytes = -1;
+
+		Job (int trainerIndex, int trialIndex, int foldIndex,
+				 InstanceList training, InstanceList testing, InstanceList validation, BitSet unlabeled)
+		{
+			this.trainerIndex = trainerIndex;
+			this.trialIndex = trialIndex;
+			this.foldIndex = foldIndex;
+			this.training = training;
+			this.testing = testing;
+			this.validation = validation;
+			this.unlabeled = unlabeled;
+		}
+
+		public void run ()
+		{
+			ClassifierTrainer trainer = trainers[trainerIndex];
+			long allocated = threadAllocatedBytes ();
+			try {
+				long start = System.currentTimeMillis();
+				ClassifierTrainer copy = (serializedTrainer == null) ? trainer : deserialize (serializedTrainer);
+				System.out.println ("Trial " + trialIndex + " Training " + trainer.toString() + " with "+training.size()+" instances");
+				InstanceList trainingList = training;
+				if (unlabeled != null) {
+					trainingList = new InstanceList (training.getPipe());
+					for (int ii = 0; ii < training.size(); ii++)
+						trainingList.add (training.getInstance(ii).shallowCopy(), training.getInstanceWeight(ii));
+					trainingList.hideSomeLabels (unlabeled);
+				}
+				Classifier classifier = copy.train (trainingList);
+				System.out.println ("Trial " + trialIndex + " Training " + trainer.toString() + " finished");
+				trainMillis = System.currentTimeMillis() - start;
+				start = System.currentTimeMillis();
+				Trial trainTrial = new Trial (classifier, training);
+				Trial testTrial = (testing == null) ? null : new Trial (classifier, testing);
+				Trial validationTrial = (validation == null) ? null : new Trial (classifier, validation);
+				trainAccuracy = accuracy (trainTrial);
+				testAccuracy = accuracy (testTrial);
+				validationAccuracy = accuracy (validationTrial);
+				evaluateMillis = System.currentTimeMillis() - start;
+				report = report (this, classifier, trainTrial, testTrial, validationTrial);
+			} catch (Throwable e) {
+				// Keep what the job threw, and leave the other jobs running
+				failure = e;
+				logger.warning ("Trial "+trialIndex+" fold "+foldIndex+" with "+trainer+" failed: "+e);
+				e.printStackTrace ();
+			}
+			if (allocated >= 0)
+				allocatedBytes = threadAllocatedBytes () - allocated;
+		}
+
+		public ClassifierTrainer getTrainer () { return trainers[trainerIndex]; }
+		public int getTrainerIndex () { return trainerIndex; }
+		public int getTrialIndex () { return trialIndex; }
+		public int getFoldIndex () { return foldIndex; }
+		public InstanceList getTrainingList () { return training; }
+		public InstanceList getTestList () { return testing; }
+		public InstanceList getValidationList () { return validation; }
+		/** Returns the accuracy on the training list, or NaN if it is empty. */
+		public double getTrainAccuracy () { return trainAccuracy; }
+		/** Returns the accuracy on the test list, or NaN if it is null or empty. */
+		public double getTestAccuracy () { return testAccuracy; }
+		/** Returns the accuracy on the validation list, or NaN if it is null or empty. */
+		public double getValidationAccuracy () { return validationAccuracy; }
+		/** Returns the text kept by {@link ExperimentRunner#report}, or null. */
+		public String getReport () { return report; }
+		public long getTrainMillis () { return trainMillis; }
+		public long getEvaluateMillis () { return evaluateMillis; }
+		/** Returns what the job threw, or null if it ran to the end. */
+		public Throwable getFailure () { return failure; }
+		/** Returns the bytes allocated by the job's thread while running
+		 * it, or -1 if the JVM cannot measure them.  Threads that the
+		 * trainer or classifier start themselves are not counted. */
+		public long getAllocatedBytes () { return allocatedBytes; }
+	}
+
+}
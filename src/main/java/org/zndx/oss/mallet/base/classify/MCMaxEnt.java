@@ -22,6 +22,7 @@ import org.zndx.oss.mallet.base.types.DenseVector;
 import org.zndx.oss.mallet.base.types.FeatureSelection;
 import org.zndx.oss.mallet.base.types.FeatureVector;
 import org.zndx.oss.mallet.base.types.Instance;
+import org.zndx.oss.mallet.base.types.InstanceList;
 import org.zndx.oss.mallet.base.types.LabelAlphabet;
 import org.zndx.oss.mallet.base.types.LabelVector;
 import org.zndx.oss.mallet.base.types.MatrixOps;
@@ -145,6 +146,13 @@ public class MCMaxEnt extends Classifier implements Serializable
         }
     }
 
+    /** Scores each instance directly into its row, with no per-instance allocation. */
+    protected void getClassificationScores (InstanceList instances, int start, int end, double[][] scores)
+    {
+        for (int i = start; i < end; i++)
+            getClassificationScores (instances.getInstance (i), scores[i]);
+    }
+
     public Classification classify (Instance instance)
     {
         int numClasses = getLabelAlphabet().size();
@@ -38,9 +38,11 @@ import org.zndx.oss.mallet.base.maximize.LimitedMemoryBFGS;
 import org.zndx.oss.mallet.base.pipe.Pipe;
 import org.zndx.oss.mallet.base.util.CommandOption;
 import org.zndx.oss.mallet.base.util.MalletProgressMessageLogger;
+import org.zndx.oss.mallet.base.util.ParallelUtils;
 
 import java.util.logging.*;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 import java.io.*;
 
 // Does not currently handle instances that are labeled with distributions
@@ -74,6 +76,10 @@ public class MaxEntTrainer extends ClassifierTrainer implements Boostable, Seria
 	double hyperbolicPriorSlope = DEFAULT_HYPERBOLIC_PRIOR_SLOPE;
 	double hyperbolicPriorSharpness = DEFAULT_HYPERBOLIC_PRIOR_SHARPNESS;
 	Class maximizerClass = DEFAULT_MAXIMIZER_CLASS;
+	int numThreads = 1;
+	// Made on the first value computed with more than one thread, and kept
+	// until training finishes or the number of threads changes
+	private transient ExecutorService executor;
 
 	static CommandOption.Boolean usingHyperbolicPriorOption =
 	new CommandOption.Boolean (MaxEntTrainer.class, "useHyperbolicPrior", "true|false", false, false,
@@ -87,6 +93,9 @@ public class MaxEntTrainer extends ClassifierTrainer implements Boostable, Seria
 	static CommandOption.Double hyperbolicPriorSharpnessOption =
 	new CommandOption.Double (MaxEntTrainer.class, "hyperbolicPriorSharpness", "FLOAT", true, 10.0,
 														"Sharpness of the (L1 penalty) hyperbolic prior over parameters", null);
+	static CommandOption.Integer numThreadsOption =
+	new CommandOption.Integer (MaxEntTrainer.class, "numThreads", "INTEGER", true, 1,
+														 "Number of threads used to compute the value and gradient", null);
 	
 	static final CommandOption.List commandOptions =
 	new CommandOption.List (
@@ -96,6 +105,7 @@ public class MaxEntTrainer extends ClassifierTrainer implements Boostable, Seria
 			gaussianPriorVarianceOption,
 			hyperbolicPriorSlopeOption,
 			hyperbolicPriorSharpnessOption,
+			numThreadsOption,
 		});
 
 	public static CommandOption.List getCommandOptionList ()
@@ -117,6 +127,7 @@ public class MaxEntTrainer extends ClassifierTrainer implements Boostable, Seria
 		this.gaussianPriorVariance = gaussianPriorVarianceOption.value;
 		this.hyperbolicPriorSlope = hyperbolicPriorSlopeOption.value;
 		this.hyperbolicPriorSharpness = hyperbolicPriorSharpnessOption.value;
+		this.numThreads = numThreadsOption.value;
 	}
 
 	public MaxEntTrainer ()
@@ -201,6 +212,45 @@ public class MaxEntTrainer extends ClassifierTrainer implements Boostable, Seria
 		return this;
 	}
 
+	/**
+	 * Sets the number of threads used to compute the value and gradient.
+	 * With more than one thread, the training instances are divided into
+	 * that many contiguous shards, each of which accumulates its expectations
+	 * into a private copy of the gradient; the copies are then summed, one
+	 * block of label rows per thread, and the prior is computed the same way.
+	 * This needs (numThreads-1) extra arrays the size of the parameters.  The
+	 * value and gradient are the same as with one thread up to floating-point
+	 * summation order, and are deterministic for a fixed number of threads.
+	 * Feature induction ranks its candidate conjunctions on as many threads.
+	 * @return This trainer
+	 */
+	public synchronized MaxEntTrainer setNumThreads (int numThreads)
+	{
+		if (numThreads < 1)
+			throw new IllegalArgumentException ("numThreads must be positive, was "+numThreads);
+		if (numThreads != this.numThreads)
+			shutdownExecutor ();
+		this.numThreads = numThreads;
+		return this;
+	}
+
+	public synchronized int getNumThreads () { return numThreads; }
+
+	private synchronized ExecutorService getExecutor ()
+	{
+		if (executor == null)
+			executor = ParallelUtils.newExecutor (numThreads, "MaxEntTrainer");
+		return executor;
+	}
+
+	private synchronized void shutdownExecutor ()
+	{
+		if (executor != null) {
+			executor.shutdown ();
+			executor = null;
+		}
+	}
+
 
 	public Classifier train (InstanceList trainingSet,
 													 InstanceList validationSet,
@@ -208,33 +258,37 @@ public class MaxEntTrainer extends ClassifierTrainer implements Boostable, Seria
 													 ClassifierEvaluating evaluator,
 													 Classifier initialClassifier)
 	{
-		logger.fine ("trainingSet.size() = "+trainingSet.size());
-		MaximizableTrainer mt = new MaximizableTrainer (trainingSet, (MaxEnt)initialClassifier);
-		LimitedMemoryBFGS maximizer = new LimitedMemoryBFGS();
-
-		boolean converged;
-
-	 	for (int i = 0; i < numIterations; i++) {
-			converged = maximizer.maximize (mt, 1);
-			if (converged)
-			 	break;
-			else if (evaluator != null)
-			 	if (!evaluator.evaluate (mt.getClassifier(), converged, i, mt.getValue(),
-				 												 trainingSet, validationSet, testSet))
+		try {
+			logger.fine ("trainingSet.size() = "+trainingSet.size());
+			MaximizableTrainer mt = new MaximizableTrainer (trainingSet, (MaxEnt)initialClassifier);
+			LimitedMemoryBFGS maximizer = new LimitedMemoryBFGS();
+
+			boolean converged;
+
+		 	for (int i = 0; i < numIterations; i++) {
+				converged = maximizer.maximize (mt, 1);
+				if (converged)
 				 	break;
-		}
+				else if (evaluator != null)
+				 	if (!evaluator.evaluate (mt.getClassifier(), converged, i, mt.getValue(),
+					 												 trainingSet, validationSet, testSet))
+					 	break;
+			}
 
-    if (numIterations == Integer.MAX_VALUE) {
-      // Run it again because in our and Sam Roweis' experience, BFGS can still
-      // eek out more likelihood after first convergence by re-running without
-      // being restricted by its gradient history.
-      maximizer.reset ();
-      maximizer.maximize (mt);
-    }
-    //		TestMaximizable.testValueAndGradient (mt);
-    progressLogger.info("\n"); //  progess messages are on one line; move on.
-		logger.info("MaxEnt ngetValueCalls:"+getValueCalls()+"\nMaxEnt ngetValueGradientCalls:"+getValueGradientCalls());
-    return mt.getClassifier ();
+			if (numIterations == Integer.MAX_VALUE) {
+				// Run it again because in our and Sam Roweis' experience, BFGS can still
+				// eek out more likelihood after first convergence by re-running without
+				// being restricted by its gradient history.
+				maximizer.reset ();
+				maximizer.maximize (mt);
+			}
+			//		TestMaximizable.testValueAndGradient (mt);
+			progressLogger.info("\n"); //  progess messages are on one line; move on.
+			logger.info("MaxEnt ngetValueCalls:"+getValueCalls()+"\nMaxEnt ngetValueGradientCalls:"+getValueGradientCalls());
+			return mt.getClassifier ();
+		} finally {
+			shutdownExecutor ();
+		}
 	}
 
   /**
@@ -400,7 +454,8 @@ public class MaxEntTrainer extends ClassifierTrainer implements Boostable, Seria
                             errorInstances, 
                             numFeaturesPerFeatureInduction,
                             2*numFeaturesPerFeatureInduction,
-                            2*numFeaturesPerFeatureInduction);
+                            2*numFeaturesPerFeatureInduction,
+                            numThreads);
             
       // Note that this adds features globally, but not on a per-transition basis
       klfi.induceFeaturesFor (trainingData, false, false);
@@ -482,6 +537,9 @@ public class MaxEntTrainer extends ClassifierTrainer implements Boostable, Seria
 		int defaultFeatureIndex;						// just for clarity
 		FeatureSelection featureSelection;
 		FeatureSelection[] perLabelFeatureSelection;
+		// Per-shard expectation buffers when using more than one thread;
+		// shard 0 accumulates directly into cachedGradient.
+		double[][] shardGradients;
 		
 		public MaximizableTrainer (){}
 
@@ -602,50 +660,21 @@ public class MaxEntTrainer extends ClassifierTrainer implements Boostable, Seria
 				cachedGradientStale = true;
 				MatrixOps.setAll (cachedGradient, 0.0);
 				// Incorporate likelihood of data
-				double[] scores = new double[trainingList.getTargetAlphabet().size()];
-				double value = 0.0;
-				InstanceList.Iterator iter = trainingList.iterator();
-				int ii=0;
-				while (iter.hasNext()) {
-					ii++;
-					double instanceWeight = iter.getInstanceWeight();
-					Instance instance = iter.nextInstance();
-					Labeling labeling = instance.getLabeling ();
-          if (labeling == null)
-              continue;
-          //System.out.println("L Now "+inputAlphabet.size()+" regular features.");
-
-					this.theClassifier.getClassificationScores (instance, scores);
-					FeatureVector fv = (FeatureVector) instance.getData ();
-					int li = labeling.getBestIndex();
-					value = - (instanceWeight * Math.log (scores[li]));
-					if(Double.isNaN(value)) {
-						logger.fine ("MaxEntTrainer: Instance " + instance.getName() +
-												 "has NaN value. log(scores)= " + Math.log(scores[li]) +
-												 " scores = " + scores[li] + 
-												 " has instance weight = " + instanceWeight);
-						
-					}
-					if (Double.isInfinite(value)) {
-						logger.warning ("Instance "+instance.getSource() + " has infinite value; skipping value and gradient");
-						cachedValue -= value;
-						cachedValueStale = false;
-						return -value;
-//						continue;
-					}
-					cachedValue += value;
-					for (int si = 0; si < scores.length; si++) {
-						if (scores[si] == 0) continue;
-						assert (!Double.isInfinite(scores[si]));
-						MatrixOps.rowPlusEquals (cachedGradient, numFeatures,
-																		 si, fv, -instanceWeight * scores[si]);
-						cachedGradient[numFeatures*si + defaultFeatureIndex] += (-instanceWeight * scores[si]);
-					}
+				double value = (numThreads > 1)
+											 ? accumulateExpectationsInParallel ()
+											 : accumulateExpectations (0, trainingList.size(), cachedGradient);
+				if (Double.isInfinite(value)) {
+					cachedValue -= value;
+					cachedValueStale = false;
+					return -value;
 				}
+				cachedValue += value;
 					//logger.info ("-Expectations:"); cachedGradient.print();
 				// Incorporate prior on parameters
         double prior = 0;
-        if (usingHyperbolicPrior) {
+        if (numThreads > 1) {
+          prior = computePriorInParallel ();
+        } else if (usingHyperbolicPrior) {
 					for (int li = 0; li < numLabels; li++)
 						for (int fi = 0; fi < numFeatures; fi++)
 							prior += (hyperbolicPriorSlope / hyperbolicPriorSharpness
@@ -666,6 +695,133 @@ public class MaxEntTrainer extends ClassifierTrainer implements Boostable, Seria
 			return cachedValue;
 		}
 
+		// Runs accumulateExpectations() over numThreads shards of the training list.
+		// Leaves the "-expectations" in cachedGradient and returns the sum of the shards'
+		// negative log label probabilities, or the first infinite one, in instance order.
+		private double accumulateExpectationsInParallel ()
+		{
+			final int[] bounds = ParallelUtils.shardBoundaries (trainingList.size(), numThreads);
+			final double[] shardValues = new double [numThreads];
+			if (shardGradients == null || shardGradients.length != numThreads
+					|| shardGradients[numThreads-1].length != cachedGradient.length) {
+				shardGradients = new double [numThreads][];
+				shardGradients[0] = cachedGradient;
+				for (int shard = 1; shard < numThreads; shard++)
+					shardGradients[shard] = new double [cachedGradient.length];
+			}
+			shardGradients[0] = cachedGradient;
+
+			Runnable[] tasks = new Runnable [numThreads];
+			for (int shard = 0; shard < numThreads; shard++) {
+				final int thisShard = shard;
+				tasks[shard] = new Runnable () {
+					public void run () {
+						if (thisShard > 0)
+							MatrixOps.setAll (shardGradients[thisShard], 0.0);
+						shardValues[thisShard] = accumulateExpectations (bounds[thisShard], bounds[thisShard+1],
+																														 shardGradients[thisShard]);
+					}
+				};
+			}
+			ParallelUtils.runAll (tasks, getExecutor ());
+
+			// Sum the private buffers into cachedGradient, one block of label rows per thread
+			final int[] rowBounds = ParallelUtils.shardBoundaries (numLabels, Math.min (numThreads, numLabels));
+			Runnable[] reducers = new Runnable [rowBounds.length - 1];
+			for (int block = 0; block < reducers.length; block++) {
+				final int start = rowBounds[block] * numFeatures;
+				final int end = rowBounds[block+1] * numFeatures;
+				reducers[block] = new Runnable () {
+					public void run () {
+						for (int shard = 1; shard < shardGradients.length; shard++) {
+							double[] g = shardGradients[shard];
+							for (int i = start; i < end; i++)
+								cachedGradient[i] += g[i];
+						}
+					}
+				};
+			}
+			ParallelUtils.runAll (reducers, getExecutor ());
+
+			double value = 0;
+			for (int shard = 0; shard < numThreads; shard++) {
+				if (Double.isInfinite (shardValues[shard]))
+					return shardValues[shard];
+				value += shardValues[shard];
+			}
+			return value;
+		}
+
+		// Adds the "-expectations" of instances [start,end) into gradient, and returns
+		// the sum of their negative log label probabilities.  Stops at, and returns,
+		// the first infinite value.
+		private double accumulateExpectations (int start, int end, double[] gradient)
+		{
+			double[] scores = new double[numLabels];
+			double total = 0.0;
+			for (int ii = start; ii < end; ii++) {
+				double instanceWeight = trainingList.getInstanceWeight(ii);
+				Instance instance = trainingList.getInstance(ii);
+				Labeling labeling = instance.getLabeling ();
+				if (labeling == null)
+					continue;
+				this.theClassifier.getClassificationScores (instance, scores);
+				FeatureVector fv = (FeatureVector) instance.getData ();
+				int li = labeling.getBestIndex();
+				double value = - (instanceWeight * Math.log (scores[li]));
+				if (Double.isNaN(value)) {
+					logger.fine ("MaxEntTrainer: Instance " + instance.getName() +
+											 "has NaN value. log(scores)= " + Math.log(scores[li]) +
+											 " scores = " + scores[li] + 
+											 " has instance weight = " + instanceWeight);
+				}
+				if (Double.isInfinite(value)) {
+					logger.warning ("Instance "+instance.getSource() + " has infinite value; skipping value and gradient");
+					return value;
+				}
+				total += value;
+				for (int si = 0; si < scores.length; si++) {
+					if (scores[si] == 0) continue;
+					assert (!Double.isInfinite(scores[si]));
+					MatrixOps.rowPlusEquals (gradient, numFeatures,
+																	 si, fv, -instanceWeight * scores[si]);
+					gradient[numFeatures*si + defaultFeatureIndex] += (-instanceWeight * scores[si]);
+				}
+			}
+			return total;
+		}
+
+		// The prior term of getValue(), one block of label rows per thread
+		private double computePriorInParallel ()
+		{
+			final int[] rowBounds = ParallelUtils.shardBoundaries (numLabels, Math.min (numThreads, numLabels));
+			final double[] blockPriors = new double [rowBounds.length - 1];
+			Runnable[] tasks = new Runnable [blockPriors.length];
+			for (int block = 0; block < tasks.length; block++) {
+				final int thisBlock = block;
+				tasks[block] = new Runnable () {
+					public void run () {
+						double prior = 0;
+						for (int li = rowBounds[thisBlock]; li < rowBounds[thisBlock+1]; li++)
+							for (int fi = 0; fi < numFeatures; fi++) {
+								double param = parameters[li*numFeatures + fi];
+								if (usingHyperbolicPrior)
+									prior += (hyperbolicPriorSlope / hyperbolicPriorSharpness
+														* Math.log (Maths.cosh (hyperbolicPriorSharpness * param)));
+								else
+									prior += param * param / (2 * gaussianPriorVariance);
+							}
+						blockPriors[thisBlock] = prior;
+					}
+				};
+			}
+			ParallelUtils.runAll (tasks, getExecutor ());
+			double prior = 0;
+			for (int block = 0; block < blockPriors.length; block++)
+				prior += blockPriors[block];
+			return prior;
+		}
+
 		public void getValueGradient (double [] buffer)
 		{
 			// Gradient is (constraint - expectation - parameters/gaussianPriorVariance)
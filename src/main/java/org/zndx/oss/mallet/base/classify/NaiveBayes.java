@@ -133,6 +133,21 @@ public class NaiveBayes extends Classifier implements Serializable
         * @return Classification containing the labeling of  the instance
         */
   public Classification classify (Instance instance)
+  {
+    int numClasses = getLabelAlphabet().size();
+    double[] scores = new double[numClasses];
+    getClassificationScores (instance, scores);
+    // Create and return a Classification object
+    return new Classification (instance, this,
+                               new LabelVector (getLabelAlphabet(),
+                                                scores));
+  }
+
+  /**
+   * Puts the normalized class probabilities of an instance into <tt>scores</tt>,
+   * which must have length <tt>getLabelAlphabet().size()</tt>.
+   */
+  public void getClassificationScores (Instance instance, double[] scores)
   {
         // Note that the current size of the label alphabet can be larger
       // than it was at the time of training.  We are careful here
@@ -140,7 +155,7 @@ public class NaiveBayes extends Classifier implements Serializable
       // we assume the log prior probability of those classes is
       // minus infinity.
     int numClasses = getLabelAlphabet().size();
-    double[] scores = new double[numClasses];
+    assert (scores.length == numClasses);
     FeatureVector fv = (FeatureVector) instance.getData (this.instancePipe);
     // Make sure the feature vector's feature dictionary matches
     // what we are expecting from our data pipe (and thus our notion
@@ -149,6 +164,7 @@ public class NaiveBayes extends Classifier implements Serializable
             || fv.getAlphabet () == instancePipe.getDataAlphabet ());
     int fvisize = fv.numLocations();
 
+    Arrays.fill (scores, 0.0);
     prior.addLogProbabilities (scores);
 
          // Set the scores according to the feature weights and per-class probabilities
@@ -177,11 +193,13 @@ public class NaiveBayes extends Classifier implements Serializable
       sum += (scores[ci] = Math.exp (scores[ci]));
     for (int ci = 0; ci < numClasses; ci++)
       scores[ci] /= sum;
+  }
 
-    // Create and return a Classification object
-    return new Classification (instance, this,
-                               new LabelVector (getLabelAlphabet(),
-                                                scores));
+  /** Scores each instance directly into its row, with no per-instance allocation. */
+  protected void getClassificationScores (InstanceList instances, int start, int end, double[][] scores)
+  {
+    for (int i = start; i < end; i++)
+      getClassificationScores (instances.getInstance (i), scores[i]);
   }
 
 
@@ -21,6 +21,7 @@ import org.zndx.oss.mallet.base.types.LabelVector;
 import org.zndx.oss.mallet.base.types.Multinomial;
 import org.zndx.oss.mallet.base.types.FeatureSelection;
 import org.zndx.oss.mallet.base.pipe.Pipe;
+import org.zndx.oss.mallet.base.util.ParallelUtils;
 
 import java.io.Serializable;
 import java.io.ObjectOutputStream;
@@ -73,6 +74,8 @@ public class NaiveBayesTrainer extends IncrementalClassifierTrainer implements B
     Alphabet dataAlphabet;    // Extracted from InstanceList. Must be the same for all calls to incrementalTrain()
     Alphabet targetAlphabet; // Extracted from InstanceList. Must be the same for all calls to incrementalTrain
 
+    int numThreads = 1;
+
     /**
      *  Get the MultinomialEstimator instance used to specify the type of estimator
      *  for features.
@@ -129,6 +132,24 @@ public class NaiveBayesTrainer extends IncrementalClassifierTrainer implements B
 		priorEstimator = me;
 	}
 
+    /**
+     * Sets the number of threads used to count features.  Each thread
+     * counts a contiguous slice of the training list into its own
+     * estimators, which are then merged, so this needs (numThreads-1)
+     * extra sets of per-class counts.
+     */
+    public void setNumThreads (int numThreads)
+    {
+        if (numThreads < 1)
+            throw new IllegalArgumentException ("numThreads must be positive, was "+numThreads);
+        this.numThreads = numThreads;
+    }
+
+    public int getNumThreads ()
+    {
+        return numThreads;
+    }
+
     /**
      * clears the internal state of the trainer.
      * Called automatically at the end of train()
@@ -207,11 +228,114 @@ public class NaiveBayesTrainer extends IncrementalClassifierTrainer implements B
         if (instancePipe == null){
             // first call to incremntalTrain() in this instance of NaiveBayesTrainer.
             // Save arguments in members
-		    instancePipe = trainingList.getPipe ();
-            dataAlphabet = trainingList.getDataAlphabet();
-            targetAlphabet = trainingList.getTargetAlphabet();
+            setup (trainingList.getPipe (), trainingList.getDataAlphabet(), trainingList.getTargetAlphabet());
+        }else{
+            // >1st call.  Train starting with counts accumlated from previous train() calls.
+            // check that alphabets and pipe are the same
+            // Should this be done with exceptions instead of asserts?  Java recommended
+            // style would be to use exceptions.  However, other Mallet code uses assert
+            // to check arguments, so..
+            if (instancePipe != trainingList.getPipe())
+                throw new IllegalArgumentException(
+                      "Instance pipe differs from that used in previous call to incrementalTrain()");
+            if (dataAlphabet != trainingList.getDataAlphabet())
+                 throw new IllegalArgumentException(
+                         "Data Alphabet differs from that used on previous call to incrementalTrain()");
+            if (targetAlphabet != trainingList.getTargetAlphabet())
+                throw new IllegalArgumentException(
+                     "Target Alphabet differs from that used on previous call to incrementalTrain()");
+
+            growLabels ();
+        }
 
-            int numLabels = targetAlphabet.size();
+        if (numThreads > 1 && trainingList.size() > 1)
+            countInParallel (trainingList);
+        else
+            count (trainingList, 0, trainingList.size(), me, pe);
+
+        // note that state is saved in member variables that will be added
+        // to on next call to incrementalTrain()
+
+		return getClassifier ();
+	}
+
+    /**
+     * Adds the counts of another NaiveBayesTrainer to this one's, as though
+     * this trainer had also been incrementally trained on all of the data
+     * given to <tt>other</tt>.  This lets independent shards of the data,
+     * for example separate files, be counted by separate trainers, in
+     * other threads or processes, and then combined; and it lets an existing
+     * model be updated with new shards without recounting the old data.
+     * <p>
+     * If the trainers' Alphabets are different objects, as they are when the
+     * trainers were built in different processes, counts are matched by
+     * feature and label entry, and new entries are added to this trainer's
+     * Alphabets.
+     * If this trainer has not been trained, it takes a copy of the pipe of
+     * <tt>other</tt>, with copies of its Alphabets, so that later merges
+     * never add entries to the Alphabets of <tt>other</tt>.
+     * Call <tt>getClassifier()</tt> for the classifier from the merged counts.
+     */
+    public void merge (NaiveBayesTrainer other)
+    {
+        if (other.instancePipe == null)
+            return;
+        if (instancePipe == null) {
+            if (other.dataAlphabet != other.instancePipe.getDataAlphabet()
+                || other.targetAlphabet != other.instancePipe.getTargetAlphabet())
+                throw new IllegalArgumentException ("The Alphabets of the trainer to merge are not those of its pipe");
+            Pipe pipe;
+            try {
+                pipe = other.instancePipe.deepCopy (true);
+            } catch (IOException e) {
+                throw new IllegalArgumentException ("Couldn't copy the pipe of the trainer to merge: "+e);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException ("Couldn't copy the pipe of the trainer to merge: "+e);
+            }
+            setup (pipe, pipe.getDataAlphabet(), pipe.getTargetAlphabet());
+        }
+
+        int otherNumLabels = other.me.length;
+        int[] labelMap = new int[otherNumLabels];
+        for (int li = 0; li < otherNumLabels; li++)
+            labelMap[li] = (other.targetAlphabet == targetAlphabet)
+                           ? li : targetAlphabet.lookupIndex (other.targetAlphabet.lookupObject (li));
+        growLabels ();
+
+        for (int li = 0; li < otherNumLabels; li++) {
+            if (labelMap[li] < 0)
+                continue;
+            me[labelMap[li]].increment (other.me[li]);
+            if (li < other.pe.size())
+                pe.increment (labelMap[li], other.pe.getCount (li));
+        }
+    }
+
+    /**
+     * Returns a NaiveBayes classifier estimated from all of the counts
+     * accumulated so far by incrementalTrain() and merge().
+     */
+    public NaiveBayes getClassifier ()
+    {
+        if (instancePipe == null)
+            throw new IllegalStateException ("No training data has been counted");
+        int numLabels = me.length;
+		Multinomial[] m = new Multinomial[numLabels];
+		for (int li = 0; li < numLabels; li++) {
+			//me[li].print (); // debugging
+			m[li] = me[li].estimate();
+		}
+		return new NaiveBayes (instancePipe, pe.estimate(), m);
+    }
+
+    // Saves the pipe and Alphabets, and creates empty estimators for them.
+    private void setup (Pipe pipe, Alphabet dataAlphabet, Alphabet targetAlphabet)
+    {
+        instancePipe = pipe;
+        this.dataAlphabet = dataAlphabet;
+        this.targetAlphabet = targetAlphabet;
+
+        int numLabels = targetAlphabet.size();
 
 	    // ugly, but works - gdruck
 	    // now we can set the featureEstimator type!
@@ -228,30 +352,29 @@ public class NaiveBayesTrainer extends IncrementalClassifierTrainer implements B
             	me = new Multinomial.MEstimator[numLabels];
             }
 
-            for (int i = 0; i < numLabels; i++) {
-                Multinomial.Estimator mest = (Multinomial.Estimator)featureEstimator.clone ();
-                mest.setAlphabet (dataAlphabet);
-                me[i] = mest;
-            }
+            for (int i = 0; i < numLabels; i++)
+                me[i] = newFeatureEstimator ();
 
-            pe = (Multinomial.Estimator) priorEstimator.clone ();
+            pe = newPriorEstimator ();
+    }
 
-        }else{
-            // >1st call.  Train starting with counts accumlated from previous train() calls.
-            // check that alphabets and pipe are the same
-            // Should this be done with exceptions instead of asserts?  Java recommended
-            // style would be to use exceptions.  However, other Mallet code uses assert
-            // to check arguments, so..
-            if (instancePipe != trainingList.getPipe())
-                throw new IllegalArgumentException(
-                      "Instance pipe differs from that used in previous call to incrementalTrain()");
-            if (dataAlphabet != trainingList.getDataAlphabet())
-                 throw new IllegalArgumentException(
-                         "Data Alphabet differs from that used on previous call to incrementalTrain()");
-            if (targetAlphabet != trainingList.getTargetAlphabet())
-                throw new IllegalArgumentException(
-                     "Target Alphabet differs from that used on previous call to incrementalTrain()");
+    private Multinomial.Estimator newFeatureEstimator ()
+    {
+        Multinomial.Estimator mest = (Multinomial.Estimator)featureEstimator.clone ();
+        mest.setAlphabet (dataAlphabet);
+        return mest;
+    }
+
+    private Multinomial.Estimator newPriorEstimator ()
+    {
+        Multinomial.Estimator mest = (Multinomial.Estimator) priorEstimator.clone ();
+        mest.reset ();
+        return mest;
+    }
 
+    // Adds estimators for labels added to the target alphabet since the last call.
+    private void growLabels ()
+    {
             if (targetAlphabet.size() > me.length){
                 // target alphabet grew. increase size of our multinomial array
 
@@ -262,23 +385,21 @@ public class NaiveBayesTrainer extends IncrementalClassifierTrainer implements B
                 System.arraycopy (me, 0, newMe, 0, me.length);
 
                 // initialize new expanded space
-                for (int i= me.length; i<targetAlphabetSize; i++){
-                    Multinomial.Estimator mest = (Multinomial.Estimator)featureEstimator.clone ();
-                    mest.setAlphabet (dataAlphabet);
-                    newMe[i] = mest;
-                }
+                for (int i= me.length; i<targetAlphabetSize; i++)
+                    newMe[i] = newFeatureEstimator ();
 
                 me = newMe;
 
             }
-        }
-
-        int numLabels = targetAlphabet.size();
+    }
 
-		InstanceList.Iterator iter = trainingList.iterator();
-		while (iter.hasNext()) {
-			double instanceWeight = iter.getInstanceWeight();
-			Instance inst = iter.nextInstance();
+    // Counts instances start (inclusive) to end (exclusive) into the given estimators.
+    private void count (InstanceList trainingList, int start, int end,
+                        Multinomial.Estimator[] me, Multinomial.Estimator pe)
+    {
+		for (int i = start; i < end; i++) {
+			double instanceWeight = trainingList.getInstanceWeight(i);
+			Instance inst = trainingList.getInstance(i);
 			Labeling labeling = inst.getLabeling ();
       if (labeling == null)
         continue;
@@ -293,17 +414,42 @@ public class NaiveBayesTrainer extends IncrementalClassifierTrainer implements B
 				pe.increment (li, labelWeight * instanceWeight);
 			}
 		}
-		Multinomial[] m = new Multinomial[numLabels];
-		for (int li = 0; li < numLabels; li++) {
-			//me[li].print (); // debugging
-			m[li] = me[li].estimate();
-		}
+    }
 
-        // note that state is saved in member variables that will be added
-        // to on next call to incrementalTrain()
+    // Counts numThreads slices of the list concurrently.  The first slice is
+    // counted into the trainer's estimators, and the others into new ones that
+    // are then merged in slice order, so results do not depend on scheduling.
+    private void countInParallel (final InstanceList trainingList)
+    {
+        final int[] bounds = ParallelUtils.shardBoundaries (trainingList.size(), numThreads);
+        final Multinomial.Estimator[][] shardMe = new Multinomial.Estimator[numThreads][];
+        final Multinomial.Estimator[] shardPe = new Multinomial.Estimator[numThreads];
+        shardMe[0] = me;
+        shardPe[0] = pe;
+        for (int shard = 1; shard < numThreads; shard++) {
+            shardMe[shard] = new Multinomial.Estimator[me.length];
+            for (int li = 0; li < me.length; li++)
+                shardMe[shard][li] = newFeatureEstimator ();
+            shardPe[shard] = newPriorEstimator ();
+        }
 
-		return new NaiveBayes (instancePipe, pe.estimate(), m);
-	}
+        Runnable[] tasks = new Runnable[numThreads];
+        for (int shard = 0; shard < numThreads; shard++) {
+            final int s = shard;
+            tasks[shard] = new Runnable () {
+                public void run () {
+                    count (trainingList, bounds[s], bounds[s+1], shardMe[s], shardPe[s]);
+                }
+            };
+        }
+        ParallelUtils.runAll (tasks, numThreads);
+
+        for (int shard = 1; shard < numThreads; shard++) {
+            for (int li = 0; li < me.length; li++)
+                me[li].increment (shardMe[shard][li]);
+            pe.increment (shardPe[shard]);
+        }
+    }
 
 	public String toString()
 	{
@@ -0,0 +1,438 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+ This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ http://www.cs.umass.edu/~mccallum/mallet
+ This software is provided under the terms of the Common Public License,
+ version 1.0, as published by http://www.opensource.org.  For further
+ information, see the file `LICENSE' included with this distribution. */
+
+
+
+
+package org.zndx.oss.mallet.base.classify;
+
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Logger;
+
+import org.zndx.oss.mallet.base.types.FeatureSelection;
+import org.zndx.oss.mallet.base.types.FeatureVector;
+import org.zndx.oss.mallet.base.types.GainRatio;
+import org.zndx.oss.mallet.base.types.InfoGain;
+import org.zndx.oss.mallet.base.types.Instance;
+import org.zndx.oss.mallet.base.types.InstanceList;
+import org.zndx.oss.mallet.base.types.Labeling;
+import org.zndx.oss.mallet.base.util.MalletLogger;
+import org.zndx.oss.mallet.base.util.ParallelUtils;
+
+/**
+ * Grows {@link C45} and {@link DecisionTree} nodes from feature columns
+ * built once for the whole training list, instead of sorting or counting
+ * every node's instances feature by feature.<p>
+ *
+ * Column <i>fi</i> lists the instances with a non-zero value for feature
+ * <i>fi</i>: for C45, sorted by value and then by instance index; for
+ * DecisionTree, the instances with a positive value in index order.  The
+ * instances of a node occupy one contiguous segment of each column, and
+ * splitting a node partitions each of its segments in place, stably, into
+ * the segments of its two children.  The features of a node are scored
+ * on several threads, and the partitioning is too.<p>
+ *
+ * The trees grown are the same as those grown by splitting the nodes
+ * directly; see {@link GainRatio#createGainRatio(InstanceList, int[], int,
+ * int[][], double[][], int[], int[], String[], GainRatio.ScanStamps,
+ * ExecutorService, int)} for
+ * the one exception.  The columns take memory in proportion to the number
+ * of non-zero values in the list.
+ *
+ * @see C45Trainer
+ * @see DecisionTreeTrainer
+ */
+public class PresortedSplitSearch
+{
+	private static Logger logger = MalletLogger.getLogger(PresortedSplitSearch.class.getName());
+
+	/** The instances of a node and the bounds of their column segments */
+	static class Segments
+	{
+		int[] instIndices;
+		int[] starts;
+		int[] ends;
+
+		Segments(int[] instIndices, int[] starts, int[] ends)
+		{
+			this.instIndices = instIndices;
+			this.starts = starts;
+			this.ends = ends;
+		}
+	}
+
+	InstanceList ilist;
+	boolean sortByValue;
+	int numFeatures;
+	int numThreads;
+	int[][] columnInstances;
+	double[][] columnValues;
+	String[] labelNames;
+	// Marks the instances of a column while scanning it, one array per thread
+	GainRatio.ScanStamps stamps;
+	// Whether each instance goes to the first child in the current split
+	boolean[] toFirstChild;
+	ExecutorService executor;
+	int minNumInsts;
+
+	/**
+	 * @param sortByValue sort the columns by value, as needed for C45,
+	 * rather than keep only the positive values, as for DecisionTree
+	 */
+	public PresortedSplitSearch(InstanceList ilist, boolean sortByValue, int numThreads)
+	{
+		if (numThreads < 1)
+			throw new IllegalArgumentException("numThreads must be positive, was " + numThreads);
+		this.ilist = ilist;
+		this.sortByValue = sortByValue;
+		this.numFeatures = ilist.getDataAlphabet().size();
+		this.numThreads = numThreads;
+		this.toFirstChild = new boolean[ilist.size()];
+		if (numThreads > 1)
+			executor = ParallelUtils.newExecutor(numThreads, "PresortedSplitSearch");
+		long time = System.currentTimeMillis();
+		buildColumns();
+		logger.info("Built feature columns in " + (System.currentTimeMillis() - time) / 1000.0 + " seconds");
+	}
+
+	/** Stops the worker threads.  Nodes grown by this search can no longer be split. */
+	public void shutdown()
+	{
+		if (executor != null)
+			executor.shutdown();
+		executor = null;
+		columnInstances = null;
+		columnValues = null;
+		stamps = null;
+	}
+
+	private boolean inColumn(double value)
+	{
+		return sortByValue ? value != 0 : value > 0;
+	}
+
+	private void buildColumns()
+	{
+		int[] sizes = new int[numFeatures];
+		for (int i = 0; i < ilist.size(); i++) {
+			FeatureVector fv = (FeatureVector) ilist.getInstance(i).getData();
+			for (int fl = 0; fl < fv.numLocations(); fl++)
+				if (inColumn(fv.valueAtLocation(fl)))
+					sizes[fv.indexAtLocation(fl)]++;
+		}
+		columnInstances = new int[numFeatures][];
+		if (sortByValue)
+			columnValues = new double[numFeatures][];
+		for (int fi = 0; fi < numFeatures; fi++) {
+			columnInstances[fi] = new int[sizes[fi]];
+			if (sortByValue)
+				columnValues[fi] = new double[sizes[fi]];
+			sizes[fi] = 0;
+		}
+		for (int i = 0; i < ilist.size(); i++) {
+			FeatureVector fv = (FeatureVector) ilist.getInstance(i).getData();
+			for (int fl = 0; fl < fv.numLocations(); fl++) {
+				double value = fv.valueAtLocation(fl);
+				if (inColumn(value)) {
+					int fi = fv.indexAtLocation(fl);
+					if (sortByValue)
+						columnValues[fi][sizes[fi]] = value;
+					columnInstances[fi][sizes[fi]++] = i;
+				}
+			}
+		}
+		if (!sortByValue)
+			return;
+
+		labelNames = new String[ilist.size()];
+		for (int i = 0; i < ilist.size(); i++)
+			labelNames[i] = ilist.getInstance(i).getLabeling().toString();
+		stamps = new GainRatio.ScanStamps(ilist.size(), numThreads);
+
+		// The columns are filled in instance order, so a stable sort by
+		// value leaves equal values in instance order
+		int[] bounds = ParallelUtils.shardBoundaries(numFeatures, numThreads);
+		Runnable[] tasks = new Runnable[numThreads];
+		for (int t = 0; t < numThreads; t++) {
+			final int start = bounds[t], end = bounds[t+1];
+			tasks[t] = new Runnable() {
+				public void run() {
+					int[] tmpInsts = new int[0];
+					double[] tmpValues = new double[0];
+					for (int fi = start; fi < end; fi++) {
+						int[] insts = columnInstances[fi];
+						double[] values = columnValues[fi];
+						if (isSorted(values))
+							continue;
+						if (tmpInsts.length < insts.length) {
+							tmpInsts = new int[insts.length];
+							tmpValues = new double[insts.length];
+						}
+						sortByValue(insts, values, tmpInsts, tmpValues, 0, insts.length);
+					}
+				}
+			};
+		}
+		run(tasks);
+	}
+
+	private static boolean isSorted(double[] values)
+	{
+		for (int k = 1; k < values.length; k++)
+			if (values[k] < values[k-1])
+				return false;
+		return true;
+	}
+
+	// Stable merge sort of insts[lo,hi) and values[lo,hi) by value
+	private static void sortByValue(int[] insts, double[] values, int[] tmpInsts, double[] tmpValues, int lo, int hi)
+	{
+		if (hi - lo < 2)
+			return;
+		int mid = (lo + hi) >>> 1;
+		sortByValue(insts, values, tmpInsts, tmpValues, lo, mid);
+		sortByValue(insts, values, tmpInsts, tmpValues, mid, hi);
+		if (values[mid-1] <= values[mid])
+			return;
+		System.arraycopy(insts, lo, tmpInsts, lo, hi - lo);
+		System.arraycopy(values, lo, tmpValues, lo, hi - lo);
+		int a = lo, b = mid;
+		for (int k = lo; k < hi; k++) {
+			if (b >= hi || (a < mid && tmpValues[a] <= tmpValues[b])) {
+				insts[k] = tmpInsts[a];
+				values[k] = tmpValues[a++];
+			}
+			else {
+				insts[k] = tmpInsts[b];
+				values[k] = tmpValues[b++];
+			}
+		}
+	}
+
+	private void run(Runnable[] tasks)
+	{
+		if (executor == null) {
+			for (int t = 0; t < tasks.length; t++)
+				tasks[t].run();
+		}
+		else
+			ParallelUtils.runAll(tasks, executor);
+	}
+
+	private Segments rootSegments()
+	{
+		int[] instIndices = new int[ilist.size()];
+		for (int ii = 0; ii < instIndices.length; ii++)
+			instIndices[ii] = ii;
+		int[] starts = new int[numFeatures];
+		int[] ends = new int[numFeatures];
+		for (int fi = 0; fi < numFeatures; fi++)
+			ends[fi] = columnInstances[fi].length;
+		return new Segments(instIndices, starts, ends);
+	}
+
+	/**
+	 * Splits the segments of a node into those of the instances marked in
+	 * toFirstChild and those of the rest, keeping the order of each.
+	 */
+	private Segments[] partition(final Segments segments, int numFirst)
+	{
+		int[] firstIndices = new int[numFirst];
+		int[] secondIndices = new int[segments.instIndices.length - numFirst];
+		for (int ii = 0, f = 0, s = 0; ii < segments.instIndices.length; ii++) {
+			int i = segments.instIndices[ii];
+			if (toFirstChild[i])
+				firstIndices[f++] = i;
+			else
+				secondIndices[s++] = i;
+		}
+		final Segments first = new Segments(firstIndices, segments.starts, new int[numFeatures]);
+		final Segments second = new Segments(secondIndices, first.ends, segments.ends);
+
+		int[] bounds = ParallelUtils.shardBoundaries(numFeatures, executor == null ? 1 : numThreads);
+		Runnable[] tasks = new Runnable[bounds.length - 1];
+		for (int t = 0; t < tasks.length; t++) {
+			final int start = bounds[t], end = bounds[t+1];
+			tasks[t] = new Runnable() {
+				public void run() {
+					int[] tmpInsts = new int[0];
+					double[] tmpValues = new double[0];
+					for (int fi = start; fi < end; fi++) {
+						int[] insts = columnInstances[fi];
+						double[] values = sortByValue ? columnValues[fi] : null;
+						int lo = segments.starts[fi], hi = segments.ends[fi];
+						if (tmpInsts.length < hi - lo) {
+							tmpInsts = new int[hi - lo];
+							if (values != null)
+								tmpValues = new double[hi - lo];
+						}
+						int w = lo, r = 0;
+						for (int k = lo; k < hi; k++) {
+							if (toFirstChild[insts[k]]) {
+								if (values != null)
+									values[w] = values[k];
+								insts[w++] = insts[k];
+							}
+							else {
+								if (values != null)
+									tmpValues[r] = values[k];
+								tmpInsts[r++] = insts[k];
+							}
+						}
+						System.arraycopy(tmpInsts, 0, insts, w, r);
+						if (values != null)
+							System.arraycopy(tmpValues, 0, values, w, r);
+						first.ends[fi] = w;
+					}
+				}
+			};
+		}
+		run(tasks);
+		return new Segments[] {first, second};
+	}
+
+	// C45
+
+	/**
+	 * Returns the root of a C45 tree over the whole list, whose nodes are
+	 * split by this search.
+	 */
+	public C45.Node newC45Root(int minNumInsts)
+	{
+		if (!sortByValue)
+			throw new IllegalStateException("C45 needs columns sorted by value");
+		this.minNumInsts = minNumInsts;
+		return newC45Node(null, rootSegments());
+	}
+
+	private C45.Node newC45Node(C45.Node parent, Segments segments)
+	{
+		GainRatio gainRatio = GainRatio.createGainRatio(ilist, segments.instIndices, minNumInsts,
+				columnInstances, columnValues, segments.starts, segments.ends, labelNames, stamps, executor, numThreads);
+		C45.Node node = new C45.Node(ilist, parent, minNumInsts, segments.instIndices, gainRatio);
+		node.m_search = this;
+		node.m_segments = segments;
+		return node;
+	}
+
+	void split(C45.Node node)
+	{
+		if (columnInstances == null)
+			throw new IllegalStateException("Search has been shut down");
+		int featureIndex = node.getGainRatio().getMaxValuedIndex();
+		double threshold = node.getGainRatio().getMaxValuedThreshold();
+		int[] instIndices = node.m_instIndices;
+		int numLeftChildren = 0;
+		for (int ii = 0; ii < instIndices.length; ii++) {
+			FeatureVector fv = (FeatureVector) ilist.getInstance(instIndices[ii]).getData();
+			toFirstChild[instIndices[ii]] = fv.value(featureIndex) <= threshold;
+			if (toFirstChild[instIndices[ii]])
+				numLeftChildren++;
+		}
+		logger.info("leftChild.size=" + numLeftChildren
+				+ " rightChild.size=" + (instIndices.length-numLeftChildren));
+		Segments[] children = partition(node.m_segments, numLeftChildren);
+		node.m_segments = null;
+		node.m_leftChild = newC45Node(node, children[0]);
+		node.m_rightChild = newC45Node(node, children[1]);
+	}
+
+	// DecisionTree
+
+	/**
+	 * Returns the root of a DecisionTree over the whole list, whose nodes
+	 * are split by this search.
+	 */
+	public DecisionTree.Node newDecisionTreeRoot(FeatureSelection fs)
+	{
+		if (sortByValue)
+			throw new IllegalStateException("DecisionTree needs columns of positive values");
+		return newDecisionTreeNode(null, rootSegments(), fs);
+	}
+
+	private DecisionTree.Node newDecisionTreeNode(DecisionTree.Node parent, Segments segments, FeatureSelection fs)
+	{
+		DecisionTree.Node node = new DecisionTree.Node(calcInfoGain(segments), ilist.getDataAlphabet(), parent, fs);
+		node.search = this;
+		node.segments = segments;
+		return node;
+	}
+
+	// Counts the label weights as InfoGain does, and in the same order
+	private InfoGain calcInfoGain(final Segments segments)
+	{
+		int numClasses = ilist.getTargetAlphabet().size();
+		final double[][] targetFeatureCount = new double[numClasses][numFeatures];
+		final double[] featureCountSum = new double[numFeatures];
+		double[] targetCount = new double[numClasses];
+		double targetCountSum = 0;
+
+		for (int ii = 0; ii < segments.instIndices.length; ii++) {
+			int i = segments.instIndices[ii];
+			Labeling labeling = ilist.getInstance(i).getLabeling();
+			double instanceWeight = ilist.getInstanceWeight(i);
+			double labelWeightSum = 0;
+			for (int ll = 0; ll < labeling.numLocations(); ll++) {
+				double labelWeight = labeling.valueAtLocation(ll);
+				labelWeightSum += labelWeight;
+				if (labelWeight == 0) continue;
+				double count = labelWeight * instanceWeight;
+				targetCount[labeling.indexAtLocation(ll)] += count;
+				targetCountSum += count;
+			}
+			assert (Math.abs (labelWeightSum - 1.0) < 0.0001);
+		}
+
+		int[] bounds = ParallelUtils.shardBoundaries(numFeatures, executor == null ? 1 : numThreads);
+		Runnable[] tasks = new Runnable[bounds.length - 1];
+		for (int t = 0; t < tasks.length; t++) {
+			final int start = bounds[t], end = bounds[t+1];
+			tasks[t] = new Runnable() {
+				public void run() {
+					for (int fi = start; fi < end; fi++) {
+						int[] insts = columnInstances[fi];
+						for (int k = segments.starts[fi]; k < segments.ends[fi]; k++) {
+							Labeling labeling = ilist.getInstance(insts[k]).getLabeling();
+							double instanceWeight = ilist.getInstanceWeight(insts[k]);
+							for (int ll = 0; ll < labeling.numLocations(); ll++) {
+								double labelWeight = labeling.valueAtLocation(ll);
+								if (labelWeight == 0) continue;
+								double count = labelWeight * instanceWeight;
+								targetFeatureCount[labeling.indexAtLocation(ll)][fi] += count;
+								featureCountSum[fi] += count;
+							}
+						}
+					}
+				}
+			};
+		}
+		run(tasks);
+
+		return new InfoGain(ilist, targetFeatureCount, featureCountSum, targetCount, targetCountSum);
+	}
+
+	void split(DecisionTree.Node node, FeatureSelection fs)
+	{
+		if (columnInstances == null)
+			throw new IllegalStateException("Search has been shut down");
+		int[] instIndices = node.segments.instIndices;
+		int numPresent = 0;
+		for (int ii = 0; ii < instIndices.length; ii++) {
+			Instance instance = ilist.getInstance(instIndices[ii]);
+			FeatureVector fv = (FeatureVector) instance.getData();
+			toFirstChild[instIndices[ii]] = fv.value(node.featureIndex) != 0;
+			if (toFirstChild[instIndices[ii]])
+				numPresent++;
+		}
+		logger.info("child0=" + (instIndices.length - numPresent) + " child1=" + numPresent);
+		Segments[] children = partition(node.segments, numPresent);
+		node.segments = null;
+		node.child0 = newDecisionTreeNode(node, children[1], fs);
+		node.child1 = newDecisionTreeNode(node, children[0], fs);
+	}
+
+}
@@ -0,0 +1,350 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+
+
+
+
+package org.zndx.oss.mallet.base.classify;
+
+import org.zndx.oss.mallet.base.types.Instance;
+import org.zndx.oss.mallet.base.types.InstanceList;
+import org.zndx.oss.mallet.base.types.FeatureVector;
+import org.zndx.oss.mallet.base.types.Labeling;
+import org.zndx.oss.mallet.base.pipe.Pipe;
+import org.zndx.oss.mallet.base.pipe.iterator.PipeInputIterator;
+import org.zndx.oss.mallet.base.util.MalletLogger;
+
+import java.util.logging.*;
+import java.util.Arrays;
+
+/**
+ * Trains a Maximum Entropy classifier by stochastic gradient descent,
+ * one instance at a time, so that the training data never has to be
+ * held in memory as an InstanceList.
+ * <p>
+ * Raw instances are read from a PipeInputIterator and sent through the
+ * Pipe as they are consumed.  For more than one pass over the data, give
+ * an {@link InstanceSource} that can re-open the data from the
+ * beginning.  The data and target Alphabets may grow during the first
+ * pass; the result is a standard {@link MaxEnt} over the final Alphabets.
+ * <p>
+ * The L2 penalty (the Gaussian prior of MaxEntTrainer) is applied lazily:
+ * the weights of a feature are only decayed when the feature next occurs,
+ * or at the end of a pass, so each step costs time proportional to the
+ * number of non-zero features of the instance.  By default the returned
+ * classifier uses the average of the weights over all steps, which is
+ * much less sensitive to the order of the data and the learning rate than
+ * the final weights.  The learning rate is held constant within a pass and
+ * decreased between passes.
+ * <p>
+ * The data is not shuffled, so it should not be sorted by label.
+ */
+public class StreamingMaxEntTrainer extends ClassifierTrainer
+{
+	private static Logger logger = MalletLogger.getLogger(StreamingMaxEntTrainer.class.getName());
+
+	static final double DEFAULT_LEARNING_RATE = 0.1;
+	static final double DEFAULT_L2_WEIGHT = 1e-5;
+	static final int DEFAULT_NUM_PASSES = 5;
+
+	/** Re-openable supply of unpiped training instances, for training over several passes. */
+	public interface InstanceSource
+	{
+		/** Returns a new iterator over the whole data, from the beginning. */
+		public PipeInputIterator newIterator ();
+	}
+
+	double learningRate = DEFAULT_LEARNING_RATE;
+	double l2Weight = DEFAULT_L2_WEIGHT;
+	int numPasses = DEFAULT_NUM_PASSES;
+	boolean averaging = true;
+
+	// Training state.  Row 0 holds the default feature, and row fi+1
+	// holds data feature fi; each row is indexed by label.
+	double[][] weights;
+	double[][] weightSums;
+	long[] lastStep;									// step at which each row was last brought up to date
+	int numRows;
+	long step;												// steps in the current pass
+	long totalSteps;									// steps in all passes, for averaging
+	double decay;											// per-step L2 decay factor in the current pass
+	double passRate;									// learning rate in the current pass
+
+	public StreamingMaxEntTrainer ()
+	{
+	}
+
+	/** Sets the learning rate of the first pass.  Pass p uses learningRate/(1+p). */
+	public StreamingMaxEntTrainer setLearningRate (double learningRate)
+	{
+		this.learningRate = learningRate;
+		return this;
+	}
+
+	/**
+	 * Sets the per-instance weight of the L2 penalty.  Over N instances this
+	 * is the same as a Gaussian prior with variance 1/(l2Weight*N).
+	 */
+	public StreamingMaxEntTrainer setL2Weight (double l2Weight)
+	{
+		this.l2Weight = l2Weight;
+		return this;
+	}
+
+	/** Sets the number of passes made over an InstanceSource or InstanceList. */
+	public StreamingMaxEntTrainer setNumPasses (int numPasses)
+	{
+		this.numPasses = numPasses;
+		return this;
+	}
+
+	/** If true (the default), the classifier uses the averaged weights. */
+	public StreamingMaxEntTrainer setAveraging (boolean averaging)
+	{
+		this.averaging = averaging;
+		return this;
+	}
+
+	/** Trains with a single pass over the instances, which are sent through <tt>pipe</tt>. */
+	public MaxEnt train (Pipe pipe, PipeInputIterator instances)
+	{
+		initTraining (null);
+		trainPass (pipe, instances, 0);
+		return getClassifier (pipe);
+	}
+
+	/** Trains with numPasses passes over the source, whose instances are sent through <tt>pipe</tt>. */
+	public MaxEnt train (Pipe pipe, InstanceSource source)
+	{
+		initTraining (null);
+		for (int pass = 0; pass < numPasses; pass++)
+			trainPass (pipe, source.newIterator (), pass);
+		return getClassifier (pipe);
+	}
+
+	public Classifier train (InstanceList trainingSet,
+													 InstanceList validationSet,
+													 InstanceList testSet,
+													 ClassifierEvaluating evaluator,
+													 Classifier initialClassifier)
+	{
+		Pipe pipe = trainingSet.getPipe ();
+		initTraining ((MaxEnt) initialClassifier);
+		for (int pass = 0; pass < numPasses; pass++) {
+			startPass (pass);
+			double loss = 0;
+			long startTime = System.currentTimeMillis ();
+			for (int i = 0; i < trainingSet.size(); i++)
+				loss += trainIncrement (trainingSet.getInstance (i), trainingSet.getInstanceWeight (i));
+			finishPass (pass, loss, startTime);
+			if (evaluator != null
+					&& !evaluator.evaluate (getClassifier (pipe), pass == numPasses-1, pass, loss,
+																	trainingSet, validationSet, testSet))
+				break;
+		}
+		return getClassifier (pipe);
+	}
+
+	private void trainPass (Pipe pipe, PipeInputIterator instances, int pass)
+	{
+		startPass (pass);
+		double loss = 0;
+		long startTime = System.currentTimeMillis ();
+		while (instances.hasNext ()) {
+			Instance carrier = instances.nextInstance ();
+			Instance inst = new Instance (carrier.getData(), carrier.getTarget(), carrier.getName(),
+																		carrier.getSource(), pipe);
+			loss += trainIncrement (inst, 1.0);
+		}
+		finishPass (pass, loss, startTime);
+	}
+
+	private void initTraining (MaxEnt initialClassifier)
+	{
+		numRows = 0;
+		weights = new double[1024][];
+		weightSums = new double[1024][];
+		lastStep = new long[1024];
+		step = totalSteps = 0;
+		if (initialClassifier != null) {
+			double[] params = initialClassifier.getParameters ();
+			int defaultFeatureIndex = initialClassifier.defaultFeatureIndex;
+			int numFeatures = defaultFeatureIndex + 1;
+			int numLabels = params.length / numFeatures;
+			ensureRows (numFeatures);
+			for (int r = 0; r < numFeatures; r++) {
+				ensureLabels (r, numLabels);
+				int fi = (r == 0) ? defaultFeatureIndex : r - 1;
+				for (int li = 0; li < numLabels; li++)
+					weights[r][li] = params[li*numFeatures + fi];
+			}
+		}
+	}
+
+	private void startPass (int pass)
+	{
+		// Every row was brought up to date at the end of the previous pass
+		step = 0;
+		Arrays.fill (lastStep, 0, numRows, 0);
+		passRate = learningRate / (1 + pass);
+		decay = 1 - passRate * l2Weight;
+		if (decay <= 0)
+			throw new IllegalStateException ("learningRate*l2Weight must be less than 1");
+	}
+
+	private void finishPass (int pass, double loss, long startTime)
+	{
+		for (int r = 0; r < numRows; r++)
+			catchUp (r, step);
+		totalSteps += step;
+		double seconds = Math.max (1, System.currentTimeMillis () - startTime) / 1000.0;
+		logger.info ("StreamingMaxEnt pass "+pass+": "+step+" instances, "
+								 +"average loss "+(step == 0 ? 0 : loss / step)+", "
+								 +Math.round (step / seconds)+" instances/sec");
+	}
+
+	// One SGD step on one piped instance; returns its loss
+	private double trainIncrement (Instance inst, double instanceWeight)
+	{
+		Labeling labeling = inst.getLabeling ();
+		if (labeling == null || instanceWeight == 0)
+			return 0;
+		FeatureVector fv = (FeatureVector) inst.getData ();
+		int numLabels = labeling.getLabelAlphabet().size();
+		int label = labeling.getBestIndex ();
+		int numLocations = fv.numLocations ();
+		step++;
+
+		// Bring the rows of this instance's features up to date, and score it
+		double[] scores = new double[numLabels];
+		catchUp (0, step - 1);
+		ensureLabels (0, numLabels);
+		System.arraycopy (weights[0], 0, scores, 0, numLabels);
+		for (int loc = 0; loc < numLocations; loc++) {
+			int row = fv.indexAtLocation (loc) + 1;
+			ensureRows (row + 1);
+			catchUp (row, step - 1);
+			ensureLabels (row, numLabels);
+			double v = fv.valueAtLocation (loc);
+			double[] w = weights[row];
+			for (int li = 0; li < numLabels; li++)
+				scores[li] += v * w[li];
+		}
+		double max = Double.NEGATIVE_INFINITY;
+		for (int li = 0; li < numLabels; li++)
+			max = Math.max (max, scores[li]);
+		double sum = 0;
+		for (int li = 0; li < numLabels; li++)
+			sum += (scores[li] = Math.exp (scores[li] - max));
+		for (int li = 0; li < numLabels; li++)
+			scores[li] /= sum;
+		double loss = - instanceWeight * Math.log (scores[label]);
+
+		// Gradient step, including this step's decay, on the touched rows
+		for (int li = 0; li < numLabels; li++)
+			scores[li] = - passRate * instanceWeight * (scores[li] - (li == label ? 1 : 0));
+		updateRow (0, 1.0, scores, numLabels);
+		for (int loc = 0; loc < numLocations; loc++)
+			updateRow (fv.indexAtLocation (loc) + 1, fv.valueAtLocation (loc), scores, numLabels);
+		return loss;
+	}
+
+	private void updateRow (int row, double v, double[] steps, int numLabels)
+	{
+		double[] w = weights[row];
+		double[] ws = weightSums[row];
+		for (int li = 0; li < numLabels; li++) {
+			w[li] = decay * w[li] + v * steps[li];
+			ws[li] += w[li];
+		}
+		lastStep[row] = step;
+	}
+
+	// Applies the decay of steps (lastStep[row], toStep] to a row that was not
+	// touched in them, adding the decayed weights of each of those steps to the sums.
+	private void catchUp (int row, long toStep)
+	{
+		long n = toStep - lastStep[row];
+		if (n <= 0)
+			return;
+		lastStep[row] = toStep;
+		double[] w = weights[row];
+		if (w == null)
+			return;
+		double dn = Math.pow (decay, n);
+		double geometric = (decay == 1) ? n : decay * (1 - dn) / (1 - decay);
+		double[] ws = weightSums[row];
+		for (int li = 0; li < w.length; li++) {
+			ws[li] += w[li] * geometric;
+			w[li] *= dn;
+		}
+	}
+
+	private void ensureRows (int n)
+	{
+		if (n > weights.length) {
+			int size = Math.max (n, 2 * weights.length);
+			double[][] newWeights = new double[size][];
+			double[][] newSums = new double[size][];
+			long[] newLastStep = new long[size];
+			System.arraycopy (weights, 0, newWeights, 0, numRows);
+			System.arraycopy (weightSums, 0, newSums, 0, numRows);
+			System.arraycopy (lastStep, 0, newLastStep, 0, numRows);
+			weights = newWeights;
+			weightSums = newSums;
+			lastStep = newLastStep;
+		}
+		for (int r = numRows; r < n; r++)
+			lastStep[r] = step;
+		numRows = Math.max (numRows, n);
+	}
+
+	private void ensureLabels (int row, int numLabels)
+	{
+		if (weights[row] == null) {
+			weights[row] = new double[numLabels];
+			weightSums[row] = new double[numLabels];
+		} else if (weights[row].length < numLabels) {
+			double[] w = new double[numLabels];
+			double[] ws = new double[numLabels];
+			System.arraycopy (weights[row], 0, w, 0, weights[row].length);
+			System.arraycopy (weightSums[row], 0, ws, 0, weightSums[row].length);
+			weights[row] = w;
+			weightSums[row] = ws;
+		}
+	}
+
+	/** Returns a MaxEnt with the current (possibly averaged) weights, over the pipe's current Alphabets. */
+	private MaxEnt getClassifier (Pipe pipe)
+	{
+		int numFeatures = pipe.getDataAlphabet().size() + 1;
+		int defaultFeatureIndex = numFeatures - 1;
+		int numLabels = pipe.getTargetAlphabet().size();
+		double[] parameters = new double[numLabels * numFeatures];
+		for (int r = 0; r < Math.min (numRows, numFeatures); r++) {
+			double[] w = (averaging && totalSteps > 0) ? weightSums[r] : weights[r];
+			if (w == null)
+				continue;
+			double scale = (averaging && totalSteps > 0) ? 1.0 / totalSteps : 1.0;
+			int fi = (r == 0) ? defaultFeatureIndex : r - 1;
+			for (int li = 0; li < Math.min (w.length, numLabels); li++)
+				parameters[li*numFeatures + fi] = w[li] * scale;
+		}
+		return new MaxEnt (pipe, parameters);
+	}
+
+	public String toString()
+	{
+		return "StreamingMaxEntTrainer"
+			+ ",learningRate=" + learningRate
+			+ ",l2Weight=" + l2Weight
+			+ ",numPasses=" + numPasses
+			+ ",averaging=" + averaging;
+	}
+
+}
@@ -24,6 +24,8 @@ import org.zndx.oss.mallet.base.pipe.iterator.PipeInputIterator;
 import org.zndx.oss.mallet.base.pipe.iterator.RandomTokenSequenceIterator;
 import junit.framework.*;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.BitSet;
 
 public class TestClassifiers extends TestCase
 {
@@ -71,6 +73,288 @@ public class TestClassifiers extends TestCase
 													+ ": " + new Trial (classifiers[i], lists[1]).accuracy());
 	}
 
+	public void testBatchScores ()
+	{
+		ClassifierTrainer[] trainers = new ClassifierTrainer[3];
+		trainers[0] = new NaiveBayesTrainer();
+		trainers[1] = new MaxEntTrainer();
+		trainers[2] = new DecisionTreeTrainer();
+
+		Alphabet fd = dictOfSize (3);
+		String[] classNames = new String[] {"class0", "class1", "class2"};
+		InstanceList ilist = new InstanceList (new Random(1), fd, classNames, 200);
+
+		for (int i = 0; i < trainers.length; i++) {
+			Classifier classifier = trainers[i].train (ilist);
+			ArrayList expected = classifier.classify (ilist);
+			double[][] scores = classifier.getClassificationScores (ilist, 4);
+			ArrayList parallel = classifier.classify (ilist, 4);
+			ArrayList fromScores = classifier.getClassifications (ilist, scores);
+			for (int j = 0; j < ilist.size(); j++) {
+				Labeling labeling = ((Classification) expected.get (j)).getLabeling ();
+				for (int li = 0; li < classNames.length; li++) {
+					assertEquals (labeling.value (li), scores[j][li], 1e-12);
+					assertEquals (labeling.value (li), ((Classification) parallel.get (j)).getLabeling().value (li), 1e-12);
+				}
+				assertEquals (labeling.getBestIndex (), ((Classification) fromScores.get (j)).getLabeling().getBestIndex ());
+			}
+			assertEquals (classifier.getAccuracy (expected), classifier.getAccuracy (fromScores), 1e-12);
+			// Later batches are scored on the same threads
+			java.util.Set threads = workerThreads ("Classifier-");
+			classifier.getClassificationScores (ilist, scores, 4);
+			classifier.classify (ilist, 4);
+			assertEquals (threads, workerThreads ("Classifier-"));
+		}
+	}
+
+	private static java.util.Set workerThreads (String prefix)
+	{
+		java.util.Set ret = new java.util.HashSet ();
+		java.util.Iterator iter = Thread.getAllStackTraces ().keySet ().iterator ();
+		while (iter.hasNext ()) {
+			Thread t = (Thread) iter.next ();
+			if (t.getName ().startsWith (prefix))
+				ret.add (t);
+		}
+		return ret;
+	}
+
+	// Sparse features with negative values, zeros and ties, and a
+	// label that depends on a few of them
+	private static InstanceList makeTreeData (int size, boolean weighted)
+	{
+		java.util.Random r = new java.util.Random (3);
+		Alphabet fd = dictOfSize (12);
+		LabelAlphabet ld = new LabelAlphabet ();
+		Pipe pipe = new Noop (fd, ld);
+		InstanceList ilist = new InstanceList (pipe);
+		for (int i = 0; i < size; i++) {
+			int[] indices = new int[fd.size()];
+			double[] values = new double[fd.size()];
+			int n = 0;
+			for (int fi = 0; fi < fd.size(); fi++) {
+				if (r.nextDouble() < 0.5) continue;
+				indices[n] = fi;
+				values[n++] = fi % 3 == 0 ? r.nextInt (4) - 1 : r.nextGaussian ();
+			}
+			int[] idx = new int[n];
+			double[] val = new double[n];
+			System.arraycopy (indices, 0, idx, 0, n);
+			System.arraycopy (values, 0, val, 0, n);
+			FeatureVector fv = new FeatureVector (fd, idx, val);
+			int label = (fv.value (0) > 0 ? 1 : 0) + (fv.value (1) > 0.3 ? 1 : 0);
+			if (r.nextDouble() < 0.1) label = r.nextInt (3);
+			ilist.add (new Instance (fv, ld.lookupLabel ("class"+label), "inst"+i, null, pipe),
+								 weighted ? 0.1 + r.nextDouble () : 1.0);
+		}
+		return ilist;
+	}
+
+	private static void assertSameTree (C45.Node n1, C45.Node n2)
+	{
+		assertEquals (n1.isLeaf (), n2.isLeaf ());
+		assertEquals (n1.getSize (), n2.getSize ());
+		GainRatio g1 = n1.getGainRatio (), g2 = n2.getGainRatio ();
+		assertEquals (g1.getBaseEntropy (), g2.getBaseEntropy (), 0);
+		for (int fi = 0; fi < g1.singleSize (); fi++)
+			assertEquals (g1.value (fi), g2.value (fi), 0);
+		if (n1.isLeaf ())
+			return;
+		assertEquals (g1.getMaxValuedIndex (), g2.getMaxValuedIndex ());
+		assertEquals (g1.getMaxValuedThreshold (), g2.getMaxValuedThreshold (), 0);
+		assertSameTree (n1.getLeftChild (), n2.getLeftChild ());
+		assertSameTree (n1.getRightChild (), n2.getRightChild ());
+	}
+
+	private static void assertSameTree (DecisionTree.Node n1, DecisionTree.Node n2)
+	{
+		assertEquals (n1.isLeaf (), n2.isLeaf ());
+		assertEquals (n1.getSplitInfoGain (), n2.getSplitInfoGain (), 0);
+		assertEquals (n1.getSplitFeature (), n2.getSplitFeature ());
+		if (n1.isLeaf ())
+			return;
+		assertSameTree (n1.getFeatureAbsentChild (), n2.getFeatureAbsentChild ());
+		assertSameTree (n1.getFeaturePresentChild (), n2.getFeaturePresentChild ());
+	}
+
+	public void testPresortedTrees ()
+	{
+		InstanceList ilist = makeTreeData (300, false);
+		C45Trainer c45 = new C45Trainer (6, false);
+		c45.setUsePresorted (false);
+		C45 expected = (C45) c45.train (ilist);
+		assertTrue (expected.getSize () > 3);
+		c45.setUsePresorted (true);
+		for (int numThreads = 1; numThreads <= 3; numThreads += 2) {
+			c45.setNumThreads (numThreads);
+			assertSameTree (expected.getRoot (), ((C45) c45.train (ilist)).getRoot ());
+		}
+
+		ilist = makeTreeData (300, true);
+		DecisionTreeTrainer dt = new DecisionTreeTrainer (4);
+		dt.setUsePresorted (false);
+		DecisionTree expectedTree = (DecisionTree) dt.train (ilist);
+		assertFalse (expectedTree.getRoot ().isLeaf ());
+		dt.setUsePresorted (true);
+		for (int numThreads = 1; numThreads <= 3; numThreads += 2) {
+			dt.setNumThreads (numThreads);
+			assertSameTree (expectedTree.getRoot (), ((DecisionTree) dt.train (ilist)).getRoot ());
+		}
+	}
+
+	private static void assertSameScores (Classifier c1, Classifier c2, InstanceList ilist)
+	{
+		for (int i = 0; i < ilist.size(); i++) {
+			Labeling l1 = c1.classify (ilist.getInstance (i)).getLabeling ();
+			Labeling l2 = c2.classify (ilist.getInstance (i)).getLabeling ();
+			for (int li = 0; li < l1.getLabelAlphabet().size(); li++)
+				assertEquals (l1.value (li), l2.value (li), 0);
+		}
+	}
+
+	private static void assertBatchScores (Classifier classifier, InstanceList ilist)
+	{
+		ArrayList batch = classifier.classify (ilist, 3);
+		for (int i = 0; i < ilist.size(); i++) {
+			Labeling expected = classifier.classify (ilist.getInstance (i)).getLabeling ();
+			Labeling labeling = ((Classification) batch.get (i)).getLabeling ();
+			for (int li = 0; li < expected.getLabelAlphabet().size(); li++)
+				assertEquals (expected.value (li), labeling.value (li), 1e-12);
+		}
+	}
+
+	public void testBaggingAndEnsemble ()
+	{
+		Alphabet fd = dictOfSize (3);
+		String[] classNames = new String[] {"class0", "class1", "class2"};
+		InstanceList ilist = new InstanceList (new Random(1), fd, classNames, 200);
+		ilist.setInstanceWeight (0, 2.0);
+
+		InstanceList sample = ilist.select (new int[] {0, 5, 0});
+		assertEquals (3, sample.size ());
+		assertSame (ilist.getInstance (0), sample.getInstance (2));
+		assertEquals (2.0, sample.getInstanceWeight (0), 0);
+		assertEquals (1.0, sample.getInstanceWeight (1), 0);
+
+		BaggingTrainer bagging = new BaggingTrainer (new DecisionTreeTrainer (3), 5);
+		bagging.setRandomSeed (4);
+		Classifier serial = bagging.train (ilist);
+		bagging.setRandomSeed (4);
+		bagging.setNumThreads (3);
+		Classifier parallel = bagging.train (ilist);
+		assertSameScores (serial, parallel, ilist);
+		assertBatchScores (parallel, ilist);
+
+		Classifier[] classifiers = new Classifier[] {
+			new NaiveBayesTrainer ().train (ilist), parallel };
+		ClassifierEnsembleTrainer ensembleTrainer = new ClassifierEnsembleTrainer (classifiers);
+		ClassifierEnsemble ensemble = (ClassifierEnsemble) ensembleTrainer.train (ilist);
+		ensembleTrainer.setNumThreads (3);
+		ClassifierEnsemble ensemble3 = (ClassifierEnsemble) ensembleTrainer.train (ilist);
+		assertBatchScores (ensemble, ilist);
+		for (int i = 0; i < ilist.size(); i++)
+			assertEquals (ensemble.classify (ilist.getInstance (i)).getLabeling().value (0),
+										ensemble3.classify (ilist.getInstance (i)).getLabeling().value (0), 1e-4);
+		assertTrue (new Trial (ensemble, ilist).accuracy () >= new Trial (classifiers[0], ilist).accuracy () - 0.05);
+	}
+
+	public void testExperimentRunner ()
+	{
+		InstanceList ilist = new InstanceList (new Random(1), dictOfSize (3), new String[] {"class0", "class1"}, 150);
+		double[] proportions = new double[] {0.5, 0.3, 0.2};
+		InstanceList[] split = ilist.split (new java.util.Random (5), proportions);
+		int[][] parts = ExperimentRunner.splitIndices (ilist.size(), new java.util.Random (5), proportions);
+		for (int j = 0; j < 3; j++) {
+			InstanceList view = ilist.select (parts[j]);
+			assertEquals (split[j].size(), view.size());
+			for (int i = 0; i < view.size(); i++)
+				assertSame (split[j].getInstance (i), view.getInstance (i));
+		}
+		int[][] folds = ExperimentRunner.foldIndices (ilist.size(), new java.util.Random (6), 3);
+		assertEquals (ilist.size() - folds[1].length, ExperimentRunner.otherFolds (folds, 1).length);
+
+		// NaiveBayesTrainer is copied for each job; DecisionTreeTrainer, not Serializable, runs its jobs in turn
+		ClassifierTrainer[] trainers = new ClassifierTrainer[] { new NaiveBayesTrainer (), new DecisionTreeTrainer (3) };
+		ExperimentRunner[] runners = new ExperimentRunner[2];
+		for (int k = 0; k < 2; k++) {
+			runners[k] = new ExperimentRunner (trainers);
+			runners[k].setNumThreads (k == 0 ? 1 : 3);
+			for (int fold = 0; fold < folds.length; fold++)
+				runners[k].addSplit (0, fold, ilist.select (ExperimentRunner.otherFolds (folds, fold)),
+														 ilist.select (folds[fold]), null, null);
+			runners[k].run ();
+		}
+		assertEquals (6, runners[1].numJobs());
+		for (int i = 0; i < runners[1].numJobs(); i++) {
+			ExperimentRunner.Job serial = runners[0].getJob (i);
+			ExperimentRunner.Job parallel = runners[1].getJob (i);
+			assertEquals (i / 2, parallel.getFoldIndex());
+			assertEquals (i % 2, parallel.getTrainerIndex());
+			assertEquals (serial.getTestAccuracy(), parallel.getTestAccuracy(), 1e-12);
+			assertTrue (Double.isNaN (parallel.getValidationAccuracy()));
+			assertNull (parallel.getReport());
+			assertTrue (parallel.getTrainMillis() >= 0);
+		}
+		// Labels are hidden only from copies of the training instances
+		BitSet unlabeled = new BitSet ();
+		unlabeled.set (0, 20);
+		ExperimentRunner semiSupervised = new ExperimentRunner (new ClassifierTrainer[] { new NaiveBayesTrainer () }) {
+			// The job keeps only what this returns
+			protected String report (ExperimentRunner.Job job, Classifier classifier,
+															 Trial trainTrial, Trial testTrial, Trial validationTrial) {
+				assertNull (testTrial);
+				return classifier.getClass().getName()+" "+trainTrial.size();
+			}
+		};
+		semiSupervised.addSplit (0, 0, ilist, null, null, unlabeled);
+		semiSupervised.run ();
+		assertEquals (NaiveBayes.class.getName()+" "+ilist.size(), semiSupervised.getJob (0).getReport());
+		for (int i = 0; i < ilist.size(); i++)
+			assertNotNull (ilist.getInstance (i).getTarget());
+
+		java.io.StringWriter report = new java.io.StringWriter ();
+		runners[1].writeReport (new java.io.PrintWriter (report));
+		String[] lines = report.toString().split ("\n");
+		assertEquals (8, lines.length);
+		assertEquals (13, lines[1].split ("\t", -1).length);
+
+		// A trainer that throws fails only its own jobs
+		ClassifierTrainer failing = new ClassifierTrainer () {
+			public Classifier train (InstanceList trainingSet, InstanceList validationSet, InstanceList testSet,
+															 ClassifierEvaluating evaluator, Classifier initialClassifier) {
+				throw new IllegalStateException ("no\ttraining");
+			}
+		};
+		ExperimentRunner partial = new ExperimentRunner (new ClassifierTrainer[] { failing, new NaiveBayesTrainer () });
+		partial.setNumThreads (2);
+		for (int fold = 0; fold < folds.length; fold++)
+			partial.addSplit (0, fold, ilist.select (ExperimentRunner.otherFolds (folds, fold)),
+												ilist.select (folds[fold]), null, null);
+		partial.run ();
+		assertEquals (3, partial.numFailed());
+		for (int i = 0; i < partial.numJobs(); i++) {
+			ExperimentRunner.Job job = partial.getJob (i);
+			if (job.getTrainerIndex() == 0) {
+				assertTrue (job.getFailure() instanceof IllegalStateException);
+				assertTrue (Double.isNaN (job.getTestAccuracy()));
+				assertEquals (-1, job.getTrainMillis());
+			} else {
+				assertNull (job.getFailure());
+				// NaiveBayesTrainer is the first trainer of the earlier runners
+				assertEquals (runners[0].getJob (i - 1).getTestAccuracy(), job.getTestAccuracy(), 1e-12);
+			}
+		}
+		report = new java.io.StringWriter ();
+		partial.writeReport (new java.io.PrintWriter (report));
+		lines = report.toString().split ("\n");
+		assertEquals (8, lines.length);
+		String[] failed = lines[1].split ("\t", -1);
+		assertEquals (13, failed.length);
+		assertEquals ("java.lang.IllegalStateException: no training", failed[12]);
+		assertEquals ("", lines[2].split ("\t", -1)[12]);
+		assertTrue (lines[7].indexOf ("failed=3") >= 0);
+	}
+
   public void tetsNewFeatures ()
   {
     ClassifierTrainer[] trainers = new ClassifierTrainer[1];
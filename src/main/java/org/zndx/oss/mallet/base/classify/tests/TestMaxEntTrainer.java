@@ -21,6 +21,8 @@ import org.zndx.oss.mallet.base.maximize.tests.TestMaximizable;
 import org.zndx.oss.mallet.base.pipe.*;
 import org.zndx.oss.mallet.base.util.*;
 import org.zndx.oss.mallet.base.pipe.iterator.ArrayIterator;
+import org.zndx.oss.mallet.base.pipe.iterator.InstanceListIterator;
+import org.zndx.oss.mallet.base.pipe.iterator.PipeInputIterator;
 import junit.framework.*;
 import java.net.URI;
 
@@ -58,8 +60,79 @@ public class TestMaxEntTrainer extends TestCase
 		Maximizable.ByGradient maxable = trainer.getMaximizableTrainer (ilist);
 		TestMaximizable.testValueAndGradient (maxable);
 	}
+
+	public void testParallelValueAndGradient ()
+	{
+		Alphabet fd = dictOfSize (6);
+		String[] classNames = new String[] {"class0", "class1", "class2"};
+		InstanceList ilist = new InstanceList (new Random(1), fd, classNames, 47);
+		Maximizable.ByGradient serial = new MaxEntTrainer().getMaximizableTrainer (ilist);
+		Maximizable.ByGradient parallel = new MaxEntTrainer().setNumThreads (4).getMaximizableTrainer (ilist);
+		TestMaximizable.testValueAndGradient (parallel);
+
+		double[] params = new double [serial.getNumParameters()];
+		for (int i = 0; i < params.length; i++)
+			params[i] = (i % 5) * 0.3 - 0.6;
+		serial.setParameters (params);
+		parallel.setParameters (params);
+		assertEquals (serial.getValue(), parallel.getValue(), 1e-8);
+
+		double[] g1 = new double [params.length];
+		double[] g2 = new double [params.length];
+		serial.getValueGradient (g1);
+		parallel.getValueGradient (g2);
+		for (int i = 0; i < g1.length; i++)
+			assertEquals (g1[i], g2[i], 1e-8);
+
+		// Later values are computed on the same threads
+		java.util.Set threads = workerThreads ("MaxEntTrainer-");
+		assertTrue (threads.size () > 0 && threads.size () <= 4);
+		for (int k = 0; k < 10; k++) {
+			params[k] += 0.1;
+			parallel.setParameters (params);
+			parallel.getValue ();
+		}
+		assertEquals (threads, workerThreads ("MaxEntTrainer-"));
+	}
+
+	private static java.util.Set workerThreads (String prefix)
+	{
+		java.util.Set ret = new java.util.HashSet ();
+		java.util.Iterator iter = Thread.getAllStackTraces ().keySet ().iterator ();
+		while (iter.hasNext ()) {
+			Thread t = (Thread) iter.next ();
+			if (t.getName ().startsWith (prefix))
+				ret.add (t);
+		}
+		return ret;
+	}
 	
 
+	public void testStreamingTrainer ()
+	{
+		Alphabet fd = dictOfSize (6);
+		String[] classNames = new String[] {"class0", "class1", "class2"};
+		final InstanceList ilist = new InstanceList (new Random(1), fd, classNames, 200);
+
+		InstanceList[] lists = ilist.split (new java.util.Random(2), new double[] {.5, .5});
+		Classifier batch = new MaxEntTrainer().train (lists[0]);
+		StreamingMaxEntTrainer trainer = new StreamingMaxEntTrainer().setNumPasses (10);
+		MaxEnt streaming = (MaxEnt) trainer.train (lists[0]);
+		System.out.println ("Streaming accuracy "+streaming.getAccuracy (lists[1])+" batch "+batch.getAccuracy (lists[1]));
+		assertTrue (streaming.getAccuracy (lists[1]) > batch.getAccuracy (lists[1]) - 0.05);
+
+		// Streaming the same instances through the pipe gives the same classifier
+		MaxEnt fromList = (MaxEnt) trainer.train (ilist);
+		MaxEnt fromSource = trainer.train (ilist.getPipe(), new StreamingMaxEntTrainer.InstanceSource () {
+				public PipeInputIterator newIterator () { return new InstanceListIterator (ilist); }
+			});
+		double[] p1 = fromList.getParameters ();
+		double[] p2 = fromSource.getParameters ();
+		assertEquals (p1.length, p2.length);
+		for (int i = 0; i < p1.length; i++)
+			assertEquals (p1[i], p2[i], 1e-10);
+	}
+
 	public static Test suite ()
 	{
 		return new TestSuite (TestMaxEntTrainer.class);
@@ -113,6 +113,87 @@ public class TestNaiveBayes extends TestCase
 								== ((LabelAlphabet)instances.getTargetAlphabet()).lookupLabel("africa"));
 	}
 
+	private static InstanceList newStringInstanceList ()
+	{
+		return new InstanceList (
+				new SerialPipes (new Pipe[] {
+					new Target2Label (),
+					new CharSequence2TokenSequence (),
+					new TokenSequence2FeatureSequence (),
+					new FeatureSequence2FeatureVector ()}));
+	}
+
+	private static void assertSameScores (Classifier c1, Classifier c2, String text)
+	{
+		Labeling l1 = c1.classify (text).getLabeling ();
+		Labeling l2 = c2.classify (text).getLabeling ();
+		assertEquals (l1.numLocations (), l2.numLocations ());
+		for (int i = 0; i < l1.numLocations (); i++) {
+			Label label = l1.getLabelAtRank (i);
+			assertEquals (l1.value (label), l2.value (c2.getLabelAlphabet().lookupLabel (label.getEntry ())), 1e-12);
+		}
+	}
+
+	public void testShardedTraining ()
+	{
+		String[] africa = new String[] {
+			"on the plains of africa the lions roar",
+			"in swahili ngoma means to dance",
+			"nelson mandela became president of south africa",
+			"the saraha dessert is expanding"};
+		String[] asia = new String[] {
+			"panda bears eat bamboo",
+			"china's one child policy has resulted in a surplus of boys",
+			"tigers live in the jungle"};
+		String[] test = new String[] {
+			"nelson mandela never eats lions", "tigers in china", "the jungle of swahili"};
+
+		InstanceList all = newStringInstanceList ();
+		all.add (new ArrayIterator (africa, "africa"));
+		all.add (new ArrayIterator (asia, "asia"));
+		Classifier serial = new NaiveBayesTrainer ().train (all);
+
+		NaiveBayesTrainer parallelTrainer = new NaiveBayesTrainer ();
+		parallelTrainer.setNumThreads (3);
+		Classifier parallel = parallelTrainer.train (all);
+
+		// Shards with their own pipes and Alphabets, as if counted in other processes
+		InstanceList africaList = newStringInstanceList ();
+		africaList.add (new ArrayIterator (africa, "africa"));
+		InstanceList asiaList = newStringInstanceList ();
+		asiaList.add (new ArrayIterator (asia, "asia"));
+		NaiveBayesTrainer africaTrainer = new NaiveBayesTrainer ();
+		africaTrainer.incrementalTrain (africaList);
+		NaiveBayesTrainer asiaTrainer = new NaiveBayesTrainer ();
+		asiaTrainer.incrementalTrain (asiaList);
+		int africaFeatures = africaList.getDataAlphabet().size();
+		int africaLabels = africaList.getTargetAlphabet().size();
+		int asiaFeatures = asiaList.getDataAlphabet().size();
+		Labeling before = africaTrainer.getClassifier().classify (africaList.getInstance (0)).getLabeling ();
+		NaiveBayesTrainer merged = new NaiveBayesTrainer ();
+		merged.merge (africaTrainer);
+		merged.merge (asiaTrainer);
+		Classifier fromShards = merged.getClassifier ();
+
+		// The merged trainer has Alphabets of its own, and the shards are unchanged
+		assertTrue (fromShards.getAlphabet() != africaList.getDataAlphabet());
+		assertTrue (fromShards.getLabelAlphabet() != africaList.getTargetAlphabet());
+		assertEquals (africaFeatures, africaList.getDataAlphabet().size());
+		assertEquals (africaLabels, africaList.getTargetAlphabet().size());
+		assertEquals (asiaFeatures, asiaList.getDataAlphabet().size());
+		assertEquals (2, fromShards.getLabelAlphabet().size());
+		Labeling after = africaTrainer.getClassifier().classify (africaList.getInstance (0)).getLabeling ();
+		assertEquals (before.numLocations (), after.numLocations ());
+		for (int i = 0; i < before.numLocations (); i++)
+			assertEquals (before.valueAtLocation (i), after.valueAtLocation (i), 0.0);
+
+		assertEquals (all.getDataAlphabet().size(), fromShards.getAlphabet().size());
+		for (int i = 0; i < test.length; i++) {
+			assertSameScores (serial, parallel, test[i]);
+			assertSameScores (serial, fromShards, test[i]);
+		}
+	}
+
 	public void testRandomTrained ()
 	{
 		InstanceList ilist = new InstanceList (new Random(1), 10, 2);
@@ -260,6 +260,22 @@ public abstract class Vectors2Classify
 	(Vectors2Classify.class, "num-trials", "INTEGER", true, 1,
 	 "The number of random train/test splits to perform", null);
 
+	static CommandOption.Integer numThreadsOption = new CommandOption.Integer
+	(Vectors2Classify.class, "num-threads", "INTEGER", true, 1,
+	 "The number of threads on which to train and test the (trainer, trial) jobs concurrently.  "
+	 +"Trainers that cannot be serialized, and so copied, run their jobs one at a time.", null);
+
+	static CommandOption.Integer crossValidationOption = new CommandOption.Integer
+	(Vectors2Classify.class, "cross-validation", "INTEGER", true, 0,
+	 "The number of folds for cross-validation.  If greater than 1, each trial trains on all folds "
+	 +"but one and tests on that one, for each fold; the training and validation portions are ignored.", null);
+
+	static CommandOption.String experimentReportOption = new CommandOption.String
+	(Vectors2Classify.class, "experiment-report", "FILENAME", true, null,
+	 "Write the accuracies and the timing and allocation of every job to this file, as tab-separated lines, "
+	 +"with what any failed job threw.  Allocation counts only the job's own thread, so trainers that "
+	 +"train on threads of their own, such as MaxEntTrainer with more than one thread, are under-reported.", null);
+
 	static CommandOption.Object classifierEvaluatorOption = new CommandOption.Object
 	(Vectors2Classify.class, "classifier-evaluator", "CONSTRUCTOR", true, null,
 	 "Java code for constructing a ClassifierEvaluating object", null);
@@ -358,13 +374,13 @@ public abstract class Vectors2Classify
 			logger.fine ("Trainer specified = "+trainers[i].toString());
 		}
 
-		double trainAccuracy[][] = new double[trainers.length][numTrials];
-		double testAccuracy[][] = new double[trainers.length][numTrials];
-		double validationAccuracy[][] = new double[trainers.length][numTrials];
+		// With cross-validation each trial is a run on each fold
+		int numFolds = crossValidationOption.value;
+		int numRuns = numTrials * Math.max (1, numFolds);
 
-		String trainConfusionMatrix[][] = new String[trainers.length][numTrials];
-		String testConfusionMatrix[][] = new String[trainers.length][numTrials];
-		String validationConfusionMatrix[][] = new String[trainers.length][numTrials];
+		double trainAccuracy[][] = new double[trainers.length][numRuns];
+		double testAccuracy[][] = new double[trainers.length][numRuns];
+		double validationAccuracy[][] = new double[trainers.length][numRuns];
 
 		double t = trainingProportionOption.value;
 		double v = validationProportionOption.value;
@@ -383,148 +399,86 @@ public abstract class Vectors2Classify
 //			System.out.println();
 //		}
 
+		// Make every split first, drawing from r in the same order as one trial at a time,
+		// as views of the loaded lists; then run the (trainer, split) jobs concurrently.
+		// Each job writes its classifier and keeps its report as text, so that
+		// neither the classifiers nor the trials outlive their jobs.
+		final ClassifierTrainer[] jobTrainers = trainers;
+		final int jobNumTrials = numTrials, jobNumFolds = numFolds;
+		ExperimentRunner runner = new ExperimentRunner (trainers) {
+			protected String report (ExperimentRunner.Job job, Classifier classifier,
+															 Trial trainTrial, Trial testTrial, Trial validationTrial) {
+				return reportJob (job, classifier, trainTrial, testTrial, validationTrial,
+													jobTrainers, jobNumTrials, jobNumFolds);
+			}
+		};
+		runner.setNumThreads (numThreadsOption.value);
 		for (int trialIndex = 0; trialIndex < numTrials; trialIndex++) {
-			System.out.println("\n-------------------- Trial " + trialIndex + "  --------------------\n");
+      if (numFolds > 1) {
+        InstanceList source = separateIlists ? trainingFileIlist : ilist;
+        int[][] folds = ExperimentRunner.foldIndices (source.size(), r, numFolds);
+        for (int fold = 0; fold < numFolds; fold++) {
+          InstanceList training = source.select (ExperimentRunner.otherFolds (folds, fold));
+          BitSet unlabeledIndices = null;
+          if (unlabeledProportionOption.value > 0)
+            unlabeledIndices = new org.zndx.oss.mallet.base.util.Random(r.nextInt())
+                .nextBitSet(training.size(),
+                            unlabeledProportionOption.value);
+          runner.addSplit (trialIndex, fold, training, source.select (folds[fold]),
+                           source.select (new int[0]), unlabeledIndices);
+        }
+        continue;
+      }
       InstanceList[] ilists;
       BitSet unlabeledIndices = null;
       if (!separateIlists){
-        ilists = ilist.split (r, new double[] {t, 1-t-v, v});
+        int[][] parts = ExperimentRunner.splitIndices (ilist.size(), r, new double[] {t, 1-t-v, v});
+        ilists = new InstanceList[3];
+        for (int i = 0; i < 3; i++)
+          ilists[i] = ilist.select (parts[i]);
       } else {
+        InstanceList empty = trainingFileIlist.select (new int[0]);
         ilists = new InstanceList[3];
         ilists[0] = trainingFileIlist;
-        ilists[1] = testFileIlist;
-        ilists[2] = testFileIlist;
+        ilists[1] = testFileIlist != null ? testFileIlist : empty;
+        ilists[2] = testFileIlist != null ? testFileIlist : empty;
       }
       if (unlabeledProportionOption.value > 0)
         unlabeledIndices = new org.zndx.oss.mallet.base.util.Random(r.nextInt())
             .nextBitSet(ilists[0].size(),
                         unlabeledProportionOption.value);
-
-
-      //InfoGain ig = new InfoGain (ilists[0]);
-			//int igl = Math.min (10, ig.numLocations());
-			//for (int i = 0; i < igl; i++)
-			//System.out.println ("InfoGain["+ig.getObjectAtRank(i)+"]="+ig.getValueAtRank(i));
-			//ig.print();
-
-			//FeatureSelection selectedFeatures = new FeatureSelection (ig, 8000);
-			//ilists[0].setFeatureSelection (selectedFeatures);
-			//OddsRatioFeatureInducer orfi = new OddsRatioFeatureInducer (ilists[0]);
-			//orfi.induceFeatures (ilists[0], false, true);
-
-
-			//System.out.println ("Training with "+ilists[0].size()+" instances");
-			long time[] = new long[trainers.length];
-			for (int c = 0; c < trainers.length; c++){
-				time[c] = System.currentTimeMillis();
-				System.out.println ("Trial " + trialIndex + " Training " + trainers[c].toString() + " with "+ilists[0].size()+" instances");
-        if (unlabeledProportionOption.value > 0)
-          ilists[0].hideSomeLabels(unlabeledIndices);
-        Classifier classifier = trainers[c].train (ilists[0]);
-        if (unlabeledProportionOption.value > 0)
-          ilists[0].unhideAllLabels();
-
-        System.out.println ("Trial " + trialIndex + " Training " + trainers[c].toString() + " finished");
-				time[c] = System.currentTimeMillis() - time[c];
-				Trial trainTrial = new Trial (classifier, ilists[0]);
-				//assert (ilists[1].size() > 0);
-				Trial testTrial = new Trial (classifier, ilists[1]);
-				Trial validationTrial = new Trial(classifier, ilists[2]);
-
-				if (ilists[0].size()>0) trainConfusionMatrix[c][trialIndex] = new ConfusionMatrix (trainTrial).toString();
-				if (ilists[1].size()>0) testConfusionMatrix[c][trialIndex] = new ConfusionMatrix (testTrial).toString();
-				if (ilists[2].size()>0) validationConfusionMatrix[c][trialIndex] = new ConfusionMatrix (validationTrial).toString();
-
-				trainAccuracy[c][trialIndex] = trainTrial.accuracy();
-				testAccuracy[c][trialIndex] = testTrial.accuracy();
-				validationAccuracy[c][trialIndex] = validationTrial.accuracy();
-
-				if (outputFile.wasInvoked()) {
-					String filename = outputFile.value;
-					if (trainers.length > 1) filename = filename+trainers[c].toString();
-					if (numTrials > 1) filename = filename+".trial"+trialIndex;
-					try {
-						ObjectOutputStream oos = new ObjectOutputStream
-																		 (new FileOutputStream (filename));
-						oos.writeObject (classifier);
-						oos.close();
-					} catch (Exception e) {
-						e.printStackTrace();
-						throw new IllegalArgumentException ("Couldn't write classifier to filename "+
-																								filename);
-					}
-				}
-
-				// New Reporting
-
-                // raw output
-				if (ReportOptions[ReportOption.train][ReportOption.raw]){
-					System.out.println("Trial " + trialIndex + " Trainer " + trainers[c].toString());
-					System.out.println(" Raw Training Data");
-					printTrialClassification(trainTrial);
-				}
-
-				if (ReportOptions[ReportOption.test][ReportOption.raw]){
-					System.out.println("Trial " + trialIndex + " Trainer " + trainers[c].toString());
-					System.out.println(" Raw Testing Data");
-					printTrialClassification(testTrial);
-				}
-
-				if (ReportOptions[ReportOption.validation][ReportOption.raw]){
-					System.out.println("Trial " + trialIndex + " Trainer " + trainers[c].toString());
-					System.out.println(" Raw Validation Data");
-					printTrialClassification(validationTrial);
-				}
-
-
-				//train
-				if (ReportOptions[ReportOption.train][ReportOption.confusion]){
-					System.out.println("Trial " + trialIndex + " Trainer " + trainers[c].toString() +  " Training Data Confusion Matrix");
-					if (ilists[0].size()>0) System.out.println (trainConfusionMatrix[c][trialIndex]);
-				}
-
-				if (ReportOptions[ReportOption.train][ReportOption.accuracy]){
-					System.out.println ("Trial " + trialIndex + " Trainer " + trainers[c].toString() + " training data accuracy= "+ trainAccuracy[c][trialIndex]);
-				}
-
-				if (ReportOptions[ReportOption.train][ReportOption.f1]){
-					String label = ReportOptionArgs[ReportOption.train][ReportOption.f1];
-					System.out.println ("Trial " + trialIndex + " Trainer " + trainers[c].toString() + " training data F1(" + label + ") = "+ trainTrial.labelF1(label));
-				}
-
-				//validation
-				if (ReportOptions[ReportOption.validation][ReportOption.confusion]){
-					System.out.println("Trial " + trialIndex + " Trainer " + trainers[c].toString() +  " Validation Data Confusion Matrix");
-					if (ilists[2].size()>0) System.out.println (validationConfusionMatrix[c][trialIndex]);
-				}
-
-				if (ReportOptions[ReportOption.validation][ReportOption.accuracy]){
-					System.out.println ("Trial " + trialIndex + " Trainer " + trainers[c].toString() + " validation data accuracy= "+ validationAccuracy[c][trialIndex]);
-				}
-
-				if (ReportOptions[ReportOption.validation][ReportOption.f1]){
-					String label = ReportOptionArgs[ReportOption.validation][ReportOption.f1];
-					System.out.println ("Trial " + trialIndex + " Trainer " + trainers[c].toString() + " validation data F1(" + label + ") = "+ validationTrial.labelF1(label));
-				}
-
-				//test
-				if (ReportOptions[ReportOption.test][ReportOption.confusion]){
-					System.out.println("Trial " + trialIndex + " Trainer " + trainers[c].toString() + " Test Data Confusion Matrix");
-					if (ilists[1].size()>0) System.out.println (testConfusionMatrix[c][trialIndex]);
-				}
-
-				if (ReportOptions[ReportOption.test][ReportOption.accuracy]){
-					System.out.println ("Trial " + trialIndex + " Trainer " + trainers[c].toString() + " test data accuracy= "+ testAccuracy[c][trialIndex]);
-				}
-
-				if (ReportOptions[ReportOption.test][ReportOption.f1]){
-					String label = ReportOptionArgs[ReportOption.test][ReportOption.f1];
-					System.out.println ("Trial " + trialIndex + " Trainer " + trainers[c].toString() + " test data F1(" + label + ") = "+ testTrial.labelF1(label));
-				}
-
-
-			}  // end for each trainer
-		}  // end for each trial
+      runner.addSplit (trialIndex, 0, ilists[0], ilists[1], ilists[2], unlabeledIndices);
+		}
+		runner.run ();
+
+		// Report on the jobs in order of trial, fold and trainer
+		int lastRun = -1;
+		for (int i = 0; i < runner.numJobs(); i++) {
+			ExperimentRunner.Job job = runner.getJob (i);
+			int c = job.getTrainerIndex();
+			int trialIndex = job.getTrialIndex();
+			int run = trialIndex * Math.max (1, numFolds) + job.getFoldIndex();
+			if (run != lastRun) {
+				if (numFolds > 1)
+					System.out.println("\n-------------------- Trial " + trialIndex + " Fold " + job.getFoldIndex() + "  --------------------\n");
+				else
+					System.out.println("\n-------------------- Trial " + trialIndex + "  --------------------\n");
+				lastRun = run;
+			}
+			trainAccuracy[c][run] = job.getTrainAccuracy();
+			testAccuracy[c][run] = job.getTestAccuracy();
+			validationAccuracy[c][run] = job.getValidationAccuracy();
+			if (job.getFailure() != null)
+				System.out.println ("Trial " + trialIndex + " Trainer " + trainers[c].toString() + " failed: " + job.getFailure());
+			else
+				System.out.print (job.getReport());
+		}  // end for each job
+
+		if (experimentReportOption.wasInvoked()) {
+			PrintWriter out = new PrintWriter (new FileWriter (experimentReportOption.value));
+			runner.writeReport (out);
+			out.close ();
+		}
 
         // New reporting
 		//"[train|test|validation]:[accuracy|f1|confusion|raw]"
@@ -548,21 +502,120 @@ public abstract class Vectors2Classify
 		}   // end for each trainer
 	}
 
-	private static void printTrialClassification(Trial trial)
+	// Writes one job's classifier if asked, and returns the text of its reports;
+	// called from the job's thread, since the job keeps neither its classifier nor its trials
+	private static String reportJob (ExperimentRunner.Job job, Classifier classifier,
+																	 Trial trainTrial, Trial testTrial, Trial validationTrial,
+																	 ClassifierTrainer[] trainers, int numTrials, int numFolds)
+	{
+		int c = job.getTrainerIndex();
+		int trialIndex = job.getTrialIndex();
+		StringWriter text = new StringWriter ();
+		PrintWriter out = new PrintWriter (text);
+
+		if (outputFile.wasInvoked()) {
+			String filename = outputFile.value;
+			if (trainers.length > 1) filename = filename+trainers[c].toString();
+			if (numTrials > 1) filename = filename+".trial"+trialIndex;
+			if (numFolds > 1) filename = filename+".fold"+job.getFoldIndex();
+			try {
+				ObjectOutputStream oos = new ObjectOutputStream
+																 (new FileOutputStream (filename));
+				oos.writeObject (classifier);
+				oos.close();
+			} catch (Exception e) {
+				e.printStackTrace();
+				throw new IllegalArgumentException ("Couldn't write classifier to filename "+
+																						filename);
+			}
+		}
+
+		// New Reporting
+
+                // raw output
+		if (ReportOptions[ReportOption.train][ReportOption.raw]){
+			out.println("Trial " + trialIndex + " Trainer " + trainers[c].toString());
+			out.println(" Raw Training Data");
+			printTrialClassification(out, trainTrial);
+		}
+
+		if (ReportOptions[ReportOption.test][ReportOption.raw]){
+			out.println("Trial " + trialIndex + " Trainer " + trainers[c].toString());
+			out.println(" Raw Testing Data");
+			printTrialClassification(out, testTrial);
+		}
+
+		if (ReportOptions[ReportOption.validation][ReportOption.raw]){
+			out.println("Trial " + trialIndex + " Trainer " + trainers[c].toString());
+			out.println(" Raw Validation Data");
+			printTrialClassification(out, validationTrial);
+		}
+
+
+		//train
+		if (ReportOptions[ReportOption.train][ReportOption.confusion]){
+			out.println("Trial " + trialIndex + " Trainer " + trainers[c].toString() +  " Training Data Confusion Matrix");
+			if (trainTrial.size()>0) out.println (new ConfusionMatrix (trainTrial));
+		}
+
+		if (ReportOptions[ReportOption.train][ReportOption.accuracy]){
+			out.println ("Trial " + trialIndex + " Trainer " + trainers[c].toString() + " training data accuracy= "+ job.getTrainAccuracy());
+		}
+
+		if (ReportOptions[ReportOption.train][ReportOption.f1]){
+			String label = ReportOptionArgs[ReportOption.train][ReportOption.f1];
+			out.println ("Trial " + trialIndex + " Trainer " + trainers[c].toString() + " training data F1(" + label + ") = "+ trainTrial.labelF1(label));
+		}
+
+		//validation
+		if (ReportOptions[ReportOption.validation][ReportOption.confusion]){
+			out.println("Trial " + trialIndex + " Trainer " + trainers[c].toString() +  " Validation Data Confusion Matrix");
+			if (validationTrial.size()>0) out.println (new ConfusionMatrix (validationTrial));
+		}
+
+		if (ReportOptions[ReportOption.validation][ReportOption.accuracy]){
+			out.println ("Trial " + trialIndex + " Trainer " + trainers[c].toString() + " validation data accuracy= "+ job.getValidationAccuracy());
+		}
+
+		if (ReportOptions[ReportOption.validation][ReportOption.f1]){
+			String label = ReportOptionArgs[ReportOption.validation][ReportOption.f1];
+			out.println ("Trial " + trialIndex + " Trainer " + trainers[c].toString() + " validation data F1(" + label + ") = "+ validationTrial.labelF1(label));
+		}
+
+		//test
+		if (ReportOptions[ReportOption.test][ReportOption.confusion]){
+			out.println("Trial " + trialIndex + " Trainer " + trainers[c].toString() + " Test Data Confusion Matrix");
+			if (testTrial.size()>0) out.println (new ConfusionMatrix (testTrial));
+		}
+
+		if (ReportOptions[ReportOption.test][ReportOption.accuracy]){
+			out.println ("Trial " + trialIndex + " Trainer " + trainers[c].toString() + " test data accuracy= "+ job.getTestAccuracy());
+		}
+
+		if (ReportOptions[ReportOption.test][ReportOption.f1]){
+			String label = ReportOptionArgs[ReportOption.test][ReportOption.f1];
+			out.println ("Trial " + trialIndex + " Trainer " + trainers[c].toString() + " test data F1(" + label + ") = "+ testTrial.labelF1(label));
+		}
+
+		out.flush ();
+		return text.toString ();
+	}
+
+	private static void printTrialClassification(PrintWriter out, Trial trial)
 	{
 		ArrayList classifications = trial.toArrayList();
 
 		for (int i = 0; i < classifications.size(); i++) {
 			Instance instance = trial.getClassification(i).getInstance();
-			System.out.print(instance.getName() + " " + instance.getTarget() + " ");
+			out.print(instance.getName() + " " + instance.getTarget() + " ");
 
 			Labeling labeling = trial.getClassification(i).getLabeling();
 
 			for (int j = 0; j < labeling.numLocations(); j++){
-				System.out.print(labeling.getLabelAtRank(j).toString() + ":" + labeling.getValueAtRank(j) + " ");
+				out.print(labeling.getLabelAtRank(j).toString() + ":" + labeling.getValueAtRank(j) + " ");
 			}
 
-			System.out.println();
+			out.println();
 		}
 	}
 
@@ -65,6 +65,10 @@ public class Vectors2Vectors
   (Vectors2Vectors.class, "prune-count", "N", false, 0,
    "Reduce features to those that occur more than N times.", null);
 
+  static CommandOption.Integer numThreads = new CommandOption.Integer
+  (Vectors2Vectors.class, "num-threads", "N", false, 1,
+   "The number of threads on which to count features for pruning.", null);
+
   static CommandOption.Boolean vectorToSequence = new CommandOption.Boolean
   (Vectors2Info.class, "vector-to-sequence", "[TRUE|FALSE]", false, false,
    "Convert FeatureVector's to FeatureSequence's.", null);
@@ -107,52 +111,41 @@ public class Vectors2Vectors
         if (ilists[1].size() > 0 || ilists[2].size() > 0)
           throw new UnsupportedOperationException("Infogain/count processing of test or validation lists not yet supported.");
 
+        // Count the features and labels of the training list once, for both prunings
+        FeatureStatistics stats = new FeatureStatistics (ilists[0], numThreads.value);
+        int numFeatures = stats.getDataAlphabet().size();
+        FeatureSelection selection = null;
         if (pruneCount.value > 0) {
-          Alphabet alpha2 = new Alphabet ();
-          Noop pipe2 = new Noop (alpha2, ilists[0].getTargetAlphabet());
-          InstanceList ilist2 = new InstanceList (pipe2);
-          int numFeatures = ilists[0].getDataAlphabet().size();
-          double[] counts = new double[numFeatures];
-          for (int ii = 0; ii < ilists[0].size(); ii++) {
-            Instance instance = ilists[0].getInstance(ii);
-            FeatureVector fv = (FeatureVector) instance.getData();
-            fv.addTo(counts);
-          }
-          BitSet bs = new BitSet(numFeatures);
-          for (int fi = 0; fi < numFeatures; fi++)
-            if (counts[fi] > pruneCount.value) bs.set(fi);
-          logger.info ("Pruning "+bs.cardinality()+" features out of "+numFeatures
-                       +" leaving "+(numFeatures-bs.cardinality())+" features.");
-          FeatureSelection fs = new FeatureSelection (ilists[0].getDataAlphabet(), bs);
-          for (int ii = 0; ii < ilists[0].size(); ii++) {
-            Instance instance = ilists[0].getInstance(ii);
-            FeatureVector fv = (FeatureVector) instance.getData();
-            FeatureVector fv2 = FeatureVector.newFeatureVector (fv, alpha2, fs);
-            ilist2.add(new Instance(fv2, instance.getTarget(), instance.getName(), instance.getSource(), pipe2),
-                       ilists[0].getInstanceWeight(ii));
-            instance.unLock();
-            instance.setData(null); // So it can be freed by the garbage collector
-          }
-          ilists[0] = ilist2;
+          selection = stats.selectByCount (pruneCount.value);
+          logger.info ("Pruning "+selection.cardinality()+" features out of "+numFeatures
+                       +" leaving "+(numFeatures-selection.cardinality())+" features.");
         }
-
         if (pruneInfogain.value > 0) {
-          Alphabet alpha2 = new Alphabet ();
-          Noop pipe2 = new Noop (alpha2, ilists[0].getTargetAlphabet());
-          InstanceList ilist2 = new InstanceList (pipe2);
-          InfoGain ig = new InfoGain (ilists[0]);
-          FeatureSelection fs = new FeatureSelection (ig, pruneInfogain.value);
-          for (int ii = 0; ii < ilists[0].size(); ii++) {
-            Instance instance = ilists[0].getInstance(ii);
-            FeatureVector fv = (FeatureVector) instance.getData();
-            FeatureVector fv2 = FeatureVector.newFeatureVector (fv, alpha2, fs);
-            instance.unLock();
-            instance.setData(null); // So it can be freed by the garbage collector
-            ilist2.add(new Instance(fv2, instance.getTarget(), instance.getName(), instance.getSource(), pipe2),
-                       ilists[0].getInstanceWeight(ii));
+          // The top N by information gain among the features kept by count
+          InfoGain ig = new InfoGain (stats);
+          BitSet bs = new BitSet (numFeatures);
+          for (int rank = 0; rank < numFeatures && bs.cardinality() < pruneInfogain.value; rank++) {
+            int fi = ig.getIndexAtRank (rank);
+            if (selection == null || selection.contains (fi))
+              bs.set (fi);
           }
-          ilists[0] = ilist2;
+          selection = new FeatureSelection (stats.getDataAlphabet(), bs);
+        }
+        stats = null;
+
+        Alphabet prunedAlphabet = new Alphabet ();
+        Noop prunePipe = new Noop (prunedAlphabet, ilists[0].getTargetAlphabet());
+        InstanceList prunedList = new InstanceList (prunePipe);
+        for (int ii = 0; ii < ilists[0].size(); ii++) {
+          Instance instance = ilists[0].getInstance(ii);
+          FeatureVector fv = (FeatureVector) instance.getData();
+          FeatureVector fv2 = FeatureVector.newFeatureVector (fv, prunedAlphabet, selection);
+          prunedList.add(new Instance(fv2, instance.getTarget(), instance.getName(), instance.getSource(), prunePipe),
+                         ilists[0].getInstanceWeight(ii));
+          instance.unLock();
+          instance.setData(null); // So it can be freed by the garbage collector
         }
+        ilists[0] = prunedList;
 
         if (vectorToSequence.value) {
           // Convert FeatureVector's to FeatureSequence's by simply randomizing the order
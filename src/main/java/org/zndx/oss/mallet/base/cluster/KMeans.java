@@ -11,6 +11,23 @@
  EMPTY_SINGLE and other changes implemented March 2005
  Heuristic cluster selection implemented May 2005
 
+ <p>The means are kept as dense arrays, and are updated from the sparse
+ instances that change cluster, so an iteration costs time proportional to
+ the number of non-zero entries rather than to the number of instances
+ times the size of the feature alphabet.  The assignment step can be run
+ on several threads with {@link #setNumThreads}.  For a {@link Minkowski}
+ or {@link NormalizedDotProductMetric} metric, bounds from the triangle
+ inequality (Hamerly, 2010) skip most of the distance computations in
+ later iterations; for the normalized dot product the bounds are kept on
+ the distance between the normalized vectors, which is a true metric and
+ orders the means the same way.  Other metrics are given dense mean
+ vectors, and must be safe to call from several threads when more than
+ one thread is used.
+
+ <p>For very large lists, {@link #setMiniBatch} replaces the iterations
+ with mini-batch updates (Sculley, 2010), followed by one assignment of
+ every instance.
+
  @author Jerod Weinman <A HREF="mailto:weinman@cs.umass.edu">weinman@cs.umass.edu</A>
  @author Mike Winter <a href = "mailto:mike.winter@gmail.com">mike.winter@gmail.com</a>
 
@@ -19,14 +36,17 @@
 package org.zndx.oss.mallet.base.cluster;
 
 import org.zndx.oss.mallet.base.pipe.Pipe;
-import org.zndx.oss.mallet.base.types.Instance;
 import org.zndx.oss.mallet.base.types.InstanceList;
 import org.zndx.oss.mallet.base.types.Metric;
+import org.zndx.oss.mallet.base.types.Minkowski;
+import org.zndx.oss.mallet.base.types.NormalizedDotProductMetric;
 import org.zndx.oss.mallet.base.types.SparseVector;
-import org.zndx.oss.mallet.base.util.VectorStats;
+import org.zndx.oss.mallet.base.util.ParallelUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Logger;
 
 public class KMeans extends Clusterer {
@@ -53,12 +73,45 @@ public class KMeans extends Clusterer {
 	 */
 	public static final int EMPTY_SINGLE = 2;
 
+	/**
+	 * Seed each mean with the instance furthest from its nearest mean so far.
+	 */
+	public static final int INIT_MAX_MIN = 0;
+	/**
+	 * Seed each mean with an instance sampled with probability proportional
+	 * to its squared distance from its nearest mean so far (k-means++).
+	 */
+	public static final int INIT_KMEANS_PLUS_PLUS = 1;
+
+	// How distances are computed between the dense means and the instances
+	private static final int DISTANCE_METRIC = 0;
+	private static final int DISTANCE_MINKOWSKI = 1;
+	private static final int DISTANCE_COSINE = 2;
+
 	Random randinator;
 	Metric metric;
 	int numClusters;
 	int emptyAction;
 	ArrayList clusterMeans;
 
+	int initialization = INIT_MAX_MIN;
+	int numThreads = 1;
+	int miniBatchSize = 0;
+	int numMiniBatches = 0;
+
+	// State of the current call to cluster()
+	int distanceType;
+	double q;
+	SparseVector[] data;
+	double[] dataNorms;
+	int numDimensions;
+	int numMeans;
+	double[][] means;
+	double[] meanStats;      // sum |m_i|^q for Minkowski, two-norm for cosine
+	SparseVector[] meanVectors;
+	double[] halfMeanGaps;   // half the distance from each mean to its nearest other mean
+	ExecutorService executor;
+
 	private static Logger logger = Logger.getLogger( "edu.umass.cs.mallet.base.cluster.KMeans" );
 
 	/**
@@ -95,6 +148,48 @@ public class KMeans extends Clusterer {
 		this( instancePipe, numClusters, metric, EMPTY_ERROR );
 	}
 
+	/**
+	 * Set how the initial means are chosen, either INIT_MAX_MIN (the default)
+	 * or INIT_KMEANS_PLUS_PLUS.
+	 */
+	public void setInitialization(int initialization) {
+		if (initialization != INIT_MAX_MIN && initialization != INIT_KMEANS_PLUS_PLUS)
+			throw new IllegalArgumentException( "Unknown initialization " + initialization );
+		this.initialization = initialization;
+	}
+
+	/**
+	 * Set the number of threads used to assign instances to clusters.
+	 */
+	public void setNumThreads(int numThreads) {
+		if (numThreads < 1)
+			throw new IllegalArgumentException( "numThreads must be positive, was " + numThreads );
+		this.numThreads = numThreads;
+	}
+
+	public int getNumThreads() {
+		return numThreads;
+	}
+
+	/**
+	 * Cluster with numBatches mini-batch updates of batchSize instances
+	 * sampled with replacement, instead of iterating over all the instances.
+	 * A batchSize of 0 turns mini-batches off.
+	 */
+	public void setMiniBatch(int batchSize, int numBatches) {
+		if (batchSize < 0 || numBatches < 0 || (batchSize > 0 && numBatches == 0))
+			throw new IllegalArgumentException( "Bad mini-batch size " + batchSize + " or number " + numBatches );
+		this.miniBatchSize = batchSize;
+		this.numMiniBatches = numBatches;
+	}
+
+	/**
+	 * Set the source of randomness for k-means++ seeding and mini-batches.
+	 */
+	public void setRandom(Random random) {
+		this.randinator = random;
+	}
+
 
 	/**
 	 * Cluster instances
@@ -105,205 +200,580 @@ public class KMeans extends Clusterer {
 
 		assert(instances.getPipe() == this.instancePipe);
 
-		// Initialize clusterMeans
-		initializeMeansSample( instances, this.metric );
+		int n = instances.size();
+		data = new SparseVector[n];
+		numDimensions = 0;
+		for (int i = 0; i < n; i++) {
+			data[i] = (SparseVector)instances.getInstance( i ).getData();
+			int numLocations = data[i].numLocations();
+			if (numLocations > 0)
+				numDimensions = Math.max( numDimensions, data[i].indexAtLocation( numLocations - 1 ) + 1 );
+		}
+
+		distanceType = DISTANCE_METRIC;
+		if (metric instanceof Minkowski) {
+			distanceType = DISTANCE_MINKOWSKI;
+			q = ((Minkowski)metric).getQ();
+		}
+		else if (metric instanceof NormalizedDotProductMetric) {
+			distanceType = DISTANCE_COSINE;
+			dataNorms = new double[n];
+			for (int i = 0; i < n; i++)
+				dataNorms[i] = data[i].twoNorm();
+		}
+
+		if (numThreads > 1)
+			executor = ParallelUtils.newExecutor( numThreads, "KMeans" );
+
+		try {
+			// Initialize clusterMeans
+			initializeMeans();
+
+			int[] clusterLabels = miniBatchSize > 0 ? clusterMiniBatch() : clusterBatch();
+			if (clusterLabels == null)
+				return null;
+
+			clusterMeans = new ArrayList( numMeans );
+			for (int c = 0; c < numMeans; c++)
+				clusterMeans.add( meanVectors[c] );
+
+			return new Clustering( instances, numMeans, clusterLabels );
+		}
+		finally {
+			if (executor != null)
+				executor.shutdown();
+			executor = null;
+			data = null;
+			dataNorms = null;
+			means = null;
+			meanStats = null;
+			meanVectors = null;
+			halfMeanGaps = null;
+		}
+	}
 
-		int clusterLabels[] = new int[instances.size()];
-		ArrayList instanceClusters = new ArrayList( numClusters );
-		int instClust;
-		double instClustDist, instDist;
+	/**
+	 * Iterate assignments and mean updates over all the instances.
+	 *
+	 * @return The cluster of each instance, or null on failure.
+	 */
+	private int[] clusterBatch() {
+
+		int n = data.length;
+		int clusterLabels[] = new int[n];
+		int oldLabels[] = new int[n];
+		double upper[] = new double[n];
+		double lower[] = new double[n];
+		double sums[][] = new double[numMeans][numDimensions];
+		int counts[] = new int[numMeans];
+		boolean prune = distanceType != DISTANCE_METRIC;
+		boolean boundsValid = false;
 		double deltaMeans = Double.MAX_VALUE;
-		double deltaPoints = (double)instances.size();
+		double deltaPoints = (double)n;
 		int iterations = 0;
-		SparseVector clusterMean;
 
-		for (int c = 0; c < numClusters; c++) {
-			instanceClusters.add( c, new InstanceList( instancePipe ) );
-		}
+		Arrays.fill( clusterLabels, -1 );
 
 		logger.info( "Entering KMeans iteration" );
 
-		while (deltaMeans > MEANS_TOLERANCE && iterations < MAX_ITER && deltaPoints > instances.size() * POINTS_TOLERANCE) {
+		while (deltaMeans > MEANS_TOLERANCE && iterations < MAX_ITER && deltaPoints > n * POINTS_TOLERANCE) {
 
 			iterations++;
-			deltaPoints = 0;
-
-			// For each instance, measure its distance to the current cluster
-			// means, and subsequently assign it to the closest cluster
-			// by adding it to an corresponding instance list
-			// The mean of each cluster InstanceList is then updated.
-			for (int n = 0; n < instances.size(); n++) {
 
-				instClust = 0;
-				instClustDist = Double.MAX_VALUE;
+			// Assign each instance to the closest mean, then move the
+			// instances that changed cluster between the cluster sums.
+			System.arraycopy( clusterLabels, 0, oldLabels, 0, n );
+			if (boundsValid)
+				computeHalfMeanGaps();
+			assign( null, n, clusterLabels, upper, lower, boundsValid );
 
-				for (int c = 0; c < numClusters; c++) {
-					instDist = metric.distance( (SparseVector)clusterMeans.get( c ), (SparseVector)instances.getInstance( n ).getData() );
-
-					if (instDist < instClustDist) {
-						instClust = c;
-						instClustDist = instDist;
-					}
-				}
-				// Add to closest cluster & label it such
-				((InstanceList)instanceClusters.get( instClust )).add( instances.getInstance( n ) );
-
-				if (clusterLabels[n] != instClust) {
-					clusterLabels[n] = instClust;
+			deltaPoints = 0;
+			for (int i = 0; i < n; i++) {
+				if (clusterLabels[i] != oldLabels[i]) {
 					deltaPoints++;
+					if (oldLabels[i] >= 0) {
+						data[i].addTo( sums[oldLabels[i]], -1.0 );
+						counts[oldLabels[i]]--;
+					}
+					data[i].addTo( sums[clusterLabels[i]] );
+					counts[clusterLabels[i]]++;
 				}
-
 			}
 
-			deltaMeans = 0;
+			if (!fillEmptyClusters( clusterLabels, sums, counts, upper, lower ))
+				return null;
 
-			for (int c = 0; c < numClusters; c++) {
+			deltaMeans = 0;
+			double moved[] = new double[numMeans];
+			for (int c = 0; c < numMeans; c++) {
+				double[] oldMean = means[c];
+				SparseVector oldVector = meanVectors[c];
+				double oldStat = meanStats[c];
+				double[] mean = new double[numDimensions];
+				for (int d = 0; d < numDimensions; d++)
+					mean[d] = sums[c][d] / counts[c];
+				setMean( c, mean );
+				if (prune)
+					moved[c] = meansDistance( oldMean, oldStat, mean, meanStats[c] );
+				deltaMeans += distanceType == DISTANCE_MINKOWSKI ? moved[c] : metric.distance( oldVector, meanVectors[c] );
+			}
 
-				if (((InstanceList)instanceClusters.get( c )).size() > 0) {
-					clusterMean = VectorStats.mean( (InstanceList)instanceClusters.get( c ) );
+			// Loosen the bounds by how far the means moved
+			if (prune) {
+				int farthest = 0;
+				double first = 0, second = 0;
+				for (int c = 0; c < numMeans; c++) {
+					if (moved[c] > first) {
+						second = first;
+						first = moved[c];
+						farthest = c;
+					}
+					else if (moved[c] > second)
+						second = moved[c];
+				}
+				for (int i = 0; i < n; i++) {
+					upper[i] += moved[clusterLabels[i]];
+					lower[i] -= clusterLabels[i] == farthest ? second : first;
+				}
+				boundsValid = true;
+			}
 
-					deltaMeans += metric.distance( (SparseVector)clusterMeans.get( c ), clusterMean );
+			logger.fine( "Iter " + iterations + " deltaMeans = " + deltaMeans );
+		}
 
-					clusterMeans.set( c, clusterMean );
+		if (deltaMeans <= MEANS_TOLERANCE) logger.info( "KMeans converged with deltaMeans = " + deltaMeans );
+		else if (iterations >= MAX_ITER) logger.info( "Maximum number of iterations (" + MAX_ITER + ") reached." );
+		else if (deltaPoints <= n * POINTS_TOLERANCE)
+			logger.info( "Minimum number of points (np*" + POINTS_TOLERANCE + "=" + (int)(n * POINTS_TOLERANCE) + ") moved in last iteration. Saying converged." );
 
-					instanceClusters.set( c, new InstanceList( instancePipe ) );
+		return clusterLabels;
+	}
 
+	/**
+	 * Move each mean toward the instances of random mini-batches assigned
+	 * to it, with a step size of one over the number of instances it has
+	 * been given so far; then assign every instance to its closest mean.
+	 *
+	 * @return The cluster of each instance, or null on failure.
+	 */
+	private int[] clusterMiniBatch() {
+
+		int n = data.length;
+		int batchSize = Math.min( miniBatchSize, n );
+		int batch[] = new int[batchSize];
+		int batchLabels[] = new int[batchSize];
+		int seen[] = new int[numMeans];
+		double scale[] = new double[numMeans];
+
+		logger.info( "Entering mini-batch KMeans with " + numMiniBatches + " batches of " + batchSize );
+
+		for (int t = 0; t < numMiniBatches; t++) {
+			for (int j = 0; j < batchSize; j++)
+				batch[j] = randinator.nextInt( n );
+			assign( batch, batchSize, batchLabels, null, null, false );
+
+			// Each mean is kept as scale[c] * means[c] during the batch, so
+			// that shrinking it toward an instance only touches the
+			// instance's non-zero entries.
+			Arrays.fill( scale, 1.0 );
+			for (int j = 0; j < batchSize; j++) {
+				int c = batchLabels[j];
+				seen[c]++;
+				if (seen[c] == 1) {
+					Arrays.fill( means[c], 0.0 );
+					data[batch[j]].addTo( means[c] );
 				}
 				else {
+					double rate = 1.0 / seen[c];
+					scale[c] *= 1.0 - rate;
+					data[batch[j]].addTo( means[c], rate / scale[c] );
+				}
+			}
+			for (int c = 0; c < numMeans; c++) {
+				if (scale[c] != 1.0)
+					for (int d = 0; d < numDimensions; d++)
+						means[c][d] *= scale[c];
+				setMean( c, means[c] );
+			}
+			logger.fine( "Batch " + (t + 1) );
+		}
 
-					logger.info( "Empty cluster found." );
-
-					switch (emptyAction) {
-						case EMPTY_ERROR:
-							return null;
-						case EMPTY_DROP:
-							logger.fine( "Removing cluster " + c );
-							clusterMeans.remove( c );
-							instanceClusters.remove( c );
-							for (int n = 0; n < instances.size(); n++) {
-
-								assert (clusterLabels[n] != c) :
-										"Cluster size is " + ((InstanceList)instanceClusters.get( c )).size() + "+ yet clusterLabels[n] is " + clusterLabels[n];
+		int clusterLabels[] = new int[n];
+		double sums[][] = new double[numMeans][numDimensions];
+		int counts[] = new int[numMeans];
+		assign( null, n, clusterLabels, null, null, false );
+		for (int i = 0; i < n; i++) {
+			data[i].addTo( sums[clusterLabels[i]] );
+			counts[clusterLabels[i]]++;
+		}
+		if (!fillEmptyClusters( clusterLabels, sums, counts, null, null ))
+			return null;
+		for (int c = 0; c < numMeans; c++) {
+			for (int d = 0; d < numDimensions; d++)
+				sums[c][d] /= counts[c];
+			setMean( c, sums[c] );
+		}
 
-								if (clusterLabels[n] > c) clusterLabels[n]--;
-							}
+		return clusterLabels;
+	}
 
-							numClusters--;
-							c--; // <-- note this trickiness. bad style? maybe.
-							// it just means now that we've deleted the entry,
-							// we have to repeat the index to get the next entry.
-							break;
+	/**
+	 * Deal with the clusters left empty after an assignment step according
+	 * to the emptyAction.  The means are those of the assignment step.
+	 *
+	 * @return false if clustering should stop and fail.
+	 */
+	private boolean fillEmptyClusters(int[] clusterLabels, double[][] sums, int[] counts, double[] upper, double[] lower) {
 
-						case EMPTY_SINGLE:
+		for (int c = 0; c < numMeans; c++) {
 
-							//Get the instance the furthest from any centroid
-							//and make it a new centroid.
+			if (counts[c] > 0) continue;
 
-							double newCentroidDist = 0;
-							int newCentroid = 0;
-							InstanceList cacheList = null;
+			logger.info( "Empty cluster found." );
 
-							for (int clusters = 0; clusters < clusterMeans.size(); clusters++) {
-								SparseVector centroid = (SparseVector)clusterMeans.get( clusters );
-								InstanceList centInstances = (InstanceList)instanceClusters.get( clusters );
+			switch (emptyAction) {
+				case EMPTY_ERROR:
+					return false;
+				case EMPTY_DROP:
+					logger.fine( "Removing cluster " + c );
+					dropMean( c, clusterLabels, sums, counts );
+					c--; // repeat the index to get the next entry
+					break;
 
-								//Dont't create new empty clusters.
+				case EMPTY_SINGLE:
 
-								if (centInstances.size() <= 1) continue;
-								for (int n = 0; n < centInstances.size(); n++) {
-									double currentDist = metric.distance( centroid, (SparseVector)centInstances.getInstance( n ).getData() );
-									if (currentDist > newCentroidDist) {
-										newCentroid = n;
-										newCentroidDist = currentDist;
-										cacheList = centInstances;
+					//Get the instance the furthest from its centroid
+					//and make it a new centroid.
 
-									}
-								}
-							}
-							if (cacheList == null) {
-								logger.info( "Can't find an instance to move.  Exiting." );
-								//Can't find an instance to move.
-								return null;
-							}
-							else clusterMeans.set( c, cacheList.getInstance( newCentroid ).getData() );
+					double newCentroidDist = -1;
+					int newCentroid = -1;
 
-						default:
-							return null;
+					for (int i = 0; i < clusterLabels.length; i++) {
+						//Dont't create new empty clusters.
+						if (counts[clusterLabels[i]] <= 1) continue;
+						double currentDist = meanDistance( i, clusterLabels[i] );
+						if (currentDist > newCentroidDist) {
+							newCentroid = i;
+							newCentroidDist = currentDist;
+						}
 					}
-				}
+					if (newCentroid < 0) {
+						logger.info( "Can't find an instance to move.  Exiting." );
+						//Can't find an instance to move.
+						return false;
+					}
+					int from = clusterLabels[newCentroid];
+					data[newCentroid].addTo( sums[from], -1.0 );
+					counts[from]--;
+					data[newCentroid].addTo( sums[c] );
+					counts[c]++;
+					clusterLabels[newCentroid] = c;
+					if (upper != null) {
+						upper[newCentroid] = 0;
+						lower[newCentroid] = 0;
+					}
+					break;
 
+				default:
+					return false;
 			}
-
-
-			logger.fine( "Iter " + iterations + " deltaMeans = " + deltaMeans );
 		}
+		return true;
+	}
 
-		if (deltaMeans <= MEANS_TOLERANCE) logger.info( "KMeans converged with deltaMeans = " + deltaMeans );
-		else if (iterations >= MAX_ITER) logger.info( "Maximum number of iterations (" + MAX_ITER + ") reached." );
-		else if (deltaPoints <= instances.size() * POINTS_TOLERANCE)
-			logger.info( "Minimum number of points (np*" + POINTS_TOLERANCE + "=" + (int)(instances.size() * POINTS_TOLERANCE) + ") moved in last iteration. Saying converged." );
-
-
-		return new Clustering( instances, numClusters, clusterLabels );
-
+	private void dropMean(int c, int[] clusterLabels, double[][] sums, int[] counts) {
+		int tail = numMeans - c - 1;
+		System.arraycopy( means, c + 1, means, c, tail );
+		System.arraycopy( meanStats, c + 1, meanStats, c, tail );
+		System.arraycopy( meanVectors, c + 1, meanVectors, c, tail );
+		System.arraycopy( sums, c + 1, sums, c, tail );
+		System.arraycopy( counts, c + 1, counts, c, tail );
+		numMeans--;
+		for (int i = 0; i < clusterLabels.length; i++) {
+			assert (clusterLabels[i] != c) : "Cluster size is 0 yet clusterLabels[" + i + "] is " + c;
+			if (clusterLabels[i] > c) clusterLabels[i]--;
+		}
 	}
 
 	/**
-	 * Uses a MAX-MIN heuristic to seed the initial cluster means..
+	 * Assign instances to their closest means, on numThreads threads.  With
+	 * valid bounds, an instance whose upper bound on the distance to its
+	 * mean is below both its lower bound on the distance to any other mean
+	 * and half the distance from its mean to the nearest other mean cannot
+	 * change cluster, and is skipped.
 	 *
-	 * @param instList List of instances.
-	 * @param metric   Distance metric.
+	 * @param indices     Instances to assign, or null for all of them
+	 * @param size        Number of instances to assign
+	 * @param labels      Receives the cluster of the j-th instance at j
+	 * @param upper       Upper bounds, indexed like labels, or null
+	 * @param lower       Lower bounds, indexed like labels, or null
+	 * @param boundsValid Whether labels, upper and lower hold bounds from the last assignment
 	 */
+	private void assign(final int[] indices, int size, final int[] labels,
+	                    final double[] upper, final double[] lower, final boolean boundsValid) {
+		int[] bounds = ParallelUtils.shardBoundaries( size, executor == null ? 1 : numThreads );
+		Runnable[] tasks = new Runnable[bounds.length - 1];
+		for (int t = 0; t < tasks.length; t++) {
+			final int start = bounds[t], end = bounds[t + 1];
+			tasks[t] = new Runnable() {
+				public void run() {
+					for (int j = start; j < end; j++) {
+						int i = indices == null ? j : indices[j];
+						if (boundsValid) {
+							int a = labels[j];
+							double bound = Math.max( halfMeanGaps[a], lower[j] );
+							if (upper[j] <= bound) continue;
+							upper[j] = meanDistance( i, a );
+							if (upper[j] <= bound) continue;
+						}
+						int best = 0;
+						double bestDist = Double.MAX_VALUE, secondDist = Double.MAX_VALUE;
+						for (int c = 0; c < numMeans; c++) {
+							double dist = meanDistance( i, c );
+							if (dist < bestDist) {
+								secondDist = bestDist;
+								bestDist = dist;
+								best = c;
+							}
+							else if (dist < secondDist)
+								secondDist = dist;
+						}
+						labels[j] = best;
+						if (upper != null) {
+							upper[j] = bestDist;
+							lower[j] = secondDist;
+						}
+					}
+				}
+			};
+		}
+		if (executor == null)
+			tasks[0].run();
+		else
+			ParallelUtils.runAll( tasks, executor );
+	}
 
-	private void initializeMeansSample(InstanceList instList, Metric metric) {
+	private void computeHalfMeanGaps() {
+		halfMeanGaps = new double[numMeans];
+		Arrays.fill( halfMeanGaps, Double.MAX_VALUE );
+		for (int c = 0; c < numMeans; c++) {
+			for (int c2 = c + 1; c2 < numMeans; c2++) {
+				double gap = meansDistance( means[c], meanStats[c], means[c2], meanStats[c2] ) / 2;
+				if (gap < halfMeanGaps[c]) halfMeanGaps[c] = gap;
+				if (gap < halfMeanGaps[c2]) halfMeanGaps[c2] = gap;
+			}
+		}
+	}
+
+	/**
+	 * Seeds the initial means with instances that have at least one
+	 * non-zero entry, by the MAX-MIN heuristic or by k-means++.
+	 */
+	private void initializeMeans() {
 
 		//InstanceList has no remove() and null instances aren't
 		//parsed out by most Pipes, so we have to pre-process
 		//here and possibly leave some instances without
 		//cluster assignments.
 
-		ArrayList instances = new ArrayList( instList.size() );
-		for (int i = 0; i < instList.size(); i++) {
-			Instance ins = (Instance)instList.get( i );
-			SparseVector sparse = (SparseVector)ins.getData();
-			if (sparse.numLocations() == 0) continue;
+		int numCandidates = 0;
+		int[] candidates = new int[data.length];
+		for (int i = 0; i < data.length; i++)
+			if (data[i].numLocations() > 0)
+				candidates[numCandidates++] = i;
+		if (numCandidates < numClusters)
+			throw new IllegalArgumentException( "Cannot choose " + numClusters + " means from " + numCandidates + " non-empty instances" );
 
-			instances.add( instList.get( i ) );
-		}
+		numMeans = 0;
+		means = new double[numClusters][];
+		meanStats = new double[numClusters];
+		meanVectors = new SparseVector[numClusters];
 
-		//Add next center that has the MAX of the MIN of the distances from
-		//each of the previous j-1 centers (idea from Andrew Moore tutorial,
-		//not sure who came up with it originally)
-
-		for (int i = 0; i < numClusters; i++) {
-			double max = 0;
-			int selected = 0;
-			for (int k = 0; k < instances.size(); k++) {
-				double min = Double.MAX_VALUE;
-				Instance ins = (Instance)instances.get( k );
-				SparseVector inst = (SparseVector)ins.getData();
-				for (int j = 0; j < clusterMeans.size(); j++) {
-					SparseVector centerInst = (SparseVector)clusterMeans.get( j );
-					double dist = metric.distance( centerInst, inst );
-					if (dist < min) min = dist;
+		final double[] minDist = new double[data.length];
+		boolean[] chosen = new boolean[data.length];
+		Arrays.fill( minDist, Double.MAX_VALUE );
 
+		for (int c = 0; c < numClusters; c++) {
+			int selected = -1;
+
+			if (initialization == INIT_MAX_MIN) {
+				//Add next center that has the MAX of the MIN of the distances from
+				//each of the previous j-1 centers (idea from Andrew Moore tutorial,
+				//not sure who came up with it originally)
+				double max = 0;
+				for (int k = 0; k < numCandidates; k++) {
+					int i = candidates[k];
+					if (chosen[i]) continue;
+					if (selected < 0 || minDist[i] > max) {
+						selected = i;
+						max = minDist[i];
+					}
 				}
-				if (min > max) {
-					selected = k;
-					max = min;
+			}
+			else if (c > 0) {
+				double total = 0;
+				for (int k = 0; k < numCandidates; k++)
+					if (!chosen[candidates[k]])
+						total += minDist[candidates[k]] * minDist[candidates[k]];
+				double r = randinator.nextDouble() * total;
+				for (int k = 0; k < numCandidates && total > 0; k++) {
+					int i = candidates[k];
+					if (chosen[i]) continue;
+					selected = i;
+					r -= minDist[i] * minDist[i];
+					if (r < 0) break;
 				}
 			}
 
-			Instance newCenter = (Instance)instances.remove( selected );
-			clusterMeans.add( (SparseVector)newCenter.getData() );
+			if (selected < 0) {
+				// The first k-means++ center, or the remaining instances all
+				// coincide with means: pick uniformly.
+				int k = randinator.nextInt( numCandidates - c );
+				for (int m = 0; m < numCandidates; m++) {
+					if (chosen[candidates[m]]) continue;
+					if (k-- == 0) {
+						selected = candidates[m];
+						break;
+					}
+				}
+			}
+
+			chosen[selected] = true;
+			double[] mean = new double[numDimensions];
+			data[selected].addTo( mean );
+			final int newMean = numMeans++;
+			setMean( newMean, mean );
+
+			if (c == numClusters - 1) break;
+
+			int[] bounds = ParallelUtils.shardBoundaries( data.length, executor == null ? 1 : numThreads );
+			Runnable[] tasks = new Runnable[bounds.length - 1];
+			for (int t = 0; t < tasks.length; t++) {
+				final int start = bounds[t], end = bounds[t + 1];
+				tasks[t] = new Runnable() {
+					public void run() {
+						for (int i = start; i < end; i++) {
+							double dist = meanDistance( i, newMean );
+							if (dist < minDist[i]) minDist[i] = dist;
+						}
+					}
+				};
+			}
+			if (executor == null)
+				tasks[0].run();
+			else
+				ParallelUtils.runAll( tasks, executor );
+		}
+	}
+
+	private void setMean(int c, double[] mean) {
+		means[c] = mean;
+		meanVectors[c] = new SparseVector( mean, false );
+		double stat = 0;
+		if (distanceType == DISTANCE_MINKOWSKI && q != Double.POSITIVE_INFINITY) {
+			for (int d = 0; d < mean.length; d++)
+				stat += power( Math.abs( mean[d] ) );
+		}
+		else if (distanceType == DISTANCE_COSINE) {
+			for (int d = 0; d < mean.length; d++)
+				stat += mean[d] * mean[d];
+			stat = Math.sqrt( stat );
+		}
+		meanStats[c] = stat;
+	}
+
+	/**
+	 * Distance from instance i to mean c.  For the normalized dot product
+	 * this is the distance between the normalized vectors, which satisfies
+	 * the triangle inequality; for other metrics it is the metric itself.
+	 */
+	private double meanDistance(int i, int c) {
+		SparseVector x = data[i];
+		double[] mean = means[c];
+		int numLocations = x.numLocations();
+
+		switch (distanceType) {
+			case DISTANCE_MINKOWSKI:
+				if (q == Double.POSITIVE_INFINITY) {
+					double max = 0;
+					int loc = 0;
+					for (int d = 0; d < mean.length; d++) {
+						double value = 0;
+						if (loc < numLocations && x.indexAtLocation( loc ) == d)
+							value = x.valueAtLocation( loc++ );
+						double diff = Math.abs( value - mean[d] );
+						if (diff > max) max = diff;
+					}
+					return max;
+				}
+				// Start from the distance to the zero vector, and correct
+				// it at the instance's non-zero entries
+				double sum = meanStats[c];
+				for (int loc = 0; loc < numLocations; loc++) {
+					double m = mean[x.indexAtLocation( loc )];
+					sum += power( Math.abs( x.valueAtLocation( loc ) - m ) ) - power( Math.abs( m ) );
+				}
+				return root( sum );
+
+			case DISTANCE_COSINE:
+				double dot = 0;
+				for (int loc = 0; loc < numLocations; loc++)
+					dot += x.valueAtLocation( loc ) * mean[x.indexAtLocation( loc )];
+				return chordDistance( dot, dataNorms[i], meanStats[c] );
+
+			default:
+				return metric.distance( meanVectors[c], x );
+		}
+	}
+
+	/**
+	 * Distance between two dense means, in the same terms as meanDistance.
+	 */
+	private double meansDistance(double[] a, double aStat, double[] b, double bStat) {
+		switch (distanceType) {
+			case DISTANCE_MINKOWSKI:
+				double dist = 0;
+				for (int d = 0; d < a.length; d++) {
+					double diff = Math.abs( a[d] - b[d] );
+					if (q == Double.POSITIVE_INFINITY) {
+						if (diff > dist) dist = diff;
+					}
+					else
+						dist += power( diff );
+				}
+				return q == Double.POSITIVE_INFINITY ? dist : root( dist );
+
+			case DISTANCE_COSINE:
+				double dot = 0;
+				for (int d = 0; d < a.length; d++)
+					dot += a[d] * b[d];
+				return chordDistance( dot, aStat, bStat );
+
+			default:
+				return metric.distance( new SparseVector( a, false ), new SparseVector( b, false ) );
 		}
+	}
+
+	private double power(double diff) {
+		return q == 1 ? diff : (q == 2 ? diff * diff : Math.pow( diff, q ));
+	}
+
+	private double root(double sum) {
+		if (sum <= 0) return 0;
+		return q == 1 ? sum : (q == 2 ? Math.sqrt( sum ) : Math.pow( sum, 1 / q ));
+	}
 
+	// Euclidean distance between x/|x| and y/|y|, taking a zero vector to the origin
+	private static double chordDistance(double dot, double xNorm, double yNorm) {
+		if (xNorm == 0 || yNorm == 0)
+			return (xNorm == 0 && yNorm == 0) ? 0 : 1;
+		return Math.sqrt( Math.max( 0, 2 - 2 * dot / (xNorm * yNorm) ) );
 	}
 
 	/**
 	 * Return the ArrayList of cluster means after a run of the algorithm.
 	 *
-	 * @return An ArrayList of Instances.
+	 * @return An ArrayList of SparseVectors.
 	 */
 
 	public ArrayList getClusterMeans() {
@@ -0,0 +1,255 @@
+/* Copyright (C) 2003 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package org.zndx.oss.mallet.base.cluster.tests;
+
+import org.zndx.oss.mallet.base.cluster.*;
+import org.zndx.oss.mallet.base.types.*;
+import org.zndx.oss.mallet.base.pipe.Noop;
+import junit.framework.*;
+import java.util.Random;
+
+public class TestKMeans extends TestCase
+{
+	public TestKMeans (String name)
+	{
+		super (name);
+	}
+
+	static double[][] centers = {{0, 0, 20}, {20, 0, 20}, {0, 20, 20}, {20, 20, 20}};
+
+	/** Points scattered by at most 1 around each center in turn, so the
+	 * right clustering puts instance i with the others of i % 4. */
+	static InstanceList points (int numPoints)
+	{
+		Random r = new Random (1);
+		Alphabet dict = new Alphabet ();
+		dict.lookupIndex ("x");
+		dict.lookupIndex ("y");
+		dict.lookupIndex ("bias");
+		InstanceList ilist = new InstanceList (new Noop (dict, null));
+		for (int i = 0; i < numPoints; i++) {
+			double[] c = centers[i % centers.length];
+			double[] values = new double[] {c[0] + r.nextDouble() * 2 - 1, c[1] + r.nextDouble() * 2 - 1, c[2]};
+			ilist.add (new FeatureVector (dict, new int[] {0, 1, 2}, values), null, "p"+i, null);
+		}
+		return ilist;
+	}
+
+	static Clustering cluster (InstanceList ilist, Metric metric, int initialization,
+														 int batchSize, int numThreads)
+	{
+		KMeans kmeans = new KMeans (ilist.getPipe(), centers.length, metric);
+		kmeans.setInitialization (initialization);
+		kmeans.setRandom (new Random (2));
+		kmeans.setNumThreads (numThreads);
+		if (batchSize > 0)
+			kmeans.setMiniBatch (batchSize, 20);
+		return kmeans.cluster (ilist);
+	}
+
+	static void assertRecoversCenters (Clustering clustering, int numPoints)
+	{
+		assertEquals (centers.length, clustering.getNumClusters ());
+		int[] labels = new int[centers.length];
+		for (int i = 0; i < labels.length; i++)
+			labels[i] = clustering.getLabel (i);
+		for (int i = 0; i < labels.length; i++)
+			for (int j = 0; j < i; j++)
+				assertTrue (labels[i] != labels[j]);
+		for (int i = 0; i < numPoints; i++)
+			assertEquals (labels[i % centers.length], clustering.getLabel (i));
+	}
+
+	static void assertSameLabels (Clustering expected, Clustering clustering, int numPoints)
+	{
+		for (int i = 0; i < numPoints; i++)
+			assertEquals (expected.getLabel (i), clustering.getLabel (i));
+	}
+
+	void checkThreads (Metric metric, int initialization, int batchSize)
+	{
+		InstanceList ilist = points (400);
+		Clustering serial = cluster (ilist, metric, initialization, batchSize, 1);
+		assertRecoversCenters (serial, ilist.size());
+		for (int numThreads = 2; numThreads <= 4; numThreads += 2) {
+			Clustering parallel = cluster (ilist, metric, initialization, batchSize, numThreads);
+			assertSameLabels (serial, parallel, ilist.size());
+		}
+		// The same seed gives the same clustering
+		assertSameLabels (serial, cluster (ilist, metric, initialization, batchSize, 1), ilist.size());
+	}
+
+	public void testMaxMin ()
+	{
+		checkThreads (new Minkowski (2), KMeans.INIT_MAX_MIN, 0);
+	}
+
+	public void testKMeansPlusPlus ()
+	{
+		checkThreads (new Minkowski (2), KMeans.INIT_KMEANS_PLUS_PLUS, 0);
+		checkThreads (new Minkowski (1), KMeans.INIT_KMEANS_PLUS_PLUS, 0);
+	}
+
+	public void testNormalizedDotProduct ()
+	{
+		// The bias feature keeps the four centers apart in angle
+		checkThreads (new NormalizedDotProductMetric (), KMeans.INIT_KMEANS_PLUS_PLUS, 0);
+	}
+
+	public void testMiniBatch ()
+	{
+		checkThreads (new Minkowski (2), KMeans.INIT_KMEANS_PLUS_PLUS, 50);
+	}
+
+	public void testMeans ()
+	{
+		InstanceList ilist = points (400);
+		KMeans kmeans = new KMeans (ilist.getPipe(), centers.length, new Minkowski (2));
+		kmeans.setNumThreads (3);
+		Clustering clustering = kmeans.cluster (ilist);
+		assertRecoversCenters (clustering, ilist.size());
+		for (int c = 0; c < centers.length; c++) {
+			SparseVector mean = (SparseVector) kmeans.getClusterMeans().get (clustering.getLabel (c));
+			for (int d = 0; d < centers[c].length; d++)
+				assertEquals (centers[c][d], mean.value (d), 0.2);
+		}
+	}
+
+	/** Copies of two points, so that a third mean seeded among them is
+	 * left with no instances. */
+	static InstanceList duplicates ()
+	{
+		Alphabet dict = new Alphabet ();
+		dict.lookupIndex ("x");
+		dict.lookupIndex ("y");
+		dict.lookupIndex ("bias");
+		InstanceList ilist = new InstanceList (new Noop (dict, null));
+		for (int i = 0; i < 10; i++)
+			ilist.add (new FeatureVector (dict, new int[] {0, 1, 2}, new double[] {i % 2 == 0 ? 0 : 10, 0, 20}),
+								 null, "p"+i, null);
+		return ilist;
+	}
+
+	public void testEmptyClusters ()
+	{
+		InstanceList ilist = duplicates ();
+		for (int numThreads = 1; numThreads <= 2; numThreads++) {
+			KMeans kmeans = new KMeans (ilist.getPipe(), 3, new Minkowski (2), KMeans.EMPTY_ERROR);
+			kmeans.setNumThreads (numThreads);
+			assertNull (kmeans.cluster (ilist));
+
+			// The empty cluster is dropped, and the others keep their instances and means
+			kmeans = new KMeans (ilist.getPipe(), 3, new Minkowski (2), KMeans.EMPTY_DROP);
+			kmeans.setNumThreads (numThreads);
+			Clustering clustering = kmeans.cluster (ilist);
+			assertEquals (2, clustering.getNumClusters ());
+			assertEquals (2, kmeans.getClusterMeans().size ());
+			assertTrue (clustering.getLabel (0) != clustering.getLabel (1));
+			for (int i = 0; i < ilist.size(); i++) {
+				assertEquals (clustering.getLabel (i % 2), clustering.getLabel (i));
+				SparseVector mean = (SparseVector) kmeans.getClusterMeans().get (clustering.getLabel (i));
+				assertEquals (i % 2 == 0 ? 0 : 10, mean.value (0), 1e-12);
+			}
+
+			// One instance is moved into the empty cluster, and is its mean
+			kmeans = new KMeans (ilist.getPipe(), 3, new Minkowski (2), KMeans.EMPTY_SINGLE);
+			kmeans.setNumThreads (numThreads);
+			clustering = kmeans.cluster (ilist);
+			assertEquals (3, clustering.getNumClusters ());
+			int[] sizes = new int[3];
+			int single = -1;
+			for (int i = 0; i < ilist.size(); i++)
+				sizes[clustering.getLabel (i)]++;
+			for (int c = 0; c < 3; c++) {
+				assertTrue (sizes[c] > 0);
+				if (sizes[c] == 1) single = c;
+			}
+			assertTrue (single >= 0);
+			for (int i = 0; i < ilist.size(); i++) {
+				SparseVector mean = (SparseVector) kmeans.getClusterMeans().get (clustering.getLabel (i));
+				assertEquals (i % 2 == 0 ? 0 : 10, mean.value (0), 1e-12);
+			}
+		}
+	}
+
+	/** The metric itself, hidden from KMeans so that it assigns every
+	 * instance to every mean without bounds. */
+	static class PlainMetric implements Metric
+	{
+		Metric metric;
+		PlainMetric (Metric metric) { this.metric = metric; }
+		public double distance (SparseVector a, SparseVector b) { return metric.distance (a, b); }
+	}
+
+	/** Blobs that overlap, so that the clustering takes many iterations. */
+	static InstanceList blobs (int numPoints)
+	{
+		Random r = new Random (3);
+		Alphabet dict = new Alphabet ();
+		dict.lookupIndex ("x");
+		dict.lookupIndex ("y");
+		dict.lookupIndex ("bias");
+		InstanceList ilist = new InstanceList (new Noop (dict, null));
+		for (int i = 0; i < numPoints; i++) {
+			double[] c = centers[i % centers.length];
+			double[] values = new double[] {c[0] + r.nextGaussian() * 8, c[1] + r.nextGaussian() * 8, c[2]};
+			ilist.add (new FeatureVector (dict, new int[] {0, 1, 2}, values), null, "p"+i, null);
+		}
+		return ilist;
+	}
+
+	void checkPruning (Metric metric, int initialization)
+	{
+		InstanceList ilist = blobs (600);
+		for (int numThreads = 1; numThreads <= 3; numThreads += 2) {
+			KMeans pruned = new KMeans (ilist.getPipe(), 6, metric);
+			KMeans plain = new KMeans (ilist.getPipe(), 6, new PlainMetric (metric));
+			pruned.setInitialization (initialization);
+			plain.setInitialization (initialization);
+			pruned.setRandom (new Random (4));
+			plain.setRandom (new Random (4));
+			pruned.setNumThreads (numThreads);
+			plain.setNumThreads (numThreads);
+			Clustering expected = plain.cluster (ilist);
+			Clustering clustering = pruned.cluster (ilist);
+			assertEquals (expected.getNumClusters (), clustering.getNumClusters ());
+			assertSameLabels (expected, clustering, ilist.size());
+			for (int c = 0; c < expected.getNumClusters (); c++) {
+				SparseVector mean1 = (SparseVector) plain.getClusterMeans().get (c);
+				SparseVector mean2 = (SparseVector) pruned.getClusterMeans().get (c);
+				for (int d = 0; d < centers[0].length; d++)
+					assertEquals (mean1.value (d), mean2.value (d), 1e-9);
+			}
+		}
+	}
+
+	public void testPruning ()
+	{
+		checkPruning (new Minkowski (2), KMeans.INIT_KMEANS_PLUS_PLUS);
+		checkPruning (new Minkowski (1), KMeans.INIT_KMEANS_PLUS_PLUS);
+		checkPruning (new Minkowski (2), KMeans.INIT_MAX_MIN);
+		// k-means++ samples by distance, which is not the metric for the
+		// normalized dot product, so only MAX-MIN seeds the same means
+		checkPruning (new NormalizedDotProductMetric (), KMeans.INIT_MAX_MIN);
+	}
+
+	public static Test suite ()
+	{
+		return new TestSuite (TestKMeans.class);
+	}
+
+	protected void setUp ()
+	{
+	}
+
+	public static void main (String[] args)
+	{
+		junit.textui.TestRunner.run (suite());
+	}
+
+}
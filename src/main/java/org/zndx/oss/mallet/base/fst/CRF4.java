@@ -118,7 +118,11 @@ public class CRF4 extends Transducer implements Serializable
 	private boolean cachedGradientStale = true;
 	protected boolean someTrainingDone = false;
   private int transductionType = 0;
+	// Zero after deserialization, which is taken as one
+	private transient int featureInductionThreads = 1;
 	ArrayList featureInducers = new ArrayList();
+	// Optional feature-major copy of weights[] used for scoring transitions; see compileWeights()
+	private transient volatile Compiled compiled = null;
 
 	// xxx temporary hack.
   //  This is quite useful to have, though!! -cas
@@ -200,6 +204,16 @@ public class CRF4 extends Transducer implements Serializable
 	public void setUseSparseWeights (boolean b) { useSparseWeights = b; }
 	public boolean getUseSparseWeights () { return useSparseWeights; }
 
+	/** Sets the number of threads over which feature induction splits the
+	 * ranking of candidate conjunctions. */
+	public void setFeatureInductionThreads (int numThreads)
+	{
+		if (numThreads < 1)
+			throw new IllegalArgumentException ("numThreads must be positive, was "+numThreads);
+		featureInductionThreads = numThreads;
+	}
+	public int getFeatureInductionThreads () { return Math.max (1, featureInductionThreads); }
+
   /** Sets whether to use the 'some unsupported trick.' This trick is, if training a CRF
    * where some training has been done and sparse weights are used, to add a few weights
    * for feaures that do not occur in the tainig data.
@@ -769,6 +783,7 @@ public class CRF4 extends Transducer implements Serializable
 	public void setWeights (int weightsIndex, SparseVector transitionWeights)
 	{
 		cachedValueStale = cachedGradientStale = true;
+		discardCompiledWeights ();
 		if (weightsIndex >= weights.length || weightsIndex < 0)
 			throw new IllegalArgumentException ("weightsIndex "+weightsIndex+" is out of bounds");
 		weights[weightsIndex] = transitionWeights;
@@ -810,6 +825,7 @@ public class CRF4 extends Transducer implements Serializable
 	}
 	
 	public void setWeights (SparseVector[] m) {
+		discardCompiledWeights ();
 		weights = m;
 	}
 
@@ -820,6 +836,78 @@ public class CRF4 extends Transducer implements Serializable
 
   public void setDefaultWeight (int widx, double val) { defaultWeights[widx] = val; }
 
+	/**
+	 * Compiles weights[] into a single dense array indexed by (input feature, weights index),
+	 *  with the rows of frequent features first.  Until the weights are next changed, the
+	 *  costs of all transitions out of a token are computed together by one scan over the
+	 *  token's features, instead of by a separate sparse dot product for each weights index.
+	 *  This is mainly useful for labeling with a trained CRF.  Any method that changes or
+	 *  reallocates the weights (including training) discards the compiled copy; weights[]
+	 *  itself is never changed, so serialization is unaffected.
+	 * @param ilist Data used to count feature frequencies for the row order.  May be null.
+	 */
+	public void compileWeights (InstanceList ilist)
+	{
+		int[] counts = (ilist == null) ? null : FeatureMajorWeights.countFeatures (ilist);
+		Compiled c = new Compiled (new FeatureMajorWeights (weights, counts));
+		compiled = c;
+		logger.info ("CRF4: compiled "+weights.length+" weight vectors over "
+								 +c.weights.numRows()+" input features");
+	}
+
+	public void compileWeights () { compileWeights (null); }
+
+	public boolean isWeightsCompiled () { return compiled != null; }
+
+	public FeatureMajorWeights getCompiledWeights ()
+	{
+		Compiled c = compiled;
+		return (c == null) ? null : c.weights;
+	}
+
+	private void discardCompiledWeights ()
+	{
+		compiled = null;
+	}
+
+	// The compiled weights and their per-thread caches, published together,
+	// so that a thread never pairs new weights with a cache of the old ones
+	private static class Compiled
+	{
+		final FeatureMajorWeights weights;
+		final ThreadLocal cache = new ThreadLocal ();		// a CompiledCache per thread
+
+		Compiled (FeatureMajorWeights weights)
+		{
+			this.weights = weights;
+		}
+
+		// Dot products of fv with all weights[], cached for the most recent input, since
+		// the transition iterators of every state are created in turn for the same token.
+		// The cache is kept per thread, so that several threads may label at once.
+		double[] dotProducts (FeatureVector fv)
+		{
+			CompiledCache c = (CompiledCache) cache.get ();
+			if (c == null) {
+				c = new CompiledCache ();
+				c.scores = new double [weights.numWeightSets ()];
+				cache.set (c);
+			}
+			if (fv != c.input) {
+				weights.dotProducts (fv, c.scores);
+				c.input = fv;
+			}
+			return c.scores;
+		}
+	}
+
+	// The most recent input of one thread, and its dot products with all weights[]
+	private static class CompiledCache
+	{
+		FeatureVector input;
+		double[] scores;
+	}
+
   public boolean isWeightsFrozen (int weightsIndex)
   {
     return weightsFrozen [weightsIndex];
@@ -871,6 +959,7 @@ public class CRF4 extends Transducer implements Serializable
 		// The value doesn't actually change, because the "new" parameters will have zero value
 		// but the gradient changes because the parameters now have different layout.
 		cachedValueStale = cachedGradientStale = true;
+		discardCompiledWeights ();
 		setTrainable (false);
 		weightsPresent = new BitSet[weights.length];
 		for (int i = 0; i < weights.length; i++)
@@ -931,6 +1020,7 @@ public class CRF4 extends Transducer implements Serializable
 		int max = inputAlphabet.size();
 		int numWeights = 0;
 		logger.info ("CRF using dense weights, num input features = "+max);
+		discardCompiledWeights ();
 		for (int i = 0; i < weights.length; i++) {
       int nfeatures;
       if (featureSelections[i] == null) {
@@ -1012,6 +1102,7 @@ public class CRF4 extends Transducer implements Serializable
 			defaultWeights = newDefaultWeights;
 			featureSelections = newFeatureSelections;
       weightsFrozen = ArrayUtils.append (weightsFrozen, false);
+			discardCompiledWeights ();
 		}
 		setTrainable (false);
 		return wi;
@@ -1082,6 +1173,7 @@ public class CRF4 extends Transducer implements Serializable
 	public void setParameter (int sourceStateIndex, int destStateIndex, int featureIndex, double value)
 	{
 		cachedValueStale = cachedGradientStale = true;
+		discardCompiledWeights ();
 		State source = (State)getState(sourceStateIndex);
 		State dest = (State) getState(destStateIndex);
 		int rowIndex;
@@ -1478,7 +1570,8 @@ public class CRF4 extends Transducer implements Serializable
 																						 clusteredErrorInstances[i][j], 
 																						 numFeaturesPerFeatureInduction,
 																						 2*numFeaturesPerFeatureInduction,
-																						 2*numFeaturesPerFeatureInduction);
+																						 2*numFeaturesPerFeatureInduction,
+																						 getFeatureInductionThreads ());
 						featureInducers.add(klfi[i][j]);
 					}
 				}
@@ -1514,7 +1607,8 @@ public class CRF4 extends Transducer implements Serializable
 															errorInstances, 
 															numFeaturesPerFeatureInduction,
 															2*numFeaturesPerFeatureInduction,
-															2*numFeaturesPerFeatureInduction);
+															2*numFeaturesPerFeatureInduction,
+															getFeatureInductionThreads ());
 				featureInducers.add(klfi);
 				// Note that this adds features globally, but not on a per-transition basis
 				klfi.induceFeaturesFor (trainingData, false, false);
@@ -1877,6 +1971,7 @@ public class CRF4 extends Transducer implements Serializable
 
 			// This resets and values that may have been in expecations and constraints
 			setTrainable (true);
+			discardCompiledWeights ();
 
       // This is unfortunately necessary, b/c cachedValue & cachedValueStale not in same place!
       cachedValueStale = cachedGradientStale = true;
@@ -1961,6 +2056,7 @@ public class CRF4 extends Transducer implements Serializable
 		public void setParameters (double [] buff) {
 			assert (buff.length == getNumParameters());
 			cachedValueStale = cachedGradientStale = true;
+			discardCompiledWeights ();
 			DenseVector parameters = new DenseVector (buff, true);			
 			int pi = 0;
 			for (int i = 0; i < numStates(); i++) {
@@ -1979,6 +2075,7 @@ public class CRF4 extends Transducer implements Serializable
 
 		public void setParameter (int index, double value) {
 			cachedValueStale = cachedGradientStale = true;
+			discardCompiledWeights ();
 			int numStateParms = 2 * numStates();
 			if (index < numStateParms) {
 				State s = (State)getState(index / 2);
@@ -2609,6 +2706,8 @@ public class CRF4 extends Transducer implements Serializable
 			this.input = fv;
 			this.costs = new double[source.destinations.length];
 			int nwi, swi;
+			Compiled compiled = crf.compiled;
+			double[] dotProducts = (compiled == null) ? null : compiled.dotProducts (fv);
 			for (int transIndex = 0; transIndex < source.destinations.length; transIndex++) {
 				// xxx Or do we want output.equals(...) here?
 				if (output == null || output.equals(source.labels[transIndex])) {
@@ -2618,7 +2717,7 @@ public class CRF4 extends Transducer implements Serializable
 					nwi = source.weightsIndices[transIndex].length;
 					for (int wi = 0; wi < nwi; wi++) {
 						swi = source.weightsIndices[transIndex][wi];
-						costs[transIndex] -= (crf.weights[swi].dotProduct (fv)
+						costs[transIndex] -= ((dotProducts == null ? crf.weights[swi].dotProduct (fv) : dotProducts[swi])
 																	// include with implicit weight 1.0 the default feature
 																	+ crf.defaultWeights[swi]);
 					}
@@ -35,6 +35,7 @@ import org.zndx.oss.mallet.base.types.DenseVector;
 import org.zndx.oss.mallet.base.types.Alphabet;
 import org.zndx.oss.mallet.base.types.MatrixOps;
 import org.zndx.oss.mallet.base.util.MalletLogger;
+import org.zndx.oss.mallet.base.util.LogMath;
 import org.zndx.oss.mallet.base.util.search.*;
 
 // Variable name key:
@@ -631,7 +632,12 @@ public abstract class Transducer implements Serializable
 			if (atLeastOneInitialState == false)
 				logger.warning ("There are no starting states!");
 
-			for (int ip = 0; ip < latticeLength-1; ip++)
+			// Running sums of the costs into each destination, see LogMath
+			double[] minCosts = new double[numStates];
+			double[] sums = new double[numStates];
+			for (int ip = 0; ip < latticeLength-1; ip++) {
+				Arrays.fill (minCosts, INFINITE_COST);
+				Arrays.fill (sums, 0);
 				for (int i = 0; i < numStates; i++) {
 					if (nodes[ip][i] == null || nodes[ip][i].alpha == INFINITE_COST)
 						// xxx if we end up doing this a lot,
@@ -657,23 +663,28 @@ public abstract class Transducer implements Serializable
 							logger.fine ("transitionCost="+transitionCost
 													 +" nodes["+ip+"]["+i+"].alpha="+nodes[ip][i].alpha
 													 +" destinationNode.alpha="+destinationNode.alpha);
-						destinationNode.alpha = sumNegLogProb (destinationNode.alpha,
-																									 nodes[ip][i].alpha + transitionCost);
-						//System.out.println ("destinationNode.alpha <- "+destinationNode.alpha);
+						LogMath.accumulateNegLogProb (minCosts, sums, destination.getIndex(),
+																					nodes[ip][i].alpha + transitionCost);
 					}
 				}
+				for (int j = 0; j < numStates; j++)
+					if (nodes[ip+1][j] != null)
+						nodes[ip+1][j].alpha = LogMath.finishNegLogProb (minCosts[j], sums[j]);
+			}
 
 			// Calculate total cost of Lattice.  This is the normalizer
-			cost = INFINITE_COST;
+			Arrays.fill (minCosts, INFINITE_COST);
+			Arrays.fill (sums, 0);
 			for (int i = 0; i < numStates; i++)
 				if (nodes[latticeLength-1][i] != null) {
 					// Note: actually we could sum at any ip index,
 					// the choice of latticeLength-1 is arbitrary
 					//System.out.println ("Ending alpha, state["+i+"] = "+nodes[latticeLength-1][i].alpha);
 					//System.out.println ("Ending beta,  state["+i+"] = "+getState(i).finalCost);
-					cost = sumNegLogProb (cost,
-																(nodes[latticeLength-1][i].alpha + getState(i).finalCost));
+					LogMath.accumulateNegLogProb (minCosts, sums, 0,
+																				nodes[latticeLength-1][i].alpha + getState(i).finalCost);
 				}
+			cost = LogMath.finishNegLogProb (minCosts[0], sums[0]);
 			// Cost is now an "unnormalized cost" of the entire Lattice
 			//assert (cost >= 0) : "cost = "+cost;
 
@@ -701,6 +712,8 @@ public abstract class Transducer implements Serializable
 				}
 
 			for (int ip = latticeLength-2; ip >= 0; ip--) {
+				Arrays.fill (minCosts, INFINITE_COST);
+				Arrays.fill (sums, 0);
 				for (int i = 0; i < numStates; i++) {
 					if (nodes[ip][i] == null || nodes[ip][i].alpha == INFINITE_COST)
 						// Note that skipping here based on alpha means that beta values won't
@@ -720,13 +733,8 @@ public abstract class Transducer implements Serializable
 							double transitionCost = iter.getCost();
 							assert (!Double.isNaN(transitionCost));
 							//							assert (transitionCost >= 0);  Not necessarily
-							double oldBeta = nodes[ip][i].beta;
-							assert (!Double.isNaN(nodes[ip][i].beta));
-							nodes[ip][i].beta = sumNegLogProb (nodes[ip][i].beta,
-																								 destinationNode.beta + transitionCost);
-							assert (!Double.isNaN(nodes[ip][i].beta))
-								: "dest.beta="+destinationNode.beta+" trans="+transitionCost+" sum="+(destinationNode.beta+transitionCost)
-								+ " oldBeta="+oldBeta;
+							assert (!Double.isNaN(destinationNode.beta));
+							LogMath.accumulateNegLogProb (minCosts, sums, i, destinationNode.beta + transitionCost);
               double xi = nodes[ip][i].alpha + transitionCost + nodes[ip+1][j].beta - cost;
 							if (saveXis) xis[ip][i][j] = xi;
 							assert (!Double.isNaN(nodes[ip][i].alpha));
@@ -748,6 +756,8 @@ public abstract class Transducer implements Serializable
 							}
 						}
 					}
+					nodes[ip][i].beta = LogMath.finishNegLogProb (minCosts[i], sums[i]);
+					assert (!Double.isNaN(nodes[ip][i].beta));
 					gammas[ip][i] = nodes[ip][i].alpha + nodes[ip][i].beta - cost;
 				}
 			}
@@ -842,7 +852,12 @@ public abstract class Transducer implements Serializable
 
 			if (atLeastOneInitialState == false)
 				logger.warning ("There are no starting states!");
-			for (int ip = 0; ip < latticeLength-1; ip++)
+			// Running sums of the costs into each destination, see LogMath
+			double[] minCosts = new double[numStates];
+			double[] sums = new double[numStates];
+			for (int ip = 0; ip < latticeLength-1; ip++) {
+				Arrays.fill (minCosts, INFINITE_COST);
+				Arrays.fill (sums, 0);
 				for (int i = 0; i < numStates; i++) {
 					logger.fine ("ip=" + ip+", i=" + i);
 					// check if this node is possible at this <position,
@@ -900,10 +915,8 @@ public abstract class Transducer implements Serializable
 							logger.fine ("transitionCost="+transitionCost
 													 +" nodes["+ip+"]["+i+"].alpha="+nodes[ip][i].alpha
 													 +" destinationNode.alpha="+destinationNode.alpha);
-							destinationNode.alpha = sumNegLogProb (destinationNode.alpha,
-																									 nodes[ip][i].alpha + transitionCost);
-							//System.out.println ("destinationNode.alpha <- "+destinationNode.alpha);
-							logger.fine ("Set alpha of latticeNode at ip = "+ (ip+1) + " stateIndex = " + destination.getIndex() + ", destinationNode.alpha = " + destinationNode.alpha);
+							LogMath.accumulateNegLogProb (minCosts, sums, destination.getIndex(),
+																						nodes[ip][i].alpha + transitionCost);
 						}
 						else {
 							// this is an illegal transition according to our
@@ -915,9 +928,16 @@ public abstract class Transducer implements Serializable
 						}
 					}
 				}
+				for (int j = 0; j < numStates; j++)
+					if (nodes[ip+1][j] != null) {
+						nodes[ip+1][j].alpha = LogMath.finishNegLogProb (minCosts[j], sums[j]);
+						logger.fine ("Set alpha of latticeNode at ip = "+ (ip+1) + " stateIndex = " + j + ", alpha = " + nodes[ip+1][j].alpha);
+					}
+			}
 
 			// Calculate total cost of Lattice.  This is the normalizer
-			cost = INFINITE_COST;
+			Arrays.fill (minCosts, INFINITE_COST);
+			Arrays.fill (sums, 0);
 			for (int i = 0; i < numStates; i++)
 				if (nodes[latticeLength-1][i] != null) {
 					// Note: actually we could sum at any ip index,
@@ -929,9 +949,10 @@ public abstract class Transducer implements Serializable
 					if (constraints[latticeLength-1] < 0 && -i == constraints[latticeLength-1]+1)
 						continue;
 					logger.fine ("Summing final lattice cost. state="+i+", alpha="+nodes[latticeLength-1][i].alpha + ", final cost = "+getState(i).finalCost);
-					cost = sumNegLogProb (cost,
-																(nodes[latticeLength-1][i].alpha + getState(i).finalCost));
+					LogMath.accumulateNegLogProb (minCosts, sums, 0,
+																				nodes[latticeLength-1][i].alpha + getState(i).finalCost);
 				}
+			cost = LogMath.finishNegLogProb (minCosts[0], sums[0]);
 			// Cost is now an "unnormalized cost" of the entire Lattice
 			//assert (cost >= 0) : "cost = "+cost;
 
@@ -958,6 +979,8 @@ public abstract class Transducer implements Serializable
 					}
 				}
 			for (int ip = latticeLength-2; ip >= 0; ip--) {
+				Arrays.fill (minCosts, INFINITE_COST);
+				Arrays.fill (sums, 0);
 				for (int i = 0; i < numStates; i++) {
 					if (nodes[ip][i] == null || nodes[ip][i].alpha == INFINITE_COST)
 						// Note that skipping here based on alpha means that beta values won't
@@ -977,13 +1000,8 @@ public abstract class Transducer implements Serializable
 							double transitionCost = iter.getCost();
 							assert (!Double.isNaN(transitionCost));
 							//							assert (transitionCost >= 0);  Not necessarily
-							double oldBeta = nodes[ip][i].beta;
-							assert (!Double.isNaN(nodes[ip][i].beta));
-							nodes[ip][i].beta = sumNegLogProb (nodes[ip][i].beta,
-																								 destinationNode.beta + transitionCost);
-							assert (!Double.isNaN(nodes[ip][i].beta))
-								: "dest.beta="+destinationNode.beta+" trans="+transitionCost+" sum="+(destinationNode.beta+transitionCost)
-								+ " oldBeta="+oldBeta;
+							assert (!Double.isNaN(destinationNode.beta));
+							LogMath.accumulateNegLogProb (minCosts, sums, i, destinationNode.beta + transitionCost);
 							// xis[ip][i][j] = nodes[ip][i].alpha + transitionCost + nodes[ip+1][j].beta - cost;
 							assert (!Double.isNaN(nodes[ip][i].alpha));
 							assert (!Double.isNaN(transitionCost));
@@ -1005,6 +1023,8 @@ public abstract class Transducer implements Serializable
 							}
 						}
 					}
+					nodes[ip][i].beta = LogMath.finishNegLogProb (minCosts[i], sums[i]);
+					assert (!Double.isNaN(nodes[ip][i].beta));
 					gammas[ip][i] = nodes[ip][i].alpha + nodes[ip][i].beta - cost;
 				}
 			}
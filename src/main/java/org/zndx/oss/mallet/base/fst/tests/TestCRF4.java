@@ -551,6 +551,103 @@ public class TestCRF4 extends TestCase {
     assertEquals (0.9409, eval.getLastAccuracy (), 0.001);
 
   }
+  public void testCompiledWeights ()
+  {
+    Pipe p = makeSpacePredictionPipe ();
+
+    InstanceList instances = new InstanceList(p);
+    instances.add(new ArrayIterator(data));
+    final InstanceList[] lists = instances.split (new Random (777), new double[]{.5, .5});
+
+    final CRF4 crf = new CRF4(p.getDataAlphabet(), p.getTargetAlphabet());
+    crf.addFullyConnectedStatesForLabels();
+    crf.train (lists[0]);
+
+    final double[] costs = new double [lists[1].size()];
+    for (int i = 0; i < lists[1].size(); i++) {
+      Sequence input = (Sequence) lists[1].getInstance (i).getData ();
+      costs[i] = crf.forwardBackward (input).getCost ();
+    }
+
+    crf.compileWeights (lists[0]);
+    assertTrue (crf.isWeightsCompiled ());
+    for (int i = 0; i < lists[1].size(); i++) {
+      Sequence input = (Sequence) lists[1].getInstance (i).getData ();
+      assertEquals (costs[i], crf.forwardBackward (input).getCost (), 1e-8);
+    }
+
+    // Threads labeling at once each keep their own cached dot products
+    final double[][] threadCosts = new double[4][lists[1].size()];
+    Runnable[] tasks = new Runnable[threadCosts.length];
+    for (int t = 0; t < tasks.length; t++) {
+      final int thread = t;
+      tasks[t] = new Runnable () {
+        public void run () {
+          for (int rep = 0; rep < 5; rep++)
+            for (int i = 0; i < lists[1].size(); i++) {
+              // Each thread starts at a different sequence
+              int j = (i + thread * 7) % lists[1].size();
+              Sequence input = (Sequence) lists[1].getInstance (j).getData ();
+              threadCosts[thread][j] = crf.forwardBackward (input).getCost ();
+            }
+        }
+      };
+    }
+    ParallelUtils.runAll (tasks, tasks.length);
+    for (int t = 0; t < threadCosts.length; t++)
+      for (int i = 0; i < lists[1].size(); i++)
+        assertEquals (costs[i], threadCosts[t][i], 1e-8);
+
+    // Converting back gives the same weights
+    SparseVector[] w = crf.getWeights ();
+    SparseVector[] w2 = crf.getCompiledWeights ().toSparseVectors ();
+    assertEquals (w.length, w2.length);
+    for (int i = 0; i < w.length; i++) {
+      assertEquals (w[i].numLocations (), w2[i].numLocations ());
+      for (int loc = 0; loc < w[i].numLocations (); loc++) {
+        int idx = w[i].indexAtLocation (loc);
+        assertEquals (w[i].valueAtLocation (loc), w2[i].value (idx), 1e-10);
+      }
+    }
+
+    // Threads labeling while the weights are compiled again and discarded
+    // never pair the new weights with scores cached from the old ones
+    final java.util.concurrent.atomic.AtomicBoolean done = new java.util.concurrent.atomic.AtomicBoolean ();
+    Thread recompiler = new Thread () {
+      public void run () {
+        while (!done.get ()) {
+          crf.compileWeights ();
+          Thread.yield ();
+        }
+      }
+    };
+    recompiler.start ();
+    ParallelUtils.runAll (tasks, tasks.length);
+    done.set (true);
+    try {
+      recompiler.join ();
+    } catch (InterruptedException e) {
+      fail (e.toString ());
+    }
+    for (int t = 0; t < threadCosts.length; t++)
+      for (int i = 0; i < lists[1].size(); i++)
+        assertEquals (costs[i], threadCosts[t][i], 1e-8);
+
+    // Changing the weights discards the compiled copy
+    crf.setWeights (w2);
+    assertFalse (crf.isWeightsCompiled ());
+
+    // Too many rows times weight sets for one array is refused, not wrapped around
+    SparseVector[] many = new SparseVector[50000];
+    for (int i = 0; i < many.length; i++)
+      many[i] = new SparseVector (new int[] {i}, new double[] {1.0});
+    try {
+      new FeatureMajorWeights (many);
+      fail ("compiled 50000 x 50000 weights");
+    } catch (IllegalArgumentException e) {
+    }
+  }
+
 	public void testPrint ()
 	{
 		Pipe p = new SerialPipes (new Pipe[] {
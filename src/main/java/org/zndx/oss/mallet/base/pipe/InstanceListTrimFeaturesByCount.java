@@ -14,13 +14,18 @@ package org.zndx.oss.mallet.base.pipe;
 import org.zndx.oss.mallet.base.types.*;
 import java.io.*;
 /**
- * Unimplemented.
+ * Removes from an InstanceList of FeatureVectors the features whose
+ * values sum to no more than <tt>minCount</tt>.  The features are
+ * counted in one pass by a {@link FeatureStatistics}, on
+ * <tt>numThreads</tt> threads, and the instances are copied into a new
+ * InstanceList with an Alphabet of only the remaining features.
    @author Andrew McCallum <a href="mailto:mccallum@cs.umass.edu">mccallum@cs.umass.edu</a>
  */
 
 public class InstanceListTrimFeaturesByCount extends Pipe implements Serializable
 {
 	int minCount;
+	int numThreads = 1;
 	
 	public InstanceListTrimFeaturesByCount (int minCount)
 	{
@@ -28,23 +33,50 @@ public class InstanceListTrimFeaturesByCount extends Pipe implements Serializabl
 		this.minCount = minCount;
 	}
 
+	public InstanceListTrimFeaturesByCount (int minCount, int numThreads)
+	{
+		this (minCount);
+		if (numThreads < 1)
+			throw new IllegalArgumentException ("numThreads must be positive, was "+numThreads);
+		this.numThreads = numThreads;
+	}
+
 	public Instance pipe (Instance carrier)
 	{
-		// xxx Not yet implemented!
-		throw new UnsupportedOperationException ("Not yet implemented");
+		InstanceList ilist = (InstanceList) carrier.getData();
+		FeatureSelection fs = new FeatureStatistics (ilist, numThreads).selectByCount (minCount);
+		Alphabet alpha2 = new Alphabet ();
+		Noop pipe2 = new Noop (alpha2, ilist.getTargetAlphabet());
+		InstanceList ilist2 = new InstanceList (pipe2);
+		for (int ii = 0; ii < ilist.size(); ii++) {
+			Instance instance = ilist.getInstance(ii);
+			FeatureVector fv = (FeatureVector) instance.getData();
+			FeatureVector fv2 = FeatureVector.newFeatureVector (fv, alpha2, fs);
+			ilist2.add (new Instance (fv2, instance.getTarget(), instance.getName(), instance.getSource(), pipe2),
+									ilist.getInstanceWeight(ii));
+		}
+		carrier.setData (ilist2);
+		return carrier;
 	}
 
 	// Serialization 
 	
 	private static final long serialVersionUID = 1;
-	private static final int CURRENT_SERIAL_VERSION = 0;
+	private static final int CURRENT_SERIAL_VERSION = 1;
 	
 	private void writeObject (ObjectOutputStream out) throws IOException {
 		out.writeInt (CURRENT_SERIAL_VERSION);
+		out.writeInt (minCount);
+		out.writeInt (numThreads);
 	}
 	
 	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
 		int version = in.readInt ();
+		numThreads = 1;
+		if (version >= 1) {
+			minCount = in.readInt ();
+			numThreads = in.readInt ();
+		}
 	}
 
 }
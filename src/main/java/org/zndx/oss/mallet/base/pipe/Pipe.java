@@ -352,6 +352,40 @@ public abstract class Pipe implements Serializable
 	}
 
     private transient static HashMap deserializedEntries = new HashMap();
+	private static ThreadLocal copying = new ThreadLocal ();
+
+	/** Returns a copy of this pipe, and of the pipes within it, made by
+	 * serialization.  The copy shares this pipe's Alphabets.  Unlike a
+	 * pipe read back from a file, it is never replaced by a pipe with
+	 * the same instance id that was read before, so that several
+	 * copies may be used at once, such as on different threads. */
+	public Pipe deepCopy () throws IOException, ClassNotFoundException
+	{
+		return deepCopy (false);
+	}
+
+	/** Returns a copy of this pipe, as <code>deepCopy()</code> does.  If
+	 * <code>copyAlphabets</code> is true, the copy also has copies of
+	 * this pipe's Alphabets, which may grow independently of them. */
+	public Pipe deepCopy (boolean copyAlphabets) throws IOException, ClassNotFoundException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+		ObjectOutputStream oos = new ObjectOutputStream (bytes);
+		oos.writeObject (this);
+		oos.close ();
+		ObjectInputStream ois = new ObjectInputStream (new ByteArrayInputStream (bytes.toByteArray ()));
+		copying.set (Boolean.TRUE);
+		if (copyAlphabets)
+			Alphabet.setReadingCopies (true);
+		try {
+			return (Pipe) ois.readObject ();
+		} finally {
+			copying.set (null);
+			Alphabet.setReadingCopies (false);
+			ois.close ();
+		}
+	}
+
     /**
     * This gets called after readObject; it lets the object decide whether
     * to return itself or return a previously read in version.
@@ -363,6 +397,8 @@ public abstract class Pipe implements Serializable
 
     public Object readResolve() throws ObjectStreamException {
        //System.out.println(" *** Pipe ReadResolve: instance id= " + instanceId);
+       if (copying.get() != null)
+           return this;
        Object previous = deserializedEntries.get(instanceId);
        if (previous != null){
            //System.out.println(" *** Pipe ReadResolve:Resolving to previous instance. instance id= " + instanceId);
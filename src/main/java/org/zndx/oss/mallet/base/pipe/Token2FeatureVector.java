@@ -15,6 +15,7 @@ import org.zndx.oss.mallet.base.types.*;
 import java.io.*;
 /**
  * convert the property list on a token into a feature vector
+ * (into a fixed number of indices, given a {@link org.zndx.oss.mallet.base.types.HashedAlphabet})
    @author Andrew McCallum <a href="mailto:mccallum@cs.umass.edu">mccallum@cs.umass.edu</a>
  */
 public class Token2FeatureVector extends Pipe implements Serializable
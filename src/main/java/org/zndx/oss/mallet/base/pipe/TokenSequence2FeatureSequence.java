@@ -19,6 +19,8 @@ import org.zndx.oss.mallet.base.types.Instance;
 import java.io.*;
 /**
  * Convert the token sequence in the data field each instance to a feature sequence.
+ * Given a {@link org.zndx.oss.mallet.base.types.HashedAlphabet}, maps the tokens to a
+ * fixed number of indices; colliding tokens are counted together, without signs.
    @author Andrew McCallum <a href="mailto:mccallum@cs.umass.edu">mccallum@cs.umass.edu</a>
  */
 
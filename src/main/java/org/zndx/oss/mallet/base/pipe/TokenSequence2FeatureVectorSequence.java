@@ -21,6 +21,8 @@ import org.zndx.oss.mallet.base.types.Instance;
 import java.io.*;
 /**
  * Convert the token sequence in the data field of each instance to a feature vector sequence.
+ * Given a {@link org.zndx.oss.mallet.base.types.HashedAlphabet}, maps the feature names
+ * to a fixed number of indices, without storing them.
    @author Andrew McCallum <a href="mailto:mccallum@cs.umass.edu">mccallum@cs.umass.edu</a>
  */
 
@@ -105,6 +105,124 @@ public class TestInstancePipe extends TestCase
   }
 
 
+  private static Pipe createClassificationPipe ()
+  {
+    return new SerialPipes (new Pipe[] {
+      new Target2Label (),
+      new CharSequence2TokenSequence (),
+      new TokenSequenceLowercase (),
+      new TokenSequence2FeatureSequence (),
+      new FeatureSequence2FeatureVector ()
+    });
+  }
+
+  private static String[] randomStrings (java.util.Random r, int n)
+  {
+    String[] ret = new String[n];
+    for (int i = 0; i < n; i++) {
+      StringBuffer sb = new StringBuffer ();
+      int length = 1 + r.nextInt (10);
+      for (int j = 0; j < length; j++)
+        // Word frequencies fall off, so that new words keep turning up
+        sb.append ("w" + (int) (1.0 / (0.001 + r.nextDouble ())) + " ");
+      ret[i] = sb.toString ();
+    }
+    return ret;
+  }
+
+  public void testParallelPiping ()
+  {
+    java.util.Random r = new java.util.Random (1);
+    String[] strings = randomStrings (r, 2000);
+    final String[] targets = new String[strings.length];
+    for (int i = 0; i < targets.length; i++)
+      targets[i] = "class" + r.nextInt (4);
+
+    InstanceList serial = new InstanceList (createClassificationPipe ());
+    serial.add (new ArrayIterator (strings, null) {
+      int i = 0;
+      public Instance nextInstance () {
+        Instance inst = super.nextInstance ();
+        return new Instance (inst.getData (), targets[i++], inst.getName (), inst.getSource ());
+      }
+    });
+    for (int numThreads = 2; numThreads <= 4; numThreads += 2) {
+      InstanceList parallel = new InstanceList (createClassificationPipe ());
+      parallel.add (new ArrayIterator (strings, null) {
+        int i = 0;
+        public Instance nextInstance () {
+          Instance inst = super.nextInstance ();
+          return new Instance (inst.getData (), targets[i++], inst.getName (), inst.getSource ());
+        }
+      }, numThreads, 100);
+
+      Alphabet dict1 = serial.getDataAlphabet (), dict2 = parallel.getDataAlphabet ();
+      assertEquals (dict1.size (), dict2.size ());
+      for (int i = 0; i < dict1.size (); i++)
+        assertEquals (dict1.lookupObject (i), dict2.lookupObject (i));
+      Alphabet labels1 = serial.getTargetAlphabet (), labels2 = parallel.getTargetAlphabet ();
+      assertEquals (labels1.size (), labels2.size ());
+      for (int i = 0; i < labels1.size (); i++)
+        assertEquals (labels1.lookupObject (i), labels2.lookupObject (i));
+
+      assertEquals (serial.size (), parallel.size ());
+      for (int i = 0; i < serial.size (); i++) {
+        Instance inst1 = serial.getInstance (i), inst2 = parallel.getInstance (i);
+        assertTrue (inst2.getPipe () == parallel.getPipe ());
+        assertEquals (inst1.getName (), inst2.getName ());
+        assertEquals (((Label) inst1.getTarget ()).getIndex (), ((Label) inst2.getTarget ()).getIndex ());
+        assertTrue (((Label) inst2.getTarget ()).getLabelAlphabet () == labels2);
+        FeatureVector fv1 = (FeatureVector) inst1.getData (), fv2 = (FeatureVector) inst2.getData ();
+        assertEquals (fv1.numLocations (), fv2.numLocations ());
+        for (int loc = 0; loc < fv1.numLocations (); loc++) {
+          assertEquals (fv1.indexAtLocation (loc), fv2.indexAtLocation (loc));
+          assertEquals (fv1.valueAtLocation (loc), fv2.valueAtLocation (loc), 0.0);
+        }
+      }
+    }
+  }
+
+  // Notes every copy of itself that pipes an instance, and whether any
+  // copy is ever used by two threads at once
+  public static class CopyRecordingPipe extends Pipe
+  {
+    static java.util.Set copiesUsed = java.util.Collections.synchronizedSet (
+      java.util.Collections.newSetFromMap (new java.util.IdentityHashMap ()));
+    static volatile boolean shared = false;
+    java.util.concurrent.atomic.AtomicInteger inUse = new java.util.concurrent.atomic.AtomicInteger ();
+
+    public Instance pipe (Instance carrier) {
+      if (inUse.incrementAndGet () > 1)
+        shared = true;
+      copiesUsed.add (this);
+      try {
+        Thread.sleep (1);
+      } catch (InterruptedException e) {
+        Thread.currentThread ().interrupt ();
+      }
+      inUse.decrementAndGet ();
+      return carrier;
+    }
+  }
+
+  public void testParallelPipeCopies ()
+  {
+    String[] strings = randomStrings (new java.util.Random (2), 400);
+    CopyRecordingPipe.copiesUsed.clear ();
+    CopyRecordingPipe.shared = false;
+    InstanceList ilist = new InstanceList (new SerialPipes (new Pipe[] {
+      new CopyRecordingPipe (),
+      new CharSequence2TokenSequence (),
+      new TokenSequence2FeatureSequence (),
+      new FeatureSequence2FeatureVector ()
+    }));
+    ilist.add (new ArrayIterator (strings, null), 4, 200);
+    assertEquals (strings.length, ilist.size ());
+    // Each thread pipes through its own copy, not one shared pipe
+    assertEquals (4, CopyRecordingPipe.copiesUsed.size ());
+    assertFalse (CopyRecordingPipe.shared);
+  }
+
 	public static Test suite ()
 	{
 		return new TestSuite (TestInstancePipe.class);
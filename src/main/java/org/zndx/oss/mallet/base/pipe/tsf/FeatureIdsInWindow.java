@@ -0,0 +1,191 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+
+
+
+/**
+	 Create new features from the features added by index within a
+	 window +/- the current position (those matching a regex, if one is
+	 given).  Gives the same features as {@link FeaturesInWindow}, for
+	 features added by {@link Token#addFeatureId}.
+
+	 The prefixed name of each feature is made once, and kept by the
+	 index of the feature it was made from.
+
+	 @see OffsetConjunctionIds
+ */
+
+package org.zndx.oss.mallet.base.pipe.tsf;
+
+import org.zndx.oss.mallet.base.types.TokenSequence;
+import org.zndx.oss.mallet.base.types.Alphabet;
+import org.zndx.oss.mallet.base.pipe.Pipe;
+import org.zndx.oss.mallet.base.types.Token;
+import org.zndx.oss.mallet.base.types.Instance;
+import java.io.*;
+import java.util.regex.*;
+import gnu.trove.TIntObjectHashMap;
+
+public class FeatureIdsInWindow extends Pipe implements Serializable
+{
+	String namePrefix;
+	int leftBoundary;
+	int rightBoundary;
+	Pattern featureRegex;
+
+	private static final int maxWindowSize = 20;
+	private static final String NO_MATCH = new String ("");	// kept for features not matching featureRegex
+
+	transient TIntObjectHashMap prefixedNames;			// feature index -> prefixed name
+	transient String[] startNames, endNames;
+
+	/** @param namePrefix what to prepend to feature names
+		* @param leftBoundaryOffset left boundary of the window (e.g. -1 means
+		*                           include the previous word
+		* @param rightBoundaryOffset right boundary for this window (e.g. 1 means
+		*                           include the current position, but not the next
+		* @param featureRegex add only for features matching this (null = always match
+		*/
+	public FeatureIdsInWindow (String namePrefix, int leftBoundaryOffset, int rightBoundaryOffset,
+														 Pattern featureRegex)
+	{
+		super (Alphabet.class, null);
+		this.namePrefix = namePrefix;
+		this.leftBoundary = leftBoundaryOffset;
+		this.rightBoundary = rightBoundaryOffset;
+		this.featureRegex = featureRegex;
+	}
+
+	public FeatureIdsInWindow (String namePrefix, int leftBoundaryOffset, int rightBoundaryOffset)
+	{
+		this (namePrefix, leftBoundaryOffset, rightBoundaryOffset, null);
+	}
+
+	public Instance pipe (Instance carrier)
+	{
+		Alphabet dict = getDataAlphabet();
+		if (prefixedNames == null) {
+			prefixedNames = new TIntObjectHashMap ();
+			startNames = new String[maxWindowSize];
+			endNames = new String[maxWindowSize];
+			for (int i = 0; i < maxWindowSize; i++) {
+				startNames[i] = prefixed ("<START"+i+">");
+				endNames[i] = prefixed ("<END"+i+">");
+			}
+		}
+		TokenSequence ts = (TokenSequence) carrier.getData();
+		int tsSize = ts.size();
+		int[][] newIds = new int[tsSize][];
+		double[][] newValues = new double[tsSize][];
+		int[] newSizes = new int[tsSize];
+		for (int i = 0; i < tsSize; i++) {
+			Token t = ts.getToken (i);
+			int n = t.numFeatureIds();
+			int[] ids = new int[n + 4];
+			double[] values = new double[n + 4];
+			for (int k = 0; k < n; k++) {
+				ids[k] = t.getFeatureId (k);
+				values[k] = t.getFeatureIdValue (k);
+			}
+			for (int position = i + leftBoundary; position < i + rightBoundary; position++) {
+				if (position == i)
+					continue;
+				if (position < 0 || position >= tsSize) {
+					String name = position < 0 ? startNames[-position] : endNames[position-tsSize];
+					int id = (name == NO_MATCH) ? -1 : dict.lookupIndex (name);
+					if (id >= 0) {
+						if (n == ids.length) {
+							ids = grow (ids);
+							values = grow (values);
+						}
+						ids[n] = id;
+						values[n++] = 1.0;
+					}
+					continue;
+				}
+				Token t2 = ts.getToken (position);
+				// Most recently added first, as FeaturesInWindow iterates them
+				for (int k = t2.numFeatureIds()-1; k >= 0; k--) {
+					String name = prefixedName (dict, t2.getFeatureId (k));
+					if (name == NO_MATCH)
+						continue;
+					int id = dict.lookupIndex (name);
+					if (id < 0)
+						continue;
+					if (n == ids.length) {
+						ids = grow (ids);
+						values = grow (values);
+					}
+					ids[n] = id;
+					values[n++] = t2.getFeatureIdValue (k);
+				}
+			}
+			newIds[i] = ids;
+			newValues[i] = values;
+			newSizes[i] = n;
+		}
+		for (int i = 0; i < tsSize; i++)
+			ts.getToken (i).setFeatureIds (newIds[i], newValues[i], newSizes[i]);
+		return carrier;
+	}
+
+	private String prefixed (String key)
+	{
+		if (featureRegex != null && !featureRegex.matcher(key).matches())
+			return NO_MATCH;
+		return namePrefix + key;
+	}
+
+	private String prefixedName (Alphabet dict, int id)
+	{
+		String name = (String) prefixedNames.get (id);
+		if (name != null)
+			return name;
+		name = prefixed ((String) dict.lookupObject (id));
+		// An index past the end of dict is not yet final; see AlphabetRecorder
+		if (id < dict.size())
+			prefixedNames.put (id, name);
+		return name;
+	}
+
+	static int[] grow (int[] a)
+	{
+		int[] ret = new int[a.length * 2];
+		System.arraycopy (a, 0, ret, 0, a.length);
+		return ret;
+	}
+
+	static double[] grow (double[] a)
+	{
+		double[] ret = new double[a.length * 2];
+		System.arraycopy (a, 0, ret, 0, a.length);
+		return ret;
+	}
+
+	// Serialization
+
+	private static final long serialVersionUID = 1;
+	private static final int CURRENT_SERIAL_VERSION = 0;
+
+	private void writeObject (ObjectOutputStream out) throws IOException {
+		out.writeInt (CURRENT_SERIAL_VERSION);
+		out.writeObject (namePrefix);
+		out.writeInt (leftBoundary);
+		out.writeInt (rightBoundary);
+		out.writeObject (featureRegex);
+	}
+
+	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
+		int version = in.readInt ();
+		namePrefix = (String) in.readObject();
+		leftBoundary = in.readInt ();
+		rightBoundary = in.readInt ();
+		featureRegex = (Pattern) in.readObject();
+	}
+
+}
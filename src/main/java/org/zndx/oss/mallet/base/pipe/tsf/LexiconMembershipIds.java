@@ -0,0 +1,105 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+
+
+
+/**
+	 Tests membership of the token text in the provided list of words,
+	 adding the feature by its index in the data Alphabet.  Gives the
+	 same features as {@link LexiconMembership}.
+
+	 @see OffsetConjunctionIds
+ */
+
+package org.zndx.oss.mallet.base.pipe.tsf;
+
+import org.zndx.oss.mallet.base.types.*;
+import org.zndx.oss.mallet.base.pipe.*;
+import java.io.*;
+
+public class LexiconMembershipIds extends Pipe implements Serializable
+{
+	String name;
+	gnu.trove.THashSet lexicon;
+	boolean ignoreCase;
+
+	public LexiconMembershipIds (String name, Reader lexiconReader, boolean ignoreCase)
+	{
+		super (Alphabet.class, null);
+		this.name = name;
+		this.lexicon = new gnu.trove.THashSet ();
+		this.ignoreCase = ignoreCase;
+		LineNumberReader reader = new LineNumberReader (lexiconReader);
+		String line;
+		while (true) {
+			try {
+				line = reader.readLine();
+			} catch (IOException e) {
+				throw new IllegalStateException ();
+			}
+			if (line == null)
+				break;
+			lexicon.add (ignoreCase ? line.toLowerCase().intern() : line.intern());
+		}
+		if (lexicon.size() == 0)
+			throw new IllegalArgumentException ("Empty lexicon");
+	}
+
+	public LexiconMembershipIds (String name, File lexiconFile, boolean ignoreCase) throws FileNotFoundException
+	{
+		this (name, new BufferedReader (new FileReader (lexiconFile)), ignoreCase);
+	}
+
+	public LexiconMembershipIds (File lexiconFile, boolean ignoreCase) throws FileNotFoundException
+	{
+		this (lexiconFile.getName(), lexiconFile, ignoreCase);
+	}
+
+	public LexiconMembershipIds (File lexiconFile) throws FileNotFoundException
+	{
+		this (lexiconFile.getName(), lexiconFile, true);
+	}
+
+	public Instance pipe (Instance carrier)
+	{
+		TokenSequence ts = (TokenSequence) carrier.getData();
+		int id = -2;
+		for (int i = 0; i < ts.size(); i++) {
+			Token t = ts.getToken(i);
+			String s = t.getText();
+			if (lexicon.contains (ignoreCase ? s.toLowerCase() : s)) {
+				if (id == -2)
+					id = getDataAlphabet().lookupIndex (name);
+				if (id >= 0)
+					t.addFeatureId (id, 1.0);
+			}
+		}
+		return carrier;
+	}
+
+	// Serialization
+
+	private static final long serialVersionUID = 1;
+	private static final int CURRENT_SERIAL_VERSION = 0;
+
+	private void writeObject (ObjectOutputStream out) throws IOException {
+		out.writeInt (CURRENT_SERIAL_VERSION);
+		out.writeObject (name);
+		out.writeObject (lexicon);
+		out.writeBoolean (ignoreCase);
+	}
+
+	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
+		int version = in.readInt ();
+		this.name = (String) in.readObject();
+		this.lexicon = (gnu.trove.THashSet) in.readObject();
+		this.ignoreCase = in.readBoolean();
+	}
+
+
+}
@@ -0,0 +1,294 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+
+
+
+/**
+	 Create new features from all possible conjunctions with other
+	 (possibly position-offset) features, working on the features added
+	 by index with {@link Token#addFeatureId}.  Gives the same features,
+	 with the same names, as {@link OffsetConjunctions}.
+
+	 Pipes such as this one, {@link FeatureIdsInWindow}, {@link
+	 TokenTextIds}, {@link RegexMatchIds}, {@link LexiconMembershipIds}
+	 and {@link TokenTextCharNGramIds} put their features on each Token
+	 as indices into the data Alphabet, with a parallel array of values,
+	 rather than as a PropertyList of names;
+	 {@link org.zndx.oss.mallet.base.pipe.TokenSequence2FeatureVectorSequence}
+	 puts both kinds into the FeatureVectors.  The pipes share the data
+	 Alphabet of the pipeline they are in, and each adds its features to
+	 it as it makes them, so the Alphabet also holds any features that
+	 a later pipe drops, such as singletons when
+	 <code>includeOriginalSingletons</code> is false.
+
+	 The name of a conjunction is needed only to find its index.  The
+	 names are kept in a tree for each conjunction of offsets, each node
+	 found from its parent by a hash of the parent and the index of the
+	 next feature, so that a conjunction seen before costs one lookup
+	 in the tree per feature in it, and one in the Alphabet.
+ */
+
+package org.zndx.oss.mallet.base.pipe.tsf;
+
+import org.zndx.oss.mallet.base.types.TokenSequence;
+import org.zndx.oss.mallet.base.types.Alphabet;
+import org.zndx.oss.mallet.base.pipe.Pipe;
+import org.zndx.oss.mallet.base.types.Token;
+import org.zndx.oss.mallet.base.types.Instance;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.regex.*;
+import gnu.trove.TLongIntHashMap;
+
+public class OffsetConjunctionIds extends Pipe implements Serializable
+{
+	int[][] conjunctions;
+	boolean includeOriginalSingletons;
+	Pattern featureRegex;
+
+	static final int maxCachedNames = 1 << 20;
+	private static final String NO_MATCH = new String ("");	// kept for features not matching featureRegex
+
+	transient NameTree[] trees;										// one per conjunction
+
+	// To include all the old previous singleton features, pass {{0}}
+	// For a conjunction at the current time step, pass {{0,0}}
+	// For a conjunction of current and previous, pass {{0,-1}}
+	// For a conjunction of the current and next two, pass {{0,1,2}}
+	public OffsetConjunctionIds (boolean includeOriginalSingletons, Pattern featureRegex, int[][] conjunctions)
+	{
+		super (Alphabet.class, null);
+		this.conjunctions = conjunctions;
+		this.featureRegex = featureRegex;
+		this.includeOriginalSingletons = includeOriginalSingletons;
+	}
+
+	public OffsetConjunctionIds (boolean includeOriginalSingletons, int[][] conjunctions)
+	{
+		this (includeOriginalSingletons, null, conjunctions);
+	}
+
+	public OffsetConjunctionIds (int[][] conjunctions)
+	{
+		this (true, conjunctions);
+	}
+
+	public Instance pipe (Instance carrier)
+	{
+		Alphabet dict = getDataAlphabet();
+		if (trees == null) {
+			trees = new NameTree[conjunctions.length];
+			for (int j = 0; j < conjunctions.length; j++)
+				trees[j] = new NameTree ();
+		}
+		TokenSequence ts = (TokenSequence) carrier.getData();
+		int tsSize = ts.size();
+		Features[] newfs = new Features[tsSize];
+		for (int i = 0; i < tsSize; i++) {
+			Token t = ts.getToken(i);
+			newfs[i] = new Features (t.numFeatureIds() + 4);
+			if (includeOriginalSingletons)
+				for (int k = 0; k < t.numFeatureIds(); k++)
+					newfs[i].add (t.getFeatureId(k), t.getFeatureIdValue(k));
+		}
+		for (int i = 0; i < tsSize; i++)
+			for (int j = 0; j < conjunctions.length; j++)
+				makeConjunctions (dict, ts, i, conjunctions[j], trees[j], 0, -1, null, 1.0, -1, newfs[i]);
+		// Put the new features in place
+		for (int i = 0; i < tsSize; i++)
+			ts.getToken(i).setFeatureIds (newfs[i].ids, newfs[i].values, newfs[i].size);
+		return carrier;
+	}
+
+	/** Recursively makes conjunctions by iterating through features at each offset
+	 *	@param tsi token sequence index
+	 *	@param offsets the conjunction being made, e.g. [0,1,2]
+	 *	@param tree the names of this conjunction's features
+	 *	@param c which offset we're currently on, e.g. 1 in the list [0,1,2]
+	 *	@param node node in tree of the features conjoined so far, or -1 at
+	 *	the root, or -2 if they are not in the tree
+	 *	@param name name of the features conjoined so far
+	 *	@param value product of their values
+	 *	@param prevLoc which feature was taken at the previous offset,
+	 *	counting from the most recently added
+	 *	@param newfs new features
+	 */
+	private void makeConjunctions (Alphabet dict, TokenSequence ts, int tsi, int[] offsets, NameTree tree,
+																 int c, int node, String name, double value, int prevLoc, Features newfs)
+	{
+		if (c == offsets.length) { // base case: add feature for current conjunction
+			int id = dict.lookupIndex (name);
+			if (id >= 0)
+				newfs.add (id, value);
+			return;
+		}
+		int position = tsi + offsets[c];
+		Token t = (position < 0 || position >= ts.size()) ? null : ts.getToken(position);
+		int n = (t == null) ? 1 : t.numFeatureIds();
+		for (int loc = 0; loc < n; loc++) {
+			// avoid redundant doubling of feature space; include only upper triangle
+			if (c > 0 && offsets[c-1] == offsets[c] && loc <= prevLoc)
+				continue;
+			int id;
+			double v;
+			if (position < 0) {
+				id = startId (-position-1);
+				v = 1.0;
+			} else if (t == null) {
+				id = endId (position-ts.size());
+				v = 1.0;
+			} else {
+				// Most recently added first, as OffsetConjunctions iterates them
+				id = t.getFeatureId (n-1-loc);
+				v = t.getFeatureIdValue (n-1-loc);
+			}
+			int child = -2;
+			String childName;
+			// An index past the end of dict is not yet final; see AlphabetRecorder
+			if (node != -2 && id < dict.size()) {
+				child = tree.lookup (node, id);
+				if (child < 0)
+					child = tree.add (node, id, conjoinedName (dict, name, id, offsets[c]));
+				childName = tree.name (child);
+			} else
+				childName = conjoinedName (dict, name, id, offsets[c]);
+			if (childName == NO_MATCH)
+				continue;
+			makeConjunctions (dict, ts, tsi, offsets, tree, c+1, child, childName, value * v, loc, newfs);
+		}
+	}
+
+	// The boundary features are given negative indices of their own
+	private static int startId (int i) { return -(2*i+2); }
+	private static int endId (int i) { return -(2*i+3); }
+
+	private String conjoinedName (Alphabet dict, String name, int id, int offset)
+	{
+		String key;
+		if (id >= 0)
+			key = (String) dict.lookupObject (id);
+		else if (id % 2 == 0)
+			key = "<START" + ((-id-2)/2) + ">";
+		else
+			key = "<END" + ((-id-3)/2) + ">";
+		if (featureRegex != null && !featureRegex.matcher(key).matches())
+			return NO_MATCH;
+		return (name == null ? "" : name + "_&_") + key + (offset == 0 ? "" : "@" + offset);
+	}
+
+	/** Names of conjunctions, each node found by its parent and the
+	 * index of the feature it adds. */
+	static class NameTree
+	{
+		TLongIntHashMap children = new TLongIntHashMap ();	// (parent+1, feature index) -> child+1
+		ArrayList names = new ArrayList ();
+
+		private static long key (int parent, int id)
+		{
+			return ((long) (parent+1) << 32) | (id & 0xffffffffL);
+		}
+
+		int lookup (int parent, int id)
+		{
+			return children.get (key (parent, id)) - 1;
+		}
+
+		int add (int parent, int id, String name)
+		{
+			if (names.size() >= maxCachedNames && parent == -1) {
+				// Start again, rather than grow without bound
+				children.clear ();
+				names.clear ();
+			}
+			names.add (name);
+			children.put (key (parent, id), names.size());
+			return names.size() - 1;
+		}
+
+		String name (int node)
+		{
+			return (String) names.get (node);
+		}
+	}
+
+	/** A growable list of feature indices and values. */
+	static class Features
+	{
+		int[] ids;
+		double[] values;
+		int size = 0;
+
+		Features (int capacity)
+		{
+			ids = new int[capacity];
+			values = new double[capacity];
+		}
+
+		void add (int id, double value)
+		{
+			if (size == ids.length) {
+				ids = FeatureIdsInWindow.grow (ids);
+				values = FeatureIdsInWindow.grow (values);
+			}
+			ids[size] = id;
+			values[size++] = value;
+		}
+	}
+
+	// Serialization
+
+	private static final long serialVersionUID = 1;
+	private static final int CURRENT_SERIAL_VERSION = 0;
+	private static final int NULL_INTEGER = -1;
+
+	private void writeObject (ObjectOutputStream out) throws IOException {
+		out.writeInt (CURRENT_SERIAL_VERSION);
+		int size1, size2;
+		size1 = (conjunctions == null) ? NULL_INTEGER : conjunctions.length;
+		out.writeInt(size1);
+		if (size1 != NULL_INTEGER) {
+			for (int i = 0; i <size1; i++) {
+				size2 = (conjunctions[i] == null) ? NULL_INTEGER: conjunctions[i].length;
+				out.writeInt(size2);
+				if (size2 != NULL_INTEGER) {
+					for (int j = 0; j <size2; j++) {
+						out.writeInt(conjunctions[i][j]);
+					}
+				}
+			}
+		}
+		out.writeBoolean(includeOriginalSingletons);
+		out.writeObject(featureRegex);
+	}
+
+	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
+		int size1, size2;
+		int version = in.readInt ();
+		size1 = in.readInt();
+		if (size1 == NULL_INTEGER) {
+			conjunctions = null;
+		}
+		else {
+			conjunctions = new int[size1][];
+			for (int i = 0; i < size1; i++) {
+				size2 = in.readInt();
+				if (size2 == NULL_INTEGER) {
+					conjunctions[i] = null;
+				}
+				else {
+					conjunctions[i] = new int[size2];
+					for (int j = 0; j < size2; j++) {
+						conjunctions[i][j] = in.readInt();
+					}
+				}
+			}
+		}
+		includeOriginalSingletons = in.readBoolean();
+		featureRegex = (Pattern) in.readObject();
+	}
+}
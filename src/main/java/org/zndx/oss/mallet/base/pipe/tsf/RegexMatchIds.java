@@ -0,0 +1,75 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+
+
+
+/**
+		Add feature with value 1.0, by its index in the data Alphabet, if
+		the entire token text matches the provided regular expression.
+		Gives the same features as {@link RegexMatches}.
+
+		@see OffsetConjunctionIds
+ */
+
+package org.zndx.oss.mallet.base.pipe.tsf;
+
+import java.util.regex.Pattern;
+import org.zndx.oss.mallet.base.types.*;
+import org.zndx.oss.mallet.base.pipe.*;
+import java.io.*;
+
+
+public class RegexMatchIds extends Pipe implements Serializable
+{
+	Pattern regex;
+	String feature;
+
+	public RegexMatchIds (String featureName, Pattern regex)
+	{
+		super (Alphabet.class, null);
+		this.feature = featureName;
+		this.regex = regex;
+	}
+
+	public Instance pipe (Instance carrier)
+	{
+		TokenSequence ts = (TokenSequence) carrier.getData();
+		int id = -2;
+		for (int i = 0; i < ts.size(); i++) {
+			Token t = ts.getToken(i);
+			if (regex.matcher (t.getText()).matches ()) {
+				// Looked up once per sequence, and only if some token matches
+				if (id == -2)
+					id = getDataAlphabet().lookupIndex (feature);
+				if (id >= 0)
+					t.addFeatureId (id, 1.0);
+			}
+		}
+		return carrier;
+	}
+
+
+	// Serialization
+
+	private static final long serialVersionUID = 1;
+	private static final int CURRENT_SERIAL_VERSION = 0;
+
+	private void writeObject (ObjectOutputStream out) throws IOException {
+		out.writeInt(CURRENT_SERIAL_VERSION);
+		out.writeObject(regex);
+		out.writeObject(feature);
+	}
+
+	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
+		int version = in.readInt ();
+		regex = (Pattern) in.readObject();
+		feature = (String) in.readObject();
+	}
+
+
+}
@@ -0,0 +1,126 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+
+
+
+/**
+	 Add the character n-grams of the token text as features with
+	 value 1.0, by their indices in the data Alphabet.  Gives the same
+	 features as {@link TokenTextCharNGrams}.
+
+	 The names of the n-grams of recently seen token texts are kept,
+	 so that a frequent word is not cut into substrings again each
+	 time it appears.
+
+	 @see OffsetConjunctionIds
+ */
+
+package org.zndx.oss.mallet.base.pipe.tsf;
+
+import org.zndx.oss.mallet.base.types.*;
+import org.zndx.oss.mallet.base.pipe.*;
+import java.io.*;
+import java.util.HashMap;
+
+public class TokenTextCharNGramIds extends Pipe implements Serializable
+{
+	static char startBorderChar = '>';
+	static char endBorderChar = '<';
+	static final int maxCachedTexts = 50000;
+
+	String prefix;
+	int[] gramSizes;
+	boolean distinguishBorders = false;
+	transient HashMap names;								// token text -> String[] of feature names
+
+	public TokenTextCharNGramIds (String prefix, int[] gramSizes, boolean distinguishBorders)
+	{
+		super (Alphabet.class, null);
+		this.prefix = prefix;
+		this.gramSizes = gramSizes;
+		this.distinguishBorders = distinguishBorders;
+	}
+
+	public TokenTextCharNGramIds (String prefix, int[] gramSizes)
+	{
+		this (prefix, gramSizes, false);
+	}
+
+	public TokenTextCharNGramIds ()
+	{
+		this ("CHARBIGRAM=", new int[] {2});
+	}
+
+	public Instance pipe (Instance carrier)
+	{
+		Alphabet dict = getDataAlphabet();
+		TokenSequence ts = (TokenSequence) carrier.getData();
+		for (int i = 0; i < ts.size(); i++) {
+			Token t = ts.getToken(i);
+			String[] tnames = namesOf (t.getText());
+			for (int j = 0; j < tnames.length; j++) {
+				int id = dict.lookupIndex (tnames[j]);
+				if (id >= 0)
+					t.addFeatureId (id, 1.0);
+			}
+		}
+		return carrier;
+	}
+
+	// The feature names in the order TokenTextCharNGrams adds them
+	private String[] namesOf (String text)
+	{
+		if (names == null)
+			names = new HashMap ();
+		String[] ret = (String[]) names.get (text);
+		if (ret != null)
+			return ret;
+		String s = distinguishBorders ? startBorderChar + text + endBorderChar : text;
+		int slen = s.length();
+		int n = 0;
+		for (int j = 0; j < gramSizes.length; j++)
+			n += Math.max (0, slen - gramSizes[j] + 1);
+		ret = new String[n];
+		n = 0;
+		for (int j = 0; j < gramSizes.length; j++) {
+			int size = gramSizes[j];
+			for (int k = 0; k < (slen - size)+1; k++)
+				ret[n++] = prefix + s.substring (k, k+size);
+		}
+		if (names.size() >= maxCachedTexts)
+			names.clear ();
+		names.put (text, ret);
+		return ret;
+	}
+
+	// Serialization
+
+	private static final long serialVersionUID = 1;
+	private static final int CURRENT_SERIAL_VERSION = 0;
+
+	private void writeObject (ObjectOutputStream out) throws IOException {
+		out.writeInt (CURRENT_SERIAL_VERSION);
+		out.writeObject (prefix);
+		out.writeInt (gramSizes.length);
+		for (int i = 0; i < gramSizes.length; i++)
+			out.writeInt (gramSizes[i]);
+		out.writeBoolean (distinguishBorders);
+	}
+
+	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
+		int version = in.readInt ();
+		prefix = (String) in.readObject();
+		int gsl = in.readInt ();
+		gramSizes = new int[gsl];
+		for (int i = 0; i < gsl; i++)
+			gramSizes[i] = in.readInt();
+		distinguishBorders = in.readBoolean ();
+	}
+
+
+}
@@ -0,0 +1,67 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+
+
+
+/**
+	 Add the token text as a feature with value 1.0, by its index in
+	 the data Alphabet.  Gives the same features as {@link TokenText}.
+
+	 @see OffsetConjunctionIds
+ */
+
+package org.zndx.oss.mallet.base.pipe.tsf;
+
+import org.zndx.oss.mallet.base.types.*;
+import org.zndx.oss.mallet.base.pipe.*;
+import java.io.*;
+
+public class TokenTextIds extends Pipe implements Serializable
+{
+	String prefix;
+
+	public TokenTextIds (String prefix)
+	{
+		super (Alphabet.class, null);
+		this.prefix = prefix;
+	}
+
+	public TokenTextIds ()
+	{
+		this (null);
+	}
+
+	public Instance pipe (Instance carrier)
+	{
+		Alphabet dict = getDataAlphabet();
+		TokenSequence ts = (TokenSequence) carrier.getData();
+		for (int i = 0; i < ts.size(); i++) {
+			Token t = ts.getToken(i);
+			int id = dict.lookupIndex (prefix == null ? t.getText() : prefix+t.getText());
+			if (id >= 0)
+				t.addFeatureId (id, 1.0);
+		}
+		return carrier;
+	}
+
+	// Serialization
+
+	private static final long serialVersionUID = 1;
+	private static final int CURRENT_SERIAL_VERSION = 0;
+
+	private void writeObject (ObjectOutputStream out) throws IOException {
+		out.writeInt (CURRENT_SERIAL_VERSION);
+		out.writeObject (prefix);
+	}
+
+	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
+		int version = in.readInt ();
+		prefix = (String) in.readObject ();
+	}
+
+}
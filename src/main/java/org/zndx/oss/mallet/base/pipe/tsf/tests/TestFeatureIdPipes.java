@@ -0,0 +1,139 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+
+
+
+package org.zndx.oss.mallet.base.pipe.tsf.tests;
+
+import org.zndx.oss.mallet.base.types.*;
+import org.zndx.oss.mallet.base.pipe.*;
+import org.zndx.oss.mallet.base.pipe.iterator.ArrayIterator;
+import org.zndx.oss.mallet.base.pipe.tsf.*;
+import org.zndx.oss.mallet.base.util.CharSequenceLexer;
+import junit.framework.*;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.regex.*;
+
+
+public class TestFeatureIdPipes extends TestCase
+{
+	public TestFeatureIdPipes (String name) {
+		super (name);
+	}
+
+	static String lexicon = "fox\ndogs\nboston\n";
+	static Pattern conjoinable = Pattern.compile ("(PREV-)?W=.*|CAPITALIZED|NUMERIC|ANIMAL");
+
+	static Pipe stringPipe ()
+	{
+		return new SerialPipes (new Pipe[] {
+			new CharSequence2TokenSequence (CharSequenceLexer.LEX_NONWHITESPACE_CLASSES),
+			new TokenText ("W="),
+			new RegexMatches ("CAPITALIZED", Pattern.compile ("[A-Z].*")),
+			new RegexMatches ("NUMERIC", Pattern.compile ("[0-9]+")),
+			new LexiconMembership ("ANIMAL", new StringReader (lexicon), true),
+			new TokenTextCharNGrams ("CHAR=", new int[] {2, 3}, true),
+			new FeaturesInWindow ("PREV-", -1, 0, Pattern.compile ("W=.*|CAPITALIZED"), true),
+			new FeaturesInWindow ("NEXT-", 1, 2),
+			new OffsetConjunctions (true, conjoinable, new int[][] {{0,0}, {-1,0}, {0,1}, {-1,0,1}}),
+			new TokenSequence2FeatureVectorSequence (),
+		});
+	}
+
+	static Pipe idPipe ()
+	{
+		return new SerialPipes (new Pipe[] {
+			new CharSequence2TokenSequence (CharSequenceLexer.LEX_NONWHITESPACE_CLASSES),
+			new TokenTextIds ("W="),
+			new RegexMatchIds ("CAPITALIZED", Pattern.compile ("[A-Z].*")),
+			new RegexMatchIds ("NUMERIC", Pattern.compile ("[0-9]+")),
+			new LexiconMembershipIds ("ANIMAL", new StringReader (lexicon), true),
+			new TokenTextCharNGramIds ("CHAR=", new int[] {2, 3}, true),
+			new FeatureIdsInWindow ("PREV-", -1, 0, Pattern.compile ("W=.*|CAPITALIZED")),
+			new FeatureIdsInWindow ("NEXT-", 1, 2),
+			new OffsetConjunctionIds (true, conjoinable, new int[][] {{0,0}, {-1,0}, {0,1}, {-1,0,1}}),
+			new TokenSequence2FeatureVectorSequence (),
+		});
+	}
+
+	private static HashMap namedValues (FeatureVector fv)
+	{
+		HashMap ret = new HashMap ();
+		for (int loc = 0; loc < fv.numLocations (); loc++)
+			ret.put (fv.getAlphabet().lookupObject (fv.indexAtLocation (loc)), new Double (fv.valueAtLocation (loc)));
+		return ret;
+	}
+
+	public void testSameFeatures ()
+	{
+		String[] inputs = new String[] {
+			"The quick brown fox, Mr. Smith, jumped over 23 lazy dogs in Boston",
+			"aaa aaa bbb",
+			"x",
+		};
+		Pipe p1 = stringPipe ();
+		Pipe p2 = idPipe ();
+		for (int k = 0; k < inputs.length; k++) {
+			FeatureVectorSequence fvs1 = (FeatureVectorSequence) new Instance (inputs[k], null, null, null, p1).getData ();
+			FeatureVectorSequence fvs2 = (FeatureVectorSequence) new Instance (inputs[k], null, null, null, p2).getData ();
+			assertEquals (fvs1.size (), fvs2.size ());
+			for (int i = 0; i < fvs1.size (); i++)
+				assertEquals (namedValues (fvs1.getFeatureVector (i)), namedValues (fvs2.getFeatureVector (i)));
+		}
+		FeatureVectorSequence fvs = (FeatureVectorSequence) new Instance (inputs[0], null, null, null, p2).getData ();
+		HashMap fox = namedValues (fvs.getFeatureVector (3));
+		assertEquals (new Double (1.0), fox.get ("PREV-W=brown_&_W=fox"));
+		assertEquals (new Double (1.0), fox.get ("W=brown@-1_&_W=fox_&_W=,@1"));
+		assertEquals (new Double (1.0), fox.get ("ANIMAL_&_W=fox"));
+	}
+
+	public void testParallelPiping ()
+	{
+		java.util.Random r = new java.util.Random (1);
+		String[] words = new String[] {"Alpha", "beta", "gamma", "fox", "Dogs", "17", "x", "yy"};
+		String[] inputs = new String[300];
+		for (int i = 0; i < inputs.length; i++) {
+			StringBuffer sb = new StringBuffer ();
+			for (int j = r.nextInt (8); j >= 0; j--)
+				sb.append (words[r.nextInt (words.length)]).append (r.nextInt (40)).append (' ');
+			inputs[i] = sb.toString ();
+		}
+		InstanceList serial = new InstanceList (idPipe ());
+		serial.add (new ArrayIterator (inputs));
+		InstanceList parallel = new InstanceList (idPipe ());
+		parallel.add (new ArrayIterator (inputs), 4, 50);
+
+		Alphabet dict1 = serial.getDataAlphabet (), dict2 = parallel.getDataAlphabet ();
+		assertEquals (dict1.size (), dict2.size ());
+		for (int i = 0; i < dict1.size (); i++)
+			assertEquals (dict1.lookupObject (i), dict2.lookupObject (i));
+		for (int i = 0; i < serial.size (); i++) {
+			FeatureVectorSequence fvs1 = (FeatureVectorSequence) serial.getInstance (i).getData ();
+			FeatureVectorSequence fvs2 = (FeatureVectorSequence) parallel.getInstance (i).getData ();
+			assertEquals (fvs1.size (), fvs2.size ());
+			for (int j = 0; j < fvs1.size (); j++)
+				assertEquals (namedValues (fvs1.getFeatureVector (j)), namedValues (fvs2.getFeatureVector (j)));
+		}
+	}
+
+	public static Test suite ()
+	{
+		return new TestSuite (TestFeatureIdPipes.class);
+	}
+
+	protected void setUp ()
+	{
+	}
+
+	public static void main (String[] args)
+	{
+		junit.textui.TestRunner.run (suite());
+	}
+
+}
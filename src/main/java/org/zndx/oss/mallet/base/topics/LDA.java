@@ -21,7 +21,7 @@ import java.io.*;
 // (I think this means we might want to use FeatureSequence directly).
 // We will also need to support a growing vocabulary!
 
-public class LDA {
+public class LDA implements Serializable {
 
 	int numTopics; // Number of topics to be fit
 	double alpha;  // Dirichlet(alpha,alpha,...) is the distribution over topics
@@ -197,6 +197,18 @@ public class LDA {
 		}
 	}
 
+	/** Returns an inferencer for new documents, with this model's counts frozen. */
+	public LDAInferencer getInferencer ()
+	{
+		return new LDAInferencer (this);
+	}
+
+	public InstanceList getInstanceList () { return ilist; }
+	public int getNumTopics () { return numTopics; }
+	public int getCountFeatureTopic (int featureIndex, int topicIndex) { return typeTopicCounts[featureIndex][topicIndex]; }
+	public int getCountDocumentTopic (int docIndex, int topicIndex) { return docTopicCounts[docIndex][topicIndex]; }
+	public int getCountTokensPerTopic (int topicIndex) { return tokensPerTopic[topicIndex]; }
+
 	public void printTopWords (int numWords, boolean useNewLines)
 	{
 		class WordProb implements Comparable {
@@ -331,7 +343,7 @@ public class LDA {
 		for (int di = 0; di < ilist.size(); di++)
 			for (int ti = 0; ti < numTopics; ti++)
 				docTopicCounts[di][ti] = in.readInt();
-		int numTypes = ilist.getDataAlphabet().size();
+		numTypes = ilist.getDataAlphabet().size();
 		typeTopicCounts = new int[numTypes][numTopics];
 		for (int fi = 0; fi < numTypes; fi++)
 			for (int ti = 0; ti < numTopics; ti++)
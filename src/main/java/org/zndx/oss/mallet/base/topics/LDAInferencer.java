@@ -0,0 +1,390 @@
+/* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package org.zndx.oss.mallet.base.topics;
+
+import org.zndx.oss.mallet.base.types.*;
+import org.zndx.oss.mallet.base.util.ParallelUtils;
+import org.zndx.oss.mallet.base.util.Random;
+import java.io.*;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Infers the topics of new documents from a trained {@link LDA}, whose
+ * word-topic counts are frozen: sampling a new document changes nothing
+ * but the document's own counts, so one inferencer may be used by many
+ * threads at once.
+ *
+ * <p>The word-topic counts are copied from the model when the
+ * inferencer is made, as a sparse list for each word of the topics it
+ * was assigned to, with the weight n_wt/(n_t+V*beta) of each, largest
+ * first.  The weight of a topic for a token is then split, as in
+ * {@link SparseLDA}, into a smoothing bucket that is the same for every
+ * token, a document bucket over the topics in the document, and a word
+ * bucket over the topics of the word.
+ *
+ * <p>Each document is sampled for <code>numIterations</code> sweeps.
+ * Its topic distribution is the average of (n_dt+alpha)/(N_d+alpha*T)
+ * over the sweeps after the first <code>burnIn</code>, taking every
+ * <code>thinning</code>th.  Words the model has not seen are ignored.
+ */
+
+public class LDAInferencer implements Serializable {
+
+	int numTopics;
+	double alpha;
+	double beta;
+	double tAlpha;
+	Alphabet alphabet;
+	int numTypes;
+	int[][] typeTopics;						// indexed by <feature index, rank>
+	double[][] typeTopicWeights;	// n_wt/(n_t+V*beta), parallel to typeTopics
+	double[] topicBetaWeights;		// beta/(n_t+V*beta), indexed by topic
+	double smoothingOnlyMass;			// sum over topics of alpha*beta/(n_t+V*beta)
+
+	int numIterations = 100;
+	int burnIn = 50;
+	int thinning = 1;
+	int numThreads = 1;
+	// Made on the first call with more than one thread, and kept for later calls
+	transient ExecutorService executor;
+
+	public LDAInferencer (LDA lda)
+	{
+		if (lda.typeTopicCounts == null)
+			throw new IllegalArgumentException ("LDA has not been estimated");
+		numTopics = lda.numTopics;
+		alpha = lda.alpha;
+		beta = lda.beta;
+		tAlpha = alpha * numTopics;
+		alphabet = lda.ilist.getDataAlphabet ();
+		numTypes = lda.numTypes;
+		double vBeta = beta * numTypes;
+
+		topicBetaWeights = new double[numTopics];
+		smoothingOnlyMass = 0;
+		for (int ti = 0; ti < numTopics; ti++) {
+			topicBetaWeights[ti] = beta / (lda.tokensPerTopic[ti] + vBeta);
+			smoothingOnlyMass += alpha * topicBetaWeights[ti];
+		}
+
+		typeTopics = new int[numTypes][];
+		typeTopicWeights = new double[numTypes][];
+		for (int type = 0; type < numTypes; type++) {
+			int[] counts = lda.typeTopicCounts[type];
+			int n = 0;
+			for (int ti = 0; ti < numTopics; ti++)
+				if (counts[ti] > 0)
+					n++;
+			int[] topics = new int[n];
+			double[] weights = new double[n];
+			n = 0;
+			for (int ti = 0; ti < numTopics; ti++) {
+				if (counts[ti] == 0)
+					continue;
+				double w = counts[ti] / (lda.tokensPerTopic[ti] + vBeta);
+				// Insertion sort, largest weight first
+				int i = n++;
+				while (i > 0 && weights[i-1] < w) {
+					weights[i] = weights[i-1];
+					topics[i] = topics[i-1];
+					i--;
+				}
+				weights[i] = w;
+				topics[i] = ti;
+			}
+			typeTopics[type] = topics;
+			typeTopicWeights[type] = weights;
+		}
+	}
+
+	/** Sets the number of sweeps through each document, and how many of
+	 * them to discard before averaging. */
+	public void setSamplingParameters (int numIterations, int burnIn, int thinning)
+	{
+		if (numIterations < 1 || burnIn < 0 || burnIn >= numIterations || thinning < 1)
+			throw new IllegalArgumentException ("Need numIterations > burnIn >= 0 and thinning >= 1, were "
+			                                    +numIterations+", "+burnIn+", "+thinning);
+		this.numIterations = numIterations;
+		this.burnIn = burnIn;
+		this.thinning = thinning;
+	}
+
+	public int getNumIterations () { return numIterations; }
+	public int getBurnIn () { return burnIn; }
+	public int getThinning () { return thinning; }
+
+	public synchronized void setNumThreads (int numThreads)
+	{
+		if (numThreads < 1)
+			throw new IllegalArgumentException ("numThreads must be positive, was "+numThreads);
+		if (numThreads != this.numThreads && executor != null) {
+			executor.shutdown ();
+			executor = null;
+		}
+		this.numThreads = numThreads;
+	}
+
+	public synchronized int getNumThreads () { return numThreads; }
+
+	private synchronized ExecutorService getExecutor ()
+	{
+		if (executor == null)
+			executor = ParallelUtils.newExecutor (numThreads, "LDAInferencer");
+		return executor;
+	}
+
+	public int getNumTopics () { return numTopics; }
+
+	/** Returns the Alphabet of the training data, which new documents
+	 * must be indexed by. */
+	public Alphabet getAlphabet () { return alphabet; }
+
+	/** Returns the distribution over topics of one document. */
+	public double[] getTopicDistribution (FeatureSequence doc, Random r)
+	{
+		return new Sampler (r).sample (doc);
+	}
+
+	/** Returns the distributions over topics of the documents, whose data
+	 * must be FeatureSequences, on <code>numThreads</code> threads, each
+	 * with its own Random seeded from <code>r</code>.  The threads are
+	 * kept for later calls. */
+	public double[][] getTopicDistributions (InstanceList docs, Random r)
+	{
+		FeatureSequence[] seqs = new FeatureSequence[docs.size()];
+		for (int i = 0; i < seqs.length; i++)
+			seqs[i] = (FeatureSequence) docs.getInstance(i).getData();
+		return getTopicDistributions (seqs, r);
+	}
+
+	public double[][] getTopicDistributions (final FeatureSequence[] docs, Random r)
+	{
+		final double[][] ret = new double[docs.length][];
+		int numThreads = getNumThreads ();
+		int numShards = Math.max (1, Math.min (numThreads, docs.length));
+		final int[] bounds = ParallelUtils.shardBoundaries (docs.length, numShards);
+		Runnable[] tasks = new Runnable[numShards];
+		for (int s = 0; s < numShards; s++) {
+			final int first = bounds[s], last = bounds[s+1];
+			final Sampler sampler = new Sampler (new Random (r.nextInt()));
+			tasks[s] = new Runnable () {
+				public void run () {
+					for (int di = first; di < last; di++)
+						ret[di] = sampler.sample (docs[di]);
+				}
+			};
+		}
+		if (numShards == 1)
+			tasks[0].run ();
+		else
+			ParallelUtils.runAll (tasks, getExecutor ());
+		return ret;
+	}
+
+	/** Samples documents one at a time, in one thread. */
+	class Sampler
+	{
+		Random r;
+		int[] docTopicCounts = new int[numTopics];
+		int[] docTopics = new int[numTopics];			// the topics with non-zero counts in the document
+		double[] cachedCoefficients = new double[numTopics];
+		double[] topicTermScores = new double[numTopics];
+
+		Sampler (Random r)
+		{
+			this.r = r;
+			for (int ti = 0; ti < numTopics; ti++)
+				cachedCoefficients[ti] = alpha;
+		}
+
+		double[] sample (FeatureSequence doc)
+		{
+			double[] dist = new double[numTopics];
+			int docLen = 0;
+			int[] tokens = new int[doc.getLength()];
+			for (int si = 0; si < tokens.length; si++) {
+				int type = doc.getIndexAtPosition(si);
+				if (type >= 0 && type < numTypes)
+					tokens[docLen++] = type;
+			}
+			if (docLen == 0) {
+				java.util.Arrays.fill (dist, 1.0 / numTopics);
+				return dist;
+			}
+
+			// Start each token at a topic of its word, or any topic if it has none
+			int[] topics = new int[docLen];
+			java.util.Arrays.fill (docTopicCounts, 0);
+			for (int si = 0; si < docLen; si++) {
+				int[] wordTopics = typeTopics[tokens[si]];
+				topics[si] = wordTopics.length > 0 ? wordTopics[r.nextInt (wordTopics.length)] : r.nextInt (numTopics);
+				docTopicCounts[topics[si]]++;
+			}
+			int numDocTopics = 0;
+			double topicBetaMass = 0;
+			for (int ti = 0; ti < numTopics; ti++) {
+				if (docTopicCounts[ti] == 0)
+					continue;
+				docTopics[numDocTopics++] = ti;
+				topicBetaMass += topicBetaWeights[ti] * docTopicCounts[ti];
+				cachedCoefficients[ti] = alpha + docTopicCounts[ti];
+			}
+
+			int numSamples = 0;
+			for (int iteration = 0; iteration < numIterations; iteration++) {
+				for (int si = 0; si < docLen; si++) {
+					int[] wordTopics = typeTopics[tokens[si]];
+					double[] wordWeights = typeTopicWeights[tokens[si]];
+					int oldTopic = topics[si];
+
+					// Remove this token from the document's counts
+					docTopicCounts[oldTopic]--;
+					topicBetaMass -= topicBetaWeights[oldTopic];
+					cachedCoefficients[oldTopic] -= 1;
+					if (docTopicCounts[oldTopic] == 0) {
+						int i = 0;
+						while (docTopics[i] != oldTopic)
+							i++;
+						docTopics[i] = docTopics[--numDocTopics];
+					}
+
+					// The word bucket
+					double topicTermMass = 0;
+					for (int i = 0; i < wordTopics.length; i++) {
+						double score = wordWeights[i] * cachedCoefficients[wordTopics[i]];
+						topicTermMass += score;
+						topicTermScores[i] = score;
+					}
+
+					// Sample a topic assignment from the three buckets
+					double sample = r.nextUniform() * (smoothingOnlyMass + topicBetaMass + topicTermMass);
+					int newTopic;
+					if (sample < topicTermMass) {
+						int i = 0;
+						while (i < wordTopics.length - 1 && (sample -= topicTermScores[i]) > 0)
+							i++;
+						newTopic = wordTopics[i];
+					} else {
+						sample -= topicTermMass;
+						if (sample < topicBetaMass) {
+							int i = 0;
+							while (i < numDocTopics - 1
+							       && (sample -= topicBetaWeights[docTopics[i]] * docTopicCounts[docTopics[i]]) > 0)
+								i++;
+							newTopic = docTopics[i];
+						} else {
+							sample -= topicBetaMass;
+							sample /= alpha;
+							newTopic = 0;
+							while (newTopic < numTopics - 1 && (sample -= topicBetaWeights[newTopic]) > 0)
+								newTopic++;
+						}
+					}
+
+					// Put that new topic into the document's counts
+					topics[si] = newTopic;
+					if (docTopicCounts[newTopic] == 0)
+						docTopics[numDocTopics++] = newTopic;
+					docTopicCounts[newTopic]++;
+					topicBetaMass += topicBetaWeights[newTopic];
+					cachedCoefficients[newTopic] += 1;
+				}
+				if (iteration >= burnIn && (iteration - burnIn) % thinning == 0) {
+					for (int i = 0; i < numDocTopics; i++)
+						dist[docTopics[i]] += docTopicCounts[docTopics[i]];
+					numSamples++;
+				}
+			}
+
+			for (int ti = 0; ti < numTopics; ti++)
+				dist[ti] = (dist[ti] / numSamples + alpha) / (docLen + tAlpha);
+			// Leave the coefficients as they were for the next document
+			for (int i = 0; i < numDocTopics; i++)
+				cachedCoefficients[docTopics[i]] = alpha;
+			return dist;
+		}
+	}
+
+	public void write (File f) {
+		try {
+			ObjectOutputStream oos = new ObjectOutputStream (new FileOutputStream(f));
+			oos.writeObject(this);
+			oos.close();
+		}
+		catch (IOException e) {
+			System.err.println("Exception writing file " + f + ": " + e);
+		}
+	}
+
+	public static LDAInferencer read (File f) throws IOException, ClassNotFoundException {
+		ObjectInputStream ois = new ObjectInputStream (new FileInputStream(f));
+		LDAInferencer ret = (LDAInferencer) ois.readObject();
+		ois.close();
+		return ret;
+	}
+
+
+	// Serialization
+
+	private static final long serialVersionUID = 1;
+	private static final int CURRENT_SERIAL_VERSION = 0;
+
+	private void writeObject (ObjectOutputStream out) throws IOException {
+		out.writeInt (CURRENT_SERIAL_VERSION);
+		out.writeInt (numTopics);
+		out.writeDouble (alpha);
+		out.writeDouble (beta);
+		out.writeObject (alphabet);
+		out.writeInt (numTypes);
+		for (int type = 0; type < numTypes; type++) {
+			out.writeInt (typeTopics[type].length);
+			for (int i = 0; i < typeTopics[type].length; i++) {
+				out.writeInt (typeTopics[type][i]);
+				out.writeDouble (typeTopicWeights[type][i]);
+			}
+		}
+		for (int ti = 0; ti < numTopics; ti++)
+			out.writeDouble (topicBetaWeights[ti]);
+		out.writeInt (numIterations);
+		out.writeInt (burnIn);
+		out.writeInt (thinning);
+		out.writeInt (numThreads);
+	}
+
+	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
+		int version = in.readInt ();
+		numTopics = in.readInt ();
+		alpha = in.readDouble ();
+		beta = in.readDouble ();
+		tAlpha = alpha * numTopics;
+		alphabet = (Alphabet) in.readObject ();
+		numTypes = in.readInt ();
+		typeTopics = new int[numTypes][];
+		typeTopicWeights = new double[numTypes][];
+		for (int type = 0; type < numTypes; type++) {
+			int n = in.readInt ();
+			typeTopics[type] = new int[n];
+			typeTopicWeights[type] = new double[n];
+			for (int i = 0; i < n; i++) {
+				typeTopics[type][i] = in.readInt ();
+				typeTopicWeights[type][i] = in.readDouble ();
+			}
+		}
+		topicBetaWeights = new double[numTopics];
+		smoothingOnlyMass = 0;
+		for (int ti = 0; ti < numTopics; ti++) {
+			topicBetaWeights[ti] = in.readDouble ();
+			smoothingOnlyMass += alpha * topicBetaWeights[ti];
+		}
+		numIterations = in.readInt ();
+		burnIn = in.readInt ();
+		thinning = in.readInt ();
+		numThreads = in.readInt ();
+	}
+
+}
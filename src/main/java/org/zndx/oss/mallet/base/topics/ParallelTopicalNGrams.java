@@ -0,0 +1,621 @@
+/* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package org.zndx.oss.mallet.base.topics;
+
+import org.zndx.oss.mallet.base.types.*;
+import org.zndx.oss.mallet.base.util.ParallelUtils;
+import org.zndx.oss.mallet.base.util.Random;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.io.*;
+
+/**
+ * Topical N-Grams, estimated by Gibbs sampling on several threads, with
+ * checkpoints of the sampler's state from which estimation may resume.
+ *
+ * <p>The documents are split into contiguous shards of about the same
+ * number of tokens, one per thread.  During an iteration the shared
+ * counts are only read: each thread adds its changes to its own counts
+ * of differences, whose rows are allocated for the words and bigrams it
+ * touches, and samples against the sum of the two.  After the iteration
+ * the differences are added into the shared counts, and their rows
+ * dropped.  As in
+ * {@link SparseLDA}, a thread sees the other threads' changes one
+ * iteration late.
+ *
+ * <p>Tokens that cannot start a bigram are sampled as in SparseLDA, in
+ * time that grows with the number of topics of the word and document
+ * rather than with the number of topics; each thread keeps the unigram
+ * counts in SparseLDA's sparse form for this.  Tokens that may be a
+ * bigram are sampled jointly over topic and bigram status, as in
+ * {@link TopicalNGrams}.
+ *
+ * <p>A checkpoint holds only the topic and bigram status of each token,
+ * from which the counts are rebuilt, packed into variable-length ints
+ * and gzipped.  After {@link #resume}, <code>estimate</code> starts from
+ * the checkpoint's assignments and iteration.
+ */
+
+public class ParallelTopicalNGrams extends TopicalNGrams {
+
+	int numThreads = 1;
+	File checkpointFile;
+	int checkpointInterval;
+
+	transient int topicBits;
+	transient long[][] sparseUnitypeTopicCounts; // indexed by <feature index, rank>, (count << topicBits) | topic
+	transient int[][] resumeTopics;
+	transient int[][] resumeGrams;
+	transient int resumeIteration;
+
+	private static final int CHECKPOINT_MAGIC = 0x544e4743;	// "TNGC"
+	private static final int CHECKPOINT_VERSION = 0;
+
+	public ParallelTopicalNGrams (int numberOfTopics)
+	{
+		super (numberOfTopics);
+	}
+
+	public ParallelTopicalNGrams (int numberOfTopics, double alphaSum, double beta, double gamma, double delta,
+	                              double delta1, double delta2, int numThreads)
+	{
+		super (numberOfTopics, alphaSum, beta, gamma, delta, delta1, delta2);
+		setNumThreads (numThreads);
+	}
+
+	public void setNumThreads (int numThreads)
+	{
+		if (numThreads < 1)
+			throw new IllegalArgumentException ("numThreads must be positive, was "+numThreads);
+		this.numThreads = numThreads;
+	}
+
+	public int getNumThreads ()
+	{
+		return numThreads;
+	}
+
+	/** Writes a checkpoint to <code>file</code> every <code>interval</code>
+	 * iterations of <code>estimate</code>, replacing the last one; 0 for
+	 * none. */
+	public void setCheckpoint (File file, int interval)
+	{
+		if (interval < 0 || (interval > 0 && file == null))
+			throw new IllegalArgumentException ("Need a file and a non-negative interval");
+		this.checkpointFile = file;
+		this.checkpointInterval = interval;
+	}
+
+	public void estimate (InstanceList documents, int numIterations, int showTopicsInterval,
+	                      int outputModelInterval, String outputModelFilename,
+	                      Random r)
+	{
+		long startTime = System.currentTimeMillis();
+		int startIteration = 0;
+		if (resumeTopics != null) {
+			checkResumeState (documents);
+			initialize (documents, resumeTopics, resumeGrams, r);
+			startIteration = resumeIteration;
+			resumeTopics = resumeGrams = null;
+			System.out.println ("Resuming from iteration "+startIteration);
+		} else
+			initialize (documents, null, null, r);
+
+		// A word has no more unigram topics than tokens
+		topicBits = SparseLDA.topicBits (numTopics);
+		int[] typeFrequencies = new int[numTypes];
+		for (int di = 0; di < topics.length; di++) {
+			FeatureSequence fs = (FeatureSequence) ilist.getInstance(di).getData();
+			for (int si = 0; si < topics[di].length; si++)
+				typeFrequencies[fs.getIndexAtPosition(si)]++;
+		}
+		sparseUnitypeTopicCounts = new long[numTypes][];
+		for (int type = 0; type < numTypes; type++)
+			sparseUnitypeTopicCounts[type] = new long[Math.min (numTopics, typeFrequencies[type])];
+		packUnitypeCounts (0, numTypes);
+
+		int[] bounds = SparseLDA.shardDocuments (topics, numTokens, numThreads);
+		Worker[] workers = new Worker[bounds.length - 1];
+		for (int w = 0; w < workers.length; w++) {
+			workers[w] = new Worker (bounds[w], bounds[w+1], new Random (r.nextInt()));
+			workers[w].copyGlobalCounts ();
+		}
+		ExecutorService executor = workers.length > 1 ? ParallelUtils.newExecutor (workers.length, "TopicalNGrams") : null;
+		try {
+			for (int iterations = startIteration; iterations < numIterations; iterations++) {
+				sampleTopicsForAllDocs (workers, executor);
+				if (iterations % 10 == 0) System.out.print (iterations);	else System.out.print (".");
+				System.out.flush();
+				if (showTopicsInterval != 0 && iterations % showTopicsInterval == 0 && iterations > 0) {
+					System.out.println ();
+					printTopWords (5, false);
+				}
+				if (outputModelInterval != 0 && iterations % outputModelInterval == 0 && iterations > 0) {
+					this.write (new File(outputModelFilename+'.'+iterations));
+				}
+				if (checkpointInterval != 0 && (iterations+1) % checkpointInterval == 0) {
+					try {
+						writeCheckpoint (checkpointFile, iterations+1);
+					} catch (IOException e) {
+						System.err.println("Exception writing checkpoint " + checkpointFile + ": " + e);
+					}
+				}
+			}
+		} finally {
+			if (executor != null)
+				executor.shutdown ();
+		}
+
+		System.out.println ("\nTotal time (sec): " + ((System.currentTimeMillis() - startTime)/1000.0));
+	}
+
+	/* One iteration of Gibbs sampling, across all documents. */
+	private void sampleTopicsForAllDocs (final Worker[] workers, ExecutorService executor)
+	{
+		Runnable[] tasks = new Runnable[workers.length];
+		for (int w = 0; w < workers.length; w++) {
+			final Worker worker = workers[w];
+			tasks[w] = new Runnable () {
+				public void run () { worker.sample (); }
+			};
+		}
+		runAll (tasks, executor);
+
+		// Add the threads' differences into the shared counts, a range of
+		// words and of bigrams per thread
+		final int[] typeBounds = ParallelUtils.shardBoundaries (numTypes, workers.length);
+		final int[] bitypeBounds = ParallelUtils.shardBoundaries (numBitypes, workers.length);
+		for (int s = 0; s < workers.length; s++) {
+			final int firstType = typeBounds[s], lastType = typeBounds[s+1];
+			final int firstBitype = bitypeBounds[s], lastBitype = bitypeBounds[s+1];
+			tasks[s] = new Runnable () {
+				public void run () {
+					for (int w = 0; w < workers.length; w++) {
+						Worker worker = workers[w];
+						// The rows are dropped once added, so that a thread holds
+						// rows only for what it changed in the last iteration
+						for (int type = firstType; type < lastType; type++) {
+							addRow (worker.unitypeDeltas[type], unitypeTopicCounts[type], 0);
+							addRow (worker.bitokensDeltas[type], bitokensPerTopic[type], 0);
+							addRow (worker.typeNgramDeltas[type], typeNgramTopicCounts[type][0], 0);
+							addRow (worker.typeNgramDeltas[type], typeNgramTopicCounts[type][1], numTopics);
+							worker.unitypeDeltas[type] = worker.bitokensDeltas[type] = worker.typeNgramDeltas[type] = null;
+						}
+						for (int bitype = firstBitype; bitype < lastBitype; bitype++) {
+							addRow (worker.bitypeDeltas[bitype], bitypeTopicCounts[bitype], 0);
+							worker.bitypeDeltas[bitype] = null;
+						}
+					}
+					packUnitypeCounts (firstType, lastType);
+				}
+			};
+		}
+		runAll (tasks, executor);
+		for (int w = 0; w < workers.length; w++) {
+			for (int ti = 0; ti < numTopics; ti++)
+				workers[w].tokensPerTopic[ti] -= tokensPerTopic[ti];
+			biTokens += workers[w].biTokensDelta;
+		}
+		for (int w = 0; w < workers.length; w++)
+			for (int ti = 0; ti < numTopics; ti++)
+				tokensPerTopic[ti] += workers[w].tokensPerTopic[ti];
+
+		// Hand the shared counts back to the threads
+		for (int w = 0; w < workers.length; w++) {
+			final Worker worker = workers[w];
+			tasks[w] = new Runnable () {
+				public void run () { worker.copyGlobalCounts (); }
+			};
+		}
+		runAll (tasks, executor);
+	}
+
+	private static void runAll (Runnable[] tasks, ExecutorService executor)
+	{
+		if (executor == null)
+			tasks[0].run ();
+		else
+			ParallelUtils.runAll (tasks, executor);
+	}
+
+	/** Adds <code>delta[offset..]</code>, if it has been allocated, into
+	 * <code>counts</code>. */
+	private void addRow (int[] delta, int[] counts, int offset)
+	{
+		if (delta == null)
+			return;
+		for (int ti = 0; ti < numTopics; ti++)
+			counts[ti] += delta[offset + ti];
+	}
+
+	/** Packs the dense unigram counts of words in [first, last) into
+	 * SparseLDA's sparse form, largest first. */
+	private void packUnitypeCounts (int first, int last)
+	{
+		for (int type = first; type < last; type++) {
+			long[] packed = sparseUnitypeTopicCounts[type];
+			int[] counts = unitypeTopicCounts[type];
+			int n = 0;
+			for (int ti = 0; ti < numTopics; ti++)
+				if (counts[ti] > 0)
+					packed[n++] = ((long) counts[ti] << topicBits) | ti;
+			Arrays.sort (packed, 0, n);
+			for (int i = 0, j = n-1; i < j; i++, j--) {
+				long tmp = packed[i];
+				packed[i] = packed[j];
+				packed[j] = tmp;
+			}
+			Arrays.fill (packed, n, packed.length, 0);
+		}
+	}
+
+
+	/** Samples one shard of the documents against the shared counts
+	 * plus its own differences from them. */
+	class Worker
+	{
+		int firstDoc, lastDoc;
+		Random r;
+		long[][] unitypeCounts;				// this shard's view, in SparseLDA's sparse form
+		int[] tokensPerTopic;
+		// Differences from the shared counts, rows allocated when first changed
+		int[][] unitypeDeltas;				// indexed by <feature index, topic index>
+		int[][] bitypeDeltas;					// indexed by <bifeature index, topic index>
+		int[][] bitokensDeltas;				// indexed by <feature index, topic index>
+		int[][] typeNgramDeltas;			// indexed by <feature index, ngram status * numTopics + topic index>
+		int biTokensDelta;
+
+		int[] oneDocTopicCounts;
+		int[] docTopics = new int[numTopics];			// the topics with non-zero counts in the document
+		int numDocTopics;
+		double smoothingOnlyMass, topicBetaMass;
+		double[] cachedCoefficients = new double[numTopics];	// (alpha+n_dt)/(n_t+V*beta)
+		double[] topicTermScores = new double[numTopics];
+		int[] unitypeScratch = new int[numTopics];
+		double[] biTopicWeights = new double[numTopics*2];
+
+		Worker (int firstDoc, int lastDoc, Random r)
+		{
+			this.firstDoc = firstDoc;
+			this.lastDoc = lastDoc;
+			this.r = r;
+			unitypeCounts = new long[numTypes][];
+			for (int type = 0; type < numTypes; type++)
+				unitypeCounts[type] = new long[sparseUnitypeTopicCounts[type].length];
+			tokensPerTopic = new int[numTopics];
+			unitypeDeltas = new int[numTypes][];
+			bitypeDeltas = new int[numBitypes][];
+			bitokensDeltas = new int[numTypes][];
+			typeNgramDeltas = new int[numTypes][];
+		}
+
+		void copyGlobalCounts ()
+		{
+			for (int type = 0; type < numTypes; type++)
+				System.arraycopy (sparseUnitypeTopicCounts[type], 0, unitypeCounts[type], 0, unitypeCounts[type].length);
+			System.arraycopy (ParallelTopicalNGrams.this.tokensPerTopic, 0, tokensPerTopic, 0, numTopics);
+			biTokensDelta = 0;
+		}
+
+		private int[] row (int[][] deltas, int i, int width)
+		{
+			if (deltas[i] == null)
+				deltas[i] = new int[width];
+			return deltas[i];
+		}
+
+		void sample ()
+		{
+			for (int di = firstDoc; di < lastDoc; di++)
+				sampleTopicsForOneDoc ((FeatureSequenceWithBigrams)ilist.getInstance(di).getData(),
+				                       topics[di], grams[di], docTopicCounts[di]);
+		}
+
+		/** Changes the document's and this shard's count of a topic, and
+		 * the sampling buckets that depend on them. */
+		private void adjust (int topic, int docDelta, int tokensDelta)
+		{
+			double denom = tokensPerTopic[topic] + vBeta;
+			smoothingOnlyMass -= alpha * beta / denom;
+			topicBetaMass -= beta * oneDocTopicCounts[topic] / denom;
+			if (docDelta < 0 && oneDocTopicCounts[topic] == 1) {
+				int i = 0;
+				while (docTopics[i] != topic)
+					i++;
+				docTopics[i] = docTopics[--numDocTopics];
+			} else if (docDelta > 0 && oneDocTopicCounts[topic] == 0)
+				docTopics[numDocTopics++] = topic;
+			oneDocTopicCounts[topic] += docDelta;
+			tokensPerTopic[topic] += tokensDelta;
+			denom = tokensPerTopic[topic] + vBeta;
+			smoothingOnlyMass += alpha * beta / denom;
+			topicBetaMass += beta * oneDocTopicCounts[topic] / denom;
+			cachedCoefficients[topic] = (alpha + oneDocTopicCounts[topic]) / denom;
+		}
+
+		private void sampleTopicsForOneDoc (FeatureSequenceWithBigrams oneDocTokens,
+		                                    int[] oneDocTopics, int[] oneDocGrams,
+		                                    int[] oneDocTopicCounts)
+		{
+			this.oneDocTopicCounts = oneDocTopicCounts;
+			smoothingOnlyMass = 0;
+			topicBetaMass = 0;
+			numDocTopics = 0;
+			for (int ti = 0; ti < numTopics; ti++) {
+				double denom = tokensPerTopic[ti] + vBeta;
+				smoothingOnlyMass += alpha * beta / denom;
+				topicBetaMass += beta * oneDocTopicCounts[ti] / denom;
+				cachedCoefficients[ti] = (alpha + oneDocTopicCounts[ti]) / denom;
+				if (oneDocTopicCounts[ti] > 0)
+					docTopics[numDocTopics++] = ti;
+			}
+
+			int docLen = oneDocTokens.getLength();
+			for (int si = 0; si < docLen; si++) {
+				int type = oneDocTokens.getIndexAtPosition(si);
+				int bitype = oneDocTokens.getBiIndexAtPosition(si);
+				int oldTopic = oneDocTopics[si];
+				int oldGram = oneDocGrams[si];
+				int nextGram = (si == docLen-1) ? -1 : oneDocGrams[si+1];
+				long[] currentUnitypeCounts = unitypeCounts[type];
+				int newTopic, newGram;
+				if (bitype == -1) {
+					// Remove this token from all counts
+					adjust (oldTopic, -1, -1);
+					SparseLDA.removeCount (currentUnitypeCounts, oldTopic, topicBits);
+					row (unitypeDeltas, type, numTopics)[oldTopic]--;
+					if (si != docLen-1)
+						row (typeNgramDeltas, type, 2*numTopics)[nextGram*numTopics + oldTopic]--;
+
+					// The word bucket
+					double topicTermMass = 0;
+					int numTypeTopics = 0;
+					while (numTypeTopics < currentUnitypeCounts.length && currentUnitypeCounts[numTypeTopics] > 0) {
+						long packed = currentUnitypeCounts[numTypeTopics];
+						double score = (packed >>> topicBits) * cachedCoefficients[(int) (packed & ((1 << topicBits) - 1))];
+						topicTermMass += score;
+						topicTermScores[numTypeTopics++] = score;
+					}
+
+					// Sample a topic assignment from the three buckets, as SparseLDA does
+					double sample = r.nextUniform() * (smoothingOnlyMass + topicBetaMass + topicTermMass);
+					if (sample < topicTermMass) {
+						int i = 0;
+						while (i < numTypeTopics - 1 && (sample -= topicTermScores[i]) > 0)
+							i++;
+						newTopic = (int) (currentUnitypeCounts[i] & ((1 << topicBits) - 1));
+					} else {
+						sample -= topicTermMass;
+						if (sample < topicBetaMass) {
+							sample /= beta;
+							int i = 0;
+							while (i < numDocTopics - 1
+							       && (sample -= oneDocTopicCounts[docTopics[i]] / (tokensPerTopic[docTopics[i]] + vBeta)) > 0)
+								i++;
+							newTopic = docTopics[i];
+						} else {
+							sample -= topicBetaMass;
+							sample /= alpha * beta;
+							newTopic = 0;
+							while (newTopic < numTopics - 1
+							       && (sample -= 1.0 / (tokensPerTopic[newTopic] + vBeta)) > 0)
+								newTopic++;
+						}
+					}
+					newGram = 0;
+
+					// Put that new topic into the counts
+					adjust (newTopic, 1, 1);
+					SparseLDA.addCount (currentUnitypeCounts, newTopic, 1, topicBits);
+					row (unitypeDeltas, type, numTopics)[newTopic]++;
+					if (si != docLen-1)
+						row (typeNgramDeltas, type, 2*numTopics)[nextGram*numTopics + newTopic]++;
+				} else {
+					// Bigram is possible
+					int prevType = oneDocTokens.getIndexAtPosition(si-1);
+					int prevTopic = oneDocTopics[si-1];
+					int[] prevNgramDeltas = row (typeNgramDeltas, prevType, 2*numTopics);
+					// Remove this token from all counts
+					adjust (oldTopic, -1, oldGram == 0 ? -1 : 0);
+					prevNgramDeltas[oldGram*numTopics + prevTopic]--;
+					if (si != docLen-1)
+						row (typeNgramDeltas, type, 2*numTopics)[nextGram*numTopics + oldTopic]--;
+					if (oldGram == 0) {
+						SparseLDA.removeCount (currentUnitypeCounts, oldTopic, topicBits);
+						row (unitypeDeltas, type, numTopics)[oldTopic]--;
+					} else {
+						row (bitypeDeltas, bitype, numTopics)[oldTopic]--;
+						row (bitokensDeltas, prevType, numTopics)[oldTopic]--;
+						biTokensDelta--;
+					}
+
+					// Build a joint distribution over topics and ngram-status for this token
+					for (int i = 0; i < currentUnitypeCounts.length && currentUnitypeCounts[i] > 0; i++)
+						unitypeScratch[(int) (currentUnitypeCounts[i] & ((1 << topicBits) - 1))] = (int) (currentUnitypeCounts[i] >>> topicBits);
+					int[] bitypeCounts = bitypeTopicCounts[bitype];
+					int[] bitypeDelta = row (bitypeDeltas, bitype, numTopics);
+					int[] prevBitokens = bitokensPerTopic[prevType];
+					int[] prevBitokensDelta = row (bitokensDeltas, prevType, numTopics);
+					double unigramFactor = typeNgramTopicCounts[prevType][0][prevTopic] + prevNgramDeltas[prevTopic] + delta1;
+					double bigramFactor = typeNgramTopicCounts[prevType][1][prevTopic] + prevNgramDeltas[numTopics + prevTopic]
+						+ delta2;
+					double topicWeightsSum = 0;
+					for (int ti = 0; ti < numTopics; ti++) {
+						// The unigram outcome
+						double tw =
+							(unitypeScratch[ti] + beta) / (tokensPerTopic[ti] + vBeta)
+							* (oneDocTopicCounts[ti] + alpha)
+							* unigramFactor;
+						topicWeightsSum += tw;
+						biTopicWeights[ti << 1] = tw;
+						// The bigram outcome
+						tw =
+							(bitypeCounts[ti] + bitypeDelta[ti] + gamma) / (prevBitokens[ti] + prevBitokensDelta[ti] + vGamma)
+							* (oneDocTopicCounts[ti] + alpha)
+							* bigramFactor;
+						topicWeightsSum += tw;
+						biTopicWeights[(ti << 1) + 1] = tw;
+					}
+					for (int i = 0; i < currentUnitypeCounts.length && currentUnitypeCounts[i] > 0; i++)
+						unitypeScratch[(int) (currentUnitypeCounts[i] & ((1 << topicBits) - 1))] = 0;
+					// Sample a topic assignment from this distribution
+					newTopic = r.nextDiscrete (biTopicWeights, topicWeightsSum);
+					newGram = newTopic % 2;
+					newTopic /= 2;
+
+					// Put that new topic into the counts
+					adjust (newTopic, 1, newGram == 0 ? 1 : 0);
+					prevNgramDeltas[newGram*numTopics + prevTopic]++;
+					if (si != docLen-1)
+						row (typeNgramDeltas, type, 2*numTopics)[nextGram*numTopics + newTopic]++;
+					if (newGram == 0) {
+						SparseLDA.addCount (currentUnitypeCounts, newTopic, 1, topicBits);
+						row (unitypeDeltas, type, numTopics)[newTopic]++;
+					} else {
+						bitypeDelta[newTopic]++;
+						prevBitokensDelta[newTopic]++;
+						biTokensDelta++;
+					}
+				}
+				oneDocTopics[si] = newTopic;
+				oneDocGrams[si] = newGram;
+			}
+		}
+	}
+
+
+	// Checkpoints
+
+	/** Writes the topic and bigram status of every token, and the number
+	 * of iterations done, to <code>f</code>, by way of a temporary file
+	 * that then replaces it, so that an interrupted write leaves the
+	 * previous checkpoint.  The replacement is atomic where the file
+	 * system allows. */
+	public void writeCheckpoint (File f, int iteration) throws IOException
+	{
+		File tmp = new File (f.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream (new BufferedOutputStream (new GZIPOutputStream (new FileOutputStream (tmp))));
+		try {
+			out.writeInt (CHECKPOINT_MAGIC);
+			out.writeInt (CHECKPOINT_VERSION);
+			out.writeInt (numTopics);
+			out.writeInt (iteration);
+			out.writeInt (topics.length);
+			for (int di = 0; di < topics.length; di++) {
+				writeVarInt (out, topics[di].length);
+				for (int si = 0; si < topics[di].length; si++)
+					writeVarInt (out, (topics[di][si] << 1) | grams[di][si]);
+			}
+		} finally {
+			out.close ();
+		}
+		try {
+			Files.move (tmp.toPath(), f.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move (tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/** Reads a checkpoint written by {@link #writeCheckpoint}; the next
+	 * call to <code>estimate</code>, which must be given the same
+	 * documents, continues from it.  Returns the number of iterations
+	 * done. */
+	public int resume (File f) throws IOException
+	{
+		DataInputStream in = new DataInputStream (new BufferedInputStream (new GZIPInputStream (new FileInputStream (f))));
+		try {
+			if (in.readInt () != CHECKPOINT_MAGIC)
+				throw new IOException ("Not a TopicalNGrams checkpoint: "+f);
+			int version = in.readInt ();
+			if (version > CHECKPOINT_VERSION)
+				throw new IOException ("Unknown checkpoint version "+version+" in "+f);
+			if (in.readInt () != numTopics)
+				throw new IllegalArgumentException ("Checkpoint "+f+" has a different number of topics");
+			int iteration = in.readInt ();
+			int numDocs = in.readInt ();
+			int[][] savedTopics = new int[numDocs][];
+			int[][] savedGrams = new int[numDocs][];
+			for (int di = 0; di < numDocs; di++) {
+				int docLen = readVarInt (in);
+				savedTopics[di] = new int[docLen];
+				savedGrams[di] = new int[docLen];
+				for (int si = 0; si < docLen; si++) {
+					int v = readVarInt (in);
+					savedTopics[di][si] = v >>> 1;
+					savedGrams[di][si] = v & 1;
+				}
+			}
+			resumeTopics = savedTopics;
+			resumeGrams = savedGrams;
+			resumeIteration = iteration;
+			return iteration;
+		} finally {
+			in.close ();
+		}
+	}
+
+	private void checkResumeState (InstanceList documents)
+	{
+		if (resumeTopics.length != documents.size())
+			throw new IllegalArgumentException ("Checkpoint has "+resumeTopics.length+" documents, not "+documents.size());
+		for (int di = 0; di < resumeTopics.length; di++) {
+			FeatureSequenceWithBigrams fs = (FeatureSequenceWithBigrams) documents.getInstance(di).getData();
+			if (fs.getLength() != resumeTopics[di].length)
+				throw new IllegalArgumentException ("Checkpoint does not match the length of document "+di);
+			for (int si = 0; si < resumeTopics[di].length; si++)
+				if (resumeTopics[di][si] >= numTopics || (resumeGrams[di][si] == 1 && fs.getBiIndexAtPosition(si) == -1))
+					throw new IllegalArgumentException ("Checkpoint does not match document "+di+" at "+si);
+		}
+	}
+
+	private static void writeVarInt (DataOutputStream out, int v) throws IOException
+	{
+		while ((v & ~0x7f) != 0) {
+			out.writeByte ((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte (v);
+	}
+
+	private static int readVarInt (DataInputStream in) throws IOException
+	{
+		int v = 0;
+		for (int shift = 0; ; shift += 7) {
+			int b = in.readUnsignedByte ();
+			v |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return v;
+		}
+	}
+
+
+	// Serialization; TopicalNGrams writes its own fields first
+
+	private static final long serialVersionUID = 1;
+	private static final int CURRENT_SERIAL_VERSION = 0;
+
+	private void writeObject (ObjectOutputStream out) throws IOException {
+		out.writeInt (CURRENT_SERIAL_VERSION);
+		out.writeInt (numThreads);
+		out.writeObject (checkpointFile);
+		out.writeInt (checkpointInterval);
+	}
+
+	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
+		int version = in.readInt ();
+		numThreads = in.readInt ();
+		checkpointFile = (File) in.readObject ();
+		checkpointInterval = in.readInt ();
+	}
+
+}
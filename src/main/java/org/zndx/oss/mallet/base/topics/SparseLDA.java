@@ -0,0 +1,517 @@
+/* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package org.zndx.oss.mallet.base.topics;
+
+import org.zndx.oss.mallet.base.types.*;
+import org.zndx.oss.mallet.base.util.ParallelUtils;
+import org.zndx.oss.mallet.base.util.Random;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.io.*;
+
+/**
+ * Latent Dirichlet Allocation, with a Gibbs sampler whose cost per token
+ * grows with the number of topics actually used by the token's word and
+ * document, rather than with the number of topics, and which may run on
+ * several threads.
+ *
+ * <p>The weight of each topic for a token is split into three buckets, as
+ * in Yao, Mimno and McCallum, "Efficient methods for topic model inference
+ * on streaming document collections" (KDD 2009): a smoothing bucket
+ * alpha*beta/(n_t+V*beta), which changes only with the topic totals; a
+ * document bucket beta*n_dt/(n_t+V*beta), non-zero only for the topics
+ * in the document; and a word bucket n_wt*(alpha+n_dt)/(n_t+V*beta),
+ * non-zero only for the topics of the word.  The counts for each word are
+ * kept as a sparse array of (count, topic) pairs, packed into longs and
+ * sorted by count, so that the word bucket is usually found within its
+ * first few entries.
+ *
+ * <p>With more than one thread, the documents are split into contiguous
+ * shards of about the same number of tokens.  Each thread samples its
+ * shard against its own copy of the word-topic counts and topic totals;
+ * after each iteration the copies are summed into the global counts and
+ * handed back to the threads.  A thread therefore sees the other threads'
+ * changes only one iteration late, which is the usual approximation of
+ * parallel Gibbs sampling for LDA.  Results are reproducible for a given
+ * random seed and number of threads.
+ *
+ * <p>The model is an {@link LDA}: after {@link #estimate} its counts are
+ * filled in as LDA's, so that <code>printTopWords</code>,
+ * <code>printDocumentTopics</code>, <code>printState</code> and
+ * <code>write</code> work as before, and a written model reads back as
+ * an LDA.
+ */
+
+public class SparseLDA extends LDA {
+
+	int numThreads = 1;
+
+	transient int topicBits;
+	transient int topicMask;
+	transient long[][] sparseTypeTopicCounts; // indexed by <feature index, rank>, (count << topicBits) | topic
+	transient double tokensPerSecond;
+
+	public SparseLDA (int numberOfTopics)
+	{
+		this (numberOfTopics, 50.0, 0.01);
+	}
+
+	public SparseLDA (int numberOfTopics, double alphaSum, double beta)
+	{
+		super (numberOfTopics, alphaSum, beta);
+	}
+
+	public SparseLDA (int numberOfTopics, double alphaSum, double beta, int numThreads)
+	{
+		this (numberOfTopics, alphaSum, beta);
+		setNumThreads (numThreads);
+	}
+
+	public void setNumThreads (int numThreads)
+	{
+		if (numThreads < 1)
+			throw new IllegalArgumentException ("numThreads must be positive, was "+numThreads);
+		this.numThreads = numThreads;
+	}
+
+	public int getNumThreads ()
+	{
+		return numThreads;
+	}
+
+	/** Returns the number of tokens sampled per second in the last iteration. */
+	public double getTokensPerSecond ()
+	{
+		return tokensPerSecond;
+	}
+
+	public void estimate (InstanceList documents, int numIterations, int showTopicsInterval,
+	                      int outputModelInterval, String outputModelFilename,
+	                      Random r)
+	{
+		ilist = documents;
+		numTypes = ilist.getDataAlphabet().size ();
+		int numDocs = ilist.size();
+		topics = new int[numDocs][];
+		docTopicCounts = new int[numDocs][numTopics];
+		tokensPerTopic = new int[numTopics];
+		typeTopicCounts = null;
+		tAlpha = alpha * numTopics;
+		vBeta = beta * numTypes;
+		topicBits = topicBits (numTopics);
+		topicMask = (1 << topicBits) - 1;
+
+		long startTime = System.currentTimeMillis();
+
+		// Initialize with random assignments of tokens to topics, as LDA does
+		numTokens = 0;
+		int[] typeFrequencies = new int[numTypes];
+		for (int di = 0; di < numDocs; di++) {
+			FeatureSequence fs = (FeatureSequence) ilist.getInstance(di).getData();
+			int seqLen = fs.getLength();
+			numTokens += seqLen;
+			topics[di] = new int[seqLen];
+			for (int si = 0; si < seqLen; si++) {
+				int topic = r.nextInt(numTopics);
+				topics[di][si] = topic;
+				docTopicCounts[di][topic]++;
+				typeFrequencies[fs.getIndexAtPosition(si)]++;
+				tokensPerTopic[topic]++;
+			}
+		}
+		// A word can have no more topics than tokens
+		sparseTypeTopicCounts = new long[numTypes][];
+		for (int type = 0; type < numTypes; type++)
+			sparseTypeTopicCounts[type] = new long[Math.min (numTopics, typeFrequencies[type])];
+		for (int di = 0; di < numDocs; di++) {
+			FeatureSequence fs = (FeatureSequence) ilist.getInstance(di).getData();
+			for (int si = 0; si < topics[di].length; si++)
+				addCount (sparseTypeTopicCounts[fs.getIndexAtPosition(si)], topics[di][si], 1, topicBits);
+		}
+
+		Worker[] workers = makeWorkers (numDocs, r);
+		ExecutorService executor = numThreads > 1 ? ParallelUtils.newExecutor (numThreads, "SparseLDA") : null;
+		try {
+			for (int iterations = 0; iterations < numIterations; iterations++) {
+				if (showTopicsInterval != 0 && iterations % showTopicsInterval == 0 && iterations > 0) {
+					fillTypeTopicCounts ();
+					printTopWords (5, false);
+				}
+				if (outputModelInterval != 0 && iterations % outputModelInterval == 0 && iterations > 0) {
+					fillTypeTopicCounts ();
+					this.write (new File(outputModelFilename+'.'+iterations));
+				}
+				long iterationStart = System.currentTimeMillis();
+				sampleTopicsForAllDocs (workers, executor);
+				long millis = Math.max (1, System.currentTimeMillis() - iterationStart);
+				tokensPerSecond = numTokens * 1000.0 / millis;
+				System.out.println ("Iteration "+iterations+": "+millis+" ms, "+Math.round (tokensPerSecond)+" tokens/sec");
+			}
+		} finally {
+			if (executor != null)
+				executor.shutdown ();
+		}
+		fillTypeTopicCounts ();
+
+		long seconds = Math.round((System.currentTimeMillis() - startTime)/1000.0);
+		long minutes = seconds / 60;	seconds %= 60;
+		long hours = minutes / 60;	minutes %= 60;
+		long days = hours / 24;	hours %= 24;
+		System.out.print ("\nTotal time: ");
+		if (days != 0) { System.out.print(days); System.out.print(" days "); }
+		if (hours != 0) { System.out.print(hours); System.out.print(" hours "); }
+		if (minutes != 0) { System.out.print(minutes); System.out.print(" minutes "); }
+		System.out.print(seconds); System.out.println(" seconds");
+	}
+
+	private Worker[] makeWorkers (int numDocs, Random r)
+	{
+		int[] bounds = shardDocuments (topics, numTokens, numThreads);
+		Worker[] workers = new Worker[bounds.length - 1];
+		for (int w = 0; w < workers.length; w++) {
+			if (workers.length == 1)
+				workers[w] = new Worker (bounds[w], bounds[w+1], sparseTypeTopicCounts, tokensPerTopic, new Random (r.nextInt()));
+			else
+				workers[w] = new Worker (bounds[w], bounds[w+1], copyOf (sparseTypeTopicCounts), (int[]) tokensPerTopic.clone(),
+				                         new Random (r.nextInt()));
+		}
+		return workers;
+	}
+
+	/** Splits the documents into at most <code>numShards</code>
+	 * contiguous, non-empty shards of about the same number of tokens, and
+	 * returns the index of the first document of each, followed by the
+	 * number of documents. */
+	static int[] shardDocuments (int[][] topics, int numTokens, int numShards)
+	{
+		int numDocs = topics.length;
+		int n = Math.max (1, Math.min (numShards, numDocs));
+		int[] bounds = new int[n+1];
+		int end = 0;
+		long tokensSoFar = 0;
+		for (int w = 0; w < n; w++) {
+			int start = end;
+			long target = (numTokens * (long) (w+1)) / n;
+			while (end < numDocs && (tokensSoFar < target || end == start) && numDocs - end > n - w - 1) {
+				tokensSoFar += topics[end].length;
+				end++;
+			}
+			if (w == n-1)
+				end = numDocs;
+			bounds[w+1] = end;
+		}
+		return bounds;
+	}
+
+	private static long[][] copyOf (long[][] counts)
+	{
+		long[][] ret = new long[counts.length][];
+		for (int i = 0; i < counts.length; i++)
+			ret[i] = (long[]) counts[i].clone();
+		return ret;
+	}
+
+	/* One iteration of Gibbs sampling, across all documents. */
+	private void sampleTopicsForAllDocs (final Worker[] workers, ExecutorService executor)
+	{
+		if (workers.length == 1) {
+			workers[0].sample ();
+			return;
+		}
+		Runnable[] tasks = new Runnable[workers.length];
+		for (int w = 0; w < workers.length; w++) {
+			final Worker worker = workers[w];
+			tasks[w] = new Runnable () {
+				public void run () {
+					worker.sample ();
+					// Replace this thread's copy with the counts of its own documents
+					worker.countOwnDocuments ();
+				}
+			};
+		}
+		ParallelUtils.runAll (tasks, executor);
+
+		// Sum the threads' counts into the global counts, a range of words per thread
+		final int[] bounds = ParallelUtils.shardBoundaries (numTypes, workers.length);
+		for (int w = 0; w < workers.length; w++) {
+			final int first = bounds[w], last = bounds[w+1];
+			tasks[w] = new Runnable () {
+				public void run () {
+					for (int type = first; type < last; type++) {
+						long[] global = sparseTypeTopicCounts[type];
+						Arrays.fill (global, 0);
+						for (int w2 = 0; w2 < workers.length; w2++) {
+							long[] local = workers[w2].typeTopicCounts[type];
+							for (int i = 0; i < local.length && local[i] > 0; i++)
+								addCount (global, (int) (local[i] & topicMask), (int) (local[i] >>> topicBits), topicBits);
+						}
+					}
+				}
+			};
+		}
+		ParallelUtils.runAll (tasks, executor);
+		Arrays.fill (tokensPerTopic, 0);
+		for (int w = 0; w < workers.length; w++)
+			for (int ti = 0; ti < numTopics; ti++)
+				tokensPerTopic[ti] += workers[w].tokensPerTopic[ti];
+
+		// Hand the global counts back to the threads
+		for (int w = 0; w < workers.length; w++) {
+			final Worker worker = workers[w];
+			tasks[w] = new Runnable () {
+				public void run () {
+					for (int type = 0; type < numTypes; type++)
+						System.arraycopy (sparseTypeTopicCounts[type], 0, worker.typeTopicCounts[type], 0,
+						                  sparseTypeTopicCounts[type].length);
+					System.arraycopy (tokensPerTopic, 0, worker.tokensPerTopic, 0, numTopics);
+				}
+			};
+		}
+		ParallelUtils.runAll (tasks, executor);
+	}
+
+	/** Adds <code>count</code> to the count of <code>topic</code> in one
+	 * word's sparse counts, each packed as <code>(count << topicBits) |
+	 * topic</code> into a long, keeping them sorted.  A long leaves room
+	 * for the count of any word whose tokens can be counted in an int,
+	 * which the 31 - topicBits bits left in an int do not. */
+	public static void addCount (long[] counts, int topic, int count, int topicBits)
+	{
+		long topicMask = (1L << topicBits) - 1;
+		int i = 0;
+		while (counts[i] > 0 && (counts[i] & topicMask) != topic)
+			i++;
+		if (counts[i] == 0)
+			counts[i] = ((long) count << topicBits) | topic;
+		else
+			counts[i] += (long) count << topicBits;
+		// Move it up past any smaller counts
+		while (i > 0 && counts[i] > counts[i-1]) {
+			long tmp = counts[i];
+			counts[i] = counts[i-1];
+			counts[i-1] = tmp;
+			i--;
+		}
+	}
+
+	/** Removes one from the count of <code>topic</code> in one word's
+	 * sparse counts, keeping them sorted. */
+	public static void removeCount (long[] counts, int topic, int topicBits)
+	{
+		long topicMask = (1L << topicBits) - 1;
+		int i = 0;
+		while ((counts[i] & topicMask) != topic || counts[i] == 0)
+			i++;
+		counts[i] -= 1L << topicBits;
+		if ((counts[i] >>> topicBits) == 0) {
+			// Close the gap
+			while (i+1 < counts.length && counts[i+1] > 0) {
+				counts[i] = counts[i+1];
+				i++;
+			}
+			counts[i] = 0;
+		} else {
+			// Move it down past any larger counts
+			while (i+1 < counts.length && counts[i] < counts[i+1]) {
+				long tmp = counts[i];
+				counts[i] = counts[i+1];
+				counts[i+1] = tmp;
+				i++;
+			}
+		}
+	}
+
+	/** Returns the number of low bits needed to hold a topic index. */
+	public static int topicBits (int numTopics)
+	{
+		int bits = 1;
+		while ((1 << bits) < numTopics)
+			bits++;
+		return bits;
+	}
+
+	/** Fills LDA's dense word-topic counts from the sparse ones. */
+	void fillTypeTopicCounts ()
+	{
+		if (typeTopicCounts == null)
+			typeTopicCounts = new int[numTypes][numTopics];
+		for (int type = 0; type < numTypes; type++) {
+			int[] dense = typeTopicCounts[type];
+			long[] counts = sparseTypeTopicCounts[type];
+			Arrays.fill (dense, 0);
+			for (int i = 0; i < counts.length && counts[i] > 0; i++)
+				dense[(int) (counts[i] & topicMask)] = (int) (counts[i] >>> topicBits);
+		}
+	}
+
+
+	/** Samples one shard of the documents against its own counts. */
+	class Worker
+	{
+		int firstDoc, lastDoc;
+		long[][] typeTopicCounts;
+		int[] tokensPerTopic;
+		Random r;
+		double[] cachedCoefficients = new double[numTopics];
+		double[] topicTermScores = new double[numTopics];
+		int[] docTopics = new int[numTopics];			// the topics with non-zero counts in a document
+
+		Worker (int firstDoc, int lastDoc, long[][] typeTopicCounts, int[] tokensPerTopic, Random r)
+		{
+			this.firstDoc = firstDoc;
+			this.lastDoc = lastDoc;
+			this.typeTopicCounts = typeTopicCounts;
+			this.tokensPerTopic = tokensPerTopic;
+			this.r = r;
+		}
+
+		void countOwnDocuments ()
+		{
+			for (int type = 0; type < typeTopicCounts.length; type++)
+				Arrays.fill (typeTopicCounts[type], 0);
+			Arrays.fill (tokensPerTopic, 0);
+			for (int di = firstDoc; di < lastDoc; di++) {
+				FeatureSequence fs = (FeatureSequence) ilist.getInstance(di).getData();
+				int[] docTopicAssignments = topics[di];
+				for (int si = 0; si < docTopicAssignments.length; si++) {
+					addCount (typeTopicCounts[fs.getIndexAtPosition(si)], docTopicAssignments[si], 1, topicBits);
+					tokensPerTopic[docTopicAssignments[si]]++;
+				}
+			}
+		}
+
+		void sample ()
+		{
+			// The smoothing bucket, and the coefficients of the word bucket
+			// for topics not in the document
+			double smoothingOnlyMass = 0;
+			for (int ti = 0; ti < numTopics; ti++) {
+				smoothingOnlyMass += alpha * beta / (tokensPerTopic[ti] + vBeta);
+				cachedCoefficients[ti] = alpha / (tokensPerTopic[ti] + vBeta);
+			}
+			for (int di = firstDoc; di < lastDoc; di++)
+				smoothingOnlyMass = sampleTopicsForOneDoc ((FeatureSequence) ilist.getInstance(di).getData(),
+				                                           topics[di], docTopicCounts[di], smoothingOnlyMass);
+		}
+
+		private double sampleTopicsForOneDoc (FeatureSequence oneDocTokens, int[] oneDocTopics, // indexed by seq position
+		                                      int[] oneDocTopicCounts, // indexed by topic index
+		                                      double smoothingOnlyMass)
+		{
+			int docLen = oneDocTokens.getLength();
+			int numDocTopics = 0;
+			double topicBetaMass = 0;
+			for (int ti = 0; ti < numTopics; ti++) {
+				int n = oneDocTopicCounts[ti];
+				if (n == 0)
+					continue;
+				docTopics[numDocTopics++] = ti;
+				topicBetaMass += beta * n / (tokensPerTopic[ti] + vBeta);
+				cachedCoefficients[ti] = (alpha + n) / (tokensPerTopic[ti] + vBeta);
+			}
+
+			for (int si = 0; si < docLen; si++) {
+				int type = oneDocTokens.getIndexAtPosition(si);
+				long[] currentTypeTopicCounts = typeTopicCounts[type];
+				int oldTopic = oneDocTopics[si];
+
+				// Remove this token from all counts and buckets
+				double denom = tokensPerTopic[oldTopic] + vBeta;
+				smoothingOnlyMass -= alpha * beta / denom;
+				topicBetaMass -= beta * oneDocTopicCounts[oldTopic] / denom;
+				oneDocTopicCounts[oldTopic]--;
+				tokensPerTopic[oldTopic]--;
+				denom -= 1;
+				smoothingOnlyMass += alpha * beta / denom;
+				topicBetaMass += beta * oneDocTopicCounts[oldTopic] / denom;
+				cachedCoefficients[oldTopic] = (alpha + oneDocTopicCounts[oldTopic]) / denom;
+				if (oneDocTopicCounts[oldTopic] == 0) {
+					int i = 0;
+					while (docTopics[i] != oldTopic)
+						i++;
+					docTopics[i] = docTopics[--numDocTopics];
+				}
+				removeCount (currentTypeTopicCounts, oldTopic, topicBits);
+
+				// The word bucket
+				double topicTermMass = 0;
+				int numTypeTopics = 0;
+				while (numTypeTopics < currentTypeTopicCounts.length && currentTypeTopicCounts[numTypeTopics] > 0) {
+					long packed = currentTypeTopicCounts[numTypeTopics];
+					double score = (packed >>> topicBits) * cachedCoefficients[(int) (packed & topicMask)];
+					topicTermMass += score;
+					topicTermScores[numTypeTopics++] = score;
+				}
+
+				// Sample a topic assignment from the three buckets
+				double sample = r.nextUniform() * (smoothingOnlyMass + topicBetaMass + topicTermMass);
+				int newTopic = -1;
+				if (sample < topicTermMass) {
+					int i = 0;
+					while (i < numTypeTopics - 1 && (sample -= topicTermScores[i]) > 0)
+						i++;
+					newTopic = (int) (currentTypeTopicCounts[i] & topicMask);
+				} else {
+					sample -= topicTermMass;
+					if (sample < topicBetaMass) {
+						sample /= beta;
+						int i = 0;
+						while (i < numDocTopics - 1
+						       && (sample -= oneDocTopicCounts[docTopics[i]] / (tokensPerTopic[docTopics[i]] + vBeta)) > 0)
+							i++;
+						newTopic = docTopics[i];
+					} else {
+						sample -= topicBetaMass;
+						sample /= beta;
+						newTopic = 0;
+						while (newTopic < numTopics - 1
+						       && (sample -= alpha / (tokensPerTopic[newTopic] + vBeta)) > 0)
+							newTopic++;
+					}
+				}
+
+				// Put that new topic into the counts and buckets
+				oneDocTopics[si] = newTopic;
+				denom = tokensPerTopic[newTopic] + vBeta;
+				smoothingOnlyMass -= alpha * beta / denom;
+				topicBetaMass -= beta * oneDocTopicCounts[newTopic] / denom;
+				if (oneDocTopicCounts[newTopic] == 0)
+					docTopics[numDocTopics++] = newTopic;
+				oneDocTopicCounts[newTopic]++;
+				tokensPerTopic[newTopic]++;
+				denom += 1;
+				smoothingOnlyMass += alpha * beta / denom;
+				topicBetaMass += beta * oneDocTopicCounts[newTopic] / denom;
+				cachedCoefficients[newTopic] = (alpha + oneDocTopicCounts[newTopic]) / denom;
+				addCount (currentTypeTopicCounts, newTopic, 1, topicBits);
+			}
+
+			// The word bucket coefficients go back to those for no document
+			for (int i = 0; i < numDocTopics; i++)
+				cachedCoefficients[docTopics[i]] = alpha / (tokensPerTopic[docTopics[i]] + vBeta);
+			return smoothingOnlyMass;
+		}
+	}
+
+
+	// Serialization; LDA writes its own fields first
+
+	private static final long serialVersionUID = 1;
+	private static final int CURRENT_SERIAL_VERSION = 0;
+
+	private void writeObject (ObjectOutputStream out) throws IOException {
+		out.writeInt (CURRENT_SERIAL_VERSION);
+		out.writeInt (numThreads);
+	}
+
+	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
+		int version = in.readInt ();
+		numThreads = in.readInt ();
+	}
+
+}
@@ -19,7 +19,7 @@ import java.io.*;
  * based on C code by Xuerui Wang.
  */
 
-public class TopicalNGrams {
+public class TopicalNGrams implements Serializable {
 
 	int numTopics;
 	Alphabet uniAlphabet;
@@ -71,6 +71,30 @@ public class TopicalNGrams {
 	public void estimate (InstanceList documents, int numIterations, int showTopicsInterval,
                         int outputModelInterval, String outputModelFilename,
                         Random r)
+	{
+		long startTime = System.currentTimeMillis();
+		initialize (documents, null, null, r);
+
+    for (int iterations = 0; iterations < numIterations; iterations++) {
+      sampleTopicsForAllDocs (r);
+      if (iterations % 10 == 0) System.out.print (iterations);	else System.out.print (".");
+			System.out.flush();
+			if (showTopicsInterval != 0 && iterations % showTopicsInterval == 0 && iterations > 0) {
+				System.out.println ();
+				printTopWords (5, false);
+			}
+      if (outputModelInterval != 0 && iterations % outputModelInterval == 0 && iterations > 0) {
+        this.write (new File(outputModelFilename+'.'+iterations));
+      }
+		}
+
+		System.out.println ("\nTotal time (sec): " + ((System.currentTimeMillis() - startTime)/1000.0));
+	}
+
+	/** Allocates the counts, and fills them from the given topic and
+	 * bigram status of each token, or from random ones if
+	 * <code>initialTopics</code> is null. */
+	void initialize (InstanceList documents, int[][] initialTopics, int[][] initialGrams, Random r)
 	{
 		ilist = documents;
 		uniAlphabet = ilist.getDataAlphabet();
@@ -89,8 +113,8 @@ public class TopicalNGrams {
 		tAlpha = alpha * numTopics;
 		vBeta = beta * numTypes;
 		vGamma = gamma * numTypes;
-
-		long startTime = System.currentTimeMillis();
+		numTokens = 0;
+		biTokens = 0;
 
 		// Initialize with random assignments of tokens to topics
 		// and finish allocating this.topics and this.tokens
@@ -104,10 +128,15 @@ public class TopicalNGrams {
 			// Randomly assign tokens to topics
 			int prevFi = -1, prevTopic = -1;
 			for (int si = 0; si < seqLen; si++) {
-				// randomly sample a topic for the word at position si
-				topic = r.nextInt(numTopics);
-				// if a bigram is allowed at position si, then sample a gram status for it.
-				gram = (fs.getBiIndexAtPosition(si) == -1 ? 0 : r.nextInt(2));
+				if (initialTopics != null) {
+					topic = initialTopics[di][si];
+					gram = initialGrams[di][si];
+				} else {
+					// randomly sample a topic for the word at position si
+					topic = r.nextInt(numTopics);
+					// if a bigram is allowed at position si, then sample a gram status for it.
+					gram = (fs.getBiIndexAtPosition(si) == -1 ? 0 : r.nextInt(2));
+				}
 				if (gram != 0) biTokens++;
 				topics[di][si] = topic;
 				grams[di][si] = gram;
@@ -125,21 +154,6 @@ public class TopicalNGrams {
 				prevFi = fi;  prevTopic = topic;
 			}
 		}
-
-    for (int iterations = 0; iterations < numIterations; iterations++) {
-      sampleTopicsForAllDocs (r);
-      if (iterations % 10 == 0) System.out.print (iterations);	else System.out.print (".");
-			System.out.flush();
-			if (showTopicsInterval != 0 && iterations % showTopicsInterval == 0 && iterations > 0) {
-				System.out.println ();
-				printTopWords (5, false);
-			}
-      if (outputModelInterval != 0 && iterations % outputModelInterval == 0 && iterations > 0) {
-        this.write (new File(outputModelFilename+'.'+iterations));
-      }
-		}
-
-		System.out.println ("\nTotal time (sec): " + ((System.currentTimeMillis() - startTime)/1000.0));
 	}
 
 	/* One iteration of Gibbs sampling, across all documents. */
@@ -508,6 +522,8 @@ public class TopicalNGrams {
 		int featuresLength;
 		int version = in.readInt ();
 		ilist = (InstanceList) in.readObject ();
+		uniAlphabet = ilist.getDataAlphabet();
+		biAlphabet = ((FeatureSequenceWithBigrams)ilist.getInstance(0).getData()).getBiAlphabet();
 		numTopics = in.readInt();
 		alpha = in.readDouble();
 		beta = in.readDouble();
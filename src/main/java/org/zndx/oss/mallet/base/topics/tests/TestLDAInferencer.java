@@ -0,0 +1,130 @@
+/* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package org.zndx.oss.mallet.base.topics.tests;
+
+import org.zndx.oss.mallet.base.topics.*;
+import org.zndx.oss.mallet.base.types.*;
+import org.zndx.oss.mallet.base.util.Random;
+import junit.framework.*;
+import java.io.*;
+
+public class TestLDAInferencer extends TestCase
+{
+	public TestLDAInferencer (String name)
+	{
+		super (name);
+	}
+
+	static final int numTopics = 3;
+	static final double alphaSum = 1.0;
+
+	static LDA trainedModel (InstanceList ilist)
+	{
+		SparseLDA lda = new SparseLDA (numTopics, alphaSum, 0.01, 2);
+		lda.estimate (ilist, 50, 0, 0, null, new Random (1));
+		return lda;
+	}
+
+	// (n_dt + alpha) / (N_d + T alpha), as the inferencer reports it
+	static double theta (LDA lda, int di, int ti, int docLength)
+	{
+		return (lda.getCountDocumentTopic (di, ti) + alphaSum / numTopics) / (docLength + alphaSum);
+	}
+
+	static void assertDistribution (double[] dist)
+	{
+		assertEquals (numTopics, dist.length);
+		double sum = 0;
+		for (int ti = 0; ti < dist.length; ti++) {
+			assertTrue (dist[ti] > 0);
+			sum += dist[ti];
+		}
+		assertEquals (1.0, sum, 1e-9);
+	}
+
+	public void testInferTrainingDocuments ()
+	{
+		InstanceList ilist = TestSparseLDA.groupedDocuments (3, 10, 30, 40);
+		LDA lda = trainedModel (ilist);
+		LDAInferencer inferencer = new LDAInferencer (lda);
+		inferencer.setSamplingParameters (60, 20, 2);
+		inferencer.setNumThreads (3);
+		double[][] dists = inferencer.getTopicDistributions (ilist, new Random (2));
+		assertEquals (ilist.size(), dists.length);
+		for (int di = 0; di < dists.length; di++) {
+			assertDistribution (dists[di]);
+			for (int ti = 0; ti < numTopics; ti++)
+				assertEquals ("doc "+di+" topic "+ti, theta (lda, di, ti, 40), dists[di][ti], 0.1);
+		}
+
+		double[] dist = inferencer.getTopicDistribution ((FeatureSequence) ilist.getInstance(4).getData(), new Random (3));
+		for (int ti = 0; ti < numTopics; ti++)
+			assertEquals (theta (lda, 4, ti, 40), dist[ti], 0.1);
+	}
+
+	public void testRepeatedCalls ()
+	{
+		InstanceList ilist = TestSparseLDA.groupedDocuments (3, 10, 30, 40);
+		LDAInferencer inferencer = new LDAInferencer (trainedModel (ilist));
+		inferencer.setSamplingParameters (10, 5, 1);
+		inferencer.setNumThreads (2);
+		// The same threads serve both calls, each shard seeded from r
+		double[][] dists1 = inferencer.getTopicDistributions (ilist, new Random (4));
+		double[][] dists2 = inferencer.getTopicDistributions (ilist, new Random (4));
+		for (int di = 0; di < dists1.length; di++)
+			assertTrue (java.util.Arrays.equals (dists1[di], dists2[di]));
+		inferencer.setNumThreads (4);
+		assertEquals (ilist.size(), inferencer.getTopicDistributions (ilist, new Random (4)).length);
+		inferencer.setNumThreads (1);
+		assertEquals (ilist.size(), inferencer.getTopicDistributions (ilist, new Random (4)).length);
+	}
+
+	public void testUnseenWords ()
+	{
+		InstanceList ilist = TestSparseLDA.groupedDocuments (3, 10, 30, 40);
+		LDAInferencer inferencer = new LDAInferencer (trainedModel (ilist));
+		// Words added to the Alphabet after training are ignored
+		Alphabet dict = inferencer.getAlphabet ();
+		FeatureSequence unseen = new FeatureSequence (dict, new int[] {
+			dict.lookupIndex ("unseen0"), dict.lookupIndex ("unseen1")});
+		double[] dist = inferencer.getTopicDistribution (unseen, new Random (1));
+		for (int ti = 0; ti < numTopics; ti++)
+			assertEquals (1.0 / numTopics, dist[ti], 1e-12);
+	}
+
+	public void testWriteRead () throws IOException, ClassNotFoundException
+	{
+		InstanceList ilist = TestSparseLDA.groupedDocuments (3, 10, 30, 40);
+		LDAInferencer inferencer = new LDAInferencer (trainedModel (ilist));
+		inferencer.setSamplingParameters (10, 5, 1);
+		File f = File.createTempFile ("inferencer", ".model");
+		f.deleteOnExit ();
+		inferencer.write (f);
+		LDAInferencer read = LDAInferencer.read (f);
+		f.delete ();
+		assertEquals (10, read.getNumIterations ());
+		FeatureSequence doc = (FeatureSequence) ilist.getInstance(0).getData();
+		assertTrue (java.util.Arrays.equals (inferencer.getTopicDistribution (doc, new Random (5)),
+		                                     read.getTopicDistribution (doc, new Random (5))));
+	}
+
+	public static Test suite ()
+	{
+		return new TestSuite (TestLDAInferencer.class);
+	}
+
+	protected void setUp ()
+	{
+	}
+
+	public static void main (String[] args)
+	{
+		junit.textui.TestRunner.run (suite());
+	}
+
+}
@@ -0,0 +1,153 @@
+/* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package org.zndx.oss.mallet.base.topics.tests;
+
+import org.zndx.oss.mallet.base.topics.*;
+import org.zndx.oss.mallet.base.types.*;
+import org.zndx.oss.mallet.base.pipe.*;
+import org.zndx.oss.mallet.base.pipe.iterator.ArrayIterator;
+import org.zndx.oss.mallet.base.util.Random;
+import junit.framework.*;
+import java.io.*;
+
+public class TestParallelTopicalNGrams extends TestCase
+{
+	public TestParallelTopicalNGrams (String name)
+	{
+		super (name);
+	}
+
+	static InstanceList documents ()
+	{
+		java.util.Random r = new java.util.Random (1);
+		String[][] groups = {
+			{"new", "york", "city", "stock", "exchange", "market"},
+			{"machine", "learning", "neural", "network", "training", "data"},
+		};
+		String[] docs = new String[20];
+		for (int di = 0; di < docs.length; di++) {
+			String[] words = groups[di % groups.length];
+			StringBuffer sb = new StringBuffer ();
+			for (int si = 0; si < 30; si++) {
+				// Mostly in pairs, so that there are bigrams to find
+				int w = r.nextInt (words.length / 2) * 2;
+				sb.append (words[w]).append (' ').append (words[w+1]).append (' ');
+			}
+			docs[di] = sb.toString ();
+		}
+		InstanceList ilist = new InstanceList (new SerialPipes (new Pipe[] {
+			new CharSequence2TokenSequence (),
+			new TokenSequence2FeatureSequenceWithBigrams (),
+		}));
+		ilist.add (new ArrayIterator (docs));
+		return ilist;
+	}
+
+	static String state (TopicalNGrams tng)
+	{
+		StringWriter sw = new StringWriter ();
+		tng.printState (new PrintWriter (sw));
+		return sw.toString ();
+	}
+
+	public void testCheckpointResume () throws IOException
+	{
+		InstanceList ilist = documents ();
+		File f = File.createTempFile ("tng", ".checkpoint");
+		f.deleteOnExit ();
+		f.delete ();
+
+		ParallelTopicalNGrams tng = new ParallelTopicalNGrams (2, 1.0, 0.01, 0.01, 0.03, 0.2, 1000.0, 2);
+		tng.setCheckpoint (f, 3);
+		tng.estimate (ilist, 6, 0, 0, null, new Random (1));
+		assertTrue (f.exists ());
+		assertFalse (new File (f.getPath() + ".tmp").exists ());
+
+		// The checkpoint at iteration 6 replaced the one at 3, and holds the final state
+		ParallelTopicalNGrams resumed = new ParallelTopicalNGrams (2, 1.0, 0.01, 0.01, 0.03, 0.2, 1000.0, 2);
+		assertEquals (6, resumed.resume (f));
+		resumed.estimate (ilist, 6, 0, 0, null, new Random (2));
+		assertEquals (state (tng), state (resumed));
+
+		// Sampling continues from there
+		resumed.setCheckpoint (f, 2);
+		resumed.estimate (ilist, 8, 0, 0, null, new Random (2));
+		assertEquals (8, new ParallelTopicalNGrams (2).resume (f));
+		f.delete ();
+	}
+
+	static byte[] serialized (TopicalNGrams tng) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+		ObjectOutputStream oos = new ObjectOutputStream (bytes);
+		oos.writeObject (tng);
+		oos.close ();
+		return bytes.toByteArray ();
+	}
+
+	// The counts after sampling on several threads are those rebuilt from
+	// the final assignments, so that no thread's changes were lost
+	public void testCountsMatchAssignments () throws IOException
+	{
+		InstanceList ilist = documents ();
+		File f = File.createTempFile ("tng", ".checkpoint");
+		f.deleteOnExit ();
+		for (int numThreads = 2; numThreads <= 4; numThreads++) {
+			ParallelTopicalNGrams tng = new ParallelTopicalNGrams (4, 1.0, 0.01, 0.01, 0.03, 0.2, 1000.0, numThreads);
+			tng.estimate (ilist, 12, 0, 0, null, new Random (numThreads));
+			tng.writeCheckpoint (f, 12);
+
+			// Resuming at the last iteration only rebuilds the counts
+			ParallelTopicalNGrams rebuilt = new ParallelTopicalNGrams (4, 1.0, 0.01, 0.01, 0.03, 0.2, 1000.0, numThreads);
+			rebuilt.resume (f);
+			rebuilt.estimate (ilist, 12, 0, 0, null, new Random (1));
+			assertEquals (state (tng), state (rebuilt));
+			assertTrue (java.util.Arrays.equals (serialized (rebuilt), serialized (tng)));
+		}
+		f.delete ();
+	}
+
+	public void testResumeChecksDocuments () throws IOException
+	{
+		InstanceList ilist = documents ();
+		File f = File.createTempFile ("tng", ".checkpoint");
+		f.deleteOnExit ();
+		ParallelTopicalNGrams tng = new ParallelTopicalNGrams (2, 1.0, 0.01, 0.01, 0.03, 0.2, 1000.0, 1);
+		tng.estimate (ilist, 2, 0, 0, null, new Random (1));
+		tng.writeCheckpoint (f, 2);
+
+		ParallelTopicalNGrams other = new ParallelTopicalNGrams (2, 1.0, 0.01, 0.01, 0.03, 0.2, 1000.0, 1);
+		other.resume (f);
+		try {
+			other.estimate (ilist.split (new double[] {.5, .5})[0], 4, 0, 0, null, new Random (1));
+			fail ("resumed on different documents");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new ParallelTopicalNGrams (3).resume (f);
+			fail ("resumed with a different number of topics");
+		} catch (IllegalArgumentException e) {
+		}
+		f.delete ();
+	}
+
+	public static Test suite ()
+	{
+		return new TestSuite (TestParallelTopicalNGrams.class);
+	}
+
+	protected void setUp ()
+	{
+	}
+
+	public static void main (String[] args)
+	{
+		junit.textui.TestRunner.run (suite());
+	}
+
+}
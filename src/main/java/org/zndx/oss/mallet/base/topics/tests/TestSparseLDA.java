@@ -0,0 +1,224 @@
+/* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package org.zndx.oss.mallet.base.topics.tests;
+
+import org.zndx.oss.mallet.base.topics.*;
+import org.zndx.oss.mallet.base.types.*;
+import org.zndx.oss.mallet.base.pipe.Noop;
+import org.zndx.oss.mallet.base.util.Random;
+import junit.framework.*;
+import java.io.*;
+
+public class TestSparseLDA extends TestCase
+{
+	public TestSparseLDA (String name)
+	{
+		super (name);
+	}
+
+	/** Returns documents each drawn from one of <code>numGroups</code>
+	 * disjoint sets of words, the groups taking turns. */
+	public static InstanceList groupedDocuments (int numGroups, int wordsPerGroup, int numDocs, int docLength)
+	{
+		java.util.Random r = new java.util.Random (1);
+		Alphabet dict = new Alphabet ();
+		for (int g = 0; g < numGroups; g++)
+			for (int i = 0; i < wordsPerGroup; i++)
+				dict.lookupIndex ("w"+g+"_"+i);
+		InstanceList ilist = new InstanceList (new Noop (dict, null));
+		for (int di = 0; di < numDocs; di++) {
+			int group = di % numGroups;
+			int[] tokens = new int[docLength];
+			for (int si = 0; si < docLength; si++)
+				tokens[si] = group * wordsPerGroup + r.nextInt (wordsPerGroup);
+			ilist.add (new FeatureSequence (dict, tokens), null, "doc"+di, "doc"+di);
+		}
+		return ilist;
+	}
+
+	/** Returns the topic of each token, as printed by printState. */
+	static int[][] topicAssignments (LDA lda)
+	{
+		InstanceList ilist = lda.getInstanceList ();
+		int[][] topics = new int[ilist.size()][];
+		for (int di = 0; di < topics.length; di++)
+			topics[di] = new int[((FeatureSequence) ilist.getInstance(di).getData()).getLength()];
+		StringWriter sw = new StringWriter ();
+		lda.printState (new PrintWriter (sw));
+		String[] lines = sw.toString().split ("\n");
+		assertEquals ("#doc pos typeindex type topic", lines[0]);
+		for (int i = 1; i < lines.length; i++) {
+			String[] fields = lines[i].split (" ");
+			topics[Integer.parseInt (fields[0])][Integer.parseInt (fields[1])] = Integer.parseInt (fields[4]);
+		}
+		return topics;
+	}
+
+	/** Checks the model's counts against its topic assignments. */
+	static void assertCountsConsistent (LDA lda)
+	{
+		InstanceList ilist = lda.getInstanceList ();
+		int numTopics = lda.getNumTopics ();
+		int numTypes = ilist.getDataAlphabet().size();
+		int[][] topics = topicAssignments (lda);
+		int[][] typeTopicCounts = new int[numTypes][numTopics];
+		int[] tokensPerTopic = new int[numTopics];
+		for (int di = 0; di < topics.length; di++) {
+			FeatureSequence fs = (FeatureSequence) ilist.getInstance(di).getData();
+			int[] docTopicCounts = new int[numTopics];
+			for (int si = 0; si < topics[di].length; si++) {
+				int topic = topics[di][si];
+				assertTrue (topic >= 0 && topic < numTopics);
+				docTopicCounts[topic]++;
+				typeTopicCounts[fs.getIndexAtPosition(si)][topic]++;
+				tokensPerTopic[topic]++;
+			}
+			for (int ti = 0; ti < numTopics; ti++)
+				assertEquals (docTopicCounts[ti], lda.getCountDocumentTopic (di, ti));
+		}
+		for (int ti = 0; ti < numTopics; ti++) {
+			assertEquals (tokensPerTopic[ti], lda.getCountTokensPerTopic (ti));
+			for (int type = 0; type < numTypes; type++)
+				assertEquals (typeTopicCounts[type][ti], lda.getCountFeatureTopic (type, ti));
+		}
+	}
+
+	public void testCountsConsistent ()
+	{
+		InstanceList ilist = groupedDocuments (3, 10, 30, 40);
+		for (int numThreads = 1; numThreads <= 3; numThreads += 2) {
+			SparseLDA lda = new SparseLDA (3, 1.0, 0.01, numThreads);
+			lda.estimate (ilist, 50, 0, 0, null, new Random (1));
+			assertCountsConsistent (lda);
+
+			// Each group of words should end up in a topic of its own
+			int[] groupTopics = new int[3];
+			for (int di = 0; di < ilist.size(); di++) {
+				int best = 0;
+				for (int ti = 1; ti < 3; ti++)
+					if (lda.getCountDocumentTopic (di, ti) > lda.getCountDocumentTopic (di, best))
+						best = ti;
+				assertTrue (lda.getCountDocumentTopic (di, best) > 0.8 * 40);
+				if (di < 3)
+					groupTopics[di] = best;
+				else
+					assertEquals (groupTopics[di % 3], best);
+			}
+			assertTrue (groupTopics[0] != groupTopics[1] && groupTopics[1] != groupTopics[2]
+			            && groupTopics[0] != groupTopics[2]);
+		}
+	}
+
+	public void testReproducible ()
+	{
+		InstanceList ilist = groupedDocuments (3, 10, 30, 40);
+		SparseLDA lda1 = new SparseLDA (4, 1.0, 0.01, 3);
+		lda1.estimate (ilist, 10, 0, 0, null, new Random (2));
+		SparseLDA lda2 = new SparseLDA (4, 1.0, 0.01, 3);
+		lda2.estimate (ilist, 10, 0, 0, null, new Random (2));
+		int[][] topics1 = topicAssignments (lda1);
+		int[][] topics2 = topicAssignments (lda2);
+		for (int di = 0; di < topics1.length; di++)
+			assertTrue (java.util.Arrays.equals (topics1[di], topics2[di]));
+	}
+
+	public void testWriteReadsBackAsLDA () throws IOException, ClassNotFoundException
+	{
+		InstanceList ilist = groupedDocuments (3, 10, 30, 40);
+		SparseLDA lda = new SparseLDA (3, 1.0, 0.01, 2);
+		lda.estimate (ilist, 10, 0, 0, null, new Random (1));
+		lda.printTopWords (5, false);
+		lda.printDocumentTopics (new PrintWriter (new StringWriter ()));
+
+		File f = File.createTempFile ("sparselda", ".model");
+		f.deleteOnExit ();
+		lda.write (f);
+		ObjectInputStream ois = new ObjectInputStream (new FileInputStream (f));
+		LDA read = (LDA) ois.readObject ();
+		ois.close ();
+		f.delete ();
+		assertEquals (3, read.getNumTopics ());
+		assertCountsConsistent (read);
+		for (int ti = 0; ti < 3; ti++) {
+			assertEquals (lda.getCountTokensPerTopic (ti), read.getCountTokensPerTopic (ti));
+			for (int type = 0; type < ilist.getDataAlphabet().size(); type++)
+				assertEquals (lda.getCountFeatureTopic (type, ti), read.getCountFeatureTopic (type, ti));
+		}
+		read.printTopWords (5, true);
+	}
+
+	// With 512 topics, a count packed into an int holds no more than 2^22 tokens
+	public void testHeavyWord ()
+	{
+		Alphabet dict = new Alphabet ();
+		dict.lookupIndex ("the");
+		int[] tokens = new int[(1 << 22) + 1];
+		InstanceList ilist = new InstanceList (new Noop (dict, null));
+		ilist.add (new FeatureSequence (dict, tokens), null, "doc0", "doc0");
+		SparseLDA lda = new SparseLDA (512, 1.0, 0.01);
+		lda.estimate (ilist, 0, 0, 0, null, new Random (1));
+		int total = 0;
+		for (int ti = 0; ti < 512; ti++) {
+			assertEquals (lda.getCountDocumentTopic (0, ti), lda.getCountFeatureTopic (0, ti));
+			total += lda.getCountFeatureTopic (0, ti);
+		}
+		assertEquals (tokens.length, total);
+	}
+
+	// With 512 topics, a count packed into an int alongside its topic
+	// could not pass 2^22; the long packing must carry it across
+	public void testPackedCountsPastIntRange ()
+	{
+		int topicBits = SparseLDA.topicBits (512);
+		assertEquals (9, topicBits);
+		int boundary = 1 << (31 - topicBits);
+		long[] counts = new long[3];
+		SparseLDA.addCount (counts, 7, boundary - 2, topicBits);
+		SparseLDA.addCount (counts, 300, 5, topicBits);
+		for (int i = 0; i < 4; i++)
+			SparseLDA.addCount (counts, 7, 1, topicBits);
+		assertEquals (boundary + 2, counts[0] >>> topicBits);
+		assertEquals (7, counts[0] & ((1 << topicBits) - 1));
+		assertEquals (5, counts[1] >>> topicBits);
+		assertEquals (300, counts[1] & ((1 << topicBits) - 1));
+
+		// Back down across the boundary
+		for (int i = 0; i < 4; i++)
+			SparseLDA.removeCount (counts, 7, topicBits);
+		assertEquals (boundary - 2, counts[0] >>> topicBits);
+		assertEquals (7, counts[0] & ((1 << topicBits) - 1));
+
+		// Up to the largest count of tokens in an int, for another topic,
+		// which then sorts first
+		SparseLDA.addCount (counts, 511, Integer.MAX_VALUE - 1, topicBits);
+		SparseLDA.addCount (counts, 511, 1, topicBits);
+		assertEquals (Integer.MAX_VALUE, counts[0] >>> topicBits);
+		assertEquals (511, counts[0] & ((1 << topicBits) - 1));
+		assertEquals (7, counts[1] & ((1 << topicBits) - 1));
+		assertEquals (300, counts[2] & ((1 << topicBits) - 1));
+		SparseLDA.removeCount (counts, 300, topicBits);
+		SparseLDA.removeCount (counts, 511, topicBits);
+		assertEquals (Integer.MAX_VALUE - 1, counts[0] >>> topicBits);
+		assertEquals (4, counts[2] >>> topicBits);
+	}
+
+	public static Test suite ()
+	{
+		return new TestSuite (TestSparseLDA.class);
+	}
+
+	protected void setUp ()
+	{
+	}
+
+	public static void main (String[] args)
+	{
+		junit.textui.TestRunner.run (suite());
+	}
+
+}
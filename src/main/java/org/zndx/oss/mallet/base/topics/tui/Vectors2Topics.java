@@ -11,7 +11,9 @@ import org.zndx.oss.mallet.base.util.CommandOption;
 import org.zndx.oss.mallet.base.util.Random;
 import org.zndx.oss.mallet.base.types.InstanceList;
 import org.zndx.oss.mallet.base.topics.TopicalNGrams;
+import org.zndx.oss.mallet.base.topics.ParallelTopicalNGrams;
 import org.zndx.oss.mallet.base.topics.LDA;
+import org.zndx.oss.mallet.base.topics.SparseLDA;
 
 import java.io.File;
 import java.io.ObjectOutputStream;
@@ -90,6 +92,20 @@ public class Vectors2Topics {
 	(Vectors2Topics.class, "delta", "DECIMAL", true, 0.03,
 	 "Delta parameter: smoothing over choice of unigram/bigram",null);
 
+    static CommandOption.Integer numThreads = new CommandOption.Integer
+	(Vectors2Topics.class, "num-threads", "INTEGER", true, 0,
+	 "The number of threads for the sparse LDA or Topical-N-Grams sampler.  " +
+	 "Default is 0, which uses the original, single-threaded sampler.", null);
+
+    static CommandOption.String checkpointFile = new CommandOption.String
+	(Vectors2Topics.class, "checkpoint", "FILENAME", true, null,
+	 "The filename in which to keep a checkpoint of the Topical-N-Grams sampler, with --num-threads.  " +
+	 "If the file exists, sampling resumes from it.", null);
+
+    static CommandOption.Integer checkpointInterval = new CommandOption.Integer
+	(Vectors2Topics.class, "checkpoint-interval", "INTEGER", true, 50,
+	 "The number of iterations between checkpoints.", null);
+
     static CommandOption.Double delta1 = new CommandOption.Double
 	(Vectors2Topics.class, "delta1", "DECIMAL", true, 0.2,
 	 "Topic N-gram smoothing parameter",null);
@@ -109,7 +125,25 @@ public class Vectors2Topics {
 		System.out.println ("Data loaded.");
 		Object topicModel = null;
 		if (useNgrams.value) {
-			TopicalNGrams tng = new TopicalNGrams(numTopics.value,
+			TopicalNGrams tng;
+			if (numThreads.value > 0) {
+				ParallelTopicalNGrams ptng = new ParallelTopicalNGrams(numTopics.value,
+				                                                       alpha.value,
+				                                                       beta.value,
+				                                                       gamma.value,
+				                                                       delta.value,
+				                                                       delta1.value,
+				                                                       delta2.value,
+				                                                       numThreads.value);
+				if (checkpointFile.value != null) {
+					File checkpoint = new File(checkpointFile.value);
+					ptng.setCheckpoint (checkpoint, checkpointInterval.value);
+					if (checkpoint.exists())
+						ptng.resume (checkpoint);
+				}
+				tng = ptng;
+			} else
+				tng = new TopicalNGrams(numTopics.value,
 							      alpha.value,
 							      beta.value,
 							      gamma.value,
@@ -124,8 +158,13 @@ public class Vectors2Topics {
 				tng.printState (new File(stateFile.value));
       if (docTopicsFile.value != null)
         tng.printDocumentTopics (new File(docTopicsFile.value));
+			topicModel = tng;
     } else {
-			LDA lda = new LDA (numTopics.value, alpha.value, beta.value);
+			LDA lda;
+			if (numThreads.value > 0)
+				lda = new SparseLDA (numTopics.value, alpha.value, beta.value, numThreads.value);
+			else
+				lda = new LDA (numTopics.value, alpha.value, beta.value);
 			lda.estimate (ilist, numIterations.value, showTopicsInterval.value,
                     outputModelInterval.value, topicFile.value,
                     randomSeed.value == 0 ? new Random() : new Random(randomSeed.value));
@@ -134,6 +173,7 @@ public class Vectors2Topics {
 				lda.printState (new File(stateFile.value));
       if (docTopicsFile.value != null)
         lda.printDocumentTopics (new File(docTopicsFile.value));
+			topicModel = lda;
 		}
 		if (topicFile.value != null) {
 			try {
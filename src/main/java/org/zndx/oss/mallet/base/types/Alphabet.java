@@ -100,6 +100,11 @@ public class Alphabet implements Serializable
 	    if (entry.getClass() != entryClass)
 		throw new IllegalArgumentException ("Non-matching entry class, "+entry.getClass()+", was "+entryClass);
 
+	// A thread piping in parallel with others records its additions instead
+	AlphabetRecorder recorder = AlphabetRecorder.current ();
+	if (recorder != null)
+	    return recorder.lookupIndex (this, entry, addIfNotPresent);
+
 	int retIndex = -1;
 	if (map.containsKey( entry )) {
 	    retIndex = map.get( entry );
@@ -112,6 +117,12 @@ public class Alphabet implements Serializable
 	return retIndex;
     }
 
+    // The index of entry, or -1, ignoring any AlphabetRecorder
+    int indexOf (Object entry)
+    {
+	return map.containsKey (entry) ? map.get (entry) : -1;
+    }
+
     public int lookupIndex (Object entry)
     {
 	return lookupIndex (entry, true);
@@ -119,6 +130,12 @@ public class Alphabet implements Serializable
 
     public Object lookupObject (int index)
     {
+	if (index >= entries.size()) {
+	    // Perhaps an index given out by an AlphabetRecorder on this thread
+	    AlphabetRecorder recorder = AlphabetRecorder.current ();
+	    if (recorder != null)
+		return recorder.lookupObject (this, index);
+	}
 	return entries.get(index);
     }
 
@@ -173,6 +190,9 @@ public class Alphabet implements Serializable
 
     public boolean contains (Object entry)
     {
+	AlphabetRecorder recorder = AlphabetRecorder.current ();
+	if (recorder != null)
+	    return recorder.contains (this, entry);
 	return map.contains (entry);
     }
 
@@ -262,6 +282,19 @@ public class Alphabet implements Serializable
     }
 
     private transient static HashMap deserializedEntries = new HashMap();
+    private static ThreadLocal readingCopies = new ThreadLocal ();
+
+    /**
+     * While set, Alphabets deserialized on the current thread are kept as
+     * new Alphabets with instance ids of their own, rather than being
+     * replaced by an Alphabet with the same id that was read before.
+     * Pipe.deepCopy(true) uses this to give a copied pipe its own Alphabets.
+     */
+    public static void setReadingCopies (boolean readCopies)
+    {
+	readingCopies.set (readCopies ? Boolean.TRUE : null);
+    }
+
     /**
      * This gets called after readObject; it lets the object decide whether
      * to return itself or return a previously read in version.
@@ -272,6 +305,11 @@ public class Alphabet implements Serializable
      */
 
     public Object readResolve() throws ObjectStreamException {
+	if (readingCopies.get() != null) {
+	    instanceId = new VMID();
+	    deserializedEntries.put(instanceId, this);
+	    return this;
+	}
 	Object previous = deserializedEntries.get(instanceId);
 	if (previous != null){
 	    //System.out.println(" ***Alphabet ReadResolve:Resolving to previous instance. instance id= " + instanceId);
@@ -0,0 +1,160 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+
+
+
+package org.zndx.oss.mallet.base.types;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+	 Records the entries that one thread would add to Alphabets, without
+	 adding them, so that several threads can pipe instances against the
+	 same Alphabets at once.
+
+	 While a recorder is started on a thread, <code>lookupIndex()</code>
+	 on that thread does not change any Alphabet.  An entry that is not
+	 present gets a provisional index, past the end of the Alphabet,
+	 and is remembered as a miss, which <code>lookupObject()</code>
+	 also finds by that index; an entry that is looked up without
+	 being added is remembered as a probe.  <code>commit()</code> later
+	 adds the misses on the calling thread, in the order in which they
+	 were looked up.  Entries at or past an optional limit for their
+	 Alphabet are treated as not present, so that a thread sees the
+	 Alphabet as it was at some earlier point.
+
+	 @see ParallelPiper
+ */
+
+class AlphabetRecorder
+{
+	private static ThreadLocal current = new ThreadLocal ();
+	private static volatile int numStarted = 0;
+
+	Map limits;																// Alphabet -> Integer, or null
+	HashMap provisional = new HashMap ();			// Alphabet -> HashMap of entry -> Integer
+	HashMap provisionalEntries = new HashMap ();	// Alphabet -> ArrayList of entries, by index
+	ArrayList missAlphabets = new ArrayList ();
+	ArrayList missEntries = new ArrayList ();
+	ArrayList probeAlphabets = new ArrayList ();
+	ArrayList probeEntries = new ArrayList ();
+
+	AlphabetRecorder (Map limits)
+	{
+		this.limits = limits;
+	}
+
+	/** Returns the recorder started on this thread, or null. */
+	static AlphabetRecorder current ()
+	{
+		// Avoid the ThreadLocal lookup when no recorder is in use
+		if (numStarted == 0)
+			return null;
+		return (AlphabetRecorder) current.get ();
+	}
+
+	void start ()
+	{
+		current.set (this);
+		synchronized (AlphabetRecorder.class) {
+			numStarted++;
+		}
+	}
+
+	void stop ()
+	{
+		current.set (null);
+		synchronized (AlphabetRecorder.class) {
+			numStarted--;
+		}
+	}
+
+	// The index of entry as this thread should see it, or -1
+	private int visibleIndex (Alphabet dict, Object entry)
+	{
+		int index = dict.indexOf (entry);
+		if (index >= 0 && limits != null) {
+			Integer limit = (Integer) limits.get (dict);
+			if (limit != null && index >= limit.intValue ())
+				return -1;
+		}
+		return index;
+	}
+
+	int lookupIndex (Alphabet dict, Object entry, boolean addIfNotPresent)
+	{
+		int index = visibleIndex (dict, entry);
+		if (index >= 0)
+			return index;
+		HashMap added = (HashMap) provisional.get (dict);
+		if (added != null && added.containsKey (entry))
+			return ((Integer) added.get (entry)).intValue ();
+		if (!addIfNotPresent || dict.growthStopped ()) {
+			probeAlphabets.add (dict);
+			probeEntries.add (entry);
+			return -1;
+		}
+		if (added == null) {
+			added = new HashMap ();
+			provisional.put (dict, added);
+			provisionalEntries.put (dict, new ArrayList ());
+		}
+		index = dict.size () + added.size ();
+		added.put (entry, new Integer (index));
+		((ArrayList) provisionalEntries.get (dict)).add (entry);
+		missAlphabets.add (dict);
+		missEntries.add (entry);
+		return index;
+	}
+
+	/** Returns the entry given a provisional index by this recorder. */
+	Object lookupObject (Alphabet dict, int index)
+	{
+		ArrayList added = (ArrayList) provisionalEntries.get (dict);
+		int i = index - dict.size ();
+		if (added == null || i < 0 || i >= added.size ())
+			throw new IndexOutOfBoundsException ("Index: "+index+", Size: "+dict.size ());
+		return added.get (i);
+	}
+
+	boolean contains (Alphabet dict, Object entry)
+	{
+		return lookupIndex (dict, entry, false) >= 0;
+	}
+
+	boolean hasMisses ()
+	{
+		return missEntries.size () > 0;
+	}
+
+	/** Returns true if an entry that was probed without being found is
+	 * now present in its Alphabet. */
+	boolean probesFound ()
+	{
+		for (int i = 0; i < probeEntries.size (); i++)
+			if (((Alphabet) probeAlphabets.get (i)).indexOf (probeEntries.get (i)) >= 0)
+				return true;
+		return false;
+	}
+
+	/** Adds the missed entries to their Alphabets, in the order in which
+	 * they were looked up.  The size of each Alphabet before its first
+	 * addition is put in <code>sizesBefore</code>, unless already there. */
+	void commit (Map sizesBefore)
+	{
+		for (int i = 0; i < missEntries.size (); i++) {
+			Alphabet dict = (Alphabet) missAlphabets.get (i);
+			if (!sizesBefore.containsKey (dict))
+				sizesBefore.put (dict, new Integer (dict.size ()));
+			dict.lookupIndex (missEntries.get (i), true);
+		}
+	}
+
+}
@@ -91,10 +91,20 @@ public class AugmentableFeatureVector extends FeatureVector implements Serializa
 		this (dict, binary);
 		if (pl == null)
 			return;
+		// Signed hashing puts each feature in with the sign of its hash
+		HashedAlphabet hashed = (!binary && dict instanceof HashedAlphabet) ? (HashedAlphabet) dict : null;
 		PropertyList.Iterator iter = pl.numericIterator();
 		while (iter.hasNext()) {
 			iter.nextProperty();
 			//System.out.println ("AugmentableVector ("+dict.size()+") adding "+iter.getKey()+" "+iter.getNumericValue());
+			if (hashed != null) {
+				int index = hashed.lookupSignedIndex (iter.getKey());
+				if (index < 0)
+					add (-1-index, -iter.getNumericValue());
+				else
+					add (index, iter.getNumericValue());
+				continue;
+			}
 			int index = dict.lookupIndex (iter.getKey(), growAlphabet);
 			if (index >= 0)
 				add (index, iter.getNumericValue());
@@ -0,0 +1,496 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+
+
+
+/**
+	 In-memory inverted index that stores, for each feature, the indices
+	 in the InstanceList of the instances in which the feature has a
+	 non-zero value, and optionally those values.  Like {@link
+	 InvertedIndex}, it only works with FeatureVectors.
+
+	 Each posting list is kept as a byte array of the differences between
+	 successive instance indices, each written in as many 7-bit groups as
+	 it needs, so that a feature occurring in most instances costs about
+	 a byte per instance, and one occurring in a few costs a few bytes,
+	 rather than a pointer per instance and a list object per feature.
+	 Values are kept only for features with a value other than 1.0.
+
+	 The index is built on several threads, each making the lists of a
+	 range of instances; the lists of each feature are then joined in
+	 instance order, again on several threads, so that building costs
+	 time in proportion to the number of non-zero entries however many
+	 threads are used.  It answers which
+	 instances have all or any of a set of features, and gives the
+	 document frequency of each feature, as {@link #getFeatureCounts}, or
+	 of a conjunction of features, for use in ranking and selecting
+	 features, as by {@link InfoGain#InfoGain(CompressedInvertedIndex)}.
+ */
+
+package org.zndx.oss.mallet.base.types;
+
+import org.zndx.oss.mallet.base.util.ParallelUtils;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.io.*;
+
+public class CompressedInvertedIndex implements Serializable
+{
+	InstanceList ilist;
+	int numFeatures;
+	byte[][] postings;						// indexed by feature index; null if no instance has the feature
+	double[][] values;						// parallel to postings; null where all values are 1.0 or not stored
+	int[] documentFrequencies;
+	boolean storeValues;
+	boolean hasNegativeValues;
+
+	public CompressedInvertedIndex (InstanceList ilist, boolean storeValues, int numThreads)
+	{
+		this.ilist = ilist;
+		this.storeValues = storeValues;
+		this.numFeatures = ilist.getDataAlphabet().size();
+		postings = new byte[numFeatures][];
+		values = new double[numFeatures][];
+		documentFrequencies = new int[numFeatures];
+		long numEntries = 0;
+		for (int i = 0; i < ilist.size(); i++) {
+			if (!(ilist.getInstance(i).getData() instanceof FeatureVector))
+				throw new IllegalArgumentException (this.getClass().getName() +
+																						" currently only handles FeatureVector data");
+			numEntries += ((FeatureVector) ilist.getInstance(i).getData()).numLocations();
+		}
+		// Each range of instances keeps a few arrays as long as the alphabet,
+		// so there are no more ranges than that is small next to the entries
+		long maxShards = Math.max (1, numEntries / Math.max (1, numFeatures));
+		int numShards = (int) Math.max (1, Math.min (Math.min (numThreads, ilist.size()), maxShards));
+		final int[] bounds = ParallelUtils.shardBoundaries (ilist.size(), numShards);
+		final Shard[] shards = new Shard[numShards];
+		Runnable[] tasks = new Runnable[numShards];
+		for (int s = 0; s < numShards; s++) {
+			final int shard = s;
+			tasks[s] = new Runnable () {
+				public void run () {
+					shards[shard] = buildShard (bounds[shard], bounds[shard+1]);
+				}
+			};
+		}
+		ParallelUtils.runAll (tasks, numThreads);
+		for (int s = 0; s < numShards; s++)
+			hasNegativeValues |= shards[s].negative;
+
+		int numRanges = Math.max (1, Math.min (numThreads, numFeatures));
+		final int[] featureBounds = ParallelUtils.shardBoundaries (numFeatures, numRanges);
+		tasks = new Runnable[numRanges];
+		for (int r = 0; r < numRanges; r++) {
+			final int range = r;
+			tasks[r] = new Runnable () {
+				public void run () {
+					joinShards (shards, featureBounds[range], featureBounds[range+1]);
+				}
+			};
+		}
+		ParallelUtils.runAll (tasks, numThreads);
+	}
+
+	public CompressedInvertedIndex (InstanceList ilist)
+	{
+		this (ilist, false, 1);
+	}
+
+	// The posting lists of a range of instances.  The gap before the first
+	// instance with each feature depends on the ranges before, so it is
+	// kept apart and written when the ranges are joined.
+	private static class Shard
+	{
+		byte[][] bytes;
+		int[] numBytes;
+		int[] firstInstance;
+		int[] lastInstance;
+		int[] counts;
+		double[][] vals;
+		boolean[] notAllOnes;
+		boolean negative;
+	}
+
+	/** Makes the posting lists of the instances in [first, last). */
+	private Shard buildShard (int first, int last)
+	{
+		Shard sh = new Shard ();
+		sh.bytes = new byte[numFeatures][];
+		sh.numBytes = new int[numFeatures];
+		sh.firstInstance = new int[numFeatures];
+		sh.lastInstance = new int[numFeatures];
+		sh.counts = new int[numFeatures];
+		sh.vals = storeValues ? new double[numFeatures][] : null;
+		sh.notAllOnes = new boolean[numFeatures];
+		Arrays.fill (sh.lastInstance, -1);
+		for (int ii = first; ii < last; ii++) {
+			FeatureVector fv = (FeatureVector) ilist.getInstance(ii).getData();
+			for (int fl = 0; fl < fv.numLocations(); fl++) {
+				int fi = fv.indexAtLocation(fl);
+				double v = fv.valueAtLocation(fl);
+				if (v == 0)
+					continue;
+				// A repeated index in an unsorted vector is counted once
+				if (sh.lastInstance[fi] == ii)
+					continue;
+				if (sh.lastInstance[fi] == -1) {
+					sh.firstInstance[fi] = ii;
+					if (storeValues)
+						sh.vals[fi] = new double[2];
+				} else {
+					if (sh.bytes[fi] == null)
+						sh.bytes[fi] = new byte[4];
+					else if (sh.numBytes[fi] + 5 > sh.bytes[fi].length) {
+						byte[] b = new byte[sh.bytes[fi].length * 2];
+						System.arraycopy (sh.bytes[fi], 0, b, 0, sh.numBytes[fi]);
+						sh.bytes[fi] = b;
+					}
+					sh.numBytes[fi] = writeVarInt (sh.bytes[fi], sh.numBytes[fi], ii - sh.lastInstance[fi] - 1);
+				}
+				sh.lastInstance[fi] = ii;
+				if (storeValues) {
+					int df = sh.counts[fi];
+					if (df == sh.vals[fi].length) {
+						double[] d = new double[df * 2];
+						System.arraycopy (sh.vals[fi], 0, d, 0, df);
+						sh.vals[fi] = d;
+					}
+					sh.vals[fi][df] = v;
+					sh.notAllOnes[fi] |= (v != 1.0);
+				}
+				if (v < 0)
+					sh.negative = true;
+				sh.counts[fi]++;
+			}
+		}
+		return sh;
+	}
+
+	/** Joins the shards' lists of the features in [first, last), in
+	 * instance order. */
+	private void joinShards (Shard[] shards, int first, int last)
+	{
+		for (int fi = first; fi < last; fi++) {
+			int df = 0, size = 0, lastInstance = -1;
+			boolean notAllOnes = false;
+			for (int s = 0; s < shards.length; s++) {
+				Shard sh = shards[s];
+				if (sh.counts[fi] == 0)
+					continue;
+				df += sh.counts[fi];
+				size += varIntLength (sh.firstInstance[fi] - lastInstance - 1) + sh.numBytes[fi];
+				lastInstance = sh.lastInstance[fi];
+				notAllOnes |= sh.notAllOnes[fi];
+			}
+			documentFrequencies[fi] = df;
+			if (df == 0)
+				continue;
+			byte[] b = new byte[size];
+			double[] vals = (storeValues && notAllOnes) ? new double[df] : null;
+			int pos = 0, count = 0;
+			lastInstance = -1;
+			for (int s = 0; s < shards.length; s++) {
+				Shard sh = shards[s];
+				if (sh.counts[fi] == 0)
+					continue;
+				pos = writeVarInt (b, pos, sh.firstInstance[fi] - lastInstance - 1);
+				if (sh.numBytes[fi] > 0)
+					System.arraycopy (sh.bytes[fi], 0, b, pos, sh.numBytes[fi]);
+				pos += sh.numBytes[fi];
+				lastInstance = sh.lastInstance[fi];
+				if (vals != null)
+					System.arraycopy (sh.vals[fi], 0, vals, count, sh.counts[fi]);
+				count += sh.counts[fi];
+				sh.bytes[fi] = null;
+				if (sh.vals != null)
+					sh.vals[fi] = null;
+			}
+			postings[fi] = b;
+			values[fi] = vals;
+		}
+	}
+
+	private static int varIntLength (int v)
+	{
+		int n = 1;
+		while ((v & ~0x7f) != 0) {
+			n++;
+			v >>>= 7;
+		}
+		return n;
+	}
+
+	private static int writeVarInt (byte[] b, int pos, int v)
+	{
+		while ((v & ~0x7f) != 0) {
+			b[pos++] = (byte) ((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		b[pos++] = (byte) v;
+		return pos;
+	}
+
+	public InstanceList getInstanceList () { return ilist; }
+
+	public int numFeatures () { return numFeatures; }
+
+	/** Returns true if the values of the features were kept. */
+	public boolean hasValues () { return storeValues; }
+
+	/** Returns true if any feature has a negative value in some instance. */
+	public boolean hasNegativeValues () { return hasNegativeValues; }
+
+	/** Returns the number of bytes taken by the posting lists and values. */
+	public long getNumBytes ()
+	{
+		long n = 0;
+		for (int fi = 0; fi < numFeatures; fi++) {
+			if (postings[fi] != null)
+				n += postings[fi].length;
+			if (values[fi] != null)
+				n += 8 * values[fi].length;
+		}
+		return n;
+	}
+
+	private int indexOf (Object feature)
+	{
+		int index = ilist.getDataAlphabet().lookupIndex (feature, false);
+		if (index == -1 || index >= numFeatures)
+			throw new IllegalArgumentException ("Feature "+feature+" not contained in CompressedInvertedIndex");
+		return index;
+	}
+
+	/** Returns the number of instances in which the feature has a non-zero value. */
+	public int getDocumentFrequency (int featureIndex)
+	{
+		return documentFrequencies[featureIndex];
+	}
+
+	public int getDocumentFrequency (Object feature)
+	{
+		return getDocumentFrequency (indexOf (feature));
+	}
+
+	/** Returns the number of instances in which all of the features have
+	 * non-zero values. */
+	public int getDocumentFrequency (int[] featureIndices)
+	{
+		return intersection (featureIndices).length;
+	}
+
+	public int[] getDocumentFrequencies ()
+	{
+		return (int[]) documentFrequencies.clone();
+	}
+
+	/** Returns the number of instances with non-zero weight in which each
+	 * feature has a non-zero value, ranked. */
+	public FeatureCounts getFeatureCounts ()
+	{
+		double[] counts = new double[numFeatures];
+		for (int fi = 0; fi < numFeatures; fi++) {
+			for (PostingIterator it = iterator (fi); it.hasNext(); )
+				if (ilist.getInstanceWeight (it.next()) != 0)
+					counts[fi]++;
+		}
+		return new FeatureCounts (ilist.getDataAlphabet(), counts);
+	}
+
+	/** Returns the features that occur in at least <code>minDocumentFrequency</code>
+	 * and at most <code>maxDocumentFrequency</code> instances. */
+	public FeatureSelection getFeatureSelection (int minDocumentFrequency, int maxDocumentFrequency)
+	{
+		FeatureSelection fs = new FeatureSelection (ilist.getDataAlphabet());
+		for (int fi = 0; fi < numFeatures; fi++)
+			if (documentFrequencies[fi] >= minDocumentFrequency && documentFrequencies[fi] <= maxDocumentFrequency)
+				fs.add (fi);
+		return fs;
+	}
+
+	public PostingIterator iterator (int featureIndex)
+	{
+		return new PostingIterator (featureIndex);
+	}
+
+	/** Returns the indices, in increasing order, of the instances in
+	 * which the feature has a non-zero value. */
+	public int[] getInstanceIndices (int featureIndex)
+	{
+		int[] ret = new int[documentFrequencies[featureIndex]];
+		PostingIterator it = iterator (featureIndex);
+		for (int i = 0; i < ret.length; i++)
+			ret[i] = it.next ();
+		return ret;
+	}
+
+	/** Returns the instances in which the feature has a non-zero value,
+	 * as {@link InvertedIndex#getInstancesWithFeature} does. */
+	public ArrayList getInstancesWithFeature (int featureIndex)
+	{
+		ArrayList ret = new ArrayList (documentFrequencies[featureIndex]);
+		for (PostingIterator it = iterator (featureIndex); it.hasNext(); )
+			ret.add (ilist.getInstance (it.next()));
+		return ret;
+	}
+
+	public ArrayList getInstancesWithFeature (Object feature)
+	{
+		return getInstancesWithFeature (indexOf (feature));
+	}
+
+	/** Returns the indices, in increasing order, of the instances in
+	 * which all of the features have non-zero values. */
+	public int[] intersection (int[] featureIndices)
+	{
+		if (featureIndices.length == 0)
+			return new int[0];
+		// Start from the shortest list, and filter it by the others, shortest first
+		Integer[] order = new Integer[featureIndices.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = new Integer (featureIndices[i]);
+		Arrays.sort (order, new java.util.Comparator () {
+			public int compare (Object a, Object b) {
+				return documentFrequencies[((Integer)a).intValue()] - documentFrequencies[((Integer)b).intValue()];
+			}
+		});
+		int[] result = getInstanceIndices (order[0].intValue());
+		int n = result.length;
+		for (int j = 1; j < order.length && n > 0; j++) {
+			PostingIterator it = iterator (order[j].intValue());
+			int m = 0;
+			int id = it.hasNext() ? it.next() : Integer.MAX_VALUE;
+			for (int i = 0; i < n; i++) {
+				while (id < result[i])
+					id = it.hasNext() ? it.next() : Integer.MAX_VALUE;
+				if (id == result[i])
+					result[m++] = result[i];
+			}
+			n = m;
+		}
+		if (n == result.length)
+			return result;
+		int[] ret = new int[n];
+		System.arraycopy (result, 0, ret, 0, n);
+		return ret;
+	}
+
+	/** Returns the indices, in increasing order, of the instances in
+	 * which any of the features has a non-zero value. */
+	public int[] union (int[] featureIndices)
+	{
+		BitSet bits = new BitSet (ilist.size());
+		for (int j = 0; j < featureIndices.length; j++)
+			for (PostingIterator it = iterator (featureIndices[j]); it.hasNext(); )
+				bits.set (it.next());
+		int[] ret = new int[bits.cardinality()];
+		int i = 0;
+		for (int id = bits.nextSetBit (0); id >= 0; id = bits.nextSetBit (id+1))
+			ret[i++] = id;
+		return ret;
+	}
+
+	/** Iterates over the instances having one feature, in increasing
+	 * order of their index in the InstanceList. */
+	public class PostingIterator
+	{
+		byte[] bytes;
+		double[] vals;
+		int pos = 0;
+		int instance = -1;
+		int count = 0;
+		int size;
+
+		PostingIterator (int featureIndex)
+		{
+			bytes = postings[featureIndex];
+			vals = values[featureIndex];
+			size = documentFrequencies[featureIndex];
+		}
+
+		public boolean hasNext ()
+		{
+			return count < size;
+		}
+
+		/** Returns the index of the next instance. */
+		public int next ()
+		{
+			int v = 0;
+			for (int shift = 0; ; shift += 7) {
+				byte b = bytes[pos++];
+				v |= (b & 0x7f) << shift;
+				if ((b & 0x80) == 0)
+					break;
+			}
+			count++;
+			instance += v + 1;
+			return instance;
+		}
+
+		/** Returns the feature's value in the instance last returned by
+		 * <code>next()</code>. */
+		public double value ()
+		{
+			if (!storeValues)
+				throw new IllegalStateException ("CompressedInvertedIndex was built without values");
+			return vals == null ? 1.0 : vals[count-1];
+		}
+	}
+
+
+	// Serialization
+
+	private static final long serialVersionUID = 1;
+	private static final int CURRENT_SERIAL_VERSION = 0;
+
+	private void writeObject (ObjectOutputStream out) throws IOException {
+		out.writeInt (CURRENT_SERIAL_VERSION);
+		out.writeObject (ilist);
+		out.writeInt (numFeatures);
+		out.writeBoolean (storeValues);
+		out.writeBoolean (hasNegativeValues);
+		for (int fi = 0; fi < numFeatures; fi++) {
+			out.writeInt (documentFrequencies[fi]);
+			if (documentFrequencies[fi] == 0)
+				continue;
+			out.writeInt (postings[fi].length);
+			out.write (postings[fi]);
+			out.writeBoolean (values[fi] != null);
+			if (values[fi] != null)
+				for (int i = 0; i < values[fi].length; i++)
+					out.writeDouble (values[fi][i]);
+		}
+	}
+
+	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
+		int version = in.readInt ();
+		ilist = (InstanceList) in.readObject ();
+		numFeatures = in.readInt ();
+		storeValues = in.readBoolean ();
+		hasNegativeValues = in.readBoolean ();
+		postings = new byte[numFeatures][];
+		values = new double[numFeatures][];
+		documentFrequencies = new int[numFeatures];
+		for (int fi = 0; fi < numFeatures; fi++) {
+			documentFrequencies[fi] = in.readInt ();
+			if (documentFrequencies[fi] == 0)
+				continue;
+			postings[fi] = new byte[in.readInt ()];
+			in.readFully (postings[fi]);
+			if (in.readBoolean ()) {
+				values[fi] = new double[documentFrequencies[fi]];
+				for (int i = 0; i < values[fi].length; i++)
+					values[fi][i] = in.readDouble ();
+			}
+		}
+	}
+
+}
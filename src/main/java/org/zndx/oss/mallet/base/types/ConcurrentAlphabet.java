@@ -0,0 +1,405 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+
+
+
+package org.zndx.oss.mallet.base.types;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.io.*;
+
+/**
+	 An Alphabet that may be used from many threads at once, such as an
+	 Alphabet shared by pipes that run in parallel, or by decoders
+	 running on several threads.
+
+	 While the Alphabet is growing, entries are kept in a
+	 ConcurrentHashMap, whose lookups take no locks, and whose insertions
+	 lock only part of the table; the entries themselves are kept in
+	 fixed-size chunks, so that the list of entries never has to be
+	 copied as it grows.  Every entry gets exactly one index, and the
+	 indices are consecutive, but when several threads add entries at
+	 once the order of the indices depends on timing.
+
+	 <code>stopGrowth()</code> freezes the Alphabet: the entries are
+	 compacted into an open-addressing hash table over plain arrays,
+	 which is faster to read and smaller than the growing table.
+	 <code>startGrowth()</code> rebuilds the growing table.  Lookups may
+	 run during either change; additions wait for it to finish.
+
+	 @see Alphabet
+ */
+
+public class ConcurrentAlphabet extends Alphabet
+{
+	static final int CHUNK_BITS = 12;
+	static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	// Either a Growing or a Frozen, replaced as a whole
+	transient volatile Object table;
+	transient ReentrantReadWriteLock growthLock = new ReentrantReadWriteLock ();
+
+	public ConcurrentAlphabet (int capacity, Class entryClass)
+	{
+		super (1, entryClass);
+		table = new Growing (capacity);
+	}
+
+	public ConcurrentAlphabet (Class entryClass)
+	{
+		this (8, entryClass);
+	}
+
+	public ConcurrentAlphabet (int capacity)
+	{
+		this (capacity, null);
+	}
+
+	public ConcurrentAlphabet ()
+	{
+		this (8, null);
+	}
+
+	public Object clone ()
+	{
+		ConcurrentAlphabet ret = new ConcurrentAlphabet (size(), entryClass);
+		Object[] entries = toArray ();
+		for (int i = 0; i < entries.length; i++)
+			ret.lookupIndex (entries[i], true);
+		if (growthStopped ())
+			ret.stopGrowth ();
+		return ret;
+	}
+
+	/** Return -1 if entry isn't present. */
+	public int lookupIndex (Object entry, boolean addIfNotPresent)
+	{
+		if (entry == null)
+			throw new IllegalArgumentException ("Can't lookup \"null\" in an Alphabet.");
+		Class c = entryClass;
+		if (c == null)
+			entryClass = entry.getClass();
+		else if (entry.getClass() != c)
+			throw new IllegalArgumentException ("Non-matching entry class, "+entry.getClass()+", was "+c);
+
+		AlphabetRecorder recorder = AlphabetRecorder.current ();
+		if (recorder != null)
+			return recorder.lookupIndex (this, entry, addIfNotPresent);
+
+		int index = indexOf (entry);
+		if (index >= 0 || !addIfNotPresent)
+			return index;
+		growthLock.readLock().lock();
+		try {
+			Object t = table;
+			if (t instanceof Frozen)
+				return ((Frozen) t).indexOf (entry);
+			return ((Growing) t).add (entry);
+		} finally {
+			growthLock.readLock().unlock();
+		}
+	}
+
+	int indexOf (Object entry)
+	{
+		Object t = table;
+		if (t instanceof Frozen)
+			return ((Frozen) t).indexOf (entry);
+		return ((Growing) t).indexOf (entry);
+	}
+
+	public Object lookupObject (int index)
+	{
+		Object t = table;
+		if (index >= size (t)) {
+			AlphabetRecorder recorder = AlphabetRecorder.current ();
+			if (recorder != null)
+				return recorder.lookupObject (this, index);
+		}
+		if (t instanceof Frozen)
+			return ((Frozen) t).lookupObject (index);
+		return ((Growing) t).lookupObject (index);
+	}
+
+	public Object[] toArray ()
+	{
+		return toArray (new Object[0]);
+	}
+
+	public Object[] toArray (Object[] in)
+	{
+		Object t = table;
+		int size = size (t);
+		if (in.length < size)
+			in = (Object[]) java.lang.reflect.Array.newInstance (in.getClass().getComponentType(), size);
+		for (int i = 0; i < size; i++)
+			in[i] = (t instanceof Frozen) ? ((Frozen) t).lookupObject (i) : ((Growing) t).lookupObject (i);
+		if (in.length > size)
+			in[size] = null;
+		return in;
+	}
+
+	public Iterator iterator ()
+	{
+		return Arrays.asList (toArray ()).iterator ();
+	}
+
+	public Object[] lookupObjects (int[] indices)
+	{
+		return lookupObjects (indices, new Object[indices.length]);
+	}
+
+	public Object[] lookupObjects (int[] indices, Object[] buf)
+	{
+		for (int i = 0; i < indices.length; i++)
+			buf[i] = lookupObject (indices[i]);
+		return buf;
+	}
+
+	public boolean contains (Object entry)
+	{
+		AlphabetRecorder recorder = AlphabetRecorder.current ();
+		if (recorder != null)
+			return recorder.contains (this, entry);
+		return indexOf (entry) >= 0;
+	}
+
+	public int size ()
+	{
+		return size (table);
+	}
+
+	private static int size (Object t)
+	{
+		if (t instanceof Frozen)
+			return ((Frozen) t).entries.length;
+		return ((Growing) t).size.get ();
+	}
+
+	/** Stops growth, and compacts the entries into a table for reading. */
+	public void stopGrowth ()
+	{
+		growthLock.writeLock().lock();
+		try {
+			super.stopGrowth ();
+			if (table instanceof Growing)
+				table = new Frozen (toArray ());
+		} finally {
+			growthLock.writeLock().unlock();
+		}
+	}
+
+	public void startGrowth ()
+	{
+		growthLock.writeLock().lock();
+		try {
+			super.startGrowth ();
+			if (table instanceof Frozen) {
+				Object[] entries = ((Frozen) table).entries;
+				Growing growing = new Growing (entries.length);
+				for (int i = 0; i < entries.length; i++)
+					growing.add (entries[i]);
+				table = growing;
+			}
+		} finally {
+			growthLock.writeLock().unlock();
+		}
+	}
+
+	public String toString ()
+	{
+		StringBuffer sb = new StringBuffer();
+		Object[] entries = toArray ();
+		for (int i = 0; i < entries.length; i++) {
+			sb.append (entries[i].toString());
+			sb.append ('\n');
+		}
+		return sb.toString();
+	}
+
+	public void dump (PrintWriter out)
+	{
+		Object[] entries = toArray ();
+		for (int i = 0; i < entries.length; i++)
+			out.println (i+" => "+entries[i]);
+	}
+
+
+	/** The entries of a growing Alphabet. */
+	static class Growing
+	{
+		ConcurrentHashMap map;									// entry -> Slot
+		volatile AtomicReferenceArray[] chunks;
+		AtomicInteger size = new AtomicInteger ();
+
+		Growing (int capacity)
+		{
+			map = new ConcurrentHashMap (Math.max (capacity, 16));
+			chunks = new AtomicReferenceArray[1 + (capacity >>> CHUNK_BITS)];
+		}
+
+		int indexOf (Object entry)
+		{
+			Slot slot = (Slot) map.get (entry);
+			return (slot == null) ? -1 : slot.index ();
+		}
+
+		int add (Object entry)
+		{
+			Slot slot = (Slot) map.get (entry);
+			if (slot != null)
+				return slot.index ();
+			// Only the thread whose slot goes into the map takes an index,
+			// so that the indices stay consecutive
+			Slot candidate = new Slot ();
+			slot = (Slot) map.putIfAbsent (entry, candidate);
+			if (slot != null)
+				return slot.index ();
+			int index = size.getAndIncrement ();
+			chunk (index >>> CHUNK_BITS).set (index & CHUNK_MASK, entry);
+			candidate.index = index;
+			return index;
+		}
+
+		private AtomicReferenceArray chunk (int c)
+		{
+			AtomicReferenceArray[] cs = chunks;
+			if (c < cs.length && cs[c] != null)
+				return cs[c];
+			synchronized (this) {
+				cs = chunks;
+				if (c >= cs.length) {
+					AtomicReferenceArray[] bigger = new AtomicReferenceArray[Math.max (c + 1, 2 * cs.length)];
+					System.arraycopy (cs, 0, bigger, 0, cs.length);
+					cs = bigger;
+				}
+				if (cs[c] == null)
+					cs[c] = new AtomicReferenceArray (CHUNK_SIZE);
+				chunks = cs;
+				return cs[c];
+			}
+		}
+
+		Object lookupObject (int index)
+		{
+			if (index < 0 || index >= size.get ())
+				throw new IndexOutOfBoundsException ("Index: "+index+", Size: "+size.get ());
+			Object entry;
+			// An index counted in size() may not have had its entry stored yet
+			while ((entry = chunk (index >>> CHUNK_BITS).get (index & CHUNK_MASK)) == null)
+				Thread.yield ();
+			return entry;
+		}
+	}
+
+	/** The index of one entry of a growing Alphabet, which is set just
+	 * after the entry goes into the map. */
+	static class Slot
+	{
+		volatile int index = -1;
+
+		int index ()
+		{
+			int i;
+			while ((i = index) < 0)
+				Thread.yield ();
+			return i;
+		}
+	}
+
+	/** The entries of an Alphabet that has stopped growing, in an
+	 * open-addressing table with linear probing. */
+	static class Frozen
+	{
+		Object[] entries;
+		Object[] keys;
+		int[] indices;
+		int mask;
+
+		Frozen (Object[] entries)
+		{
+			this.entries = entries;
+			int capacity = 2;
+			while (capacity < 2 * entries.length)
+				capacity <<= 1;
+			keys = new Object[capacity];
+			indices = new int[capacity];
+			mask = capacity - 1;
+			for (int i = 0; i < entries.length; i++) {
+				int slot = hash (entries[i]) & mask;
+				while (keys[slot] != null)
+					slot = (slot + 1) & mask;
+				keys[slot] = entries[i];
+				indices[slot] = i;
+			}
+		}
+
+		private static int hash (Object entry)
+		{
+			int h = entry.hashCode ();
+			return h ^ (h >>> 16);
+		}
+
+		int indexOf (Object entry)
+		{
+			for (int slot = hash (entry) & mask; ; slot = (slot + 1) & mask) {
+				Object key = keys[slot];
+				if (key == null)
+					return -1;
+				if (key == entry || key.equals (entry))
+					return indices[slot];
+			}
+		}
+
+		Object lookupObject (int index)
+		{
+			return entries[index];
+		}
+	}
+
+
+	// Serialization; Alphabet writes its own (empty) list of entries first
+
+	private static final long serialVersionUID = 1;
+	private static final int CURRENT_SERIAL_VERSION = 0;
+
+	private void writeObject (ObjectOutputStream out) throws IOException
+	{
+		out.writeInt (CURRENT_SERIAL_VERSION);
+		Object[] entries = toArray ();
+		out.writeInt (entries.length);
+		for (int i = 0; i < entries.length; i++)
+			out.writeObject (entries[i]);
+	}
+
+	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		int version = in.readInt ();
+		int size = in.readInt ();
+		Object[] entries = new Object[size];
+		for (int i = 0; i < size; i++)
+			entries[i] = in.readObject ();
+		growthLock = new ReentrantReadWriteLock ();
+		if (growthStopped ())
+			table = new Frozen (entries);
+		else {
+			Growing growing = new Growing (size);
+			for (int i = 0; i < size; i++)
+				growing.add (entries[i]);
+			table = growing;
+		}
+	}
+
+}
@@ -22,6 +22,7 @@ package org.zndx.oss.mallet.base.types;
 
 import org.zndx.oss.mallet.base.classify.Classification;
 import org.zndx.oss.mallet.base.util.MalletLogger;
+import org.zndx.oss.mallet.base.util.ParallelUtils;
 import java.util.logging.*;
 import java.io.*;
 
@@ -134,7 +135,6 @@ public class ExpGain extends RankedFeatureVector
 				alphaMax[i][j] = Double.POSITIVE_INFINITY;
 				alphaMin[i][j] = Double.NEGATIVE_INFINITY;
 			}
-		double maxAlphachange = 0;
 		double maxDalpha = 99;
 		int maxNewtonSteps = 50;							// xxx Change to more?
 		// alphas[][] are initialized to zero
@@ -174,66 +174,7 @@ public class ExpGain extends RankedFeatureVector
 				}
 			}
 			// We now now first- and second-derivative for this newton step
-			// Run tests on the alphas and their derivatives, and do a newton step
-			double alphachange, newalpha, oldalpha;
-			maxAlphachange = maxDalpha = 0;
-			for (int i = 0; i < numClasses; i++)
-				for (int j = 0; j < numFeatures; j++) {
-					alphachange = - (dalphas[i][j] / ddalphas[i][j]);
-					if (p[i][j] == 0 && q[i][j] == 0)
-						continue;
-					else if (false && (i*numFeatures+j) % (numClasses*numFeatures/2000) == 0
-									 || Double.isNaN(alphas[i][j]) || Double.isNaN(alphachange))
-						// Print just a sampling of them...
-						logger.info ("alpha["+i+"]["+j+"]="+alphas[i][j]+
-												 " p="+p[i][j]+
-												 " q="+q[i][j]+
-												 " dalpha="+dalphas[i][j]+
-												 " ddalpha="+ddalphas[i][j]+
-												 " alphachange="+alphachange+
-												 " min="+alphaMin[i][j]+
-												 " max="+alphaMax[i][j]);
-					if (Double.isNaN(alphas[i][j]) || Double.isNaN(dalphas[i][j]) || Double.isNaN(ddalphas[i][j])
-							|| Double.isInfinite(alphas[i][j]) || Double.isInfinite(dalphas[i][j]) || Double.isInfinite(ddalphas[i][j])) 
-						alphachange = 0;
-//					assert (!Double.isNaN(alphas[i][j]));
-//					assert (!Double.isNaN(dalphas[i][j]));
-//					assert (!Double.isNaN(ddalphas[i][j]));
-					oldalpha = alphas[i][j];
-					// xxx assert (ddalphas[i][j] <= 0);
-					//assert (Math.abs(alphachange) < 100.0) : alphachange; // xxx arbitrary?
-					// Trying to prevent a cycle
-					if (Math.abs(alphachange + alphaChangeOld[i][j]) / Math.abs(alphachange) < 0.01)
-						newalpha = alphas[i][j] + alphachange / 2;
-					else
-						newalpha = alphas[i][j] + alphachange;
-					if (alphachange < 0 && alphaMax[i][j] > alphas[i][j]) {
-						//System.out.println ("Updating alphaMax["+i+"]["+j+"] = "+alphas[i][j]);
-						alphaMax[i][j] = alphas[i][j];
-					}
-					if (alphachange > 0 && alphaMin[i][j] < alphas[i][j]) {
-						//System.out.println ("Updating alphaMin["+i+"]["+j+"] = "+alphas[i][j]);
-						alphaMin[i][j] = alphas[i][j];
-					}
-					if (newalpha <= alphaMax[i][j] && newalpha >= alphaMin[i][j])
-						// Newton wants to jump to a point inside the boundaries; let it
-						alphas[i][j] = newalpha;
-					else {
-						// Newton wants to jump to a point outside the boundaries; bisect instead
-						assert (alphaMax[i][j] != Double.POSITIVE_INFINITY);
-						assert (alphaMin[i][j] != Double.NEGATIVE_INFINITY);
-						alphas[i][j] = alphaMin[i][j] + (alphaMax[i][j] - alphaMin[i][j]) / 2;
-						//System.out.println ("Newton tried to exceed bounds; bisecting. dalphas["+i+"]["+j+"]="+dalphas[i][j]+" alphaMin="+alphaMin[i][j]+" alphaMax="+alphaMax[i][j]);
-					}
-					alphachange = alphas[i][j] - oldalpha;
-					if (Math.abs(alphachange) > maxAlphachange)
-						maxAlphachange = Math.abs (alphachange);
-					if (Math.abs (dalphas[i][j]) > maxDalpha)
-						maxDalpha = Math.abs (dalphas[i][j]);
-					alphaChangeOld[i][j] = alphachange;
-				}
-			logger.info ("After "+newton+" Newton iterations, maximum alphachange="+maxAlphachange+
-													" dalpha="+maxDalpha);
+			maxDalpha = newtonStep (newton, p, q, alphas, dalphas, ddalphas, alphaChangeOld, alphaMin, alphaMax);
 		}
 					
 		// Allow some memory to be freed
@@ -266,6 +207,102 @@ public class ExpGain extends RankedFeatureVector
 		}
 		
 		//System.out.println ("Calculating klgain values...");
+		double[] klgains = klGains (p, qeag, alphas, gaussianPriorVariance);
+
+		if (false) {
+			logger.info ("klgains.length="+klgains.length);
+			for (int j = 0; j < numFeatures; j++) {
+				if (j % (numFeatures/100) == 0) {
+					for (int i = 0; i < numClasses; i++) {
+						logger.info ("c="+i+" p["+ilist.getDataAlphabet().lookupObject(j)+"] = "+p[i][j]);
+						logger.info ("c="+i+" q["+ilist.getDataAlphabet().lookupObject(j)+"] = "+q[i][j]);
+						logger.info ("c="+i+" alphas["+ilist.getDataAlphabet().lookupObject(j)+"] = "+alphas[i][j]);
+						logger.info ("c="+i+" qeag["+ilist.getDataAlphabet().lookupObject(j)+"] = "+qeag[i][j]);
+					}
+					logger.info ("klgains["+ilist.getDataAlphabet().lookupObject(j)+"] = "+klgains[j]);
+				} 
+			}
+		}
+		
+		return klgains;
+	}
+
+	// Runs tests on the alphas and their first and second derivatives, and does a
+	// Newton step (or a bisection) on each; returns the largest first derivative.
+	private static double newtonStep (int newton, double[][] p, double[][] q, double[][] alphas,
+																		double[][] dalphas, double[][] ddalphas, double[][] alphaChangeOld,
+																		double[][] alphaMin, double[][] alphaMax)
+	{
+		int numClasses = p.length;
+		int numFeatures = numClasses == 0 ? 0 : p[0].length;
+		double maxAlphachange, maxDalpha;
+		double alphachange, newalpha, oldalpha;
+		maxAlphachange = maxDalpha = 0;
+		for (int i = 0; i < numClasses; i++)
+			for (int j = 0; j < numFeatures; j++) {
+				alphachange = - (dalphas[i][j] / ddalphas[i][j]);
+				if (p[i][j] == 0 && q[i][j] == 0)
+					continue;
+				else if (false && (i*numFeatures+j) % (numClasses*numFeatures/2000) == 0
+								 || Double.isNaN(alphas[i][j]) || Double.isNaN(alphachange))
+					// Print just a sampling of them...
+					logger.info ("alpha["+i+"]["+j+"]="+alphas[i][j]+
+											 " p="+p[i][j]+
+											 " q="+q[i][j]+
+											 " dalpha="+dalphas[i][j]+
+											 " ddalpha="+ddalphas[i][j]+
+											 " alphachange="+alphachange+
+											 " min="+alphaMin[i][j]+
+											 " max="+alphaMax[i][j]);
+				if (Double.isNaN(alphas[i][j]) || Double.isNaN(dalphas[i][j]) || Double.isNaN(ddalphas[i][j])
+						|| Double.isInfinite(alphas[i][j]) || Double.isInfinite(dalphas[i][j]) || Double.isInfinite(ddalphas[i][j])) 
+					alphachange = 0;
+//					assert (!Double.isNaN(alphas[i][j]));
+//					assert (!Double.isNaN(dalphas[i][j]));
+//					assert (!Double.isNaN(ddalphas[i][j]));
+				oldalpha = alphas[i][j];
+				// xxx assert (ddalphas[i][j] <= 0);
+				//assert (Math.abs(alphachange) < 100.0) : alphachange; // xxx arbitrary?
+				// Trying to prevent a cycle
+				if (Math.abs(alphachange + alphaChangeOld[i][j]) / Math.abs(alphachange) < 0.01)
+					newalpha = alphas[i][j] + alphachange / 2;
+				else
+					newalpha = alphas[i][j] + alphachange;
+				if (alphachange < 0 && alphaMax[i][j] > alphas[i][j]) {
+					//System.out.println ("Updating alphaMax["+i+"]["+j+"] = "+alphas[i][j]);
+					alphaMax[i][j] = alphas[i][j];
+				}
+				if (alphachange > 0 && alphaMin[i][j] < alphas[i][j]) {
+					//System.out.println ("Updating alphaMin["+i+"]["+j+"] = "+alphas[i][j]);
+					alphaMin[i][j] = alphas[i][j];
+				}
+				if (newalpha <= alphaMax[i][j] && newalpha >= alphaMin[i][j])
+					// Newton wants to jump to a point inside the boundaries; let it
+					alphas[i][j] = newalpha;
+				else {
+					// Newton wants to jump to a point outside the boundaries; bisect instead
+					assert (alphaMax[i][j] != Double.POSITIVE_INFINITY);
+					assert (alphaMin[i][j] != Double.NEGATIVE_INFINITY);
+					alphas[i][j] = alphaMin[i][j] + (alphaMax[i][j] - alphaMin[i][j]) / 2;
+					//System.out.println ("Newton tried to exceed bounds; bisecting. dalphas["+i+"]["+j+"]="+dalphas[i][j]+" alphaMin="+alphaMin[i][j]+" alphaMax="+alphaMax[i][j]);
+				}
+				alphachange = alphas[i][j] - oldalpha;
+				if (Math.abs(alphachange) > maxAlphachange)
+					maxAlphachange = Math.abs (alphachange);
+				if (Math.abs (dalphas[i][j]) > maxDalpha)
+					maxDalpha = Math.abs (dalphas[i][j]);
+				alphaChangeOld[i][j] = alphachange;
+			}
+		logger.info ("After "+newton+" Newton iterations, maximum alphachange="+maxAlphachange+
+												" dalpha="+maxDalpha);
+		return maxDalpha;
+	}
+
+	private static double[] klGains (double[][] p, double[][] qeag, double[][] alphas,
+																	 double gaussianPriorVariance)
+	{
+		int numClasses = p.length;
+		int numFeatures = numClasses == 0 ? 0 : p[0].length;
 		double[] klgains = new double[numFeatures];
 		double klgainIncr, alpha;
 		for (int i = 0; i < numClasses; i++)
@@ -278,29 +315,142 @@ public class ExpGain extends RankedFeatureVector
 				if (klgainIncr < 0) {
 					if (false)
 						logger.info ("WARNING: klgainIncr["+i+"]["+j+"]="+klgainIncr+
-												 "  alpha="+alphas[i][j]+
-												 "  feature="+ilist.getDataAlphabet().lookupObject(j)+
-												 "  class="+ilist.getTargetAlphabet().lookupObject(i));
+												 "  alpha="+alphas[i][j]);
 				} else
 					klgains[j] += klgainIncr;
 			}
+		return klgains;
+	}
 
-		if (false) {
-			logger.info ("klgains.length="+klgains.length);
-			for (int j = 0; j < numFeatures; j++) {
-				if (j % (numFeatures/100) == 0) {
-					for (int i = 0; i < numClasses; i++) {
-						logger.info ("c="+i+" p["+ilist.getDataAlphabet().lookupObject(j)+"] = "+p[i][j]);
-						logger.info ("c="+i+" q["+ilist.getDataAlphabet().lookupObject(j)+"] = "+q[i][j]);
-						logger.info ("c="+i+" alphas["+ilist.getDataAlphabet().lookupObject(j)+"] = "+alphas[i][j]);
-						logger.info ("c="+i+" qeag["+ilist.getDataAlphabet().lookupObject(j)+"] = "+qeag[i][j]);
+	// A pass over the instances that sums into one or two [numClasses][numColumns]
+	// arrays.  With more than one thread, each shard of instances sums into its own
+	// arrays, which are kept for the next run and added in shard order.
+	private static abstract class ColumnPass
+	{
+		double[][][] shardSums1, shardSums2;
+
+		abstract void accumulate (int i, double[][] sums1, double[][] sums2);
+
+		void run (int numInstances, int numThreads, double[][] sums1, double[][] sums2)
+		{
+			if (numThreads == 1) {
+				for (int i = 0; i < numInstances; i++)
+					accumulate (i, sums1, sums2);
+				return;
+			}
+			final int[] bounds = ParallelUtils.shardBoundaries (numInstances, numThreads);
+			if (shardSums1 == null) {
+				shardSums1 = new double[numThreads][sums1.length][sums1.length == 0 ? 0 : sums1[0].length];
+				if (sums2 != null)
+					shardSums2 = new double[numThreads][sums2.length][sums2.length == 0 ? 0 : sums2[0].length];
+			}
+			Runnable[] tasks = new Runnable[numThreads];
+			for (int shard = 0; shard < numThreads; shard++) {
+				final int thisShard = shard;
+				tasks[shard] = new Runnable () {
+					public void run () {
+						double[][] s1 = shardSums1[thisShard];
+						double[][] s2 = shardSums2 == null ? null : shardSums2[thisShard];
+						for (int li = 0; li < s1.length; li++) {
+							java.util.Arrays.fill (s1[li], 0);
+							if (s2 != null)
+								java.util.Arrays.fill (s2[li], 0);
+						}
+						for (int i = bounds[thisShard]; i < bounds[thisShard+1]; i++)
+							accumulate (i, s1, s2);
 					}
-					logger.info ("klgains["+ilist.getDataAlphabet().lookupObject(j)+"] = "+klgains[j]);
-				} 
+				};
 			}
+			ParallelUtils.runAll (tasks, numThreads);
+			for (int shard = 0; shard < numThreads; shard++)
+				for (int li = 0; li < sums1.length; li++)
+					for (int j = 0; j < sums1[li].length; j++) {
+						sums1[li][j] += shardSums1[shard][li][j];
+						if (sums2 != null)
+							sums2[li][j] += shardSums2[shard][li][j];
+					}
 		}
-		
-		return klgains;
+	}
+
+	// The exp gains of binary columns, for RankedFeatureVector.ColumnFactory.  As
+	// calcExpGains above, but each pass over the instances is split into shards.
+	private static double[] calcExpGains (final InstanceList ilist, final LabelVector[] classifications,
+																				double gaussianPriorVariance, final int[][] rows,
+																				int numColumns, int numThreads)
+	{
+		int numInstances = rows.length;
+		final int numClasses = ilist.getTargetAlphabet().size();
+		double[][] p = new double[numClasses][numColumns];
+		double[][] q = new double[numClasses][numColumns];
+		final double[][] alphas = new double[numClasses][numColumns];
+		new ColumnPass () {
+			void accumulate (int i, double[][] p, double[][] q) {
+				Labeling labeling = ilist.getInstance(i).getLabeling ();
+				int[] row = rows[i];
+				for (int li = 0; li < numClasses; li++) {
+					double trueLabelWeight = labeling.value (li);
+					double modelLabelWeight = classifications[i].value(li);
+					if (trueLabelWeight == 0 && modelLabelWeight == 0)
+						continue;
+					for (int k = 0; k < row.length; k++) {
+						p[li][row[k]] += trueLabelWeight;
+						q[li][row[k]] += modelLabelWeight;
+					}
+				}
+			}
+		}.run (numInstances, numThreads, p, q);
+
+		double[][] dalphas = new double[numClasses][numColumns];
+		double[][] ddalphas = new double[numClasses][numColumns];
+		double[][] alphaChangeOld = new double[numClasses][numColumns];
+		double[][] alphaMax = new double[numClasses][numColumns];
+		double[][] alphaMin = new double[numClasses][numColumns];
+		for (int i = 0; i < numClasses; i++) {
+			java.util.Arrays.fill (alphaMax[i], Double.POSITIVE_INFINITY);
+			java.util.Arrays.fill (alphaMin[i], Double.NEGATIVE_INFINITY);
+		}
+		ColumnPass derivatives = new ColumnPass () {
+			void accumulate (int i, double[][] dalphas, double[][] ddalphas) {
+				int[] row = rows[i];
+				for (int k = 0; k < row.length; k++) {
+					int fli = row[k];
+					for (int li = 0; li < numClasses; li++) {
+						double modelLabelWeight = classifications[i].value(li);
+						double numerator = modelLabelWeight * Math.exp (alphas[li][fli]);
+						double denominator = numerator + (1.0 - modelLabelWeight);
+						dalphas[li][fli] -= numerator / denominator;
+						ddalphas[li][fli] += ((numerator*numerator) / (denominator*denominator)
+																	- (numerator/denominator));
+					}
+				}
+			}
+		};
+		double maxDalpha = 99;
+		int maxNewtonSteps = 50;
+		for (int newton = 0; maxDalpha > 1.0E-8 && newton < maxNewtonSteps; newton++) {
+			for (int i = 0; i < numClasses; i++)
+				for (int j = 0; j < numColumns; j++) {
+					dalphas[i][j] = p[i][j] - (alphas[i][j] / gaussianPriorVariance);
+					ddalphas[i][j] = -1 / gaussianPriorVariance;
+				}
+			derivatives.run (numInstances, numThreads, dalphas, ddalphas);
+			maxDalpha = newtonStep (newton, p, q, alphas, dalphas, ddalphas, alphaChangeOld, alphaMin, alphaMax);
+		}
+		derivatives = null;
+		ddalphas = dalphas = alphaChangeOld = alphaMin = alphaMax = null;
+
+		double[][] qeag = new double[numClasses][numColumns];
+		new ColumnPass () {
+			void accumulate (int i, double[][] qeag, double[][] unused) {
+				int[] row = rows[i];
+				for (int li = 0; li < numClasses; li++) {
+					double modelLabelWeight = classifications[i].value(li);
+					for (int k = 0; k < row.length; k++)
+						qeag[li][row[k]] += Math.log (modelLabelWeight * Math.exp (alphas[li][row[k]]) + (1-modelLabelWeight));
+				}
+			}
+		}.run (numInstances, numThreads, qeag, null);
+		return klGains (p, qeag, alphas, gaussianPriorVariance);
 	}
 
 	public ExpGain (InstanceList ilist, LabelVector[] classifications, double gaussianPriorVariance)
@@ -323,7 +473,7 @@ public class ExpGain extends RankedFeatureVector
 	}
 
 
-	public static class Factory implements RankedFeatureVector.Factory
+	public static class Factory implements RankedFeatureVector.ColumnFactory
 	{
 		LabelVector[] classifications;
 		double gaussianPriorVariance = 10.0;
@@ -346,6 +496,12 @@ public class ExpGain extends RankedFeatureVector
 			return new ExpGain (ilist, classifications, gaussianPriorVariance);
 		}
 
+		public double[] columnValues (InstanceList ilist, int[][] rows, int numColumns, int numThreads)
+		{
+			assert (ilist.getTargetAlphabet() == classifications[0].getAlphabet());
+			return calcExpGains (ilist, classifications, gaussianPriorVariance, rows, numColumns, numThreads);
+		}
+
 		// Serialization
 		private static final long serialVersionUID = 1;
 		private static final int CURRENT_SERIAL_VERSION = 0;
@@ -58,14 +58,32 @@ public class FeatureCounts extends RankedFeatureVector
 		super (vocab, counts);
 	}
 
+	public FeatureCounts (FeatureStatistics stats)
+	{
+		super (stats.getDataAlphabet(),
+					 (double[]) (countInstances ? stats.getFeatureCounts() : stats.getFeatureValues()).clone());
+	}
+
 	public static class Factory implements RankedFeatureVector.Factory
 	{
+		int numThreads = 0;
+
 		public Factory ()
 		{
 		}
+
+		/** Counts with a {@link FeatureStatistics} on <tt>numThreads</tt> threads. */
+		public Factory (int numThreads)
+		{
+			if (numThreads < 1)
+				throw new IllegalArgumentException ("numThreads must be positive, was "+numThreads);
+			this.numThreads = numThreads;
+		}
 		
 		public RankedFeatureVector newRankedFeatureVector (InstanceList ilist)
 		{
+			if (numThreads > 0)
+				return new FeatureCounts (new FeatureStatistics (ilist, numThreads));
 			return new FeatureCounts (ilist);
 		}
 	}
@@ -15,6 +15,7 @@
 package org.zndx.oss.mallet.base.types;
 
 import org.zndx.oss.mallet.base.util.MalletLogger;
+import org.zndx.oss.mallet.base.util.ParallelUtils;
 import java.util.logging.*;
 import java.util.BitSet;
 import java.io.*;
@@ -26,6 +27,8 @@ public class FeatureInducer implements Serializable
 	private static Logger logger = MalletLogger.getLogger(FeatureInducer.class.getName());
 	static boolean addMaskedFeatures = false;
 	static int minTrainingListSize = 20;
+	// The most candidate conjunctions ranked at once when inducing with a ColumnFactory
+	static int candidateBlockSize = 1 << 14;
 
 	// Only one of the following two will be non-null
 	RankedFeatureVector.Factory ranker;
@@ -50,6 +53,42 @@ public class FeatureInducer implements Serializable
 			logger.info ("FeatureInducer not inducing from less than "+minTrainingListSize+" features.");
 			return;
 		}
+		induceWithAlphabet (ranker, ilist, numNewFeatures);
+	}
+
+	/**
+	 * As the constructor above, but if <tt>ranker</tt> is a
+	 * {@link RankedFeatureVector.ColumnFactory} the candidate conjunctions are
+	 * ranked without being added to a copy of the data Alphabet.  A candidate
+	 * conjoins the features at ranks <tt>a &lt; b</tt> of the
+	 * <tt>max(beam1,beam2)</tt> best, with <tt>a</tt> among the
+	 * <tt>min(beam1,beam2)</tt> best, and is known only by the int
+	 * <tt>a*width+b</tt> until it is chosen.  The candidates are ranked in
+	 * blocks of at most {@link #candidateBlockSize}, so that the gain sums for
+	 * only one block are held at a time; the sums over the instances are
+	 * split across <tt>numThreads</tt> threads.
+	 */
+	public FeatureInducer (RankedFeatureVector.Factory ranker,
+												 InstanceList ilist,
+												 int numNewFeatures, int beam1, int beam2, int numThreads)
+	{
+		if (numThreads < 1)
+			throw new IllegalArgumentException ("numThreads must be positive, was "+numThreads);
+		this.fcl = new FeatureConjunction.List ();
+		this.beam1 = beam1;
+		this.beam2 = beam2;
+		if (ilist.size() < minTrainingListSize) {
+			logger.info ("FeatureInducer not inducing from less than "+minTrainingListSize+" features.");
+			return;
+		}
+		if (ranker instanceof RankedFeatureVector.ColumnFactory)
+			induceWithColumns ((RankedFeatureVector.ColumnFactory) ranker, ilist, numNewFeatures, numThreads);
+		else
+			induceWithAlphabet (ranker, ilist, numNewFeatures);
+	}
+
+	private void induceWithAlphabet (RankedFeatureVector.Factory ranker, InstanceList ilist, int numNewFeatures)
+	{
 		Alphabet tmpDV = (Alphabet) ilist.getDataAlphabet().clone();
 		FeatureSelection featuresSelected = ilist.getFeatureSelection();
 		InstanceList tmpilist = new InstanceList (tmpDV, ilist.getTargetAlphabet());
@@ -166,6 +205,178 @@ public class FeatureInducer implements Serializable
 		logger.info ("Finished adding features");
 	}
 
+	private void induceWithColumns (RankedFeatureVector.ColumnFactory ranker, InstanceList ilist,
+																	int numNewFeatures, int numThreads)
+	{
+		FeatureSelection featuresSelected = ilist.getFeatureSelection();
+		Alphabet origV = ilist.getDataAlphabet();
+		int origVSize = origV.size();
+		// The features present in each instance, as the columns of the original features
+		int[][] featureRows = new int[ilist.size()][];
+		for (int i = 0; i < ilist.size(); i++) {
+			FeatureVector fv = (FeatureVector) ilist.getInstance(i).getData ();
+			int[] row = new int[fv.numLocations()];
+			for (int fl = 0; fl < row.length; fl++)
+				row[fl] = fv.indexAtLocation (fl);
+			featureRows[i] = sortedUnique (row, row.length);
+		}
+		double[] featureGains = ranker.columnValues (ilist, featureRows, origVSize, numThreads);
+		RankedFeatureVector gg = new RankedFeatureVector (origV, featureGains);
+		logger.info ("Rank values before this round of conjunction-building");
+		int n = Math.min (200, gg.numLocations());
+		for (int i = 0; i < n; i++)
+			logger.info ("Rank="+i+' '+Double.toString(gg.getValueAtRank(i)) + ' ' + gg.getObjectAtRank(i).toString());
+		int minBeam = Math.min (beam1, beam2);
+		int maxBeam = Math.max (beam1, beam2);
+		logger.info ("Using minBeam="+minBeam+" maxBeam="+maxBeam);
+		// The features that may be conjoined, best first, and the rank of each feature among them
+		int max = maxBeam < gg.numLocations() ? maxBeam : gg.numLocations();
+		int width = 0;
+		int[] rankOf = new int[origVSize];
+		java.util.Arrays.fill (rankOf, -1);
+		int[] ranked = new int[max];
+		while (width < max && gg.getValueAtRank(width) != 0) {
+			ranked[width] = gg.getIndexAtRank(width);
+			rankOf[ranked[width]] = width;
+			width++;
+		}
+		int numNarrow = Math.min (minBeam, width);
+		if ((long) numNarrow * width > Integer.MAX_VALUE)
+			throw new IllegalArgumentException ("Too many candidate conjunctions for int ids: beams "+minBeam+" and "+maxBeam);
+		double minGain = 0;
+
+		// The ranks of the conjoinable features present in each instance, in increasing order
+		int[][] rankRows = new int[featureRows.length][];
+		for (int i = 0; i < featureRows.length; i++) {
+			int[] row = featureRows[i];
+			int[] ranks = new int[row.length];
+			int size = 0;
+			for (int k = 0; k < row.length; k++)
+				if (rankOf[row[k]] >= 0)
+					ranks[size++] = rankOf[row[k]];
+			rankRows[i] = sortedUnique (ranks, size);
+		}
+
+		// Rank the candidates a block of narrow ranks at a time, keeping the ids and
+		// gains of those that could be chosen
+		gnu.trove.TIntArrayList candidateIds = new gnu.trove.TIntArrayList ();
+		gnu.trove.TDoubleArrayList candidateGains = new gnu.trove.TDoubleArrayList ();
+		int ranksPerBlock = Math.max (1, candidateBlockSize / Math.max (1, width));
+		for (int a0 = 0; a0 < numNarrow; a0 += ranksPerBlock) {
+			int a1 = Math.min (numNarrow, a0 + ranksPerBlock);
+			int[][] blockRows = candidateRows (rankRows, a0, a1, width, numThreads);
+			double[] gains = ranker.columnValues (ilist, blockRows, (a1 - a0) * width, numThreads);
+			for (int c = 0; c < gains.length; c++)
+				if (gains[c] > minGain) {
+					candidateIds.add (a0 * width + c);
+					candidateGains.add (gains[c]);
+				}
+			logger.info ("Ranked conjunctions of features ranked "+a0+" to "+(a1-1)+" with the "+width+" best, "
+									 +candidateIds.size()+" candidates kept");
+		}
+		RankedFeatureVector gg2 = new RankedFeatureVector (null, candidateGains.toNativeArray());
+		candidateGains = null;
+
+		// Walk the original features and the candidates together, in decreasing order of gain
+		java.util.HashSet addedNames = new java.util.HashSet ();
+		int numFeaturesAdded = 0;
+		int fr = 0, cr = 0;
+		double previousGain = Double.NaN;
+		while (numFeaturesAdded < numNewFeatures) {
+			boolean candidateNext = cr < gg2.numLocations()
+				&& (fr >= gg.numLocations() || gg2.getValueAtRank(cr) > gg.getValueAtRank(fr));
+			if (!candidateNext && fr >= gg.numLocations())
+				break;
+			double gain = candidateNext ? gg2.getValueAtRank(cr) : gg.getValueAtRank(fr);
+			if (gain < minGain) {
+				logger.info ("Stopping feature induction: gain="+gain+", minGain="+minGain);
+				break;
+			}
+			// Don't add features with exactly the same gain value: they are probably an
+			// "exactly overlapping duplicate"
+			boolean duplicateGain = (gain == previousGain);
+			previousGain = gain;
+			if (candidateNext) {
+				int id = candidateIds.get (gg2.getIndexAtRank(cr++));
+				int f1 = ranked[id / width], f2 = ranked[id % width];
+				String s = FeatureConjunction.getName (origV, f1, f2);
+				// Conjunctions of overlapping conjunctions may name a feature we already have
+				if (duplicateGain || origV.lookupIndex (s, false) != -1 || addedNames.contains (s))
+					continue;
+				int[] featureIndices = FeatureConjunction.getFeatureIndices(origV, s);
+				if (!FeatureConjunction.isValidConjunction (featureIndices))
+					continue;
+				// Don't add new conjunctions that have no more gain than any of their constituents
+				boolean gainsOverConstituents = true;
+				for (int j = 0; j < featureIndices.length; j++)
+					if (featureGains[featureIndices[j]] >= gain)
+						gainsOverConstituents = false;
+				if (!gainsOverConstituents)
+					continue;
+				fcl.add (new FeatureConjunction (origV, featureIndices));
+				addedNames.add (s);
+				logger.info ("Added feature c "+numFeaturesAdded+" "+gain+ ' ' + s);
+				numFeaturesAdded++;
+			} else {
+				int index = gg.getIndexAtRank (fr++);
+				if (featuresSelected != null && !featuresSelected.contains (index) && !duplicateGain) {
+					// A new atomic feature added to the FeatureSelection
+					fcl.add (new FeatureConjunction (origV, new int[] {index}));
+					logger.info ("Added feature a "+numFeaturesAdded+" "+gain+ ' ' + origV.lookupObject(index));
+					numFeaturesAdded++;
+				}
+			}
+		}
+		logger.info ("Finished adding features, numFeaturesAdded="+numFeaturesAdded);
+	}
+
+	// For each instance, the columns (a-a0)*width+b of the candidates conjoining the
+	// features at ranks a and b of those present, with a0 <= a < a1 and a < b
+	private static int[][] candidateRows (final int[][] rankRows, final int a0, final int a1,
+																				final int width, int numThreads)
+	{
+		final int[][] rows = new int[rankRows.length][];
+		final int[] bounds = ParallelUtils.shardBoundaries (rankRows.length, numThreads);
+		Runnable[] tasks = new Runnable[numThreads];
+		for (int shard = 0; shard < numThreads; shard++) {
+			final int thisShard = shard;
+			tasks[shard] = new Runnable () {
+				public void run () {
+					for (int i = bounds[thisShard]; i < bounds[thisShard+1]; i++) {
+						int[] ranks = rankRows[i];
+						int size = 0;
+						for (int k = 0; k < ranks.length && ranks[k] < a1; k++)
+							if (ranks[k] >= a0)
+								size += ranks.length - k - 1;
+						int[] row = new int[size];
+						size = 0;
+						for (int k = 0; k < ranks.length && ranks[k] < a1; k++)
+							if (ranks[k] >= a0)
+								for (int l = k+1; l < ranks.length; l++)
+									row[size++] = (ranks[k] - a0) * width + ranks[l];
+						rows[i] = row;
+					}
+				}
+			};
+		}
+		ParallelUtils.runAll (tasks, numThreads);
+		return rows;
+	}
+
+	private static int[] sortedUnique (int[] a, int length)
+	{
+		java.util.Arrays.sort (a, 0, length);
+		int size = 0;
+		for (int i = 0; i < length; i++)
+			if (size == 0 || a[size-1] != a[i])
+				a[size++] = a[i];
+		if (size == a.length)
+			return a;
+		int[] ret = new int[size];
+		System.arraycopy (a, 0, ret, 0, size);
+		return ret;
+	}
+
 	public FeatureInducer (RankedFeatureVector.Factory ranker,
 												 InstanceList ilist,
 												 int numNewFeatures)
@@ -0,0 +1,252 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+
+
+
+/**
+	 A compiled, read-mostly layout for a family of weight vectors that
+	 are all dotted with the same input FeatureVector, such as the
+	 per-transition weights of a CRF or the per-assignment weights of an
+	 ACRF clique template.
+
+	 The weights are stored in a single contiguous array with one row per
+	 input feature and one column per weight set, so that scoring an
+	 input is a sequential scan over the rows of its features that
+	 produces the dot products for all weight sets at once, instead of
+	 one binary search per (feature, weight set) pair.  Rows are ordered
+	 by decreasing feature frequency, so that the rows of common features
+	 share cache lines.
+
+	 Only (feature, weight set) pairs present in the original
+	 SparseVectors are remembered as present; toSparseVectors() and
+	 copyInto() convert back to the SparseVector form used for training
+	 and serialization.
+ */
+
+package org.zndx.oss.mallet.base.types;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.io.*;
+
+public class FeatureMajorWeights implements Serializable
+{
+	int numWeightSets;
+	int[] feature2row;										// -1 if the feature has no weights in any set
+	int[] row2feature;
+	double[] values;											// values[row*numWeightSets + weightSet]
+	BitSet present;												// bit (row*numWeightSets + weightSet)
+
+	/** Compile the weights.
+	 * @param weights The weight vectors, one per weight set.  They may be sparse or dense.
+	 * @param featureCounts Number of occurrences of each input feature, used to order
+	 *   the rows, e.g. from <tt>countFeatures</tt>.  If null, features are ordered by the
+	 *   number of weight sets in which they have a weight. */
+	public FeatureMajorWeights (SparseVector[] weights, int[] featureCounts)
+	{
+		this.numWeightSets = weights.length;
+		int numFeatures = 0;
+		for (int w = 0; w < weights.length; w++)
+			for (int loc = weights[w].numLocations()-1; loc >= 0; loc--)
+				numFeatures = Math.max (numFeatures, weights[w].indexAtLocation(loc) + 1);
+		if (featureCounts != null)
+			numFeatures = Math.max (numFeatures, featureCounts.length);
+
+		// Find the features that have any weights, and how many
+		int[] setsPerFeature = new int[numFeatures];
+		int numRows = 0;
+		for (int w = 0; w < weights.length; w++)
+			for (int loc = weights[w].numLocations()-1; loc >= 0; loc--)
+				if (setsPerFeature[weights[w].indexAtLocation(loc)]++ == 0)
+					numRows++;
+		// The rows are laid out in one array, indexed by an int
+		if ((long) numRows * numWeightSets > Integer.MAX_VALUE)
+			throw new IllegalArgumentException ("Too many weights to compile: "+numRows+" features times "
+																					+numWeightSets+" weight sets is more than "+Integer.MAX_VALUE);
+
+		// Order the rows by decreasing frequency, breaking ties by feature index
+		final long[] keys = new long[numRows];
+		int r = 0;
+		for (int fi = 0; fi < numFeatures; fi++) {
+			if (setsPerFeature[fi] == 0)
+				continue;
+			long count = (featureCounts == null || fi >= featureCounts.length)
+									 ? setsPerFeature[fi] : featureCounts[fi];
+			keys[r++] = ((Integer.MAX_VALUE - Math.min (count, Integer.MAX_VALUE)) << 32) | fi;
+		}
+		Arrays.sort (keys);
+		this.feature2row = new int[numFeatures];
+		Arrays.fill (feature2row, -1);
+		this.row2feature = new int[numRows];
+		for (r = 0; r < numRows; r++) {
+			int fi = (int) (keys[r] & 0xFFFFFFFFL);
+			row2feature[r] = fi;
+			feature2row[fi] = r;
+		}
+
+		this.values = new double[numRows * numWeightSets];
+		this.present = new BitSet (numRows * numWeightSets);
+		for (int w = 0; w < weights.length; w++) {
+			SparseVector wv = weights[w];
+			for (int loc = wv.numLocations()-1; loc >= 0; loc--) {
+				int slot = feature2row[wv.indexAtLocation(loc)] * numWeightSets + w;
+				values[slot] = wv.valueAtLocation (loc);
+				present.set (slot);
+			}
+		}
+	}
+
+	public FeatureMajorWeights (SparseVector[] weights)
+	{
+		this (weights, null);
+	}
+
+	public int numWeightSets () { return numWeightSets; }
+
+	/** Number of input features that have a weight in at least one weight set. */
+	public int numRows () { return row2feature.length; }
+
+	public double value (int weightSet, int featureIndex)
+	{
+		if (featureIndex >= feature2row.length || feature2row[featureIndex] < 0)
+			return 0;
+		return values[feature2row[featureIndex] * numWeightSets + weightSet];
+	}
+
+	/** Sets the weight of a (weight set, feature) pair that was present at compilation time. */
+	public void setValue (int weightSet, int featureIndex, double value)
+	{
+		int row = (featureIndex < feature2row.length) ? feature2row[featureIndex] : -1;
+		if (row < 0 || !present.get (row * numWeightSets + weightSet))
+			throw new IllegalArgumentException ("No weight for feature "+featureIndex+" in weight set "+weightSet);
+		values[row * numWeightSets + weightSet] = value;
+	}
+
+	/** Puts the dot product of <tt>fv</tt> with every weight set into <tt>scores</tt>,
+	 *  which must have length at least numWeightSets(). */
+	public void dotProducts (SparseVector fv, double[] scores)
+	{
+		Arrays.fill (scores, 0, numWeightSets, 0.0);
+		int numLocations = fv.numLocations ();
+		for (int loc = 0; loc < numLocations; loc++) {
+			int fi = fv.indexAtLocation (loc);
+			if (fi >= feature2row.length)
+				continue;
+			int row = feature2row[fi];
+			if (row < 0)
+				continue;
+			double v = fv.valueAtLocation (loc);
+			// Avoid 0 * Inf = NaN, as SparseVector.extendedDotProduct() does
+			if (v == 0)
+				continue;
+			int base = row * numWeightSets;
+			for (int w = 0; w < numWeightSets; w++)
+				scores[w] += v * values[base + w];
+		}
+	}
+
+	public double[] dotProducts (SparseVector fv)
+	{
+		double[] scores = new double[numWeightSets];
+		dotProducts (fv, scores);
+		return scores;
+	}
+
+	/** Returns new weight vectors, one per weight set, containing exactly the
+	 *  (feature, weight set) pairs that were present at compilation time. */
+	public SparseVector[] toSparseVectors ()
+	{
+		SparseVector[] ret = new SparseVector[numWeightSets];
+		for (int w = 0; w < numWeightSets; w++) {
+			int n = 0;
+			for (int fi = 0; fi < feature2row.length; fi++)
+				if (feature2row[fi] >= 0 && present.get (feature2row[fi] * numWeightSets + w))
+					n++;
+			int[] indices = new int[n];
+			double[] vals = new double[n];
+			int i = 0;
+			for (int fi = 0; fi < feature2row.length; fi++) {
+				int slot = feature2row[fi] * numWeightSets + w;
+				if (feature2row[fi] >= 0 && present.get (slot)) {
+					indices[i] = fi;
+					vals[i] = values[slot];
+					i++;
+				}
+			}
+			ret[w] = new IndexedSparseVector (indices, vals, n, n, false, false, false);
+		}
+		return ret;
+	}
+
+	/** Writes the compiled values back into existing weight vectors, keeping
+	 *  their classes and sparsity structure.  The vectors must have the same
+	 *  structure as the ones this object was compiled from. */
+	public void copyInto (SparseVector[] weights)
+	{
+		if (weights.length != numWeightSets)
+			throw new IllegalArgumentException ("Expected "+numWeightSets+" weight sets, got "+weights.length);
+		for (int w = 0; w < weights.length; w++) {
+			SparseVector wv = weights[w];
+			for (int loc = wv.numLocations()-1; loc >= 0; loc--)
+				wv.setValueAtLocation (loc, value (w, wv.indexAtLocation (loc)));
+		}
+	}
+
+	/** Returns the number of FeatureVectors in which each feature occurs, over instances
+	 *  whose data is a FeatureVector or a FeatureVectorSequence. */
+	public static int[] countFeatures (InstanceList ilist)
+	{
+		int[] counts = new int[ilist.getDataAlphabet().size()];
+		for (int i = 0; i < ilist.size(); i++) {
+			Object data = ilist.getInstance(i).getData();
+			if (data instanceof FeatureVectorSequence) {
+				FeatureVectorSequence fvs = (FeatureVectorSequence) data;
+				for (int t = 0; t < fvs.size(); t++)
+					countFeatures (fvs.getFeatureVector (t), counts);
+			} else if (data instanceof FeatureVector) {
+				countFeatures ((FeatureVector) data, counts);
+			} else
+				throw new IllegalArgumentException ("Currently only handles FeatureVector and FeatureVectorSequence data");
+		}
+		return counts;
+	}
+
+	private static void countFeatures (FeatureVector fv, int[] counts)
+	{
+		for (int loc = 0; loc < fv.numLocations(); loc++) {
+			int fi = fv.indexAtLocation (loc);
+			if (fi < counts.length)
+				counts[fi]++;
+		}
+	}
+
+	// Serialization
+
+	private static final long serialVersionUID = 1;
+	private static final int CURRENT_SERIAL_VERSION = 0;
+
+	private void writeObject (ObjectOutputStream out) throws IOException
+	{
+		out.writeInt (CURRENT_SERIAL_VERSION);
+		out.writeInt (numWeightSets);
+		out.writeObject (feature2row);
+		out.writeObject (row2feature);
+		out.writeObject (values);
+		out.writeObject (present);
+	}
+
+	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		int version = in.readInt ();
+		numWeightSets = in.readInt ();
+		feature2row = (int[]) in.readObject ();
+		row2feature = (int[]) in.readObject ();
+		values = (double[]) in.readObject ();
+		present = (BitSet) in.readObject ();
+	}
+}
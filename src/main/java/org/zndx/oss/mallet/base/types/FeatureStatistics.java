@@ -0,0 +1,401 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+
+
+
+/**
+	 Counts of the features and labels of an InstanceList of
+	 FeatureVectors, gathered in one pass, from which {@link InfoGain},
+	 {@link PerLabelInfoGain}, {@link FeatureCounts} and {@link
+	 PerLabelFeatureCounts} can all be computed without passing over the
+	 instances again.
+
+	 The counting is done on several threads, each counting a range of
+	 features.  Beforehand, the locations of the instances are sorted by
+	 the range of their feature, on several threads each reading a range
+	 of instances, so that each thread reads only its own features'
+	 locations; this costs two ints per non-zero entry while counting.
+	 The locations stay in instance order within each range, so each
+	 count is summed in instance order, and is the same for any number of
+	 threads.  The
+	 counts of each feature with each label are kept only for the labels
+	 that occur with the feature.  While counting, a thread uses a dense
+	 table of labels by its features if it is small enough, and otherwise
+	 hashes the (feature, label) pairs, which costs memory only for the
+	 pairs that occur, as in a vocabulary of mostly rare features.
+ */
+
+package org.zndx.oss.mallet.base.types;
+
+import org.zndx.oss.mallet.base.util.ParallelUtils;
+import gnu.trove.TDoubleArrayList;
+import gnu.trove.TLongIntHashMap;
+import java.util.Arrays;
+
+public class FeatureStatistics
+{
+	// The most cells in a dense table of labels by features counted by one thread
+	static int maxDenseCells = 1 << 20;
+
+	Alphabet dataAlphabet;
+	LabelAlphabet targetAlphabet;
+	int numFeatures, numClasses, numInstances;
+	// By feature, over the instances of non-zero weight
+	double[] featureCounts;								// number of locations of the feature
+	double[] featureValues;								// sum of the feature's values
+	// By label
+	double[] targetCounts;								// label weight times instance weight
+	double targetCountSum;
+	int[] bestLabelCounts;								// number of instances of which it is the best label
+	// The labels occurring with feature fi are labels[starts[fi]] up to labels[starts[fi+1]-1],
+	// in increasing order, and each of the following is parallel to labels
+	int[] starts;
+	int[] labels;
+	double[] labelWeights;								// label weight times instance weight, where the feature's value is positive
+	double[] bestLabelOccurrences;				// locations of the feature in instances of which it is the best label
+	double[] bestLabelValues;							// sum of those locations' values
+
+	public FeatureStatistics (InstanceList ilist, int numThreads)
+	{
+		this.dataAlphabet = ilist.getDataAlphabet();
+		this.targetAlphabet = (LabelAlphabet) ilist.getTargetAlphabet();
+		this.numFeatures = dataAlphabet.size();
+		this.numClasses = targetAlphabet.size();
+		this.numInstances = ilist.size();
+		for (int i = 0; i < ilist.size(); i++)
+			if (!(ilist.getInstance(i).getData() instanceof FeatureVector))
+				throw new IllegalArgumentException ("Currently only handles FeatureVector data");
+		featureCounts = new double[numFeatures];
+		featureValues = new double[numFeatures];
+		targetCounts = new double[numClasses];
+		bestLabelCounts = new int[numClasses];
+		for (int i = 0; i < ilist.size(); i++) {
+			Labeling labeling = ilist.getInstance(i).getLabeling ();
+			double instanceWeight = ilist.getInstanceWeight(i);
+			for (int ll = 0; ll < labeling.numLocations(); ll++) {
+				double count = labeling.valueAtLocation (ll) * instanceWeight;
+				targetCounts[labeling.indexAtLocation (ll)] += count;
+				targetCountSum += count;
+			}
+			bestLabelCounts[labeling.getBestIndex()]++;
+		}
+
+		int numShards = Math.max (1, Math.min (numThreads, numFeatures));
+		final int[] bounds = ParallelUtils.shardBoundaries (numFeatures, numShards);
+		final Range[] ranges = new Range[numShards];
+		final InstanceList instances = ilist;
+		final Entries[] entries = numShards > 1 ? sortEntries (ilist, bounds, numThreads) : null;
+		Runnable[] tasks = new Runnable[numShards];
+		for (int s = 0; s < numShards; s++) {
+			final int shard = s;
+			tasks[s] = new Runnable () {
+				public void run () {
+					ranges[shard] = countRange (instances, bounds[shard], bounds[shard+1],
+																			entries == null ? null : entries[shard]);
+					if (entries != null)
+						entries[shard] = null;
+				}
+			};
+		}
+		ParallelUtils.runAll (tasks, numThreads);
+
+		// Join the ranges' label lists
+		int size = 0;
+		for (int s = 0; s < numShards; s++)
+			size += ranges[s].labels.length;
+		starts = new int[numFeatures+1];
+		labels = new int[size];
+		labelWeights = new double[size];
+		bestLabelOccurrences = new double[size];
+		bestLabelValues = new double[size];
+		int offset = 0;
+		for (int s = 0; s < numShards; s++) {
+			Range r = ranges[s];
+			for (int k = 0; k < r.starts.length - 1; k++)
+				starts[bounds[s] + k] = offset + r.starts[k];
+			int n = r.labels.length;
+			System.arraycopy (r.labels, 0, labels, offset, n);
+			System.arraycopy (r.labelWeights, 0, labelWeights, offset, n);
+			System.arraycopy (r.bestLabelOccurrences, 0, bestLabelOccurrences, offset, n);
+			System.arraycopy (r.bestLabelValues, 0, bestLabelValues, offset, n);
+			offset += n;
+			ranges[s] = null;
+		}
+		starts[numFeatures] = offset;
+	}
+
+	public FeatureStatistics (InstanceList ilist)
+	{
+		this (ilist, 1);
+	}
+
+	// The label lists of the features in one range, with starts relative to the range
+	private static class Range
+	{
+		int[] starts;
+		int[] labels;
+		double[] labelWeights, bestLabelOccurrences, bestLabelValues;
+	}
+
+	// Sums of the three per-label counts of a range of features, either in a dense
+	// table of labels by features or in slots hashed by (feature, label)
+	private static class Table
+	{
+		int width, numClasses;
+		double[][][] dense;									// [count][label][feature-first]
+		TLongIntHashMap slots;							// (feature-first)*numClasses+label to slot+1
+		TDoubleArrayList[] slotValues;
+
+		Table (int width, int numClasses)
+		{
+			this.width = width;
+			this.numClasses = numClasses;
+			if ((long) width * numClasses <= maxDenseCells)
+				dense = new double[3][numClasses][width];
+			else {
+				slots = new TLongIntHashMap ();
+				slotValues = new TDoubleArrayList[] {
+					new TDoubleArrayList (), new TDoubleArrayList (), new TDoubleArrayList () };
+			}
+		}
+
+		void add (int k, int li, double labelWeight, double occurrences, double value)
+		{
+			if (dense != null) {
+				dense[0][li][k] += labelWeight;
+				dense[1][li][k] += occurrences;
+				dense[2][li][k] += value;
+				return;
+			}
+			long key = (long) k * numClasses + li;
+			int slot = slots.get (key) - 1;
+			if (slot < 0) {
+				slot = slotValues[0].size();
+				slots.put (key, slot+1);
+				slotValues[0].add (labelWeight);
+				slotValues[1].add (occurrences);
+				slotValues[2].add (value);
+				return;
+			}
+			slotValues[0].set (slot, slotValues[0].get (slot) + labelWeight);
+			slotValues[1].set (slot, slotValues[1].get (slot) + occurrences);
+			slotValues[2].set (slot, slotValues[2].get (slot) + value);
+		}
+
+		Range toRange ()
+		{
+			Range r = new Range ();
+			r.starts = new int[width+1];
+			if (dense != null) {
+				int size = 0;
+				for (int k = 0; k < width; k++)
+					for (int li = 0; li < numClasses; li++)
+						if (dense[0][li][k] != 0 || dense[1][li][k] != 0)
+							size++;
+				allocate (r, size);
+				size = 0;
+				for (int k = 0; k < width; k++) {
+					r.starts[k] = size;
+					for (int li = 0; li < numClasses; li++)
+						if (dense[0][li][k] != 0 || dense[1][li][k] != 0) {
+							r.labels[size] = li;
+							r.labelWeights[size] = dense[0][li][k];
+							r.bestLabelOccurrences[size] = dense[1][li][k];
+							r.bestLabelValues[size] = dense[2][li][k];
+							size++;
+						}
+				}
+				r.starts[width] = size;
+			} else {
+				long[] keys = slots.keys ();
+				Arrays.sort (keys);
+				allocate (r, keys.length);
+				int k = 0;
+				for (int n = 0; n < keys.length; n++) {
+					int feature = (int) (keys[n] / numClasses);
+					while (k <= feature)
+						r.starts[k++] = n;
+					int slot = slots.get (keys[n]) - 1;
+					r.labels[n] = (int) (keys[n] % numClasses);
+					r.labelWeights[n] = slotValues[0].get (slot);
+					r.bestLabelOccurrences[n] = slotValues[1].get (slot);
+					r.bestLabelValues[n] = slotValues[2].get (slot);
+				}
+				while (k <= width)
+					r.starts[k++] = keys.length;
+			}
+			return r;
+		}
+	}
+
+	// The locations of the features of one range, by instance and location
+	// within the instance, in instance order
+	private static class Entries
+	{
+		int[] instances;
+		int[] locations;
+		int size;
+	}
+
+	/** Sorts the locations of all the instances by the range of their
+	 * feature, keeping them in instance order within each range, so that
+	 * counting a range only reads its own locations.  The instances are
+	 * read on several threads, each reading a range of instances. */
+	private Entries[] sortEntries (final InstanceList ilist, final int[] bounds, int numThreads)
+	{
+		final int numRanges = bounds.length - 1;
+		final int[] rangeOf = new int[numFeatures];
+		for (int r = 0; r < numRanges; r++)
+			for (int fi = bounds[r]; fi < bounds[r+1]; fi++)
+				rangeOf[fi] = r;
+		int numShards = Math.max (1, Math.min (numThreads, ilist.size()));
+		final int[] instanceBounds = ParallelUtils.shardBoundaries (ilist.size(), numShards);
+		// The number of locations of each range in each range of instances, then
+		// where each range of instances starts writing them
+		final int[][] offsets = new int[numShards][numRanges];
+		Runnable[] tasks = new Runnable[numShards];
+		for (int s = 0; s < numShards; s++) {
+			final int shard = s;
+			tasks[s] = new Runnable () {
+				public void run () {
+					int[] counts = offsets[shard];
+					for (int i = instanceBounds[shard]; i < instanceBounds[shard+1]; i++) {
+						FeatureVector fv = (FeatureVector) ilist.getInstance(i).getData ();
+						for (int fl = 0; fl < fv.numLocations(); fl++)
+							counts[rangeOf[fv.indexAtLocation(fl)]]++;
+					}
+				}
+			};
+		}
+		ParallelUtils.runAll (tasks, numThreads);
+		final Entries[] entries = new Entries[numRanges];
+		for (int r = 0; r < numRanges; r++) {
+			int size = 0;
+			for (int s = 0; s < numShards; s++) {
+				int count = offsets[s][r];
+				offsets[s][r] = size;
+				size += count;
+			}
+			entries[r] = new Entries ();
+			entries[r].instances = new int[size];
+			entries[r].locations = new int[size];
+			entries[r].size = size;
+		}
+		for (int s = 0; s < numShards; s++) {
+			final int shard = s;
+			tasks[s] = new Runnable () {
+				public void run () {
+					int[] next = offsets[shard];
+					for (int i = instanceBounds[shard]; i < instanceBounds[shard+1]; i++) {
+						FeatureVector fv = (FeatureVector) ilist.getInstance(i).getData ();
+						for (int fl = 0; fl < fv.numLocations(); fl++) {
+							int r = rangeOf[fv.indexAtLocation(fl)];
+							entries[r].instances[next[r]] = i;
+							entries[r].locations[next[r]] = fl;
+							next[r]++;
+						}
+					}
+				}
+			};
+		}
+		ParallelUtils.runAll (tasks, numThreads);
+		return entries;
+	}
+
+	/** Counts the features in [first, last), over either the given
+	 * locations or, if <tt>entries</tt> is null, every instance. */
+	private Range countRange (InstanceList ilist, int first, int last, Entries entries)
+	{
+		Table table = new Table (last - first, numClasses);
+		if (entries == null) {
+			for (int i = 0; i < ilist.size(); i++) {
+				Instance inst = ilist.getInstance(i);
+				FeatureVector fv = (FeatureVector) inst.getData ();
+				for (int fl = 0; fl < fv.numLocations(); fl++) {
+					int fi = fv.indexAtLocation(fl);
+					if (fi >= first && fi < last)
+						count (table, fi, first, fv.valueAtLocation(fl), inst.getLabeling (), ilist.getInstanceWeight(i));
+				}
+			}
+		} else {
+			int lastIndex = -1;
+			Instance inst = null;
+			FeatureVector fv = null;
+			Labeling labeling = null;
+			double instanceWeight = 0;
+			for (int e = 0; e < entries.size; e++) {
+				int i = entries.instances[e];
+				if (i != lastIndex) {
+					inst = ilist.getInstance(i);
+					fv = (FeatureVector) inst.getData ();
+					labeling = inst.getLabeling ();
+					instanceWeight = ilist.getInstanceWeight(i);
+					lastIndex = i;
+				}
+				int fl = entries.locations[e];
+				count (table, fv.indexAtLocation(fl), first, fv.valueAtLocation(fl), labeling, instanceWeight);
+			}
+		}
+		return table.toRange ();
+	}
+
+	private void count (Table table, int fi, int first, double v, Labeling labeling, double instanceWeight)
+	{
+		int k = fi - first;
+		int bestIndex = labeling.getBestIndex();
+		if (instanceWeight != 0) {
+			featureCounts[fi] += 1;
+			featureValues[fi] += v;
+		}
+		boolean bestAdded = false;
+		for (int ll = 0; ll < labeling.numLocations(); ll++) {
+			int li = labeling.indexAtLocation (ll);
+			double labelWeight = (v > 0) ? labeling.valueAtLocation (ll) * instanceWeight : 0;
+			if (li == bestIndex) {
+				table.add (k, li, labelWeight, 1, v);
+				bestAdded = true;
+			} else if (labelWeight != 0)
+				table.add (k, li, labelWeight, 0, 0);
+		}
+		if (!bestAdded)
+			table.add (k, bestIndex, 0, 1, v);
+	}
+
+	private static void allocate (Range r, int size)
+	{
+		r.labels = new int[size];
+		r.labelWeights = new double[size];
+		r.bestLabelOccurrences = new double[size];
+		r.bestLabelValues = new double[size];
+	}
+
+	public Alphabet getDataAlphabet () { return dataAlphabet; }
+	public LabelAlphabet getTargetAlphabet () { return targetAlphabet; }
+	public int getNumInstances () { return numInstances; }
+
+	/** Returns the number of locations of each feature in instances of non-zero weight. */
+	public double[] getFeatureCounts () { return featureCounts; }
+
+	/** Returns the sum of the values of each feature in instances of non-zero weight. */
+	public double[] getFeatureValues () { return featureValues; }
+
+	/** Returns the number of (feature, label) pairs for which counts are kept. */
+	public int numLabelCounts () { return labels.length; }
+
+	/** Returns a FeatureSelection of the features whose value sums
+	 * exceed <tt>minCount</tt>. */
+	public FeatureSelection selectByCount (double minCount)
+	{
+		java.util.BitSet bs = new java.util.BitSet (numFeatures);
+		for (int fi = 0; fi < numFeatures; fi++)
+			if (featureValues[fi] > minCount)
+				bs.set (fi);
+		return new FeatureSelection (dataAlphabet, bs);
+	}
+
+}
@@ -34,12 +34,19 @@ public class FeatureVectorSequence implements Sequence, Serializable
 																boolean growAlphabet)
 	{
 		this.sequence = new FeatureVector[tokens.size()];
-		if (augmentable)
-			for (int i = 0; i < tokens.size(); i++)
-				sequence[i] = new AugmentableFeatureVector (dict, tokens.getToken(i).getFeatures(), binary, growAlphabet);
-		else
-			for (int i = 0; i < tokens.size(); i++)
-				sequence[i] = new FeatureVector (dict, tokens.getToken(i).getFeatures(), binary, growAlphabet);
+		for (int i = 0; i < tokens.size(); i++) {
+			Token t = tokens.getToken(i);
+			if (t.numFeatureIds() > 0) {
+				// Features added by index are already in dict
+				AugmentableFeatureVector afv = new AugmentableFeatureVector (dict, t.getFeatures(), binary, growAlphabet);
+				for (int j = 0; j < t.numFeatureIds(); j++)
+					afv.add (t.getFeatureId(j), t.getFeatureIdValue(j));
+				sequence[i] = augmentable ? afv : afv.toFeatureVector();
+			} else if (augmentable)
+				sequence[i] = new AugmentableFeatureVector (dict, t.getFeatures(), binary, growAlphabet);
+			else
+				sequence[i] = new FeatureVector (dict, t.getFeatures(), binary, growAlphabet);
+		}
 	}
 
 	public FeatureVectorSequence (Alphabet dict,
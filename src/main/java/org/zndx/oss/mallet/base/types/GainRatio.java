@@ -15,10 +15,12 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Logger;
 
 import org.zndx.oss.mallet.base.util.MalletLogger;
 import org.zndx.oss.mallet.base.util.Maths;
+import org.zndx.oss.mallet.base.util.ParallelUtils;
 
 
 /**
@@ -71,33 +73,12 @@ public class GainRatio extends RankedFeatureVector
 		int numInsts = instIndices.length;
 		Alphabet dataDict = ilist.getDataAlphabet();
 		LabelAlphabet targetDict = (LabelAlphabet) ilist.getTargetAlphabet();
-		double[] targetCounts = new double[targetDict.size()];
-
-		// Accumulate target label counts and make sure
-		// the sum of each instance's target label is 1
-		for (int ii = 0; ii < numInsts; ii++) {
-			Instance inst = ilist.getInstance(instIndices[ii]);
-			Labeling labeling = inst.getLabeling();
-			double labelWeightSum = 0;
-			for (int ll = 0; ll < labeling.numLocations(); ll++) {
-				int li = labeling.indexAtLocation(ll);
-				double labelWeight = labeling.valueAtLocation(ll);
-				labelWeightSum += labelWeight;
-				targetCounts[li] += labelWeight;
-			}
-			assert(Maths.almostEquals(labelWeightSum, 1));
-		}
+		double[] targetCounts = calcTargetCounts(ilist, instIndices);
 
 		// Calculate the base entropy Info(D) and the the 
 		// label distribution of the given instances
 		double[] targetDistribution = new double[targetDict.size()];
-		double baseEntropy = 0;
-		for (int ci = 0; ci < targetDict.size(); ci++) {
-			double p = targetCounts[ci] / numInsts;
-			targetDistribution[ci] = p;
-			if (p > 0)
-				baseEntropy -= p * Math.log(p) / log2;
-		}
+		double baseEntropy = calcBaseEntropy(targetCounts, numInsts, targetDistribution);
 
 		LabelVector baseLabelDistribution = new LabelVector(targetDict, targetDistribution);
 		double infoGainSum = 0;
@@ -145,58 +126,113 @@ public class GainRatio extends RankedFeatureVector
 				// with value of feature <= p versus > p
 				totalNumSplitPoints++;
 				double splitPoint = (lower + higher) / 2;
-				double numPassInsts = ii+1;
-				
-				// If this split point creates a partition 
-				// with too few instances, ignore it
-				double numFailInsts = numInsts - numPassInsts;
-				if (numPassInsts < minNumInsts || numFailInsts < minNumInsts)
+				Point2D.Double info = calcSplitInfo(targetCounts, passTestTargetCounts, ii+1, numInsts,
+						baseEntropy, minNumInsts);
+				if (info == null)
 					continue;
-				
-				// If all instances pass or fail this test, it is useless
-				double passProportion = numPassInsts / numInsts;
-				if (Maths.almostEquals(passProportion, 0) || Maths.almostEquals(passProportion, 1))
-					continue;	  
-				
-				// Calculate the entropy of instances passing and failing the test
-				double passEntropy = 0;
-				double failEntropy = 0;
-				double p;
-				
-				for (int ci = 0; ci < targetDict.size(); ci++) {
-					if (numPassInsts > 0) {
-						p = passTestTargetCounts[ci] / numPassInsts;
-						if (p > 0)
-							passEntropy -= p * Math.log(p) / log2;
-					}
-					if (numFailInsts > 0) {
-						double failTestTargetCount = targetCounts[ci] - passTestTargetCounts[ci];
-						p = failTestTargetCount / numFailInsts;
-						if (p  > 0)
-							failEntropy -= p * Math.log(p) / log2;
-					}
-				}
-				
-				// Calculate Gain(D, T), the information gained 
-				// by testing on this (feature, split-point) pair
-				double gainDT = baseEntropy 
-				- passProportion * passEntropy
-				- (1-passProportion) * failEntropy;	      
-				infoGainSum += gainDT;
-				// Calculate Split(D, T), the split information
-				double splitDT = 
-					- passProportion * Math.log(passProportion) / log2
-					- (1-passProportion) * Math.log(1-passProportion) / log2;
-				// Calculate the gain ratio
-				double gainRatio = gainDT / splitDT;
-				featureToInfo[fi].put(new Double(splitPoint),
-						new Point2D.Double(gainDT, gainRatio));
+				infoGainSum += info.getX();
+				featureToInfo[fi].put(new Double(splitPoint), info);
 			}  // End loop through sorted instances
 		}  // End loop through features
 
-		// For each feature's split point with at least average gain, 
-		// get the maximum gain ratio and the associated split point
-		// (using the info gain as tie breaker)
+		return selectSplitPoints(dataDict, featureToInfo, infoGainSum, totalNumSplitPoints,
+				baseEntropy, baseLabelDistribution);
+	}
+
+	// Accumulate target label counts and make sure
+	// the sum of each instance's target label is 1
+	private static double[] calcTargetCounts(InstanceList ilist, int[] instIndices)
+	{
+		double[] targetCounts = new double[ilist.getTargetAlphabet().size()];
+		for (int ii = 0; ii < instIndices.length; ii++) {
+			Instance inst = ilist.getInstance(instIndices[ii]);
+			Labeling labeling = inst.getLabeling();
+			double labelWeightSum = 0;
+			for (int ll = 0; ll < labeling.numLocations(); ll++) {
+				int li = labeling.indexAtLocation(ll);
+				double labelWeight = labeling.valueAtLocation(ll);
+				labelWeightSum += labelWeight;
+				targetCounts[li] += labelWeight;
+			}
+			assert(Maths.almostEquals(labelWeightSum, 1));
+		}
+		return targetCounts;
+	}
+
+	private static double calcBaseEntropy(double[] targetCounts, int numInsts, double[] targetDistribution)
+	{
+		double baseEntropy = 0;
+		for (int ci = 0; ci < targetCounts.length; ci++) {
+			double p = targetCounts[ci] / numInsts;
+			targetDistribution[ci] = p;
+			if (p > 0)
+				baseEntropy -= p * Math.log(p) / log2;
+		}
+		return baseEntropy;
+	}
+
+	/**
+	 * Returns the (info gain, gain ratio) of splitting numInsts instances
+	 * into the numPassInsts, with label weights passTestTargetCounts, that
+	 * pass the test and the rest, or null if the split is useless or leaves
+	 * too few instances on either side.
+	 */
+	private static Point2D.Double calcSplitInfo(double[] targetCounts, double[] passTestTargetCounts,
+			double numPassInsts, int numInsts, double baseEntropy, int minNumInsts)
+	{
+		// If this split point creates a partition 
+		// with too few instances, ignore it
+		double numFailInsts = numInsts - numPassInsts;
+		if (numPassInsts < minNumInsts || numFailInsts < minNumInsts)
+			return null;
+		
+		// If all instances pass or fail this test, it is useless
+		double passProportion = numPassInsts / numInsts;
+		if (Maths.almostEquals(passProportion, 0) || Maths.almostEquals(passProportion, 1))
+			return null;
+		
+		// Calculate the entropy of instances passing and failing the test
+		double passEntropy = 0;
+		double failEntropy = 0;
+		double p;
+		
+		for (int ci = 0; ci < targetCounts.length; ci++) {
+			if (numPassInsts > 0) {
+				p = passTestTargetCounts[ci] / numPassInsts;
+				if (p > 0)
+					passEntropy -= p * Math.log(p) / log2;
+			}
+			if (numFailInsts > 0) {
+				double failTestTargetCount = targetCounts[ci] - passTestTargetCounts[ci];
+				p = failTestTargetCount / numFailInsts;
+				if (p  > 0)
+					failEntropy -= p * Math.log(p) / log2;
+			}
+		}
+		
+		// Calculate Gain(D, T), the information gained 
+		// by testing on this (feature, split-point) pair
+		double gainDT = baseEntropy 
+		- passProportion * passEntropy
+		- (1-passProportion) * failEntropy;	      
+		// Calculate Split(D, T), the split information
+		double splitDT = 
+			- passProportion * Math.log(passProportion) / log2
+			- (1-passProportion) * Math.log(1-passProportion) / log2;
+		// Calculate the gain ratio
+		double gainRatio = gainDT / splitDT;
+		return new Point2D.Double(gainDT, gainRatio);
+	}
+
+	/**
+	 * For each feature's split point with at least average gain, 
+	 * gets the maximum gain ratio and the associated split point
+	 * (using the info gain as tie breaker), and returns the array
+	 * described at calcGainRatios.
+	 */
+	private static Object[] selectSplitPoints(Alphabet dataDict, Hashtable[] featureToInfo,
+			double infoGainSum, int totalNumSplitPoints, double baseEntropy, LabelVector baseLabelDistribution)
+	{
 		double[] gainRatios = new double[dataDict.size()];
 		double[] splitPoints = new double[dataDict.size()];
 		int numSplitsForBestFeature = 0;
@@ -260,6 +296,244 @@ public class GainRatio extends RankedFeatureVector
 		return new Object[] {gainRatios, splitPoints, new Double(baseEntropy), 
 				baseLabelDistribution, new Integer(numSplitsForBestFeature)};
 	}
+
+	/**
+	 * Calculates the same array as calcGainRatios from feature columns
+	 * presorted for the whole InstanceList.  See createGainRatio.
+	 */
+	protected static Object[] calcGainRatios(final InstanceList ilist, final int[] instIndices, final int minNumInsts,
+			final int[][] columnInstances, final double[][] columnValues,
+			final int[] columnStarts, final int[] columnEnds, final String[] labelNames,
+			final ScanStamps stamps, ExecutorService executor, int numThreads)
+	{
+		final int numInsts = instIndices.length;
+		Alphabet dataDict = ilist.getDataAlphabet();
+		LabelAlphabet targetDict = (LabelAlphabet) ilist.getTargetAlphabet();
+		final double[] targetCounts = calcTargetCounts(ilist, instIndices);
+		double[] targetDistribution = new double[targetDict.size()];
+		final double baseEntropy = calcBaseEntropy(targetCounts, numInsts, targetDistribution);
+		LabelVector baseLabelDistribution = new LabelVector(targetDict, targetDistribution);
+
+		final int numFeatures = dataDict.size();
+		final Hashtable[] featureToInfo = new Hashtable[numFeatures];
+		final double[][] featureInfoGains = new double[numFeatures][];
+		final int[] featureNumSplitPoints = new int[numFeatures];
+
+		// Share the features among the tasks by their number of non-zero entries
+		int numTasks = executor == null ? 1 : numThreads;
+		if (stamps.stamps.length < numTasks)
+			throw new IllegalArgumentException("Stamps for " + stamps.stamps.length + " threads, need " + numTasks);
+		long totalWork = 0;
+		for (int fi = 0; fi < numFeatures; fi++)
+			totalWork += columnEnds[fi] - columnStarts[fi] + 1;
+		int[] bounds = new int[numTasks + 1];
+		Arrays.fill(bounds, 1, numTasks + 1, numFeatures);
+		long work = 0;
+		for (int fi = 0, t = 1; fi < numFeatures && t < numTasks; fi++) {
+			work += columnEnds[fi] - columnStarts[fi] + 1;
+			while (t < numTasks && work * numTasks >= totalWork * t)
+				bounds[t++] = fi + 1;
+		}
+
+		Runnable[] tasks = new Runnable[numTasks];
+		for (int t = 0; t < numTasks; t++) {
+			final int start = bounds[t], end = bounds[t+1], task = t;
+			tasks[t] = new Runnable() {
+				public void run() {
+					PresortedFeatureScan scan = new PresortedFeatureScan(ilist, instIndices, minNumInsts, targetCounts,
+							baseEntropy, columnInstances, columnValues, labelNames, stamps, task);
+					for (int fi = start; fi < end; fi++) {
+						featureToInfo[fi] = new Hashtable();
+						featureInfoGains[fi] = scan.scan(fi, columnStarts[fi], columnEnds[fi], featureToInfo[fi]);
+						featureNumSplitPoints[fi] = scan.numSplitPoints;
+					}
+					stamps.currentStamps[task] = scan.currentStamp;
+				}
+			};
+		}
+		if (executor == null)
+			tasks[0].run();
+		else
+			ParallelUtils.runAll(tasks, executor);
+
+		// Sum the gains in the same order as calcGainRatios
+		double infoGainSum = 0;
+		int totalNumSplitPoints = 0;
+		for (int fi = 0; fi < numFeatures; fi++) {
+			totalNumSplitPoints += featureNumSplitPoints[fi];
+			for (int k = 0; k < featureInfoGains[fi].length; k++)
+				infoGainSum += featureInfoGains[fi][k];
+		}
+
+		return selectSplitPoints(dataDict, featureToInfo, infoGainSum, totalNumSplitPoints,
+				baseEntropy, baseLabelDistribution);
+	}
+
+	/**
+	 * Arrays that mark the instances of the column being scanned, one for
+	 * each of a number of threads.  A learner that scores many nodes keeps
+	 * one ScanStamps for all of them, so that each node costs time in
+	 * proportion to its own instances rather than to the whole list.
+	 */
+	public static class ScanStamps
+	{
+		int size;
+		int[][] stamps;
+		int[] currentStamps;
+
+		/** Stamps for a list of size instances, scanned on numThreads threads. */
+		public ScanStamps(int size, int numThreads)
+		{
+			this.size = size;
+			this.stamps = new int[numThreads][];
+			this.currentStamps = new int[numThreads];
+		}
+	}
+
+	/**
+	 * Finds the split points of one feature at a time from its presorted
+	 * column.  The instances without a value for the feature all sort
+	 * between the negative and positive values, and are passed over as
+	 * one run whose label counts are the node's counts less those of the
+	 * column.
+	 */
+	private static class PresortedFeatureScan
+	{
+		InstanceList ilist;
+		int[] instIndices;
+		int minNumInsts;
+		double[] targetCounts;
+		double baseEntropy;
+		int[][] columnInstances;
+		double[][] columnValues;
+		String[] labelNames;
+		// Marks the instances in the current column with currentStamp
+		int[] stamp;
+		int currentStamp;
+		double[] passTestTargetCounts;
+		double[] zeroTargetCounts;
+		double[] infoGains = new double[16];
+		int numSplitPoints;
+
+		PresortedFeatureScan(InstanceList ilist, int[] instIndices, int minNumInsts, double[] targetCounts,
+				double baseEntropy, int[][] columnInstances, double[][] columnValues, String[] labelNames,
+				ScanStamps stamps, int task)
+		{
+			this.ilist = ilist;
+			this.instIndices = instIndices;
+			this.minNumInsts = minNumInsts;
+			this.targetCounts = targetCounts;
+			this.baseEntropy = baseEntropy;
+			this.columnInstances = columnInstances;
+			this.columnValues = columnValues;
+			this.labelNames = labelNames;
+			if (stamps.stamps[task] == null)
+				stamps.stamps[task] = new int[stamps.size];
+			this.stamp = stamps.stamps[task];
+			this.currentStamp = stamps.currentStamps[task];
+			this.passTestTargetCounts = new double[targetCounts.length];
+			this.zeroTargetCounts = new double[targetCounts.length];
+		}
+
+		private void addLabelWeights(int inst, double[] counts, double sign)
+		{
+			Labeling labeling = ilist.getInstance(inst).getLabeling();
+			for (int ll = 0; ll < labeling.numLocations(); ll++)
+				counts[labeling.indexAtLocation(ll)] += sign * labeling.valueAtLocation(ll);
+		}
+
+		/**
+		 * Puts the split points of feature fi in info, and returns their info
+		 * gains in ascending order of split point.
+		 */
+		double[] scan(int fi, int start, int end, Hashtable info)
+		{
+			int[] insts = columnInstances[fi];
+			double[] values = columnValues[fi];
+			int numInsts = instIndices.length;
+			int numZeros = numInsts - (end - start);
+			int firstZero = -1, lastZero = -1;
+			int zeroPosition = -1;
+
+			if (numZeros > 0) {
+				if (currentStamp == Integer.MAX_VALUE) {
+					Arrays.fill(stamp, 0);
+					currentStamp = 0;
+				}
+				currentStamp++;
+				System.arraycopy(targetCounts, 0, zeroTargetCounts, 0, targetCounts.length);
+				for (int k = start; k < end; k++) {
+					stamp[insts[k]] = currentStamp;
+					addLabelWeights(insts[k], zeroTargetCounts, -1);
+				}
+				for (int ii = 0; firstZero < 0; ii++)
+					if (stamp[instIndices[ii]] != currentStamp)
+						firstZero = instIndices[ii];
+				for (int ii = numInsts-1; lastZero < 0; ii--)
+					if (stamp[instIndices[ii]] != currentStamp)
+						lastZero = instIndices[ii];
+				zeroPosition = 0;
+				while (start + zeroPosition < end && values[start + zeroPosition] < 0)
+					zeroPosition++;
+			}
+
+			Arrays.fill(passTestTargetCounts, 0);
+			numSplitPoints = 0;
+			int numInfoGains = 0;
+			double numPassInsts = 0;
+			int length = end - start + (numZeros > 0 ? 1 : 0);
+
+			// Iterate through the column, with the zero run at zeroPosition
+			for (int p = 0; p < length-1; p++) {
+				double lower, higher;
+				String lowerLabel, higherLabel;
+				if (p == zeroPosition) {
+					for (int ci = 0; ci < targetCounts.length; ci++)
+						passTestTargetCounts[ci] += zeroTargetCounts[ci];
+					numPassInsts += numZeros;
+					lower = 0;
+					lowerLabel = labelNames[lastZero];
+				}
+				else {
+					int k = start + (zeroPosition >= 0 && p > zeroPosition ? p-1 : p);
+					addLabelWeights(insts[k], passTestTargetCounts, 1);
+					numPassInsts++;
+					lower = values[k];
+					lowerLabel = labelNames[insts[k]];
+				}
+				if (p+1 == zeroPosition) {
+					higher = 0;
+					higherLabel = labelNames[firstZero];
+				}
+				else {
+					int k = start + (zeroPosition >= 0 && p+1 > zeroPosition ? p : p+1);
+					higher = values[k];
+					higherLabel = labelNames[insts[k]];
+				}
+
+				if (Maths.almostEquals(lower, higher) || lowerLabel.equals(higherLabel))
+					continue;
+
+				numSplitPoints++;
+				double splitPoint = (lower + higher) / 2;
+				Point2D.Double pt = calcSplitInfo(targetCounts, passTestTargetCounts, numPassInsts, numInsts,
+						baseEntropy, minNumInsts);
+				if (pt == null)
+					continue;
+				if (numInfoGains == infoGains.length) {
+					double[] newInfoGains = new double[infoGains.length * 2];
+					System.arraycopy(infoGains, 0, newInfoGains, 0, numInfoGains);
+					infoGains = newInfoGains;
+				}
+				infoGains[numInfoGains++] = pt.getX();
+				info.put(new Double(splitPoint), pt);
+			}
+
+			double[] ret = new double[numInfoGains];
+			System.arraycopy(infoGains, 0, ret, 0, numInfoGains);
+			return ret;
+		}
+	}
 	
 	public static int[] sortInstances(InstanceList ilist, int[] instIndices, int featureIndex)
 	{
@@ -306,7 +580,38 @@ public class GainRatio extends RankedFeatureVector
 	public static GainRatio createGainRatio(InstanceList ilist, int[] instIndices, 
 			int minNumInsts)
 	{
-		Object[] objs = calcGainRatios(ilist, instIndices, minNumInsts);
+		return createGainRatio(ilist, calcGainRatios(ilist, instIndices, minNumInsts), minNumInsts);
+	}
+
+	/**
+	 * Constructs the same GainRatio as createGainRatio(ilist, instIndices,
+	 * minNumInsts), given feature columns sorted once for the whole list,
+	 * as by a C4.5 learner that partitions the columns as it grows the
+	 * tree.  Column fi lists the instances with a non-zero value for
+	 * feature fi, sorted by value and then by instance index, and
+	 * columnValues holds their values; those of the instances in
+	 * instIndices, which must be in ascending order, are at
+	 * [columnStarts[fi], columnEnds[fi]).  A feature then costs time in
+	 * proportion to its non-zero values.  With soft labelings, the gains
+	 * may differ from createGainRatio's in the last bits.
+	 *
+	 * @param labelNames the toString() of each instance's labeling
+	 * @param stamps scratch arrays for at least numThreads threads, which
+	 * may be used again for other nodes of the same list, but not by two
+	 * calls at once
+	 * @param executor runs the features in numThreads tasks, or if null
+	 * they are all run on the calling thread
+	 */
+	public static GainRatio createGainRatio(InstanceList ilist, int[] instIndices, int minNumInsts,
+			int[][] columnInstances, double[][] columnValues, int[] columnStarts, int[] columnEnds,
+			String[] labelNames, ScanStamps stamps, ExecutorService executor, int numThreads)
+	{
+		return createGainRatio(ilist, calcGainRatios(ilist, instIndices, minNumInsts, columnInstances,
+				columnValues, columnStarts, columnEnds, labelNames, stamps, executor, numThreads), minNumInsts);
+	}
+
+	private static GainRatio createGainRatio(InstanceList ilist, Object[] objs, int minNumInsts)
+	{
 		double[] gainRatios = (double[]) objs[0];
 		double[] splitPoints = (double[]) objs[1];
 		double baseEntropy = ((Double) objs[2]).doubleValue();
@@ -17,6 +17,7 @@
 package org.zndx.oss.mallet.base.types;
 
 import org.zndx.oss.mallet.base.classify.Classification;
+import org.zndx.oss.mallet.base.util.ParallelUtils;
 import java.io.*;
 
 public class GradientGain extends RankedFeatureVector
@@ -62,6 +63,43 @@ public class GradientGain extends RankedFeatureVector
 		return gradientgains;
 	}
 
+	// The gradient gains of binary columns, for RankedFeatureVector.ColumnFactory.
+	// Each shard of instances sums into its own array.
+	private static double[] calcGradientGains (final InstanceList ilist, final LabelVector[] classifications,
+																						 final int[][] rows, final int numColumns, int numThreads)
+	{
+		final int[] bounds = ParallelUtils.shardBoundaries (rows.length, numThreads);
+		final double[][] shardGains = new double[numThreads][];
+		Runnable[] tasks = new Runnable[numThreads];
+		for (int shard = 0; shard < numThreads; shard++) {
+			final int thisShard = shard;
+			tasks[shard] = new Runnable () {
+				public void run () {
+					double[] gains = new double[numColumns];
+					for (int i = bounds[thisShard]; i < bounds[thisShard+1]; i++) {
+						Labeling labeling = ilist.getInstance(i).getLabeling ();
+						double labelWeightDiff = 0;
+						for (int ll = 0; ll < labeling.numLocations(); ll++) {
+							int li = labeling.indexAtLocation (ll);
+							labelWeightDiff += Math.abs (labeling.value (li) - classifications[i].value(li));
+						}
+						labelWeightDiff *= ilist.getInstanceWeight(i);
+						int[] row = rows[i];
+						for (int k = 0; k < row.length; k++)
+							gains[row[k]] += labelWeightDiff;
+					}
+					shardGains[thisShard] = gains;
+				}
+			};
+		}
+		ParallelUtils.runAll (tasks, numThreads);
+		double[] gradientgains = shardGains[0];
+		for (int shard = 1; shard < numThreads; shard++)
+			for (int j = 0; j < numColumns; j++)
+				gradientgains[j] += shardGains[shard][j];
+		return gradientgains;
+	}
+
 	public GradientGain (InstanceList ilist, LabelVector[] classifications)
 	{
 		super (ilist.getDataAlphabet(), calcGradientGains (ilist, classifications));
@@ -82,7 +120,7 @@ public class GradientGain extends RankedFeatureVector
 	}
 
 
-	public static class Factory implements RankedFeatureVector.Factory
+	public static class Factory implements RankedFeatureVector.ColumnFactory
 	{
 		LabelVector[] classifications;
 		
@@ -96,6 +134,11 @@ public class GradientGain extends RankedFeatureVector
 			return new GradientGain (ilist, classifications);
 		}
 
+		public double[] columnValues (InstanceList ilist, int[][] rows, int numColumns, int numThreads)
+		{
+			return calcGradientGains (ilist, classifications, rows, numColumns, numThreads);
+		}
+
 		// Serialization
 		private static final long serialVersionUID = 1;
 		private static final int CURRENT_SERIAL_VERSION = 0;
@@ -0,0 +1,292 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+
+
+
+package org.zndx.oss.mallet.base.types;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.io.*;
+
+/**
+	 An Alphabet of a fixed size, 2<sup>bits</sup>, that gives each entry
+	 the index of a hash of it, without storing the entries (the
+	 "hashing trick").  The memory taken by the Alphabet, and by models
+	 whose parameters are indexed by it, does not grow with the number
+	 of distinct features, and looking up an entry changes nothing, so
+	 that pipes using the Alphabet may run on many threads at once.
+
+	 Entries whose hashes collide share an index.  If the Alphabet is
+	 signed, each entry also gets a sign from another bit of its hash,
+	 and FeatureVectors made from feature names, as by
+	 {@link org.zndx.oss.mallet.base.pipe.TokenSequence2FeatureVectorSequence}
+	 or {@link org.zndx.oss.mallet.base.pipe.Token2FeatureVector},
+	 multiply the value of each feature by its sign, so that colliding
+	 features tend to cancel rather than add up.  Binary vectors, and
+	 vectors made from FeatureSequences, which hold only indices, are
+	 not signed.
+
+	 Strings are hashed by their characters with MurmurHash3, so their
+	 indices are the same in every VM; other entries are hashed by their
+	 <code>hashCode()</code>.  As there is no dictionary,
+	 <code>lookupObject()</code> returns "#" and the index, unless the
+	 Alphabet was made to keep a sample of up to a given number of
+	 entries, the first one seen for each index, for debugging.
+	 Pipes that need the names of features, such as those matching a
+	 <code>featureRegex</code>, see only these names.
+
+	 @see Alphabet
+ */
+
+public class HashedAlphabet extends Alphabet
+{
+	int bits;
+	int mask;
+	boolean signed;
+	int seed;
+	int maxSampleSize;
+	// Index -> the first entry seen with that index, for up to maxSampleSize indices
+	transient Map sample;
+
+	public HashedAlphabet (int bits, boolean signed, int seed, int maxSampleSize)
+	{
+		super (1, null);
+		if (bits < 1 || bits > 30)
+			throw new IllegalArgumentException ("bits must be from 1 to 30: "+bits);
+		this.bits = bits;
+		this.mask = (1 << bits) - 1;
+		this.signed = signed;
+		this.seed = seed;
+		this.maxSampleSize = maxSampleSize;
+		if (maxSampleSize > 0)
+			sample = new ConcurrentHashMap ();
+	}
+
+	public HashedAlphabet (int bits, boolean signed)
+	{
+		this (bits, signed, 0, 0);
+	}
+
+	public HashedAlphabet (int bits)
+	{
+		this (bits, true);
+	}
+
+	public HashedAlphabet ()
+	{
+		this (18);
+	}
+
+	public Object clone ()
+	{
+		HashedAlphabet ret = new HashedAlphabet (bits, signed, seed, maxSampleSize);
+		if (sample != null)
+			ret.sample.putAll (sample);
+		return ret;
+	}
+
+	public int getNumBits ()
+	{
+		return bits;
+	}
+
+	public boolean isSigned ()
+	{
+		return signed;
+	}
+
+	/** Returns the index of the entry, whether or not the Alphabet is
+	 * growing; every entry has one. */
+	public int lookupIndex (Object entry, boolean addIfNotPresent)
+	{
+		int index = hash (entry) & mask;
+		if (sample != null)
+			addToSample (index, entry);
+		return index;
+	}
+
+	/** Returns the index of the entry, or <code>-1-index</code> if its
+	 * sign is negative. */
+	public int lookupSignedIndex (Object entry)
+	{
+		int h = hash (entry);
+		int index = h & mask;
+		if (sample != null)
+			addToSample (index, entry);
+		return (signed && h < 0) ? -1-index : index;
+	}
+
+	int indexOf (Object entry)
+	{
+		return hash (entry) & mask;
+	}
+
+	private int hash (Object entry)
+	{
+		if (entry == null)
+			throw new IllegalArgumentException ("Can't lookup \"null\" in an Alphabet.");
+		if (entry instanceof CharSequence)
+			return hash ((CharSequence) entry, seed);
+		return finish (entry.hashCode () ^ seed, 4);
+	}
+
+	private void addToSample (int index, Object entry)
+	{
+		if (sample.size () < maxSampleSize) {
+			Integer key = new Integer (index);
+			if (!sample.containsKey (key))
+				((ConcurrentHashMap) sample).putIfAbsent (key, entry);
+		}
+	}
+
+	/** MurmurHash3 (x86, 32-bit) of the characters of <code>s</code>,
+	 * two to a block. */
+	public static int hash (CharSequence s, int seed)
+	{
+		int h = seed;
+		int length = s.length ();
+		int i = 0;
+		for (; i + 1 < length; i += 2)
+			h = mix (h, s.charAt (i) | (s.charAt (i+1) << 16));
+		if (i < length) {
+			int k = s.charAt (i) * 0xcc9e2d51;
+			k = Integer.rotateLeft (k, 15) * 0x1b873593;
+			h ^= k;
+		}
+		return finish (h, 2 * length);
+	}
+
+	private static int mix (int h, int k)
+	{
+		k *= 0xcc9e2d51;
+		k = Integer.rotateLeft (k, 15);
+		k *= 0x1b873593;
+		h ^= k;
+		h = Integer.rotateLeft (h, 13);
+		return h * 5 + 0xe6546b64;
+	}
+
+	private static int finish (int h, int length)
+	{
+		h ^= length;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	public Object lookupObject (int index)
+	{
+		if (index < 0 || index > mask)
+			throw new IndexOutOfBoundsException ("Index: "+index+", Size: "+size());
+		Object entry = (sample == null) ? null : sample.get (new Integer (index));
+		return (entry == null) ? "#"+index : entry;
+	}
+
+	public Object[] toArray ()
+	{
+		return toArray (new Object[0]);
+	}
+
+	public Object[] toArray (Object[] in)
+	{
+		int size = size ();
+		if (in.length < size)
+			in = (Object[]) java.lang.reflect.Array.newInstance (in.getClass().getComponentType(), size);
+		for (int i = 0; i < size; i++)
+			in[i] = lookupObject (i);
+		if (in.length > size)
+			in[size] = null;
+		return in;
+	}
+
+	public Iterator iterator ()
+	{
+		return Arrays.asList (toArray ()).iterator ();
+	}
+
+	public Object[] lookupObjects (int[] indices)
+	{
+		return lookupObjects (indices, new Object[indices.length]);
+	}
+
+	public Object[] lookupObjects (int[] indices, Object[] buf)
+	{
+		for (int i = 0; i < indices.length; i++)
+			buf[i] = lookupObject (indices[i]);
+		return buf;
+	}
+
+	public boolean contains (Object entry)
+	{
+		return true;
+	}
+
+	public int size ()
+	{
+		return mask + 1;
+	}
+
+	/** Returns the sampled entries, each on a line after its index. */
+	public String toString ()
+	{
+		StringWriter sw = new StringWriter ();
+		dump (new PrintWriter (sw));
+		return sw.toString ();
+	}
+
+	public void dump (PrintWriter out)
+	{
+		out.println ("HashedAlphabet of "+size()+" indices"+(signed ? ", signed" : ""));
+		if (sample == null)
+			return;
+		Object[] keys = sample.keySet().toArray ();
+		Arrays.sort (keys);
+		for (int i = 0; i < keys.length; i++)
+			out.println (keys[i]+" => "+sample.get (keys[i]));
+		out.flush ();
+	}
+
+
+	// Serialization; Alphabet writes its own (empty) list of entries first
+
+	private static final long serialVersionUID = 1;
+	private static final int CURRENT_SERIAL_VERSION = 0;
+
+	private void writeObject (ObjectOutputStream out) throws IOException
+	{
+		out.writeInt (CURRENT_SERIAL_VERSION);
+		out.writeInt (bits);
+		out.writeBoolean (signed);
+		out.writeInt (seed);
+		out.writeInt (maxSampleSize);
+		out.writeObject (sample == null ? null : new java.util.HashMap (sample));
+	}
+
+	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		int version = in.readInt ();
+		bits = in.readInt ();
+		mask = (1 << bits) - 1;
+		signed = in.readBoolean ();
+		seed = in.readInt ();
+		maxSampleSize = in.readInt ();
+		Map saved = (Map) in.readObject ();
+		if (maxSampleSize > 0) {
+			sample = new ConcurrentHashMap ();
+			if (saved != null)
+				sample.putAll (saved);
+		}
+	}
+
+}
@@ -19,11 +19,13 @@
 
 package org.zndx.oss.mallet.base.types;
 
+import org.zndx.oss.mallet.base.util.ParallelUtils;
+
 public class InfoGain extends RankedFeatureVector
 {
-	// xxx This is DISGUSTINGLY non-thread-safe.
-	static double staticBaseEntropy;
-	static LabelVector staticBaseLabelDistribution;
+	// Passes the base entropy and label distribution from calcInfoGains
+	// to the constructor; per thread, so that trees may be grown concurrently.
+	private static final ThreadLocal staticBase = new ThreadLocal ();
 
 	// xxx Yuck.  Figure out how to remove this.
 	// Not strictly part of a list of feature info gains, but convenient and efficient
@@ -33,11 +35,9 @@ public class InfoGain extends RankedFeatureVector
 	
 	private static double[] calcInfoGains (InstanceList ilist)
 	{
-		final double log2 = Math.log(2);
 		int numInstances = ilist.size();
 		int numClasses = ilist.getTargetAlphabet().size();
 		int numFeatures = ilist.getDataAlphabet().size();
-		double[] infogains = new double[numFeatures];
 		double[][] targetFeatureCount = new double[numClasses][numFeatures];
 		double[] featureCountSum = new double[numFeatures];
 		double[] targetCount = new double[numClasses];
@@ -73,16 +73,168 @@ public class InfoGain extends RankedFeatureVector
 			}
 			assert (Math.abs (labelWeightSum - 1.0) < 0.0001);
 		}
-		if (targetCountSum == 0) {
-			staticBaseEntropy = 0.0;					// xxx Should this instead by infinite?
-			staticBaseLabelDistribution = new LabelVector ((LabelAlphabet)ilist.getTargetAlphabet(), targetCount);
+		return calcInfoGains (ilist, targetFeatureCount, featureCountSum, targetCount, targetCountSum);
+	}
+
+	/** Counts the label weights of the instances having each feature from
+	 * the index's posting lists, rather than from the instances' vectors. */
+	private static double[] calcInfoGains (CompressedInvertedIndex index)
+	{
+		InstanceList ilist = index.getInstanceList();
+		if (index.hasNegativeValues() && !index.hasValues())
+			throw new IllegalArgumentException ("Index has negative values, but was built without them");
+		int numClasses = ilist.getTargetAlphabet().size();
+		int numFeatures = ilist.getDataAlphabet().size();
+		double[][] targetFeatureCount = new double[numClasses][numFeatures];
+		double[] featureCountSum = new double[numFeatures];
+		double[] targetCount = new double[numClasses];
+		double targetCountSum = 0;
+		for (int i = 0; i < ilist.size(); i++) {
+			Labeling labeling = ilist.getInstance(i).getLabeling ();
+			double instanceWeight = ilist.getInstanceWeight(i);
+			for (int ll = 0; ll < labeling.numLocations(); ll++) {
+				double count = labeling.valueAtLocation (ll) * instanceWeight;
+				targetCount[labeling.indexAtLocation (ll)] += count;
+				targetCountSum += count;
+			}
+		}
+		for (int fi = 0; fi < index.numFeatures(); fi++) {
+			for (CompressedInvertedIndex.PostingIterator it = index.iterator (fi); it.hasNext(); ) {
+				int i = it.next();
+				if (index.hasNegativeValues() && it.value() <= 0)
+					continue;
+				Labeling labeling = ilist.getInstance(i).getLabeling ();
+				double instanceWeight = ilist.getInstanceWeight(i);
+				for (int ll = 0; ll < labeling.numLocations(); ll++) {
+					double count = labeling.valueAtLocation (ll) * instanceWeight;
+					targetFeatureCount[labeling.indexAtLocation (ll)][fi] += count;
+					featureCountSum[fi] += count;
+				}
+			}
+		}
+		return calcInfoGains (ilist, targetFeatureCount, featureCountSum, targetCount, targetCountSum);
+	}
+
+	/** The info gains of binary columns, for RankedFeatureVector.ColumnFactory.
+	 * Each shard of instances counts into its own arrays. */
+	private static double[] calcInfoGains (final InstanceList ilist, final int[][] rows, final int numColumns,
+	                                       int numThreads)
+	{
+		final int numClasses = ilist.getTargetAlphabet().size();
+		final int[] bounds = ParallelUtils.shardBoundaries (rows.length, numThreads);
+		final double[][][] shardTargetFeatureCounts = new double[numThreads][][];
+		final double[][] shardFeatureCountSums = new double[numThreads][];
+		final double[][] shardTargetCounts = new double[numThreads][];
+		Runnable[] tasks = new Runnable[numThreads];
+		for (int shard = 0; shard < numThreads; shard++) {
+			final int thisShard = shard;
+			tasks[shard] = new Runnable () {
+				public void run () {
+					double[][] targetFeatureCount = new double[numClasses][numColumns];
+					double[] featureCountSum = new double[numColumns];
+					double[] targetCount = new double[numClasses];
+					for (int i = bounds[thisShard]; i < bounds[thisShard+1]; i++) {
+						Labeling labeling = ilist.getInstance(i).getLabeling ();
+						double instanceWeight = ilist.getInstanceWeight(i);
+						int[] row = rows[i];
+						for (int ll = 0; ll < labeling.numLocations(); ll++) {
+							int li = labeling.indexAtLocation (ll);
+							double count = labeling.valueAtLocation (ll) * instanceWeight;
+							if (count == 0) continue;
+							for (int k = 0; k < row.length; k++) {
+								targetFeatureCount[li][row[k]] += count;
+								featureCountSum[row[k]] += count;
+							}
+							targetCount[li] += count;
+						}
+					}
+					shardTargetFeatureCounts[thisShard] = targetFeatureCount;
+					shardFeatureCountSums[thisShard] = featureCountSum;
+					shardTargetCounts[thisShard] = targetCount;
+				}
+			};
+		}
+		ParallelUtils.runAll (tasks, numThreads);
+		double[][] targetFeatureCount = shardTargetFeatureCounts[0];
+		double[] featureCountSum = shardFeatureCountSums[0];
+		double[] targetCount = shardTargetCounts[0];
+		for (int shard = 1; shard < numThreads; shard++) {
+			for (int li = 0; li < numClasses; li++) {
+				targetCount[li] += shardTargetCounts[shard][li];
+				for (int fi = 0; fi < numColumns; fi++)
+					targetFeatureCount[li][fi] += shardTargetFeatureCounts[shard][li][fi];
+			}
+			for (int fi = 0; fi < numColumns; fi++)
+				featureCountSum[fi] += shardFeatureCountSums[shard][fi];
+		}
+		double targetCountSum = 0;
+		for (int li = 0; li < numClasses; li++)
+			targetCountSum += targetCount[li];
+		double[] infogains = calcInfoGains (ilist, targetFeatureCount, featureCountSum, targetCount, targetCountSum);
+		staticBase.set (null);
+		return infogains;
+	}
+
+	private static double[] calcInfoGains (InstanceList ilist, double[][] targetFeatureCount, double[] featureCountSum,
+	                                       double[] targetCount, double targetCountSum)
+	{
+		int numClasses = ilist.getTargetAlphabet().size();
+		int numFeatures = featureCountSum.length;
+		double[] infogains = new double[numFeatures];
+		double baseEntropy = calcBase ((LabelAlphabet)ilist.getTargetAlphabet(), targetCount, targetCountSum);
+		if (targetCountSum == 0)
 			return infogains;
+		// Calculate the InfoGain of each feature
+		double[] featureTargetCount = new double[numClasses];
+		for (int fi = 0; fi < numFeatures; fi++) {
+			for (int li = 0; li < numClasses; li++)
+				featureTargetCount[li] = targetFeatureCount[li][fi];
+			infogains[fi] = infoGain (baseEntropy, featureTargetCount, featureCountSum[fi], targetCount, targetCountSum);
+			assert (!Double.isNaN(infogains[fi])) : fi;
+		}
+		return infogains;
+	}
+
+	/** Computes the info gains from the label counts kept by <tt>stats</tt>,
+	 * visiting for each feature only the labels that occur with it. */
+	private static double[] calcInfoGains (FeatureStatistics stats)
+	{
+		int numFeatures = stats.numFeatures;
+		double[] infogains = new double[numFeatures];
+		double baseEntropy = calcBase (stats.targetAlphabet, stats.targetCounts, stats.targetCountSum);
+		if (stats.targetCountSum == 0)
+			return infogains;
+		double[] featureTargetCount = new double[stats.numClasses];
+		for (int fi = 0; fi < numFeatures; fi++) {
+			double featureCountSum = 0;
+			for (int n = stats.starts[fi]; n < stats.starts[fi+1]; n++) {
+				featureTargetCount[stats.labels[n]] = stats.labelWeights[n];
+				featureCountSum += stats.labelWeights[n];
+			}
+			infogains[fi] = infoGain (baseEntropy, featureTargetCount, featureCountSum,
+																stats.targetCounts, stats.targetCountSum);
+			assert (!Double.isNaN(infogains[fi])) : fi;
+			for (int n = stats.starts[fi]; n < stats.starts[fi+1]; n++)
+				featureTargetCount[stats.labels[n]] = 0;
+		}
+		return infogains;
+	}
+
+	// Calculates the overall entropy of the labels, ignoring the features, and
+	// passes it with the label distribution to the constructor
+	private static double calcBase (LabelAlphabet targetAlphabet, double[] targetCount, double targetCountSum)
+	{
+		final double log2 = Math.log(2);
+		int numClasses = targetAlphabet.size();
+		if (targetCountSum == 0) {
+			// xxx Should the base entropy instead by infinite?
+			staticBase.set (new Object[] {new Double (0.0), new LabelVector (targetAlphabet, targetCount)});
+			return 0;
 		}
 		assert (targetCountSum > 0) : targetCountSum;
 		double p;
 		double[] classDistribution = new double[numClasses];
-		// Calculate the overall entropy of the labels, ignoring the features
-		staticBaseEntropy = 0;
+		double baseEntropy = 0;
 		//System.out.print ("targetCount "); Vector.print (targetCount);
 		//System.out.println ("targetCountSum = "+targetCountSum);
 		for (int li = 0; li < numClasses; li++) {
@@ -90,53 +242,86 @@ public class InfoGain extends RankedFeatureVector
 			classDistribution[li] = p;
 			assert (p <= 1.0) : p;
 			if (p != 0)
-				staticBaseEntropy -= p * Math.log(p) / log2;
+				baseEntropy -= p * Math.log(p) / log2;
 		}
-		staticBaseLabelDistribution = new LabelVector ((LabelAlphabet)ilist.getTargetAlphabet(), classDistribution);
-		//System.out.println ("Total class entropy = "+staticBaseEntropy);
-		// Calculate the InfoGain of each feature
-		for (int fi = 0; fi < numFeatures; fi++) {
-			double featurePresentEntropy = 0;
-			double norm = featureCountSum[fi];
-			if (norm > 0) {
-				for (int li = 0; li < numClasses; li++) {
-					p = targetFeatureCount[li][fi]/norm;
-					assert (p <= 1.00000001) : p;
-					if (p != 0)
-						featurePresentEntropy -= p * Math.log(p) / log2;
-				}
+		staticBase.set (new Object[] {new Double (baseEntropy), new LabelVector (targetAlphabet, classDistribution)});
+		//System.out.println ("Total class entropy = "+baseEntropy);
+		return baseEntropy;
+	}
+
+	// The InfoGain of one feature, from the label weights of the instances having it
+	private static double infoGain (double baseEntropy, double[] featureTargetCount, double featureCountSum,
+																	double[] targetCount, double targetCountSum)
+	{
+		final double log2 = Math.log(2);
+		int numClasses = targetCount.length;
+		double p;
+		double featurePresentEntropy = 0;
+		double norm = featureCountSum;
+		if (norm > 0) {
+			for (int li = 0; li < numClasses; li++) {
+				p = featureTargetCount[li]/norm;
+				assert (p <= 1.00000001) : p;
+				if (p != 0)
+					featurePresentEntropy -= p * Math.log(p) / log2;
 			}
-			assert (!Double.isNaN(featurePresentEntropy)) : fi;
-			norm = targetCountSum-featureCountSum[fi];
-			double featureAbsentEntropy = 0;
-			if (norm > 0) {
-				for (int li = 0; li < numClasses; li++) {
-					p = (targetCount[li]-targetFeatureCount[li][fi])/norm;
-					assert (p <= 1.00000001) : p;
-					if (p != 0)
-						featureAbsentEntropy -= p * Math.log(p) / log2;
-				}
+		}
+		assert (!Double.isNaN(featurePresentEntropy));
+		norm = targetCountSum-featureCountSum;
+		double featureAbsentEntropy = 0;
+		if (norm > 0) {
+			for (int li = 0; li < numClasses; li++) {
+				p = (targetCount[li]-featureTargetCount[li])/norm;
+				assert (p <= 1.00000001) : p;
+				if (p != 0)
+					featureAbsentEntropy -= p * Math.log(p) / log2;
 			}
-			assert (!Double.isNaN(featureAbsentEntropy)) : fi;
-			//Alphabet dictionary = ilist.getDataAlphabet();
-			//System.out.println ("Feature="+dictionary.lookupSymbol(fi)+" presentWeight="
-			//+(featureCountSum[fi]/targetCountSum)+" absentWeight="
-			//+((targetCountSum-featureCountSum[fi])/targetCountSum)+" presentEntropy="
-			//+featurePresentEntropy+" absentEntropy="
-			//+featureAbsentEntropy);
-			infogains[fi] = (staticBaseEntropy
-											 - (featureCountSum[fi]/targetCountSum) * featurePresentEntropy
-											 - ((targetCountSum-featureCountSum[fi])/targetCountSum) * featureAbsentEntropy);
-			assert (!Double.isNaN(infogains[fi])) : fi;
 		}
-		return infogains;
+		assert (!Double.isNaN(featureAbsentEntropy));
+		return (baseEntropy
+						- (featureCountSum/targetCountSum) * featurePresentEntropy
+						- ((targetCountSum-featureCountSum)/targetCountSum) * featureAbsentEntropy);
 	}
 
 	public InfoGain (InstanceList ilist)
 	{
 		super (ilist.getDataAlphabet(), calcInfoGains (ilist));
-		baseEntropy = staticBaseEntropy;
-		baseLabelDistribution = staticBaseLabelDistribution;
+		setBase ();
+	}
+
+	public InfoGain (CompressedInvertedIndex index)
+	{
+		super (index.getInstanceList().getDataAlphabet(), calcInfoGains (index));
+		setBase ();
+	}
+
+	/** Builds the info gains from the counts of a single pass over an
+	 * InstanceList, which may also be used for other rankings. */
+	public InfoGain (FeatureStatistics stats)
+	{
+		super (stats.getDataAlphabet(), calcInfoGains (stats));
+		setBase ();
+	}
+
+	/** Builds the info gains from label weights already counted over the
+	 * instances of <tt>ilist</tt>, as by a decision tree learner that counts
+	 * from presorted feature columns.  <tt>targetFeatureCount[li][fi]</tt>
+	 * and <tt>featureCountSum[fi]</tt> are the weights of the instances
+	 * with a positive value for feature <tt>fi</tt>. */
+	public InfoGain (InstanceList ilist, double[][] targetFeatureCount, double[] featureCountSum,
+	                 double[] targetCount, double targetCountSum)
+	{
+		super (ilist.getDataAlphabet(),
+					 calcInfoGains (ilist, targetFeatureCount, featureCountSum, targetCount, targetCountSum));
+		setBase ();
+	}
+
+	private void setBase ()
+	{
+		Object[] base = (Object[]) staticBase.get ();
+		staticBase.set (null);
+		baseEntropy = ((Double)base[0]).doubleValue();
+		baseLabelDistribution = (LabelVector) base[1];
 	}
 
 	public InfoGain (Alphabet vocab, double[] infogains)
@@ -156,16 +341,33 @@ public class InfoGain extends RankedFeatureVector
 
 
 
-	public static class Factory implements RankedFeatureVector.Factory
+	public static class Factory implements RankedFeatureVector.ColumnFactory
 	{
+		int numThreads = 0;
+		
 		public Factory ()
 		{
 		}
+
+		/** Ranks from a {@link FeatureStatistics} counted on <tt>numThreads</tt> threads. */
+		public Factory (int numThreads)
+		{
+			if (numThreads < 1)
+				throw new IllegalArgumentException ("numThreads must be positive, was "+numThreads);
+			this.numThreads = numThreads;
+		}
 		
 		public RankedFeatureVector newRankedFeatureVector (InstanceList ilist)
 		{
+			if (numThreads > 0)
+				return new InfoGain (new FeatureStatistics (ilist, numThreads));
 			return new InfoGain (ilist);
 		}
+
+		public double[] columnValues (InstanceList ilist, int[][] rows, int numColumns, int numThreads)
+		{
+			return calcInfoGains (ilist, rows, numColumns, numThreads);
+		}
 	}
 	
 }
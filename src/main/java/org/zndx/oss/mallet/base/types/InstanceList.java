@@ -410,6 +410,24 @@ public class InstanceList implements Serializable, PipeOutputAccumulator
 		return ret;
 	}
 
+  /**
+   * Returns a list of the instances at the given indices, which may
+   * repeat, as in a bootstrap sample.  The new list shares the
+   * <code>Instance</code>s of this one rather than copying them, and
+   * keeps their weights.  Subclasses that do not keep every
+   * <code>Instance</code> in memory get them through
+   * <code>getInstance</code>, and may override this to return a view.
+   */
+	public InstanceList select (int[] indices)
+	{
+		InstanceList ret = this.cloneEmpty();
+		// cloneEmpty() copies the weights by position
+		ret.instanceWeights = null;
+		for (int i = 0; i < indices.length; i++)
+			ret.add (getInstance (indices[i]), getInstanceWeight (indices[i]));
+		return ret;
+	}
+
   /** Returns the <code>Instance</code> at the specified index. */
 	public Instance getInstance (int index)
 	{
@@ -714,7 +732,7 @@ public class InstanceList implements Serializable, PipeOutputAccumulator
 		public Iterator () { this.index = 0; }
 		public boolean hasNext () { return index < instances.size(); }
 		public Instance nextInstance () { return getInstance(index++); }
-		public double getInstanceWeight () { return instanceWeights == null ? 1.0 : instanceWeights.get(index); }
+		public double getInstanceWeight () { return InstanceList.this.getInstanceWeight(index); }
 		public Object next () { return nextInstance(); }
 		public void remove () { throw new UnsupportedOperationException(); }
 
@@ -848,6 +866,43 @@ public class InstanceList implements Serializable, PipeOutputAccumulator
 		}
 	}
 
+  /** Adds to this list every instance generated by the iterator,
+   * passing them through this list's pipe on <code>numThreads</code>
+   * threads, in batches of <code>batchSize</code>.  The instances are
+   * added in the order of the iterator, and get the same Alphabet
+   * indices as from <code>add (PipeInputIterator)</code>.  The pipe must
+   * be serializable, and must not change its input; see ParallelPiper. */
+	public void add (PipeInputIterator pi, int numThreads, int batchSize)
+	{
+		if (numThreads <= 1 || pipe == null || pipe == notYetSetPipe) {
+			add (pi);
+			return;
+		}
+		ParallelPiper piper = new ParallelPiper (pipe, numThreads, batchSize);
+		try {
+			ArrayList batch = new ArrayList (batchSize);
+			while (pi.hasNext() || batch.size() > 0) {
+				if (pi.hasNext()) {
+					Instance carrier = pi.nextInstance();
+					batch.add (new Instance (carrier.getData(), carrier.getTarget(), carrier.name, carrier.getSource()));
+					if (batch.size() < batchSize && pi.hasNext())
+						continue;
+				}
+				Instance[] piped = piper.pipe ((Instance[]) batch.toArray (new Instance[batch.size()]));
+				for (int i = 0; i < piped.length; i++)
+					add (piped[i]);
+				batch.clear ();
+			}
+		} finally {
+			piper.shutdown ();
+		}
+	}
+
+	public void add (PipeInputIterator pi, int numThreads)
+	{
+		add (pi, numThreads, 256 * numThreads);
+	}
+
   /**
    * <p>Adds to this list each instance in the input list.</p>
    *
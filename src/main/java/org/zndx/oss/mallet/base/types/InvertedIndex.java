@@ -12,6 +12,8 @@
 	 Simple, in-memory inverted index that stores a list of instances having each feature, but not
 	 a value associated with each.  Currently only works with FeatureVectors.
 
+	 @see CompressedInvertedIndex
+
    @author Andrew McCallum <a href="mailto:mccallum@cs.umass.edu">mccallum@cs.umass.edu</a>
  */
 
@@ -26,6 +28,7 @@ public class InvertedIndex
 
 	public InvertedIndex (InstanceList ilist)
 	{
+		this.ilist = ilist;
 		int numFeatures = ilist.getDataAlphabet().size();
 		ii = new ArrayList[numFeatures];
 		for (int i = 0; i < ilist.size(); i++) {
@@ -34,7 +34,8 @@ public class LabelAlphabet extends Alphabet implements Serializable
 	public int lookupIndex (Object entry, boolean addIfNotPresent)
 	{
 		int index = super.lookupIndex (entry, addIfNotPresent);
-		if (index >= labels.size() && addIfNotPresent)
+		// Provisional indices from an AlphabetRecorder are past the end, and get no Label yet
+		if (index >= labels.size() && index < size() && addIfNotPresent)
 			labels.add (new Label (entry, this, index));
 		return index;
 	}
@@ -42,7 +43,9 @@ public class LabelAlphabet extends Alphabet implements Serializable
 	public Label lookupLabel (Object entry, boolean addIfNotPresent)
 	{
 		int index = lookupIndex (entry, addIfNotPresent);
-		if (index >= 0)
+		if (index >= labels.size())
+			return new Label (entry, this, index);	// provisional, from an AlphabetRecorder
+		else if (index >= 0)
 			return (Label) labels.get(index);
 		else
 			return null;
@@ -0,0 +1,864 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+
+
+
+package org.zndx.oss.mallet.base.types;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.io.*;
+import java.util.logging.*;
+import org.zndx.oss.mallet.base.pipe.Pipe;
+import org.zndx.oss.mallet.base.util.MalletLogger;
+import org.zndx.oss.mallet.base.util.DoubleList;
+
+/**
+	 A read-only InstanceList backed by a file in a compact, columnar
+	 binary format, which is memory-mapped rather than deserialized, so
+	 that opening even a very large list takes little time or heap.
+
+	 The file stores the feature vectors of all instances in
+	 compressed-sparse-row form: one array of feature indices and one of
+	 values (omitted if every vector is binary), with arrays of offsets
+	 marking where each vector and each instance begins.  Targets are
+	 stored the same way, as label indices.  The Pipe and Alphabets are
+	 kept in their own section, using Java serialization.
+
+	 Supported data are FeatureVector and FeatureVectorSequence; supported
+	 targets are Label, LabelSequence and LabelsSequence (or none).
+	 Instance names are stored as Strings; sources are not stored.
+
+	 <code>getInstance()</code> decodes a new Instance on each call, so
+	 only the instances currently in use are on the heap.  The instances
+	 are locked and cannot be changed, nor can instances be added or
+	 removed; weights may be changed, and labels hidden, and are then
+	 kept in memory.  The
+	 split and sampling methods return MappedInstanceLists that are views
+	 of the same file, and so do not copy any instances.
+
+	 Write a file with <code>MappedInstanceList.write (ilist, file)</code>,
+	 and open it with <code>new MappedInstanceList (file)</code>.
+
+	 @see InstanceList
+ */
+
+public class MappedInstanceList extends InstanceList
+{
+	private static Logger logger = MalletLogger.getLogger(MappedInstanceList.class.getName());
+
+	static final int MAGIC = 0x4d494c31;
+	static final int FORMAT_VERSION = 0;
+
+	static final int DATA_FEATURE_VECTOR = 0;
+	static final int DATA_FEATURE_VECTOR_SEQUENCE = 1;
+
+	static final int TARGET_NONE = 0;
+	static final int TARGET_LABEL = 1;
+	static final int TARGET_LABEL_SEQUENCE = 2;
+	static final int TARGET_LABELS_SEQUENCE = 3;
+
+	// Sections of the file, in the order in which they are written
+	static final int META = 0;							// serialized Pipe, data Alphabet and LabelAlphabets
+	static final int INSTANCE_VECTORS = 1;	// long[numInstances+1], first vector of each instance
+	static final int VECTOR_LOCATIONS = 2;	// long[numVectors+1], first location of each vector
+	static final int INDICES = 3;						// int[numLocations]
+	static final int VALUES = 4;						// double[numLocations], empty if all vectors are binary
+	static final int INSTANCE_POSITIONS = 5;	// long[numInstances+1], first target position of each instance
+	static final int POSITION_LABELS = 6;		// long[numPositions+1], first label of each position
+	static final int LABEL_ALPHABETS = 7;		// int[numLabels], index into the LabelAlphabets
+	static final int LABEL_INDICES = 8;			// int[numLabels]
+	static final int WEIGHTS = 9;						// double[numInstances], empty if all weights are 1
+	static final int NAME_OFFSETS = 10;			// long[numInstances+1], empty if there are no names
+	static final int NAME_BYTES = 11;				// UTF-8
+	static final int NUM_SECTIONS = 12;
+
+	static final int HEADER_SIZE = 6 * 4 + NUM_SECTIONS * 16;
+
+	MappedFile file;
+	int[] indices;													// positions in the file of this view's instances, or null
+	BitSet hidden;													// instances whose labels are hidden, or null
+
+	/** Opens a file written by <code>write()</code>. */
+	public MappedInstanceList (File f)
+	{
+		super (null, 0);
+		try {
+			file = new MappedFile (f);
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new IllegalArgumentException ("Couldn't read MappedInstanceList from file "+f);
+		} catch (ClassNotFoundException e) {
+			e.printStackTrace();
+			throw new IllegalArgumentException ("Couldn't read MappedInstanceList from file "+f);
+		}
+		initialize (null);
+		logger.info ("Mapped "+size()+" instances from "+f);
+	}
+
+	// A view of some of the instances of another MappedInstanceList
+	private MappedInstanceList (MappedInstanceList parent, int[] parentPositions)
+	{
+		super (null, 0);
+		this.file = parent.file;
+		this.indices = new int[parentPositions.length];
+		for (int i = 0; i < parentPositions.length; i++)
+			indices[i] = parent.filePosition (parentPositions[i]);
+		initialize (parent);
+		if (parent.instanceWeights != null) {
+			instanceWeights = new DoubleList (parentPositions.length);
+			for (int i = 0; i < parentPositions.length; i++)
+				instanceWeights.add (parent.getInstanceWeight (parentPositions[i]));
+		}
+		hidden = hiddenInView (parent.hidden, parentPositions);
+	}
+
+	// As InstanceList's views share Instances, they also share hidden labels
+	static BitSet hiddenInView (BitSet parentHidden, int[] parentPositions)
+	{
+		if (parentHidden == null)
+			return null;
+		BitSet ret = new BitSet (parentPositions.length);
+		for (int i = 0; i < parentPositions.length; i++)
+			if (parentHidden.get (parentPositions[i]))
+				ret.set (i);
+		return ret;
+	}
+
+	private void initialize (MappedInstanceList parent)
+	{
+		this.pipe = file.pipe;
+		this.dataVocab = file.dataAlphabet;
+		if (pipe != null && pipe.getTargetAlphabet () != null)
+			this.targetVocab = pipe.getTargetAlphabet ();
+		else if (file.labelAlphabets.length > 0)
+			this.targetVocab = file.labelAlphabets[0];
+		if (parent != null) {
+			this.featureSelection = parent.featureSelection;
+			this.perLabelFeatureSelection = parent.perLabelFeatureSelection;
+		}
+		// Placeholders, so that size() and iteration work as in InstanceList
+		int size = (indices == null) ? file.numInstances : indices.length;
+		this.instances = new ArrayList (Collections.nCopies (size, null));
+	}
+
+	private int filePosition (int index)
+	{
+		if (index < 0 || index >= instances.size())
+			throw new IndexOutOfBoundsException ("Index: "+index+", Size: "+instances.size());
+		return (indices == null) ? index : indices[index];
+	}
+
+	/** Returns a new Instance decoded from the file. */
+	public Instance getInstance (int index)
+	{
+		Instance inst = file.getInstance (filePosition (index));
+		return (hidden != null && hidden.get (index)) ? hideLabel (inst) : inst;
+	}
+
+	// Labels are hidden in this list rather than in its Instances, which
+	// are decoded anew on each call to getInstance()
+
+	public void hideSomeLabels (double proportionToHide, org.zndx.oss.mallet.base.util.Random r)
+	{
+		BitSet bs = new BitSet (size());
+		for (int i = 0; i < size(); i++)
+			if (r.nextBoolean (proportionToHide))
+				bs.set (i);
+		hideSomeLabels (bs);
+	}
+
+	public void hideSomeLabels (BitSet bs)
+	{
+		if (hidden == null)
+			hidden = new BitSet (size());
+		hidden.or (bs.get (0, size()));
+	}
+
+	public void unhideAllLabels ()
+	{
+		hidden = null;
+	}
+
+	/** Returns a copy of <code>inst</code> whose target is null, with the
+	 *  target kept in its <code>InstanceList.TARGET_PROPERTY</code>
+	 *  property, as <code>InstanceList.hideSomeLabels()</code> leaves it. */
+	static Instance hideLabel (Instance inst)
+	{
+		if (inst.getTarget () == null)
+			return inst;
+		Instance ret = inst.shallowCopy ();
+		ret.unLock ();
+		ret.setProperty (TARGET_PROPERTY, inst.getTarget ());
+		ret.setTarget (null);
+		ret.setLock ();
+		return ret;
+	}
+
+	public double getInstanceWeight (int index)
+	{
+		if (instanceWeights != null)
+			return instanceWeights.get (index);
+		return file.getWeight (filePosition (index));
+	}
+
+	public void setInstanceWeight (int index, double weight)
+	{
+		if (weight == getInstanceWeight (index))
+			return;
+		if (instanceWeights == null) {
+			DoubleList weights = new DoubleList (size());
+			for (int i = 0; i < size(); i++)
+				weights.add (getInstanceWeight (i));
+			instanceWeights = weights;
+		}
+		instanceWeights.set (index, weight);
+	}
+
+	// Views
+
+	public InstanceList[] split (java.util.Random r, double[] proportions)
+	{
+		ArrayList shuffled = new ArrayList (size());
+		for (int i = 0; i < size(); i++)
+			shuffled.add (new Integer (i));
+		Collections.shuffle (shuffled, r);
+		return splitInOrder (shuffled, proportions);
+	}
+
+	public InstanceList[] splitInOrder (double[] proportions)
+	{
+		ArrayList positions = new ArrayList (size());
+		for (int i = 0; i < size(); i++)
+			positions.add (new Integer (i));
+		return splitInOrder (positions, proportions);
+	}
+
+	private InstanceList[] splitInOrder (List positions, double[] proportions)
+	{
+		int[][] parts = splitPositions (positions, proportions);
+		InstanceList[] ret = new InstanceList[parts.length];
+		for (int j = 0; j < parts.length; j++)
+			ret[j] = new MappedInstanceList (this, parts[j]);
+		return ret;
+	}
+
+	public InstanceList[] splitByModulo (int m)
+	{
+		int[][] parts = moduloPositions (size(), m);
+		return new InstanceList[] {
+			new MappedInstanceList (this, parts[0]), new MappedInstanceList (this, parts[1]) };
+	}
+
+	// Same division as InstanceList.splitInOrder(); shared with TieredInstanceList
+	static int[][] splitPositions (List positions, double[] proportions)
+	{
+		double[] maxind = new double[proportions.length];
+		System.arraycopy (proportions, 0, maxind, 0, proportions.length);
+		DenseVector.normalize (maxind);
+		for (int i = 1; i < maxind.length; i++)
+			maxind[i] += maxind[i-1];
+		for (int i = 0; i < maxind.length; i++)
+			maxind[i] = Math.rint (maxind[i] * positions.size());
+		int[][] ret = new int[proportions.length][];
+		int start = 0;
+		for (int j = 0; j < ret.length; j++) {
+			int end = Math.max (start, (int) Math.min (maxind[j], positions.size()));
+			if (j == ret.length - 1)
+				end = positions.size();
+			ret[j] = new int[end - start];
+			for (int i = start; i < end; i++)
+				ret[j][i - start] = ((Integer) positions.get (i)).intValue ();
+			start = end;
+		}
+		return ret;
+	}
+
+	// Same division as InstanceList.splitByModulo()
+	static int[][] moduloPositions (int size, int m)
+	{
+		int[][] parts = new int[2][];
+		parts[0] = new int[(size + m - 1) / m];
+		parts[1] = new int[size - parts[0].length];
+		int n0 = 0, n1 = 0;
+		for (int i = 0; i < size; i++) {
+			if (i % m == 0)
+				parts[0][n0++] = i;
+			else
+				parts[1][n1++] = i;
+		}
+		return parts;
+	}
+
+	public InstanceList sampleWithReplacement (java.util.Random r, int numSamples)
+	{
+		int[] sample = new int[numSamples];
+		for (int i = 0; i < numSamples; i++)
+			sample[i] = r.nextInt (size());
+		return new MappedInstanceList (this, sample);
+	}
+
+	public InstanceList select (int[] indices)
+	{
+		return new MappedInstanceList (this, indices);
+	}
+
+	public InstanceList subList (int start, int end)
+	{
+		int[] part = new int[end - start];
+		for (int i = start; i < end; i++)
+			part[i - start] = i;
+		return new MappedInstanceList (this, part);
+	}
+
+	public InstanceList shallowClone ()
+	{
+		return subList (0, size());
+	}
+
+	// Read-only
+
+	public void setInstance (int index, Instance instance)
+	{
+		throw new UnsupportedOperationException ("MappedInstanceList is read-only");
+	}
+
+	public boolean add (Instance instance)
+	{
+		throw new UnsupportedOperationException ("MappedInstanceList is read-only");
+	}
+
+	public boolean add (Instance instance, double instanceWeight)
+	{
+		throw new UnsupportedOperationException ("MappedInstanceList is read-only");
+	}
+
+	public void removeInstance (int index)
+	{
+		throw new UnsupportedOperationException ("MappedInstanceList is read-only");
+	}
+
+	// A MappedInstanceList is serialized as an ordinary InstanceList
+	private Object writeReplace () throws ObjectStreamException
+	{
+		InstanceList ret = new InstanceList (pipe, size());
+		for (int i = 0; i < size(); i++)
+			ret.add (getInstance (i), getInstanceWeight (i));
+		ret.featureSelection = featureSelection;
+		ret.perLabelFeatureSelection = perLabelFeatureSelection;
+		return ret;
+	}
+
+
+	// Writing
+
+	/** Writes the instances of <code>ilist</code> to <code>f</code> in the
+	 *  format read by <code>MappedInstanceList (File)</code>. */
+	public static void write (InstanceList ilist, File f)
+	{
+		try {
+			write (ilist, f, true);
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new IllegalArgumentException ("Couldn't write MappedInstanceList to file "+f);
+		}
+	}
+
+	/** Writes the file without the Pipe and data Alphabet when
+	 *  <code>withAlphabets</code> is false; the reader must then supply
+	 *  them.  TieredInstanceList writes its pages this way. */
+	static void write (InstanceList ilist, File f, boolean withAlphabets) throws IOException
+	{
+		new Writer (ilist, withAlphabets).write (f);
+	}
+
+	private static class Writer
+	{
+		InstanceList ilist;
+		int n;
+		int dataKind = -1;
+		int targetKind = TARGET_NONE;
+		boolean binary = true;
+		boolean hasNames = false;
+		boolean hasWeights = false;
+		long numVectors, numLocations, numPositions, numLabels, numNameBytes;
+		ArrayList labelAlphabets = new ArrayList ();
+		byte[] meta;
+
+		Writer (InstanceList ilist, boolean withAlphabets) throws IOException
+		{
+			this.ilist = ilist;
+			this.n = ilist.size();
+			for (int i = 0; i < n; i++) {
+				Instance inst = ilist.getInstance (i);
+				FeatureVector[] fvs = featureVectors (inst.getData ());
+				numVectors += fvs.length;
+				for (int v = 0; v < fvs.length; v++) {
+					numLocations += fvs[v].numLocations ();
+					if (fvs[v].values != null)
+						binary = false;
+				}
+				Label[][] labels = labels (inst.getTarget ());
+				numPositions += labels.length;
+				for (int p = 0; p < labels.length; p++) {
+					numLabels += labels[p].length;
+					for (int l = 0; l < labels[p].length; l++)
+						labelAlphabetIndex (labels[p][l].getLabelAlphabet ());
+				}
+				if (inst.getName () != null) {
+					hasNames = true;
+					numNameBytes += nameBytes (inst).length;
+				}
+				if (ilist.getInstanceWeight (i) != 1.0)
+					hasWeights = true;
+			}
+			if (dataKind < 0)
+				dataKind = DATA_FEATURE_VECTOR;
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+			ObjectOutputStream oos = new ObjectOutputStream (bytes);
+			oos.writeObject (withAlphabets ? ilist.getPipe () : null);
+			oos.writeObject (withAlphabets ? ilist.getDataAlphabet () : null);
+			oos.writeObject (labelAlphabets.toArray (new LabelAlphabet[labelAlphabets.size()]));
+			oos.close ();
+			meta = bytes.toByteArray ();
+		}
+
+		private FeatureVector[] featureVectors (Object data)
+		{
+			int kind;
+			FeatureVector[] ret;
+			if (data instanceof FeatureVector) {
+				kind = DATA_FEATURE_VECTOR;
+				ret = new FeatureVector[] { (FeatureVector) data };
+			} else if (data instanceof FeatureVectorSequence) {
+				kind = DATA_FEATURE_VECTOR_SEQUENCE;
+				FeatureVectorSequence fvs = (FeatureVectorSequence) data;
+				ret = new FeatureVector[fvs.size()];
+				for (int t = 0; t < ret.length; t++)
+					ret[t] = fvs.getFeatureVector (t);
+			} else
+				throw new IllegalArgumentException ("Can only write FeatureVector or FeatureVectorSequence data, not "
+																						+ (data == null ? null : data.getClass().getName()));
+			if (dataKind >= 0 && dataKind != kind)
+				throw new IllegalArgumentException ("All instances must have the same class of data");
+			dataKind = kind;
+			return ret;
+		}
+
+		// Positions of the target, each with one or more Labels
+		private Label[][] labels (Object target)
+		{
+			if (target == null)
+				return new Label[0][];
+			int kind;
+			Label[][] ret;
+			if (target instanceof Label) {
+				kind = TARGET_LABEL;
+				ret = new Label[][] { { (Label) target } };
+			} else if (target instanceof LabelSequence) {
+				kind = TARGET_LABEL_SEQUENCE;
+				LabelSequence ls = (LabelSequence) target;
+				ret = new Label[ls.size()][];
+				for (int t = 0; t < ret.length; t++)
+					ret[t] = new Label[] { ls.getLabelAtPosition (t) };
+			} else if (target instanceof LabelsSequence) {
+				kind = TARGET_LABELS_SEQUENCE;
+				LabelsSequence ls = (LabelsSequence) target;
+				ret = new Label[ls.size()][];
+				for (int t = 0; t < ret.length; t++) {
+					Labels lbls = ls.getLabels (t);
+					ret[t] = new Label[lbls.size()];
+					for (int l = 0; l < ret[t].length; l++)
+						ret[t][l] = lbls.get (l);
+				}
+			} else
+				throw new IllegalArgumentException ("Can only write Label, LabelSequence or LabelsSequence targets, not "
+																						+ target.getClass().getName());
+			if (targetKind != TARGET_NONE && targetKind != kind)
+				throw new IllegalArgumentException ("All instances must have the same class of target");
+			targetKind = kind;
+			return ret;
+		}
+
+		private int labelAlphabetIndex (LabelAlphabet dict)
+		{
+			for (int i = 0; i < labelAlphabets.size(); i++)
+				if (labelAlphabets.get (i) == dict)
+					return i;
+			labelAlphabets.add (dict);
+			return labelAlphabets.size() - 1;
+		}
+
+		private static byte[] nameBytes (Instance inst) throws UnsupportedEncodingException
+		{
+			return inst.getName () == null ? new byte[0] : inst.getName().toString().getBytes ("UTF-8");
+		}
+
+		void write (File f) throws IOException
+		{
+			long[] lengths = new long[NUM_SECTIONS];
+			lengths[META] = meta.length;
+			lengths[INSTANCE_VECTORS] = 8L * (n + 1);
+			lengths[VECTOR_LOCATIONS] = 8L * (numVectors + 1);
+			lengths[INDICES] = 4L * numLocations;
+			lengths[VALUES] = binary ? 0 : 8L * numLocations;
+			lengths[INSTANCE_POSITIONS] = 8L * (n + 1);
+			lengths[POSITION_LABELS] = 8L * (numPositions + 1);
+			lengths[LABEL_ALPHABETS] = 4L * numLabels;
+			lengths[LABEL_INDICES] = 4L * numLabels;
+			lengths[WEIGHTS] = hasWeights ? 8L * n : 0;
+			lengths[NAME_OFFSETS] = hasNames ? 8L * (n + 1) : 0;
+			lengths[NAME_BYTES] = numNameBytes;
+
+			DataOutputStream out = new DataOutputStream (new BufferedOutputStream (new FileOutputStream (f), 1 << 16));
+			out.writeInt (MAGIC);
+			out.writeInt (FORMAT_VERSION);
+			out.writeInt (dataKind);
+			out.writeInt (targetKind);
+			out.writeInt (binary ? 1 : 0);
+			out.writeInt (n);
+			long offset = HEADER_SIZE;
+			for (int s = 0; s < NUM_SECTIONS; s++) {
+				out.writeLong (offset);
+				out.writeLong (lengths[s]);
+				offset += padded (lengths[s]);
+			}
+
+			for (int s = 0; s < NUM_SECTIONS; s++) {
+				if (lengths[s] > 0)
+					writeSection (s, out);
+				for (long pad = padded (lengths[s]) - lengths[s]; pad > 0; pad--)
+					out.writeByte (0);
+			}
+			out.close ();
+		}
+
+		private void writeSection (int section, DataOutputStream out) throws IOException
+		{
+			long count = 0;
+			if (section == META)
+				out.write (meta);
+			else if (section == INSTANCE_VECTORS || section == VECTOR_LOCATIONS || section == INSTANCE_POSITIONS
+							 || section == POSITION_LABELS || section == NAME_OFFSETS)
+				out.writeLong (0);							// offset arrays start with 0
+
+			for (int i = 0; section != META && i < n; i++) {
+				Instance inst = ilist.getInstance (i);
+				switch (section) {
+				case INSTANCE_VECTORS:
+					out.writeLong (count += featureVectors (inst.getData ()).length);
+					break;
+				case VECTOR_LOCATIONS: case INDICES: case VALUES: {
+					FeatureVector[] fvs = featureVectors (inst.getData ());
+					for (int v = 0; v < fvs.length; v++) {
+						int numLocs = fvs[v].numLocations ();
+						if (section == VECTOR_LOCATIONS)
+							out.writeLong (count += numLocs);
+						else
+							for (int loc = 0; loc < numLocs; loc++) {
+								if (section == INDICES)
+									out.writeInt (fvs[v].indexAtLocation (loc));
+								else
+									out.writeDouble (fvs[v].valueAtLocation (loc));
+							}
+					}
+					break;
+				}
+				case INSTANCE_POSITIONS:
+					out.writeLong (count += labels (inst.getTarget ()).length);
+					break;
+				case POSITION_LABELS: case LABEL_ALPHABETS: case LABEL_INDICES: {
+					Label[][] labels = labels (inst.getTarget ());
+					for (int p = 0; p < labels.length; p++) {
+						if (section == POSITION_LABELS)
+							out.writeLong (count += labels[p].length);
+						else
+							for (int l = 0; l < labels[p].length; l++) {
+								if (section == LABEL_ALPHABETS)
+									out.writeInt (labelAlphabetIndex (labels[p][l].getLabelAlphabet ()));
+								else
+									out.writeInt (labels[p][l].getIndex ());
+							}
+					}
+					break;
+				}
+				case WEIGHTS:
+					out.writeDouble (ilist.getInstanceWeight (i));
+					break;
+				case NAME_OFFSETS:
+					out.writeLong (count += nameBytes (inst).length);
+					break;
+				case NAME_BYTES:
+					out.write (nameBytes (inst));
+					break;
+				}
+			}
+		}
+	}
+
+	static long padded (long length)
+	{
+		return (length + 7) & ~7L;
+	}
+
+
+	// Reading
+
+	/** The contents of one file, shared by all of the views of it. */
+	static class MappedFile
+	{
+		int dataKind, targetKind;
+		boolean binary;
+		int numInstances;
+		Pipe pipe;
+		Alphabet dataAlphabet;
+		LabelAlphabet[] labelAlphabets;
+		Section[] sections = new Section[NUM_SECTIONS];
+
+		MappedFile (File f) throws IOException, ClassNotFoundException
+		{
+			this (f, null, null);
+		}
+
+		/** <code>pipe</code> and <code>dataAlphabet</code> are used if the
+		 *  file was written without them. */
+		MappedFile (File f, Pipe pipe, Alphabet dataAlphabet) throws IOException, ClassNotFoundException
+		{
+			RandomAccessFile raf = new RandomAccessFile (f, "r");
+			try {
+				FileChannel channel = raf.getChannel ();
+				long[] offsets = readHeader (channel.map (FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE), f);
+				for (int s = 0; s < NUM_SECTIONS; s++)
+					sections[s] = new Section (channel, offsets[2*s], offsets[2*s+1]);
+			} finally {
+				// The mappings remain valid after the channel is closed
+				raf.close ();
+			}
+			readMeta (pipe, dataAlphabet);
+		}
+
+		/** Reads the file from <code>contents</code>, a buffer holding all
+		 *  of it, rather than mapping it.  Nothing is mapped, so the file
+		 *  may be deleted as soon as the buffer has been filled. */
+		MappedFile (ByteBuffer contents, Pipe pipe, Alphabet dataAlphabet, File f) throws IOException, ClassNotFoundException
+		{
+			long[] offsets = readHeader (contents.duplicate (), f);
+			for (int s = 0; s < NUM_SECTIONS; s++) {
+				if (offsets[2*s] + offsets[2*s+1] > contents.capacity ())
+					throw new IOException ("Truncated MappedInstanceList file: "+f);
+				sections[s] = new Section (contents, offsets[2*s], offsets[2*s+1]);
+			}
+			readMeta (pipe, dataAlphabet);
+		}
+
+		// Returns the offset and length of each section
+		private long[] readHeader (ByteBuffer header, File f) throws IOException
+		{
+			if (header.getInt () != MAGIC)
+				throw new IOException ("Not a MappedInstanceList file: "+f);
+			int version = header.getInt ();
+			if (version != FORMAT_VERSION)
+				throw new IOException ("Unknown MappedInstanceList format version "+version+" in "+f);
+			dataKind = header.getInt ();
+			targetKind = header.getInt ();
+			binary = header.getInt () != 0;
+			numInstances = header.getInt ();
+			long[] offsets = new long[2 * NUM_SECTIONS];
+			for (int i = 0; i < offsets.length; i++)
+				offsets[i] = header.getLong ();
+			return offsets;
+		}
+
+		private void readMeta (Pipe pipe, Alphabet dataAlphabet) throws IOException, ClassNotFoundException
+		{
+			Section meta = sections[META];
+			byte[] bytes = new byte[(int) meta.length];
+			for (int i = 0; i < bytes.length; i++)
+				bytes[i] = meta.getByte (i);
+			ObjectInputStream ois = new ObjectInputStream (new ByteArrayInputStream (bytes));
+			this.pipe = (Pipe) ois.readObject ();
+			if (this.pipe == null)
+				this.pipe = pipe;
+			this.dataAlphabet = (Alphabet) ois.readObject ();
+			if (this.dataAlphabet == null)
+				this.dataAlphabet = dataAlphabet;
+			labelAlphabets = (LabelAlphabet[]) ois.readObject ();
+			ois.close ();
+		}
+
+		boolean hasWeights ()
+		{
+			return sections[WEIGHTS].length > 0;
+		}
+
+		double getWeight (int i)
+		{
+			return hasWeights () ? sections[WEIGHTS].getDouble (i) : 1.0;
+		}
+
+		Instance getInstance (int i)
+		{
+			Instance inst = new Instance (getData (i), getTarget (i), getName (i), null);
+			inst.setPipe (pipe);
+			inst.setLock ();
+			return inst;
+		}
+
+		private Object getData (int i)
+		{
+			Section instanceVectors = sections[INSTANCE_VECTORS];
+			long first = instanceVectors.getLong (i);
+			long last = instanceVectors.getLong (i + 1);
+			if (dataKind == DATA_FEATURE_VECTOR)
+				return getFeatureVector (first);
+			FeatureVector[] fvs = new FeatureVector[(int) (last - first)];
+			for (int v = 0; v < fvs.length; v++)
+				fvs[v] = getFeatureVector (first + v);
+			return new FeatureVectorSequence (fvs);
+		}
+
+		private FeatureVector getFeatureVector (long v)
+		{
+			Section vectorLocations = sections[VECTOR_LOCATIONS];
+			long first = vectorLocations.getLong (v);
+			int numLocations = (int) (vectorLocations.getLong (v + 1) - first);
+			int[] featureIndices = new int[numLocations];
+			Section indexSection = sections[INDICES];
+			for (int loc = 0; loc < numLocations; loc++)
+				featureIndices[loc] = indexSection.getInt (first + loc);
+			double[] values = null;
+			if (!binary) {
+				values = new double[numLocations];
+				Section valueSection = sections[VALUES];
+				for (int loc = 0; loc < numLocations; loc++)
+					values[loc] = valueSection.getDouble (first + loc);
+			}
+			// The indices were written sorted and without duplicates
+			return new FeatureVector (dataAlphabet, featureIndices, values,
+																numLocations, numLocations, false, false, false);
+		}
+
+		private Object getTarget (int i)
+		{
+			if (targetKind == TARGET_NONE)
+				return null;
+			Section instancePositions = sections[INSTANCE_POSITIONS];
+			long first = instancePositions.getLong (i);
+			int numPositions = (int) (instancePositions.getLong (i + 1) - first);
+			if (numPositions == 0 && targetKind == TARGET_LABEL)
+				return null;
+			Label[][] labels = new Label[numPositions][];
+			Section positionLabels = sections[POSITION_LABELS];
+			for (int p = 0; p < numPositions; p++) {
+				long firstLabel = positionLabels.getLong (first + p);
+				labels[p] = new Label[(int) (positionLabels.getLong (first + p + 1) - firstLabel)];
+				for (int l = 0; l < labels[p].length; l++) {
+					LabelAlphabet dict = labelAlphabets[sections[LABEL_ALPHABETS].getInt (firstLabel + l)];
+					labels[p][l] = dict.lookupLabel (sections[LABEL_INDICES].getInt (firstLabel + l));
+				}
+			}
+			if (targetKind == TARGET_LABEL)
+				return labels[0][0];
+			if (targetKind == TARGET_LABEL_SEQUENCE) {
+				Label[] seq = new Label[numPositions];
+				for (int p = 0; p < numPositions; p++)
+					seq[p] = labels[p][0];
+				return new LabelSequence (seq);
+			}
+			Labels[] seq = new Labels[numPositions];
+			for (int p = 0; p < numPositions; p++)
+				seq[p] = new Labels (labels[p]);
+			return new LabelsSequence (seq);
+		}
+
+		private Object getName (int i)
+		{
+			Section nameOffsets = sections[NAME_OFFSETS];
+			if (nameOffsets.length == 0)
+				return null;
+			long first = nameOffsets.getLong (i);
+			int length = (int) (nameOffsets.getLong (i + 1) - first);
+			if (length == 0)
+				return null;
+			byte[] bytes = new byte[length];
+			for (int b = 0; b < length; b++)
+				bytes[b] = sections[NAME_BYTES].getByte (first + b);
+			try {
+				return new String (bytes, "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException (e.toString ());
+			}
+		}
+	}
+
+	/** A section of the file, mapped in segments of at most 1GB, so that a
+	 *  section may be larger than a single MappedByteBuffer.  Elements are
+	 *  aligned to their size, and so never span two segments. */
+	static class Section
+	{
+		static final int SEGMENT_BITS = 30;
+		static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+		long length;
+		ByteBuffer[] segments;
+
+		Section (FileChannel channel, long offset, long length) throws IOException
+		{
+			this.length = length;
+			int numSegments = (int) ((length + SEGMENT_MASK) >>> SEGMENT_BITS);
+			segments = new ByteBuffer[numSegments];
+			for (int s = 0; s < numSegments; s++) {
+				long start = (long) s << SEGMENT_BITS;
+				segments[s] = channel.map (FileChannel.MapMode.READ_ONLY, offset + start,
+																	 Math.min (length - start, 1L << SEGMENT_BITS));
+			}
+		}
+
+		// A section of a buffer holding the whole file
+		Section (ByteBuffer contents, long offset, long length)
+		{
+			this.length = length;
+			int numSegments = (int) ((length + SEGMENT_MASK) >>> SEGMENT_BITS);
+			segments = new ByteBuffer[numSegments];
+			for (int s = 0; s < numSegments; s++) {
+				long start = offset + ((long) s << SEGMENT_BITS);
+				ByteBuffer segment = contents.duplicate ();
+				segment.limit ((int) Math.min (offset + length, start + (1L << SEGMENT_BITS)));
+				segment.position ((int) start);
+				segments[s] = segment.slice ();
+			}
+		}
+
+		// Absolute gets do not change the buffers, so they are safe to call concurrently
+		byte getByte (long i) { return segments[(int) (i >>> SEGMENT_BITS)].get ((int) (i & SEGMENT_MASK)); }
+
+		int getInt (long i)
+		{
+			long b = i << 2;
+			return segments[(int) (b >>> SEGMENT_BITS)].getInt ((int) (b & SEGMENT_MASK));
+		}
+
+		long getLong (long i)
+		{
+			long b = i << 3;
+			return segments[(int) (b >>> SEGMENT_BITS)].getLong ((int) (b & SEGMENT_MASK));
+		}
+
+		double getDouble (long i)
+		{
+			long b = i << 3;
+			return segments[(int) (b >>> SEGMENT_BITS)].getDouble ((int) (b & SEGMENT_MASK));
+		}
+	}
+
+}
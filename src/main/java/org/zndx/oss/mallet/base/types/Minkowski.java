@@ -37,6 +37,12 @@ public class Minkowski implements Metric {
 	this.q = q;
 
     }
+
+    /** Returns the power q of this metric. */
+    public double getQ()
+    {
+	return q;
+    }
     
     /*  Gives the Minkowski distance between two vectors.
      *
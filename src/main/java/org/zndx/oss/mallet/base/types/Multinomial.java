@@ -391,6 +391,28 @@ public class Multinomial extends FeatureVector
 			increment (fv, 1.0);
 		}
 
+		/**
+		 * Adds the counts of another Estimator to this one, for example to
+		 * combine Estimators that counted disjoint parts of the data.  If the
+		 * two Estimators have different Alphabets, counts are matched by
+		 * entry, and entries missing from this Estimator's Alphabet are added
+		 * to it (or dropped, if its growth has been stopped).
+		 */
+		public void increment (Estimator other)
+		{
+			if (other.dictionary != dictionary && (dictionary == null || other.dictionary == null))
+				throw new IllegalArgumentException ("Vocabularies don't match.");
+			double[] otherCounts = other.counts;
+			for (int i = 0; i < otherCounts.length; i++) {
+				if (otherCounts[i] == 0)
+					continue;
+				int index = (other.dictionary == dictionary)
+										? i : dictionary.lookupIndex (other.dictionary.lookupObject (i));
+				if (index >= 0)
+					increment (index, otherCounts[i]);
+			}
+		}
+
 		public double getCount (int index)
 		{
 			return counts[index];
@@ -399,7 +421,10 @@ public class Multinomial extends FeatureVector
 		public Object clone ()
 		{
 			try {
-				return super.clone ();
+				// The clone gets its own counts, so that it can be incremented independently
+				Estimator ret = (Estimator) super.clone ();
+				ret.counts = (double[]) counts.clone ();
+				return ret;
 			} catch (CloneNotSupportedException e) {
 				return null;
 			}
@@ -102,7 +102,11 @@ import java.lang.Runtime;
 	 this is to call PagedInstanceList.setInstance (Instance inst),
 	 which _will_ overwrite an Instance that has been paged to disk.
 	 
+	 TieredInstanceList pages to disk within an explicit heap budget
+	 instead, and should be preferred for new code.
+
 	 @see InstanceList
+	 @see TieredInstanceList
 
    @author Aron Culotta <a href="mailto:culotta@cs.umass.edu">culotta@cs.umass.edu</a>
  */
@@ -0,0 +1,220 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+
+
+
+package org.zndx.oss.mallet.base.types;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.io.*;
+import java.util.logging.*;
+import org.zndx.oss.mallet.base.pipe.Pipe;
+import org.zndx.oss.mallet.base.util.MalletLogger;
+import org.zndx.oss.mallet.base.util.ParallelUtils;
+
+/**
+	 Runs batches of instances through a Pipe on several threads, giving
+	 the same Instances, and the same Alphabet indices, as running them
+	 one at a time in order.  Used by
+	 <code>InstanceList.add (PipeInputIterator, int)</code>.
+
+	 Each thread has its own copy of the Pipe, made by serialization, so
+	 that pipes with state such as a lexer are not shared; the copies
+	 share the original's Alphabets.  A batch is piped in three steps:
+
+	 <ol>
+	 <li>All instances are piped in parallel, each with an
+	 AlphabetRecorder, so that the Alphabets are only read.  An instance
+	 that finds all of its entries is done.
+	 <li>On the calling thread, in input order, the entries that each
+	 instance would have added are added to the Alphabets.  This assigns
+	 the same indices as piping the instances in order would.
+	 <li>The instances that had new entries are piped again in parallel,
+	 each seeing the Alphabets as they were just after its own entries
+	 were added.
+	 </ol>
+
+	 Any instance that still adds entries, or that fails after adding
+	 some, is piped on the calling thread instead.  Results are
+	 reproducible, and the same as piping in order, for pipes whose
+	 output depends only on their input and on the Alphabet indices of
+	 the entries they look up; pipes must not change their input, since
+	 it may be piped twice.
+ */
+
+class ParallelPiper
+{
+	private static Logger logger = MalletLogger.getLogger(ParallelPiper.class.getName());
+
+	Pipe pipe;
+	Pipe[] pipes;														// one per thread, or null to pipe serially
+	int batchSize;
+	ExecutorService executor;
+
+	ParallelPiper (Pipe pipe, int numThreads, int batchSize)
+	{
+		this.pipe = pipe;
+		this.batchSize = batchSize;
+		if (numThreads > 1) {
+			try {
+				pipes = copies (pipe, numThreads);
+				executor = ParallelUtils.newExecutor (numThreads, "ParallelPiper");
+			} catch (IOException e) {
+				logger.warning ("Couldn't copy pipe "+pipe+", piping serially: "+e);
+			} catch (ClassNotFoundException e) {
+				logger.warning ("Couldn't copy pipe "+pipe+", piping serially: "+e);
+			}
+		}
+	}
+
+	// The first copy is the pipe itself
+	private static Pipe[] copies (Pipe pipe, int n) throws IOException, ClassNotFoundException
+	{
+		// Create any Alphabets not yet created, so that the copies share them
+		pipe.getDataAlphabet ();
+		pipe.getTargetAlphabet ();
+		Pipe[] ret = new Pipe[n];
+		ret[0] = pipe;
+		for (int i = 1; i < n; i++)
+			ret[i] = pipe.deepCopy ();
+		return ret;
+	}
+
+	void shutdown ()
+	{
+		if (executor != null)
+			executor.shutdown ();
+	}
+
+	/** Pipes unpiped carriers from a PipeInputIterator, returning the
+	 * piped Instances in the same order.  The carriers are not changed. */
+	Instance[] pipe (Instance[] carriers)
+	{
+		int n = carriers.length;
+		Instance[] ret = new Instance[n];
+		if (pipes == null) {
+			for (int i = 0; i < n; i++)
+				ret[i] = pipeSerially (carriers[i]);
+			return ret;
+		}
+
+		AlphabetRecorder[] recorders = new AlphabetRecorder[n];
+		Throwable[] errors = new Throwable[n];
+		int[] all = new int[n];
+		for (int i = 0; i < n; i++)
+			all[i] = i;
+		pipeInParallel (all, carriers, null, ret, recorders, errors);
+
+		// Add the new entries in order, noting which instances must be piped again
+		HashMap sizesBefore = new HashMap ();
+		HashMap[] sizesAfter = new HashMap[n];
+		int[] again = new int[n];
+		int numAgain = 0;
+		for (int i = 0; i < n; i++) {
+			AlphabetRecorder recorder = recorders[i];
+			if (recorder.hasMisses ())
+				recorder.commit (sizesBefore);
+			if (errors[i] != null) {
+				// It may have failed only for want of entries that have now been added
+				if (!recorder.hasMisses () && !recorder.probesFound ())
+					rethrow (errors[i]);
+				ret[i] = pipeSerially (carriers[i]);
+				continue;
+			}
+			if (!recorder.hasMisses () && !recorder.probesFound ())
+				continue;
+			sizesAfter[i] = new HashMap ();
+			for (Iterator iter = sizesBefore.keySet().iterator(); iter.hasNext(); ) {
+				Alphabet dict = (Alphabet) iter.next ();
+				sizesAfter[i].put (dict, new Integer (dict.size ()));
+			}
+			again[numAgain++] = i;
+		}
+		if (numAgain == 0)
+			return ret;
+
+		int[] which = new int[numAgain];
+		System.arraycopy (again, 0, which, 0, numAgain);
+		Map[] limits = new Map[n];
+		for (int j = 0; j < numAgain; j++) {
+			int i = which[j];
+			// Alphabets first added to by later instances are limited to their size before the batch
+			limits[i] = new HashMap (sizesBefore);
+			limits[i].putAll (sizesAfter[i]);
+		}
+		pipeInParallel (which, carriers, limits, ret, recorders, errors);
+		for (int j = 0; j < numAgain; j++) {
+			int i = which[j];
+			if (errors[i] != null || recorders[i].hasMisses ()) {
+				logger.fine ("Instance "+carriers[i].getName()+" added entries when piped again; piping serially");
+				ret[i] = pipeSerially (carriers[i]);
+			}
+		}
+		return ret;
+	}
+
+	private void pipeInParallel (final int[] which, final Instance[] carriers, final Map[] limits,
+															 final Instance[] ret, final AlphabetRecorder[] recorders, final Throwable[] errors)
+	{
+		final AtomicInteger next = new AtomicInteger ();
+		Runnable[] tasks = new Runnable[Math.min (pipes.length, which.length)];
+		for (int t = 0; t < tasks.length; t++) {
+			final Pipe threadPipe = pipes[t];
+			tasks[t] = new Runnable () {
+				public void run () {
+					for (int j = next.getAndIncrement (); j < which.length; j = next.getAndIncrement ()) {
+						int i = which[j];
+						AlphabetRecorder recorder = new AlphabetRecorder (limits == null ? null : limits[i]);
+						recorder.start ();
+						try {
+							ret[i] = pipe (threadPipe, carriers[i]);
+							errors[i] = null;
+						} catch (Throwable e) {
+							ret[i] = null;
+							errors[i] = e;
+						} finally {
+							recorder.stop ();
+						}
+						recorders[i] = recorder;
+					}
+				}
+			};
+		}
+		ParallelUtils.runAll (tasks, executor);
+	}
+
+	// As in the Instance constructor, but through one thread's copy of the pipe
+	private Instance pipe (Pipe threadPipe, Instance carrier)
+	{
+		Instance inst = new Instance (carrier.getData (), carrier.getTarget (), carrier.getName (), carrier.getSource ());
+		threadPipe.pipe (inst);
+		inst.locked = true;
+		inst.pipe = pipe;
+		return inst;
+	}
+
+	private Instance pipeSerially (Instance carrier)
+	{
+		return new Instance (carrier.getData (), carrier.getTarget (), carrier.getName (), carrier.getSource (), pipe);
+	}
+
+	private static void rethrow (Throwable e)
+	{
+		if (e instanceof RuntimeException)
+			throw (RuntimeException) e;
+		if (e instanceof Error)
+			throw (Error) e;
+		throw new IllegalStateException ("Piping failed: "+e);
+	}
+
+}
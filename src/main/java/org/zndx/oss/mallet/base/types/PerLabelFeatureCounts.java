@@ -62,15 +62,44 @@ public class PerLabelFeatureCounts
 			fc[i] = new FeatureCounts (dataAlphabet, counts[i]);
 	}
 
+	/** Counts by the best label of each instance, from the counts of a
+	 * single pass over an InstanceList. */
+	public PerLabelFeatureCounts (FeatureStatistics stats)
+	{
+		dataAlphabet = stats.getDataAlphabet();
+		targetAlphabet = stats.getTargetAlphabet();
+		int numFeatures = dataAlphabet.size();
+		double[] perLabel = countInstances ? stats.bestLabelOccurrences : stats.bestLabelValues;
+		double[][] counts = new double[targetAlphabet.size()][numFeatures];
+		for (int fi = 0; fi < numFeatures; fi++)
+			for (int n = stats.starts[fi]; n < stats.starts[fi+1]; n++)
+				counts[stats.labels[n]][fi] = perLabel[n];
+		fc = new FeatureCounts[counts.length];
+		for (int i = 0; i < fc.length; i++)
+			fc[i] = new FeatureCounts (dataAlphabet, counts[i]);
+	}
+
 	public static class Factory implements RankedFeatureVector.PerLabelFactory
 	{
+		int numThreads = 0;
+
 		public Factory ()
 		{
 		}
+
+		/** Counts with a {@link FeatureStatistics} on <tt>numThreads</tt> threads. */
+		public Factory (int numThreads)
+		{
+			if (numThreads < 1)
+				throw new IllegalArgumentException ("numThreads must be positive, was "+numThreads);
+			this.numThreads = numThreads;
+		}
 		
 		public RankedFeatureVector[] newRankedFeatureVectors (InstanceList ilist)
 		{
-			PerLabelFeatureCounts x = new PerLabelFeatureCounts (ilist);
+			PerLabelFeatureCounts x = (numThreads > 0)
+				? new PerLabelFeatureCounts (new FeatureStatistics (ilist, numThreads))
+				: new PerLabelFeatureCounts (ilist);
 			return x.fc;
 		}
 	}
@@ -24,9 +24,17 @@ public class PerLabelInfoGain
 
 	public PerLabelInfoGain (InstanceList ilist)
 	{
-		double[][] pcig = calcPerLabelInfoGains (ilist);
-		Alphabet v = ilist.getDataAlphabet();
-		int numClasses = ilist.getTargetAlphabet().size();
+		this (ilist.getDataAlphabet(), calcPerLabelInfoGains (ilist));
+	}
+
+	public PerLabelInfoGain (FeatureStatistics stats)
+	{
+		this (stats.getDataAlphabet(), calcPerLabelInfoGains (stats));
+	}
+
+	private PerLabelInfoGain (Alphabet v, double[][] pcig)
+	{
+		int numClasses = pcig.length;
 		ig = new InfoGain[numClasses];
 		for (int i = 0; i < numClasses; i++)
 			ig[i] = new InfoGain (v, pcig[i]);
@@ -54,6 +62,57 @@ public class PerLabelInfoGain
 		}
 	}
 
+	// The per-class infogain of a feature, from the number of instances having it
+	// and the number of those whose class is ci
+	private static double infoGain (double classEntropy, double classCount, double classFeatureCount,
+																	double featureCount, int numInstances)
+	{
+		double pf = featureCount/numInstances;
+		double pnf = (numInstances-featureCount)/numInstances;
+		double pc, pnc, ef;
+		// Calculate the {ci,!ci}-entropy given that the feature does occur
+		pc = classFeatureCount / featureCount;
+		pnc = (featureCount-classFeatureCount) / featureCount;
+		ef = entropy (pc, pnc);
+		// Calculate the {ci,!ci}-entropy given that the feature does not occur
+		pc = (classCount-classFeatureCount) / (numInstances-featureCount);
+		pnc = ((numInstances-featureCount)-(classCount-classFeatureCount)) / (numInstances-featureCount);
+		double enf = entropy(pc, pnc);
+		return classEntropy - (pf*ef + pnf*enf);
+	}
+
+	/** Computes the per-class infogains from the counts of a single pass over
+	 * an InstanceList, by the best label of each instance. */
+	public static double[][] calcPerLabelInfoGains (FeatureStatistics stats)
+	{
+		int numClasses = stats.numClasses;
+		int numFeatures = stats.numFeatures;
+		int numInstances = stats.numInstances;
+		double[] classEntropies = new double[numClasses];
+		for (int ci = 0; ci < numClasses; ci++) {
+			double pc = ((double)stats.bestLabelCounts[ci])/numInstances;
+			double pnc = ((double)numInstances-stats.bestLabelCounts[ci])/numInstances;
+			classEntropies[ci] = entropy (pc, pnc);
+		}
+		double[][] classInfoGains = new double[numClasses][numFeatures];
+		double[] classFeatureCounts = new double[numClasses];
+		for (int fi = 0; fi < numFeatures; fi++) {
+			double featureCount = 0;
+			for (int n = stats.starts[fi]; n < stats.starts[fi+1]; n++) {
+				classFeatureCounts[stats.labels[n]] = stats.bestLabelOccurrences[n];
+				featureCount += stats.bestLabelOccurrences[n];
+			}
+			if (featureCount == 0)
+				continue;
+			for (int ci = 0; ci < numClasses; ci++)
+				classInfoGains[ci][fi] = infoGain (classEntropies[ci], stats.bestLabelCounts[ci], classFeatureCounts[ci],
+																					 featureCount, numInstances);
+			for (int n = stats.starts[fi]; n < stats.starts[fi+1]; n++)
+				classFeatureCounts[stats.labels[n]] = 0;
+		}
+		return classInfoGains;
+	}
+
 	public static double[][] calcPerLabelInfoGains (InstanceList ilist)
 	{
 		assert (binary);
@@ -131,18 +190,10 @@ public class PerLabelInfoGain
 					classFeatureCounts[ci][fi] = 0;
 					continue;
 				}
-				double pc, pnc, ef;
-				// Calculate the {ci,!ci}-entropy given that the feature does occur
-				pc = ((double)classFeatureCounts[ci][fi]) / featureCounts[fi];
-				pnc = ((double)featureCounts[fi]-classFeatureCounts[ci][fi]) / featureCounts[fi];
-				ef = entropy (pc, pnc);
-				// Calculate the {ci,!ci}-entropy given that the feature does not occur
-				pc = ((double)classCounts[ci]-classFeatureCounts[ci][fi]) / (numInstances-featureCounts[fi]);
-				pnc = ((double)(numInstances-featureCounts[fi])-(classCounts[ci]-classFeatureCounts[ci][fi])) / (numInstances-featureCounts[fi]);
-				double enf = entropy(pc, pnc);
-				classFeatureCounts[ci][fi] = classEntropies[ci] - (pf*ef + pnf*enf);
+				classFeatureCounts[ci][fi] = infoGain (classEntropies[ci], classCounts[ci], classFeatureCounts[ci][fi],
+																							 featureCounts[fi], numInstances);
 				if (print && fi < 10000)
-					System.out.println ("pf="+pf+" ef="+ef+" pnf="+pnf+" enf="+enf+" e="+classEntropies[ci]+" cig="+classFeatureCounts[ci][fi]);
+					System.out.println ("pf="+pf+" pnf="+pnf+" e="+classEntropies[ci]+" cig="+classFeatureCounts[ci][fi]);
 			}
 		}
 
@@ -165,13 +216,25 @@ public class PerLabelInfoGain
 
 	public static class Factory implements RankedFeatureVector.PerLabelFactory
 	{
+		int numThreads = 0;
+
 		public Factory ()
 		{
 		}
+
+		/** Ranks from a {@link FeatureStatistics} counted on <tt>numThreads</tt> threads. */
+		public Factory (int numThreads)
+		{
+			if (numThreads < 1)
+				throw new IllegalArgumentException ("numThreads must be positive, was "+numThreads);
+			this.numThreads = numThreads;
+		}
 		
 		public RankedFeatureVector[] newRankedFeatureVectors (InstanceList ilist)
 		{
-			PerLabelInfoGain x = new PerLabelInfoGain (ilist);
+			PerLabelInfoGain x = (numThreads > 0)
+				? new PerLabelInfoGain (new FeatureStatistics (ilist, numThreads))
+				: new PerLabelInfoGain (ilist);
 			return x.ig;
 		}
 	}
@@ -261,5 +261,17 @@ public class RankedFeatureVector extends FeatureVector
 	{
 		public RankedFeatureVector[] newRankedFeatureVectors (InstanceList ilist);
 	}
-	
+
+	/** A Factory that can also rank binary features which are not in the
+	 * instances' Alphabet, such as candidate feature conjunctions, given the
+	 * columns present in each instance.  The sums over instances are made
+	 * in shards on separate threads, and the shards added in shard order. */
+	public interface ColumnFactory extends Factory
+	{
+		/** Returns the value of each of <tt>numColumns</tt> binary features,
+		 * where <tt>rows[i]</tt> lists the columns present in instance
+		 * <tt>i</tt> of <tt>ilist</tt>, without duplicates. */
+		public double[] columnValues (InstanceList ilist, int[][] rows, int numColumns, int numThreads);
+	}
+
 }
@@ -177,10 +177,20 @@ public class SparseVector implements ConstantMatrix, Vector, Serializable
 		//afv.print();
 		//System.out.println ("SparseVector binary="+binary);
 		//pl.print();
+		// Signed hashing puts each feature in with the sign of its hash
+		HashedAlphabet hashed = (!binary && dict instanceof HashedAlphabet) ? (HashedAlphabet) dict : null;
 		PropertyList.Iterator iter = pl.numericIterator();
 		while (iter.hasNext()) {
 			iter.nextProperty();
 			//System.out.println ("SparseVector adding "+iter.getKey()+" "+iter.getNumericValue());
+			if (hashed != null) {
+				int index = hashed.lookupSignedIndex (iter.getKey());
+				if (index < 0)
+					afv.add (-1-index, -iter.getNumericValue());
+				else
+					afv.add (index, iter.getNumericValue());
+				continue;
+			}
 			int index = dict.lookupIndex(iter.getKey(), growAlphabet);
 			if (index >=0) {
 				afv.add (index, iter.getNumericValue());
@@ -0,0 +1,629 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+
+
+
+package org.zndx.oss.mallet.base.types;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.nio.ByteBuffer;
+import java.io.*;
+import java.util.logging.*;
+import org.zndx.oss.mallet.base.pipe.Pipe;
+import org.zndx.oss.mallet.base.util.MalletLogger;
+import org.zndx.oss.mallet.base.util.DoubleList;
+import org.zndx.oss.mallet.base.util.ParallelUtils;
+
+/**
+	 An InstanceList whose Instances are kept in pages on disk, with
+	 only a bounded number of them on the heap at a time.  Unlike
+	 PagedInstanceList, it does not wait for an OutOfMemoryError before
+	 paging, but keeps the resident pages within an explicit heap budget.
+
+	 There are three tiers.  Instances are appended to a tail page on
+	 the heap.  When the tail holds <code>instancesPerPage</code>
+	 Instances it is written to a file in <code>swapDir</code>, in the
+	 compact binary format of MappedInstanceList, which the operating
+	 system keeps in its cache while it has room.  The page files are
+	 read rather than mapped, so any number of them may be written.
+	 Pages decoded back into Instances are kept in a
+	 least-recently-used cache; when the estimated size of the cached
+	 Instances exceeds <code>heapBudget</code> bytes, the least recently
+	 used pages are dropped.  When the Instances are read in order, as
+	 trainers do on each pass through their training data, the next
+	 page is decoded on a background thread while the current one is
+	 in use.
+
+	 As with MappedInstanceList, data must be FeatureVector or
+	 FeatureVectorSequence, and targets Label, LabelSequence or
+	 LabelsSequence (or none); Instance sources are not kept.  Instances
+	 returned by <code>getInstance()</code> are locked.
+
+	 The split and sampling methods return TieredInstanceLists that are
+	 views of the same pages, and so do not copy any Instances.  Views
+	 are read-only, except for their instance weights, which are kept
+	 on the heap for each list.
+
+	 @see InstanceList
+	 @see MappedInstanceList
+ */
+
+public class TieredInstanceList extends InstanceList
+{
+	private static Logger logger = MalletLogger.getLogger(TieredInstanceList.class.getName());
+
+	public static final int DEFAULT_INSTANCES_PER_PAGE = 1024;
+	public static final long DEFAULT_HEAP_BUDGET = 64L << 20;
+
+	Store store;
+	int[] indices;													// positions in the store of this view's instances, or null
+	BitSet hidden;													// instances whose labels are hidden, or null
+
+	/** Creates a TieredInstanceList that writes pages of
+	 * <code>instancesPerPage</code> Instances to <code>swapDir</code>,
+	 * and keeps at most about <code>heapBudget</code> bytes of them on
+	 * the heap. */
+	public TieredInstanceList (Pipe pipe, int instancesPerPage, long heapBudget, File swapDir)
+	{
+		super (pipe, 0);
+		if (instancesPerPage < 1)
+			throw new IllegalArgumentException ("instancesPerPage must be positive: "+instancesPerPage);
+		if (!swapDir.exists() && !swapDir.mkdirs())
+			throw new IllegalArgumentException ("Couldn't make swap directory "+swapDir);
+		store = new Store (instancesPerPage, heapBudget, swapDir);
+	}
+
+	public TieredInstanceList (Pipe pipe, long heapBudget)
+	{
+		this (pipe, DEFAULT_INSTANCES_PER_PAGE, heapBudget, new File (System.getProperty ("java.io.tmpdir")));
+	}
+
+	public TieredInstanceList (Pipe pipe)
+	{
+		this (pipe, DEFAULT_HEAP_BUDGET);
+	}
+
+	public TieredInstanceList ()
+	{
+		this (notYetSetPipe);
+	}
+
+	// A view of some of the instances of another TieredInstanceList
+	private TieredInstanceList (TieredInstanceList parent, int[] parentPositions)
+	{
+		super (parent.pipe, 0);
+		this.store = parent.store;
+		this.indices = new int[parentPositions.length];
+		for (int i = 0; i < parentPositions.length; i++)
+			indices[i] = parent.storePosition (parentPositions[i]);
+		this.dataVocab = parent.dataVocab;
+		this.targetVocab = parent.targetVocab;
+		this.dataClass = parent.dataClass;
+		this.targetClass = parent.targetClass;
+		this.featureSelection = parent.featureSelection;
+		this.perLabelFeatureSelection = parent.perLabelFeatureSelection;
+		// Placeholders, so that size() and iteration work as in InstanceList
+		this.instances = new ArrayList (Collections.nCopies (indices.length, null));
+		if (parent.instanceWeights != null) {
+			instanceWeights = new DoubleList (parentPositions.length);
+			for (int i = 0; i < parentPositions.length; i++)
+				instanceWeights.add (parent.getInstanceWeight (parentPositions[i]));
+		}
+		this.hidden = MappedInstanceList.hiddenInView (parent.hidden, parentPositions);
+	}
+
+	private int storePosition (int index)
+	{
+		if (index < 0 || index >= instances.size())
+			throw new IndexOutOfBoundsException ("Index: "+index+", Size: "+instances.size());
+		return (indices == null) ? index : indices[index];
+	}
+
+	private void checkWritable ()
+	{
+		if (indices != null)
+			throw new UnsupportedOperationException ("Views of a TieredInstanceList are read-only");
+	}
+
+
+	// ACCESSORS
+
+	/** Returns the <code>Instance</code> at the specified index, reading
+	 * its page from disk if it is not on the heap. */
+	public Instance getInstance (int index)
+	{
+		Instance inst = store.getInstance (storePosition (index));
+		return (hidden != null && hidden.get (index)) ? MappedInstanceList.hideLabel (inst) : inst;
+	}
+
+	/** Replaces the <code>Instance</code> at position <code>index</code>,
+	 * rewriting its page if the page has already been written. */
+	public void setInstance (int index, Instance instance)
+	{
+		checkWritable ();
+		instance.setLock ();
+		store.setInstance (storePosition (index), instance, pipe);
+	}
+
+	/** Appends the instance to this list.  The instance is locked.
+	 * @return <code>true</code>
+	 */
+	public boolean add (Instance instance)
+	{
+		checkWritable ();
+		// Checks the pipe and appends the instance, which is then replaced by a placeholder
+		super.add (instance);
+		instances.set (instances.size() - 1, null);
+		instance.setLock ();
+		store.add (instance, pipe);
+		return true;
+	}
+
+	public void removeInstance (int index)
+	{
+		throw new UnsupportedOperationException ("Can't remove instances from a TieredInstanceList");
+	}
+
+	// Labels are hidden in this list rather than in its Instances, which
+	// may be decoded anew when their page is read again
+
+	public void hideSomeLabels (double proportionToHide, org.zndx.oss.mallet.base.util.Random r)
+	{
+		BitSet bs = new BitSet (size());
+		for (int i = 0; i < size(); i++)
+			if (r.nextBoolean (proportionToHide))
+				bs.set (i);
+		hideSomeLabels (bs);
+	}
+
+	public void hideSomeLabels (BitSet bs)
+	{
+		if (hidden == null)
+			hidden = new BitSet (size());
+		hidden.or (bs.get (0, size()));
+	}
+
+	public void unhideAllLabels ()
+	{
+		hidden = null;
+	}
+
+	/** Returns the estimated size in bytes of the Instances on the heap,
+	 * not counting the unwritten tail page. */
+	public long getResidentBytes ()
+	{
+		synchronized (store) {
+			return store.residentBytes;
+		}
+	}
+
+	/** Returns the number of pages decoded from disk so far, by any view
+	 * of these pages. */
+	public int getNumPageReads ()
+	{
+		synchronized (store) {
+			return store.pageReads;
+		}
+	}
+
+	/** Sets whether the next page is decoded in the background when
+	 * Instances are read in order.  The default is true. */
+	public void setReadAhead (boolean readAhead)
+	{
+		synchronized (store) {
+			store.readAhead = readAhead;
+		}
+	}
+
+	/** Deletes the page files.  This list and its views may not be used
+	 * afterwards.  Otherwise the files are deleted when the VM exits. */
+	public void close ()
+	{
+		store.close ();
+	}
+
+
+	// SPLITTING AND SAMPLING METHODS
+
+	public InstanceList[] split (java.util.Random r, double[] proportions)
+	{
+		ArrayList shuffled = new ArrayList (size());
+		for (int i = 0; i < size(); i++)
+			shuffled.add (new Integer (i));
+		Collections.shuffle (shuffled, r);
+		return splitInOrder (shuffled, proportions);
+	}
+
+	public InstanceList[] splitInOrder (double[] proportions)
+	{
+		ArrayList positions = new ArrayList (size());
+		for (int i = 0; i < size(); i++)
+			positions.add (new Integer (i));
+		return splitInOrder (positions, proportions);
+	}
+
+	private InstanceList[] splitInOrder (List positions, double[] proportions)
+	{
+		int[][] parts = MappedInstanceList.splitPositions (positions, proportions);
+		InstanceList[] ret = new InstanceList[parts.length];
+		for (int j = 0; j < parts.length; j++)
+			ret[j] = new TieredInstanceList (this, parts[j]);
+		return ret;
+	}
+
+	public InstanceList[] splitByModulo (int m)
+	{
+		int[][] parts = MappedInstanceList.moduloPositions (size(), m);
+		return new InstanceList[] {
+			new TieredInstanceList (this, parts[0]), new TieredInstanceList (this, parts[1]) };
+	}
+
+	public InstanceList sampleWithReplacement (java.util.Random r, int numSamples)
+	{
+		int[] sample = new int[numSamples];
+		for (int i = 0; i < numSamples; i++)
+			sample[i] = r.nextInt (size());
+		return new TieredInstanceList (this, sample);
+	}
+
+	public InstanceList select (int[] indices)
+	{
+		return new TieredInstanceList (this, indices);
+	}
+
+	public InstanceList subList (int start, int end)
+	{
+		int[] part = new int[end - start];
+		for (int i = start; i < end; i++)
+			part[i - start] = i;
+		return new TieredInstanceList (this, part);
+	}
+
+	public InstanceList shallowClone ()
+	{
+		return subList (0, size());
+	}
+
+	/** Returns an empty TieredInstanceList with the same pipe, page size,
+	 * heap budget and swap directory, and pages of its own. */
+	public InstanceList cloneEmpty ()
+	{
+		TieredInstanceList ret = new TieredInstanceList (pipe, store.instancesPerPage, store.heapBudget, store.swapDir);
+		ret.featureSelection = this.featureSelection;
+		ret.perLabelFeatureSelection = this.perLabelFeatureSelection;
+		ret.dataClass = this.dataClass;
+		ret.targetClass = this.targetClass;
+		ret.dataVocab = this.dataVocab;
+		ret.targetVocab = this.targetVocab;
+		return ret;
+	}
+
+	// A TieredInstanceList is serialized as an ordinary InstanceList
+	private Object writeReplace () throws ObjectStreamException
+	{
+		InstanceList ret = new InstanceList (pipe, size());
+		for (int i = 0; i < size(); i++)
+			ret.add (getInstance (i), getInstanceWeight (i));
+		ret.featureSelection = featureSelection;
+		ret.perLabelFeatureSelection = perLabelFeatureSelection;
+		return ret;
+	}
+
+	// A rough estimate of the heap used by an Instance: object headers,
+	// plus the index and value arrays of its feature vectors
+	static long estimateHeapBytes (Instance inst)
+	{
+		long bytes = 64;
+		Object data = inst.getData ();
+		if (data instanceof FeatureVector)
+			bytes += estimateHeapBytes ((FeatureVector) data);
+		else if (data instanceof FeatureVectorSequence) {
+			FeatureVectorSequence fvs = (FeatureVectorSequence) data;
+			bytes += 32 + 8L * fvs.size();
+			for (int t = 0; t < fvs.size(); t++)
+				bytes += estimateHeapBytes (fvs.getFeatureVector (t));
+		}
+		Object target = inst.getTarget ();
+		if (target instanceof Sequence)
+			bytes += 32 + 24L * ((Sequence) target).size();
+		return bytes;
+	}
+
+	private static long estimateHeapBytes (FeatureVector fv)
+	{
+		int n = fv.numLocations ();
+		return 80 + 4L * n + (fv.values == null ? 0 : 8L * n);
+	}
+
+
+	/** The pages of one TieredInstanceList, shared by all of the views of it.
+	 * Reads of pages on the heap take no lock; other reads, and writes,
+	 * synchronize on the Store. */
+	static class Store
+	{
+		int instancesPerPage;
+		long heapBudget;
+		File swapDir;
+		Pipe pipe;
+		Alphabet dataAlphabet;
+
+		int size;
+		ArrayList tail;													// Instances not yet written
+		ArrayList pageFiles = new ArrayList ();				// File of each written page
+		volatile int numPages;										// pageFiles.size(), for reads without the lock
+		ConcurrentHashMap resident = new ConcurrentHashMap ();	// Integer page -> Page
+		AtomicLong useClock = new AtomicLong ();				// orders the resident pages by their last use
+		long residentBytes;
+		int pageReads;
+
+		volatile boolean readAhead = true;
+		volatile int lastPage = -1;
+		int pendingPage = -1;
+		Future pending;
+		ExecutorService executor;
+
+		Store (int instancesPerPage, long heapBudget, File swapDir)
+		{
+			this.instancesPerPage = instancesPerPage;
+			this.heapBudget = heapBudget;
+			this.swapDir = swapDir;
+			this.tail = new ArrayList (instancesPerPage);
+		}
+
+		synchronized void add (Instance inst, Pipe listPipe)
+		{
+			if (dataAlphabet == null)
+				dataAlphabet = dataAlphabet (inst.getData ());
+			tail.add (inst);
+			size++;
+			if (tail.size() == instancesPerPage) {
+				Instance[] page = (Instance[]) tail.toArray (new Instance[tail.size()]);
+				writePage (pageFiles.size(), page, listPipe);
+				tail = new ArrayList (instancesPerPage);
+				// The Instances just written are as good as decoded ones
+				putResident (pageFiles.size() - 1, page);
+				numPages = pageFiles.size();
+			}
+		}
+
+		private static Alphabet dataAlphabet (Object data)
+		{
+			if (data instanceof FeatureVector)
+				return ((FeatureVector) data).getAlphabet ();
+			if (data instanceof FeatureVectorSequence && ((FeatureVectorSequence) data).size() > 0)
+				return ((FeatureVectorSequence) data).getFeatureVector (0).getAlphabet ();
+			return null;
+		}
+
+		private void writePage (int p, Instance[] page, Pipe listPipe)
+		{
+			this.pipe = listPipe;
+			InstanceList ilist = new InstanceList (listPipe, page.length);
+			for (int i = 0; i < page.length; i++)
+				ilist.add (page[i]);
+			File f = null;
+			try {
+				f = File.createTempFile ("tiered", ".page", swapDir);
+				f.deleteOnExit ();
+				MappedInstanceList.write (ilist, f, false);
+			} catch (IOException e) {
+				e.printStackTrace();
+				throw new IllegalStateException ("Couldn't write page "+p+" to "+(f == null ? swapDir : f));
+			}
+			if (p == pageFiles.size())
+				pageFiles.add (f);
+			else
+				// Pages are read into the heap rather than mapped, so nothing holds on to the old file
+				((File) pageFiles.set (p, f)).delete ();
+			logger.fine ("Wrote page "+p+" to "+f);
+		}
+
+		synchronized void setInstance (int position, Instance inst, Pipe listPipe)
+		{
+			int p = position / instancesPerPage;
+			if (p == pageFiles.size()) {
+				tail.set (position % instancesPerPage, inst);
+				return;
+			}
+			Instance[] page = (Instance[]) getPage (p).clone ();
+			page[position % instancesPerPage] = inst;
+			if (p == pendingPage)
+				cancelReadAhead ();
+			removeResident (p);
+			writePage (p, page, listPipe);
+			putResident (p, page);
+		}
+
+		Instance getInstance (int position)
+		{
+			int p = position / instancesPerPage;
+			if (position >= 0 && p < numPages) {
+				Page page = (Page) resident.get (new Integer (p));
+				if (page != null) {
+					page.lastUsed = useClock.incrementAndGet ();
+					if (readAhead && p != lastPage)
+						noteRead (p);
+					return page.instances[position % instancesPerPage];
+				}
+			}
+			return readInstance (position);
+		}
+
+		// Reads of the tail, and of pages that are not on the heap
+		private synchronized Instance readInstance (int position)
+		{
+			if (position >= size)
+				throw new IndexOutOfBoundsException ("Position: "+position+", Size: "+size);
+			int p = position / instancesPerPage;
+			if (p == pageFiles.size())
+				return (Instance) tail.get (position % instancesPerPage);
+			Instance[] page = getPage (p);
+			if (readAhead && p != lastPage)
+				noteRead (p);
+			return page[position % instancesPerPage];
+		}
+
+		// Sequential reads move on to the next page, or start again from the first
+		private void noteRead (int p)
+		{
+			if (p == lastPage + 1 || p == 0) {
+				synchronized (this) {
+					startReadAhead (p + 1);
+				}
+			}
+			lastPage = p;
+		}
+
+		private Instance[] getPage (int p)
+		{
+			Page page = (Page) resident.get (new Integer (p));
+			if (page != null)
+				return page.instances;
+			Instance[] instances = null;
+			if (p == pendingPage) {
+				try {
+					instances = (Instance[]) pending.get ();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (ExecutionException e) {
+					logger.warning ("Reading ahead page "+p+" failed: "+e.getCause());
+				}
+				pendingPage = -1;
+				pending = null;
+			}
+			if (instances == null)
+				instances = readPage ((File) pageFiles.get (p), pipe, dataAlphabet);
+			pageReads++;
+			putResident (p, instances);
+			return instances;
+		}
+
+		// Reads the whole page file onto the heap and decodes it.  The
+		// file is not mapped, since the mappings could only be released
+		// by the garbage collector, and the number of them is limited.
+		private static Instance[] readPage (File f, Pipe pipe, Alphabet dataAlphabet)
+		{
+			try {
+				RandomAccessFile raf = new RandomAccessFile (f, "r");
+				byte[] bytes;
+				try {
+					if (raf.length () > Integer.MAX_VALUE)
+						throw new IOException ("Page file is too large: "+f);
+					bytes = new byte[(int) raf.length ()];
+					raf.readFully (bytes);
+				} finally {
+					raf.close ();
+				}
+				MappedInstanceList.MappedFile page = new MappedInstanceList.MappedFile (ByteBuffer.wrap (bytes), pipe, dataAlphabet, f);
+				Instance[] instances = new Instance[page.numInstances];
+				for (int i = 0; i < instances.length; i++)
+					instances[i] = page.getInstance (i);
+				return instances;
+			} catch (IOException e) {
+				e.printStackTrace();
+				throw new IllegalStateException ("Couldn't read page from "+f);
+			} catch (ClassNotFoundException e) {
+				e.printStackTrace();
+				throw new IllegalStateException ("Couldn't read page from "+f);
+			}
+		}
+
+		// Decodes page p in the background, unless it is already on the heap
+		private void startReadAhead (int p)
+		{
+			if (p >= pageFiles.size() || p == pendingPage || resident.containsKey (new Integer (p)))
+				return;
+			cancelReadAhead ();
+			if (executor == null)
+				executor = ParallelUtils.newExecutor (1, "TieredInstanceList read-ahead");
+			final File f = (File) pageFiles.get (p);
+			final Pipe pagePipe = pipe;
+			final Alphabet pageAlphabet = dataAlphabet;
+			pendingPage = p;
+			pending = executor.submit (new Callable () {
+					public Object call () { return readPage (f, pagePipe, pageAlphabet); }
+				});
+		}
+
+		private void cancelReadAhead ()
+		{
+			if (pending != null)
+				pending.cancel (false);
+			pending = null;
+			pendingPage = -1;
+		}
+
+		private void putResident (int p, Instance[] instances)
+		{
+			Page page = new Page (instances);
+			page.lastUsed = useClock.incrementAndGet ();
+			Page old = (Page) resident.put (new Integer (p), page);
+			if (old != null)
+				residentBytes -= old.bytes;
+			residentBytes += page.bytes;
+			// Drop the least recently used pages, but keep at least the page just used
+			while (residentBytes > heapBudget && resident.size() > 1) {
+				Object eldestKey = null;
+				long eldestUse = Long.MAX_VALUE;
+				for (java.util.Iterator iter = resident.entrySet().iterator(); iter.hasNext(); ) {
+					Map.Entry entry = (Map.Entry) iter.next ();
+					Page other = (Page) entry.getValue ();
+					if (other != page && other.lastUsed < eldestUse) {
+						eldestKey = entry.getKey ();
+						eldestUse = other.lastUsed;
+					}
+				}
+				residentBytes -= ((Page) resident.remove (eldestKey)).bytes;
+			}
+		}
+
+		private void removeResident (int p)
+		{
+			Page page = (Page) resident.remove (new Integer (p));
+			if (page != null)
+				residentBytes -= page.bytes;
+		}
+
+		synchronized void close ()
+		{
+			cancelReadAhead ();
+			if (executor != null)
+				executor.shutdownNow ();
+			executor = null;
+			resident.clear ();
+			residentBytes = 0;
+			for (int p = 0; p < pageFiles.size(); p++)
+				((File) pageFiles.get (p)).delete ();
+		}
+	}
+
+	static class Page
+	{
+		Instance[] instances;
+		long bytes;
+		volatile long lastUsed;
+
+		Page (Instance[] instances)
+		{
+			this.instances = instances;
+			for (int i = 0; i < instances.length; i++)
+				bytes += estimateHeapBytes (instances[i]);
+		}
+	}
+
+}
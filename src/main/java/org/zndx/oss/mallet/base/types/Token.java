@@ -32,6 +32,9 @@ public class Token implements Serializable, PropertyHolder
 	private String text;
 	PropertyList properties = null;				// for arbitrary properties
 	PropertyList features = null;					// numeric, to turn into a FeatureVector
+	int[] featureIds = null;							// indices into a data Alphabet, with
+	double[] featureIdValues = null;			//  their values, also for the FeatureVector
+	int numFeatureIds = 0;
 	
 	public Token (String s)
 	{
@@ -61,6 +64,8 @@ public class Token implements Serializable, PropertyHolder
 				sb.append (" feature(" + iter.getKey() + ")=" +iter.getNumericValue());
 			}
 		}
+		for (int i = 0; i < numFeatureIds; i++)
+			sb.append (" feature(#" + featureIds[i] + ")=" + featureIdValues[i]);
 		if (properties != null) {
 			PropertyList.Iterator iter = properties.iterator();
 			while (iter.hasNext()) {
@@ -134,6 +139,60 @@ public class Token implements Serializable, PropertyHolder
 		features = pl;
 	}
 
+	/** Adds a feature by its index in the data Alphabet, without
+	 * looking up its name.  These features are kept apart from the
+	 * ones set by name, and in the order in which they were added;
+	 * both kinds go into the FeatureVector.
+	 * @see org.zndx.oss.mallet.base.pipe.tsf.OffsetConjunctionIds */
+	public void addFeatureId (int id, double value)
+	{
+		if (featureIds == null) {
+			featureIds = new int[4];
+			featureIdValues = new double[4];
+		} else if (numFeatureIds == featureIds.length) {
+			int[] newIds = new int[2 * numFeatureIds];
+			double[] newValues = new double[2 * numFeatureIds];
+			System.arraycopy (featureIds, 0, newIds, 0, numFeatureIds);
+			System.arraycopy (featureIdValues, 0, newValues, 0, numFeatureIds);
+			featureIds = newIds;
+			featureIdValues = newValues;
+		}
+		featureIds[numFeatureIds] = id;
+		featureIdValues[numFeatureIds] = value;
+		numFeatureIds++;
+	}
+
+	public int numFeatureIds ()
+	{
+		return numFeatureIds;
+	}
+
+	public int getFeatureId (int i)
+	{
+		if (i >= numFeatureIds)
+			throw new IndexOutOfBoundsException ("Index: "+i+", Size: "+numFeatureIds);
+		return featureIds[i];
+	}
+
+	public double getFeatureIdValue (int i)
+	{
+		if (i >= numFeatureIds)
+			throw new IndexOutOfBoundsException ("Index: "+i+", Size: "+numFeatureIds);
+		return featureIdValues[i];
+	}
+
+	/** Replaces the features added by index with the first
+	 * <code>size</code> of the given ones.  The arrays are kept, not
+	 * copied. */
+	public void setFeatureIds (int[] ids, double[] values, int size)
+	{
+		if (ids.length < size || values.length < size)
+			throw new IllegalArgumentException ("Arrays shorter than size "+size);
+		featureIds = ids;
+		featureIdValues = values;
+		numFeatureIds = size;
+	}
+
   // Serialization
 
   private static final long serialVersionUID = 1;
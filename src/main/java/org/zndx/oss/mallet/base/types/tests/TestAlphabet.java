@@ -8,8 +8,13 @@ package org.zndx.oss.mallet.base.types.tests;
 
 import junit.framework.*;
 import org.zndx.oss.mallet.base.types.Alphabet;
+import org.zndx.oss.mallet.base.types.ConcurrentAlphabet;
+import org.zndx.oss.mallet.base.types.FeatureVector;
+import org.zndx.oss.mallet.base.types.HashedAlphabet;
+import org.zndx.oss.mallet.base.util.PropertyList;
 
 import java.io.IOException;
+import java.rmi.dgc.VMID;
 
 /**
  * Created: Nov 24, 2004
@@ -46,6 +51,100 @@ public class TestAlphabet extends TestCase {
     assertTrue (dict == dict2);
   }
 
+  public void testConcurrentAlphabet () throws Exception
+  {
+    final ConcurrentAlphabet dict = new ConcurrentAlphabet ();
+    final int numEntries = 20000;
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      final int offset = t * 997;
+      threads[t] = new Thread () {
+        public void run () {
+          // Every thread adds every entry, in a different order
+          for (int i = 0; i < numEntries; i++)
+            dict.lookupIndex ("TEST" + ((i + offset) % numEntries));
+        }
+      };
+      threads[t].start ();
+    }
+    for (int t = 0; t < threads.length; t++)
+      threads[t].join ();
+
+    assertEquals (numEntries, dict.size ());
+    boolean[] seen = new boolean[numEntries];
+    for (int i = 0; i < numEntries; i++) {
+      int index = dict.lookupIndex ("TEST" + i, false);
+      assertFalse (seen[index]);
+      seen[index] = true;
+      assertEquals ("TEST" + i, dict.lookupObject (index));
+    }
+
+    dict.stopGrowth ();
+    assertEquals (-1, dict.lookupIndex ("NEW", true));
+    for (int i = 0; i < numEntries; i++)
+      assertEquals ("TEST" + i, dict.lookupObject (dict.lookupIndex ("TEST" + i)));
+    dict.setInstanceId (new VMID ());
+    ConcurrentAlphabet dict2 = (ConcurrentAlphabet) TestSerializable.cloneViaSerialization (dict);
+    assertTrue (dict != dict2);
+    assertTrue (dict2.growthStopped ());
+    assertEquals (numEntries, dict2.size ());
+    assertEquals (dict.lookupIndex ("TEST5"), dict2.lookupIndex ("TEST5"));
+
+    dict.startGrowth ();
+    assertEquals (numEntries, dict.lookupIndex ("NEW", true));
+    assertEquals ("NEW", dict.toArray ()[numEntries]);
+  }
+
+  public void testHashedAlphabet () throws Exception
+  {
+    HashedAlphabet dict = new HashedAlphabet (10, true, 0, 100);
+    assertEquals (1024, dict.size ());
+    // No dictionary: the same entry gets the same index in another Alphabet
+    int index = dict.lookupIndex ("TEST1", false);
+    assertTrue (index >= 0 && index < 1024);
+    assertEquals (index, new HashedAlphabet (10).lookupIndex ("TEST1"));
+    assertEquals ("TEST1", dict.lookupObject (index));
+    assertEquals (HashedAlphabet.hash ("TEST1", 0) & 1023, index);
+
+    // Feature values take the sign of their hash
+    PropertyList pl = null;
+    int numNegative = 0;
+    for (int i = 0; i < 200; i++) {
+      String feature = "feature" + i;
+      pl = PropertyList.add (feature, 1.0, pl);
+      if (dict.lookupSignedIndex (feature) < 0)
+        numNegative++;
+    }
+    assertTrue (numNegative > 50 && numNegative < 150);
+    FeatureVector fv = new FeatureVector (dict, pl, false);
+    double[] expected = new double[dict.size ()];
+    for (int i = 0; i < 200; i++) {
+      int si = dict.lookupSignedIndex ("feature" + i);
+      if (si < 0)
+        expected[-1-si] -= 1.0;
+      else
+        expected[si] += 1.0;
+    }
+    for (int i = 0; i < expected.length; i++)
+      assertEquals (expected[i], fv.value (i), 0.0);
+
+    // Only a sample of entries is kept
+    for (int i = 0; i < 1000; i++)
+      dict.lookupIndex ("more" + i);
+    int numNamed = 0;
+    for (int i = 0; i < dict.size (); i++)
+      if (!dict.lookupObject (i).toString ().startsWith ("#"))
+        numNamed++;
+    assertEquals (100, numNamed);
+
+    dict.setInstanceId (new VMID ());
+    HashedAlphabet dict2 = (HashedAlphabet) TestSerializable.cloneViaSerialization (dict);
+    assertTrue (dict != dict2);
+    assertEquals (dict.size (), dict2.size ());
+    assertEquals (dict.lookupSignedIndex ("TEST5"), dict2.lookupSignedIndex ("TEST5"));
+    assertEquals ("TEST1", dict2.lookupObject (index));
+  }
+
   public static Test suite ()
   {
     return new TestSuite (TestAlphabet.class);
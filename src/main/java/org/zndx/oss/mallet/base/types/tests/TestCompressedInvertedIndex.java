@@ -0,0 +1,175 @@
+/* Copyright (C) 2003 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+package org.zndx.oss.mallet.base.types.tests;
+
+import junit.framework.*;
+import org.zndx.oss.mallet.base.types.*;
+import org.zndx.oss.mallet.base.pipe.Noop;
+import org.zndx.oss.mallet.base.util.Random;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class TestCompressedInvertedIndex extends TestCase {
+
+  public TestCompressedInvertedIndex (String name)
+  {
+    super (name);
+  }
+
+  public static Test suite ()
+  {
+    return new TestSuite (TestCompressedInvertedIndex.class);
+  }
+
+  private static Alphabet dictOfSize (int size)
+  {
+    Alphabet ret = new Alphabet ();
+    for (int i = 0; i < size; i++)
+      ret.lookupIndex ("feature"+i);
+    return ret;
+  }
+
+  private static InstanceList randomList ()
+  {
+    String[] classNames = new String[] {"a", "b", "c"};
+    return new InstanceList (new Random (1), dictOfSize (300), classNames, 400);
+  }
+
+  // The instances with each feature, the slow way
+  private static int[] instancesWith (InstanceList ilist, int fi)
+  {
+    int[] ret = new int[ilist.size ()];
+    int n = 0;
+    for (int i = 0; i < ilist.size (); i++)
+      if (((FeatureVector) ilist.getInstance (i).getData ()).value (fi) != 0)
+        ret[n++] = i;
+    int[] trimmed = new int[n];
+    System.arraycopy (ret, 0, trimmed, 0, n);
+    return trimmed;
+  }
+
+  public void testPostings ()
+  {
+    InstanceList ilist = randomList ();
+    CompressedInvertedIndex index = new CompressedInvertedIndex (ilist, true, 4);
+    InvertedIndex old = new InvertedIndex (ilist);
+    int numFeatures = ilist.getDataAlphabet ().size ();
+    for (int fi = 0; fi < numFeatures; fi++) {
+      int[] expected = instancesWith (ilist, fi);
+      assertTrue (Arrays.equals (expected, index.getInstanceIndices (fi)));
+      assertEquals (old.getCountWithFeature (fi), index.getDocumentFrequency (fi));
+      CompressedInvertedIndex.PostingIterator it = index.iterator (fi);
+      for (int i = 0; i < expected.length; i++) {
+        assertEquals (expected[i], it.next ());
+        assertEquals (((FeatureVector) ilist.getInstance (expected[i]).getData ()).value (fi), it.value (), 0.0);
+      }
+      assertFalse (it.hasNext ());
+      ArrayList instances = index.getInstancesWithFeature (fi);
+      assertEquals (expected.length, instances.size ());
+      if (expected.length > 0)
+        assertSame (ilist.getInstance (expected[0]), instances.get (0));
+    }
+    assertEquals (index.getDocumentFrequency (7), index.getDocumentFrequency (ilist.getDataAlphabet ().lookupObject (7)));
+    assertTrue (index.getNumBytes () > 0);
+  }
+
+  public void testThreads ()
+  {
+    // Few features and many instances, so that each thread gets a range of instances
+    java.util.Random r = new java.util.Random (2);
+    Alphabet dict = dictOfSize (20);
+    InstanceList ilist = new InstanceList (new Noop (dict, null));
+    for (int i = 0; i < 3000; i++) {
+      int[] indices = new int[dict.size ()];
+      double[] values = new double[dict.size ()];
+      int n = 0;
+      for (int fi = 0; fi < dict.size (); fi++)
+        if (r.nextInt (fi + 2) == 0) {
+          indices[n] = fi;
+          // Mostly ones, as for binary features
+          values[n++] = r.nextInt (4) == 0 ? r.nextGaussian () : 1.0;
+        }
+      int[] trimmedIndices = new int[n];
+      double[] trimmedValues = new double[n];
+      System.arraycopy (indices, 0, trimmedIndices, 0, n);
+      System.arraycopy (values, 0, trimmedValues, 0, n);
+      ilist.add (new FeatureVector (dict, trimmedIndices, trimmedValues), null, "i"+i, null);
+    }
+    CompressedInvertedIndex serial = new CompressedInvertedIndex (ilist, true, 1);
+    for (int numThreads = 2; numThreads <= 8; numThreads *= 2) {
+      CompressedInvertedIndex index = new CompressedInvertedIndex (ilist, true, numThreads);
+      assertEquals (serial.getNumBytes (), index.getNumBytes ());
+      for (int fi = 0; fi < ilist.getDataAlphabet ().size (); fi++) {
+        assertTrue (Arrays.equals (instancesWith (ilist, fi), index.getInstanceIndices (fi)));
+        CompressedInvertedIndex.PostingIterator it1 = serial.iterator (fi), it2 = index.iterator (fi);
+        while (it1.hasNext ()) {
+          assertEquals (it1.next (), it2.next ());
+          assertEquals (it1.value (), it2.value (), 0.0);
+        }
+        assertFalse (it2.hasNext ());
+      }
+    }
+  }
+
+  public void testQueries ()
+  {
+    InstanceList ilist = randomList ();
+    CompressedInvertedIndex index = new CompressedInvertedIndex (ilist);
+    int[] features = new int[] {3, 17, 42};
+    int[] a = instancesWith (ilist, 3), b = instancesWith (ilist, 17), c = instancesWith (ilist, 42);
+    ArrayList and = new ArrayList (), or = new ArrayList ();
+    for (int i = 0; i < ilist.size (); i++) {
+      boolean inA = Arrays.binarySearch (a, i) >= 0, inB = Arrays.binarySearch (b, i) >= 0,
+        inC = Arrays.binarySearch (c, i) >= 0;
+      if (inA && inB && inC) and.add (new Integer (i));
+      if (inA || inB || inC) or.add (new Integer (i));
+    }
+    int[] intersection = index.intersection (features);
+    assertEquals (and.size (), intersection.length);
+    for (int i = 0; i < intersection.length; i++)
+      assertEquals (((Integer) and.get (i)).intValue (), intersection[i]);
+    assertEquals (and.size (), index.getDocumentFrequency (features));
+    int[] union = index.union (features);
+    assertEquals (or.size (), union.length);
+    for (int i = 0; i < union.length; i++)
+      assertEquals (((Integer) or.get (i)).intValue (), union[i]);
+  }
+
+  public void testStatistics ()
+  {
+    InstanceList ilist = randomList ();
+    CompressedInvertedIndex index = new CompressedInvertedIndex (ilist, false, 3);
+    InfoGain ig1 = new InfoGain (ilist);
+    InfoGain ig2 = new InfoGain (index);
+    assertEquals (ig1.getBaseEntropy (), ig2.getBaseEntropy (), 1e-12);
+    for (int fi = 0; fi < ilist.getDataAlphabet ().size (); fi++)
+      assertEquals (ig1.value (fi), ig2.value (fi), 1e-9);
+    FeatureCounts counts = index.getFeatureCounts ();
+    FeatureSelection fs = index.getFeatureSelection (5, Integer.MAX_VALUE);
+    for (int fi = 0; fi < ilist.getDataAlphabet ().size (); fi++) {
+      assertEquals (index.getDocumentFrequency (fi), counts.value (fi), 0.0);
+      assertEquals (index.getDocumentFrequency (fi) >= 5, fs.contains (fi));
+    }
+  }
+
+  public static void main (String[] args) throws Throwable
+  {
+    TestSuite theSuite;
+    if (args.length > 0) {
+      theSuite = new TestSuite ();
+      for (int i = 0; i < args.length; i++) {
+        theSuite.addTest (new TestCompressedInvertedIndex (args[i]));
+      }
+    } else {
+      theSuite = (TestSuite) suite ();
+    }
+
+    junit.textui.TestRunner.run (theSuite);
+  }
+
+}
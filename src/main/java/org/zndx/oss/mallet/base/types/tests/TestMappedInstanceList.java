@@ -0,0 +1,189 @@
+/* Copyright (C) 2003 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+package org.zndx.oss.mallet.base.types.tests;
+
+import junit.framework.*;
+import org.zndx.oss.mallet.base.classify.*;
+import org.zndx.oss.mallet.base.types.*;
+import org.zndx.oss.mallet.base.util.Random;
+
+import java.io.File;
+import java.io.IOException;
+
+public class TestMappedInstanceList extends TestCase {
+
+  public TestMappedInstanceList (String name)
+  {
+    super (name);
+  }
+
+  public static Test suite ()
+  {
+    return new TestSuite (TestMappedInstanceList.class);
+  }
+
+  private static Alphabet dictOfSize (int size)
+  {
+    Alphabet ret = new Alphabet ();
+    for (int i = 0; i < size; i++)
+      ret.lookupIndex ("feature"+i);
+    return ret;
+  }
+
+  private static File writeTemp (InstanceList ilist) throws IOException
+  {
+    File f = File.createTempFile ("mapped", ".ilist");
+    f.deleteOnExit ();
+    MappedInstanceList.write (ilist, f);
+    return f;
+  }
+
+  private static void assertSameVectors (FeatureVector fv1, FeatureVector fv2)
+  {
+    assertEquals (fv1.numLocations (), fv2.numLocations ());
+    for (int loc = 0; loc < fv1.numLocations (); loc++) {
+      assertEquals (fv1.indexAtLocation (loc), fv2.indexAtLocation (loc));
+      assertEquals (fv1.valueAtLocation (loc), fv2.valueAtLocation (loc), 0.0);
+    }
+  }
+
+  public void testFeatureVectors () throws IOException
+  {
+    String[] classNames = new String[] {"class0", "class1", "class2"};
+    InstanceList ilist = new InstanceList (new Random (1), dictOfSize (5), classNames, 100);
+    ilist.setInstanceWeight (3, 2.5);
+
+    MappedInstanceList mapped = new MappedInstanceList (writeTemp (ilist));
+    assertEquals (ilist.size (), mapped.size ());
+    assertTrue (mapped.getDataAlphabet () == ilist.getDataAlphabet ());
+    for (int i = 0; i < ilist.size (); i++) {
+      Instance inst1 = ilist.getInstance (i);
+      Instance inst2 = mapped.getInstance (i);
+      assertSameVectors ((FeatureVector) inst1.getData (), (FeatureVector) inst2.getData ());
+      assertEquals (inst1.getTarget (), inst2.getTarget ());
+      assertEquals (ilist.getInstanceWeight (i), mapped.getInstanceWeight (i), 0.0);
+    }
+
+    // Views of the file split the same way as the original list
+    InstanceList[] lists1 = ilist.split (new java.util.Random (2), new double[] {.5, .5});
+    InstanceList[] lists2 = mapped.split (new java.util.Random (2), new double[] {.5, .5});
+    for (int j = 0; j < lists1.length; j++) {
+      assertTrue (lists2[j] instanceof MappedInstanceList);
+      assertEquals (lists1[j].size (), lists2[j].size ());
+      for (int i = 0; i < lists1[j].size (); i++)
+        assertSameVectors ((FeatureVector) lists1[j].getInstance (i).getData (),
+                           (FeatureVector) lists2[j].getInstance (i).getData ());
+    }
+
+    double[] params1 = ((MaxEnt) new MaxEntTrainer ().train (ilist)).getParameters ();
+    double[] params2 = ((MaxEnt) new MaxEntTrainer ().train (mapped)).getParameters ();
+    assertEquals (params1.length, params2.length);
+    for (int i = 0; i < params1.length; i++)
+      assertEquals (params1[i], params2[i], 1e-10);
+  }
+
+  public void testHiddenLabels () throws IOException
+  {
+    String[] classNames = new String[] {"class0", "class1", "class2"};
+    InstanceList ilist = new InstanceList (new Random (1), dictOfSize (5), classNames, 100);
+    MappedInstanceList mapped = new MappedInstanceList (writeTemp (ilist));
+
+    // The same instances are hidden as in an InstanceList, with their labels kept as properties
+    InstanceList expected = ilist.shallowClone ();
+    for (int i = 0; i < expected.size (); i++)
+      expected.setInstance (i, ilist.getInstance (i).shallowCopy ());
+    expected.hideSomeLabels (.3, new Random (2));
+    mapped.hideSomeLabels (.3, new Random (2));
+    java.util.BitSet more = new java.util.BitSet ();
+    more.set (0);
+    more.set (99);
+    expected.hideSomeLabels (more);
+    mapped.hideSomeLabels (more);
+    int numHidden = 0;
+    for (int i = 0; i < ilist.size (); i++) {
+      Instance inst1 = expected.getInstance (i);
+      Instance inst2 = mapped.getInstance (i);
+      assertEquals (inst1.getTarget (), inst2.getTarget ());
+      assertTrue (inst2.isLocked ());
+      if (inst2.getTarget () == null) {
+        assertEquals (ilist.getInstance (i).getTarget (), inst2.getProperty (InstanceList.TARGET_PROPERTY));
+        numHidden++;
+      }
+    }
+    assertTrue (numHidden > 2 && numHidden < ilist.size ());
+    assertNull (mapped.getInstance (99).getTarget ());
+
+    // Views keep the hidden labels of the instances they select
+    InstanceList view = mapped.subList (90, 100);
+    assertNull (view.getInstance (9).getTarget ());
+    assertEquals (ilist.getInstance (99).getTarget (), view.getInstance (9).getProperty (InstanceList.TARGET_PROPERTY));
+
+    mapped.unhideAllLabels ();
+    for (int i = 0; i < ilist.size (); i++)
+      assertEquals (ilist.getInstance (i).getTarget (), mapped.getInstance (i).getTarget ());
+    assertNull (view.getInstance (9).getTarget ());
+  }
+
+  public void testSequences () throws IOException
+  {
+    Alphabet dict = dictOfSize (10);
+    LabelAlphabet tags = new LabelAlphabet ();
+    LabelAlphabet chunks = new LabelAlphabet ();
+    InstanceList ilist = new InstanceList (dict, tags);
+    java.util.Random r = new java.util.Random (1);
+    for (int i = 0; i < 20; i++) {
+      int length = 1 + r.nextInt (5);
+      FeatureVector[] fvs = new FeatureVector[length];
+      Labels[] lbls = new Labels[length];
+      for (int t = 0; t < length; t++) {
+        fvs[t] = new FeatureVector (dict, new int[] { r.nextInt (5), 5 + r.nextInt (5) });
+        lbls[t] = new Labels (new Label[] {
+          tags.lookupLabel ("tag"+r.nextInt (3)), chunks.lookupLabel ("chunk"+r.nextInt (2)) });
+      }
+      ilist.add (new Instance (new FeatureVectorSequence (fvs), new LabelsSequence (lbls), "seq"+i, null));
+    }
+
+    MappedInstanceList mapped = new MappedInstanceList (writeTemp (ilist));
+    assertEquals (ilist.size (), mapped.size ());
+    for (int i = 0; i < ilist.size (); i++) {
+      Instance inst1 = ilist.getInstance (i);
+      Instance inst2 = mapped.getInstance (i);
+      assertEquals (inst1.getName (), inst2.getName ());
+      FeatureVectorSequence fvs1 = (FeatureVectorSequence) inst1.getData ();
+      FeatureVectorSequence fvs2 = (FeatureVectorSequence) inst2.getData ();
+      assertEquals (fvs1.size (), fvs2.size ());
+      LabelsSequence lbls1 = (LabelsSequence) inst1.getTarget ();
+      LabelsSequence lbls2 = (LabelsSequence) inst2.getTarget ();
+      for (int t = 0; t < fvs1.size (); t++) {
+        assertSameVectors (fvs1.getFeatureVector (t), fvs2.getFeatureVector (t));
+        assertEquals (lbls1.getLabels (t).size (), lbls2.getLabels (t).size ());
+        for (int l = 0; l < lbls1.getLabels (t).size (); l++)
+          assertTrue (lbls1.getLabels (t).get (l) == lbls2.getLabels (t).get (l));
+      }
+    }
+
+    InstanceList sub = mapped.subList (5, 10);
+    assertEquals (5, sub.size ());
+    assertEquals ("seq7", sub.getInstance (2).getName ());
+  }
+
+  public static void main (String[] args) throws Throwable
+  {
+    TestSuite theSuite;
+    if (args.length > 0) {
+      theSuite = new TestSuite ();
+      for (int i = 0; i < args.length; i++) {
+        theSuite.addTest (new TestMappedInstanceList (args[i]));
+      }
+    } else {
+      theSuite = (TestSuite) suite ();
+    }
+
+    junit.textui.TestRunner.run (theSuite);
+  }
+
+}
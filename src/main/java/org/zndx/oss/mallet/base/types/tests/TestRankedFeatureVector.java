@@ -34,6 +34,249 @@ public class TestRankedFeatureVector extends TestCase
 			System.out.println ("Rank="+i+" value="+rfv.getValueAtRank(i));
 	}
 
+	// Instances with ten binary features, f0..f9, each present half the time,
+	// labeled "A" just when both f1 and f2 are present
+	private static InstanceList conjunctionInstances (int size)
+	{
+		Alphabet dict = new Alphabet ();
+		for (int j = 0; j < 10; j++)
+			dict.lookupIndex ("f"+j);
+		LabelAlphabet labels = new LabelAlphabet ();
+		Label a = labels.lookupLabel ("A");
+		Label b = labels.lookupLabel ("B");
+		InstanceList ilist = new InstanceList (dict, labels);
+		java.util.Random r = new java.util.Random (1);
+		for (int i = 0; i < size; i++) {
+			int[] indices = new int[10];
+			int n = 0;
+			for (int j = 0; j < 10; j++)
+				if (r.nextBoolean ())
+					indices[n++] = j;
+			int[] present = new int[n];
+			System.arraycopy (indices, 0, present, 0, n);
+			boolean both = java.util.Arrays.binarySearch (present, 1) >= 0
+				&& java.util.Arrays.binarySearch (present, 2) >= 0;
+			ilist.add (new Instance (new AugmentableFeatureVector (dict, present, null, n+2),
+															 both ? a : b, "i"+i, null), 1.0);
+		}
+		return ilist;
+	}
+
+	private static LabelVector[] uniformClassifications (InstanceList ilist)
+	{
+		LabelAlphabet labels = (LabelAlphabet) ilist.getTargetAlphabet ();
+		LabelVector[] lvs = new LabelVector[ilist.size()];
+		for (int i = 0; i < lvs.length; i++)
+			lvs[i] = new LabelVector (labels, new double[] {0.5, 0.5});
+		return lvs;
+	}
+
+	public void testColumnValues ()
+	{
+		InstanceList ilist = conjunctionInstances (200);
+		int numFeatures = ilist.getDataAlphabet().size();
+		int[][] rows = new int[ilist.size()][];
+		for (int i = 0; i < rows.length; i++) {
+			FeatureVector fv = (FeatureVector) ilist.getInstance(i).getData ();
+			rows[i] = new int[fv.numLocations()];
+			for (int fl = 0; fl < rows[i].length; fl++)
+				rows[i][fl] = fv.indexAtLocation (fl);
+		}
+		LabelVector[] lvs = uniformClassifications (ilist);
+		RankedFeatureVector.ColumnFactory[] factories = {
+			new InfoGain.Factory (), new GradientGain.Factory (lvs), new ExpGain.Factory (lvs) };
+		for (int k = 0; k < factories.length; k++) {
+			RankedFeatureVector gains = factories[k].newRankedFeatureVector (ilist);
+			double[] serial = factories[k].columnValues (ilist, rows, numFeatures, 1);
+			double[] parallel = factories[k].columnValues (ilist, rows, numFeatures, 3);
+			for (int j = 0; j < numFeatures; j++) {
+				assertEquals (gains.value (j), serial[j], 1e-8);
+				assertEquals (serial[j], parallel[j], 1e-10);
+			}
+		}
+	}
+
+	public void testFeatureInducerColumns ()
+	{
+		for (int numThreads = 1; numThreads <= 3; numThreads += 2) {
+			for (int k = 0; k < 2; k++) {
+				InstanceList ilist = conjunctionInstances (200);
+				RankedFeatureVector.Factory factory = (k == 0)
+					? (RankedFeatureVector.Factory) new InfoGain.Factory ()
+					: new ExpGain.Factory (uniformClassifications (ilist));
+				FeatureInducer fi = new FeatureInducer (factory, ilist, 1, 10, 10, numThreads);
+				fi.induceFeaturesFor (ilist, false, false);
+				Alphabet dict = ilist.getDataAlphabet ();
+				assertEquals (11, dict.size ());
+				assertEquals ("f1_&_f2", dict.lookupObject (10));
+			}
+		}
+	}
+
+	// Instances with twelve binary features, each present half the time, labeled
+	// L0 when f1 and f2 are present, else L1 when f3 and f4 are, else L2 when f5
+	// and f6 are, and L3 otherwise; the instances have varying weights
+	private static InstanceList conjunctionsInstances (int size)
+	{
+		Alphabet dict = new Alphabet ();
+		for (int j = 0; j < 12; j++)
+			dict.lookupIndex ("f"+j);
+		LabelAlphabet labels = new LabelAlphabet ();
+		for (int c = 0; c < 4; c++)
+			labels.lookupLabel ("L"+c);
+		InstanceList ilist = new InstanceList (dict, labels);
+		java.util.Random r = new java.util.Random (3);
+		for (int i = 0; i < size; i++) {
+			boolean[] has = new boolean[12];
+			int[] indices = new int[12];
+			int n = 0;
+			for (int j = 0; j < 12; j++)
+				if (has[j] = r.nextBoolean ())
+					indices[n++] = j;
+			int[] present = new int[n];
+			System.arraycopy (indices, 0, present, 0, n);
+			int c = 3;
+			for (int k = 2; k >= 0; k--)
+				if (has[2*k+1] && has[2*k+2])
+					c = k;
+			ilist.add (new Instance (new AugmentableFeatureVector (dict, present, null, n+10),
+															 labels.lookupLabel (c), "i"+i, null), 1.0 + r.nextDouble ());
+		}
+		return ilist;
+	}
+
+	public void testFeatureInducerMatchesAlphabet () throws Exception
+	{
+		// Rank the candidates in one block, and then a beam rank per block
+		java.lang.reflect.Field candidateBlockSize = FeatureInducer.class.getDeclaredField ("candidateBlockSize");
+		candidateBlockSize.setAccessible (true);
+		int blockSize = candidateBlockSize.getInt (null);
+		try {
+			for (int b = 0; b < 2; b++) {
+				candidateBlockSize.setInt (null, (b == 0) ? blockSize : 12);
+				checkFeatureInducerMatchesAlphabet ();
+			}
+		} finally {
+			candidateBlockSize.setInt (null, blockSize);
+		}
+	}
+
+	// InfoGain, or ExpGain with uniform classifications over the list's own labels
+	private static RankedFeatureVector.Factory gainFactory (int k, InstanceList ilist)
+	{
+		if (k == 0)
+			return new InfoGain.Factory ();
+		LabelVector[] lvs = new LabelVector[ilist.size()];
+		for (int i = 0; i < lvs.length; i++)
+			lvs[i] = new LabelVector ((LabelAlphabet) ilist.getTargetAlphabet (), new double[] {.25, .25, .25, .25});
+		return new ExpGain.Factory (lvs);
+	}
+
+	private void checkFeatureInducerMatchesAlphabet ()
+	{
+		for (int k = 0; k < 2; k++) {
+			InstanceList expected = conjunctionsInstances (400);
+			RankedFeatureVector.Factory factory = gainFactory (k, expected);
+			// Ranked by adding every candidate to a copy of the Alphabet
+			new FeatureInducer (factory, expected, 5, 12, 12).induceFeaturesFor (expected, false, false);
+			Alphabet expectedDict = expected.getDataAlphabet ();
+			RankedFeatureVector expectedGains = factory.newRankedFeatureVector (expected);
+			assertTrue (expectedDict.size () >= 15);
+			for (int numThreads = 1; numThreads <= 3; numThreads += 2) {
+				InstanceList ilist = conjunctionsInstances (400);
+				factory = gainFactory (k, ilist);
+				new FeatureInducer (factory, ilist, 5, 12, 12, numThreads).induceFeaturesFor (ilist, false, false);
+				Alphabet dict = ilist.getDataAlphabet ();
+				RankedFeatureVector gains = factory.newRankedFeatureVector (ilist);
+				assertEquals (expectedDict.size (), dict.size ());
+				for (int j = 12; j < dict.size (); j++) {
+					assertEquals (expectedDict.lookupObject (j), dict.lookupObject (j));
+					assertEquals (expectedGains.value (j), gains.value (j), 1e-8);
+				}
+			}
+			// The planted conjunctions are among those induced
+			for (int c = 0; c < 3; c++)
+				assertTrue (expectedDict.contains ("f"+(2*c+1)+"_&_f"+(2*c+2)));
+		}
+	}
+
+	// Instances of thirty features with small counts and four labels, of varying weights
+	private static InstanceList countedInstances (int size)
+	{
+		Alphabet dict = new Alphabet ();
+		for (int j = 0; j < 30; j++)
+			dict.lookupIndex ("f"+j);
+		LabelAlphabet labels = new LabelAlphabet ();
+		for (int c = 0; c < 4; c++)
+			labels.lookupLabel ("L"+c);
+		InstanceList ilist = new InstanceList (dict, labels);
+		java.util.Random r = new java.util.Random (2);
+		for (int i = 0; i < size; i++) {
+			int[] indices = new int[30];
+			double[] values = new double[30];
+			int n = 0;
+			for (int j = 0; j < 30; j++)
+				if (r.nextInt (4) == 0) {
+					indices[n] = j;
+					values[n++] = 1 + r.nextInt (3);
+				}
+			int[] present = new int[n];
+			double[] presentValues = new double[n];
+			System.arraycopy (indices, 0, present, 0, n);
+			System.arraycopy (values, 0, presentValues, 0, n);
+			ilist.add (new Instance (new FeatureVector (dict, present, presentValues),
+															 labels.lookupLabel (r.nextInt (4)), "i"+i, null),
+								 (i % 10 == 0) ? 0.0 : 1.0 + (i % 3));
+		}
+		return ilist;
+	}
+
+	private static void assertSameValues (RankedFeatureVector expected, RankedFeatureVector actual)
+	{
+		assertEquals (expected.getAlphabet().size(), actual.getAlphabet().size());
+		for (int j = 0; j < expected.getAlphabet().size(); j++)
+			assertEquals (expected.value (j), actual.value (j), 1e-10);
+	}
+
+	public void testFeatureStatistics () throws Exception
+	{
+		InstanceList ilist = countedInstances (300);
+		RankedFeatureVector infoGain = new InfoGain.Factory ().newRankedFeatureVector (ilist);
+		RankedFeatureVector counts = new FeatureCounts.Factory ().newRankedFeatureVector (ilist);
+		RankedFeatureVector[] perLabelCounts = new PerLabelFeatureCounts.Factory ().newRankedFeatureVectors (ilist);
+		RankedFeatureVector[] perLabelInfoGains = new PerLabelInfoGain.Factory ().newRankedFeatureVectors (ilist);
+		// Count in dense tables, and then with the (feature, label) pairs hashed
+		java.lang.reflect.Field maxDenseCells = FeatureStatistics.class.getDeclaredField ("maxDenseCells");
+		maxDenseCells.setAccessible (true);
+		int dense = maxDenseCells.getInt (null);
+		try {
+			for (int k = 0; k < 2; k++) {
+				maxDenseCells.setInt (null, (k == 0) ? dense : 0);
+				for (int numThreads = 1; numThreads <= 3; numThreads += 2) {
+					assertSameValues (infoGain, new InfoGain.Factory (numThreads).newRankedFeatureVector (ilist));
+					assertSameValues (counts, new FeatureCounts.Factory (numThreads).newRankedFeatureVector (ilist));
+					RankedFeatureVector[] plc = new PerLabelFeatureCounts.Factory (numThreads).newRankedFeatureVectors (ilist);
+					RankedFeatureVector[] plig = new PerLabelInfoGain.Factory (numThreads).newRankedFeatureVectors (ilist);
+					for (int c = 0; c < 4; c++) {
+						assertSameValues (perLabelCounts[c], plc[c]);
+						assertSameValues (perLabelInfoGains[c], plig[c]);
+					}
+				}
+			}
+		} finally {
+			maxDenseCells.setInt (null, dense);
+		}
+		FeatureStatistics stats = new FeatureStatistics (ilist, 3);
+		// Summed in the same order on any number of threads
+		FeatureStatistics serial = new FeatureStatistics (ilist, 1);
+		assertTrue (java.util.Arrays.equals (serial.getFeatureValues(), stats.getFeatureValues()));
+		assertTrue (java.util.Arrays.equals (serial.getFeatureCounts(), stats.getFeatureCounts()));
+		assertEquals (serial.numLabelCounts(), stats.numLabelCounts());
+		FeatureSelection fs = stats.selectByCount (40);
+		for (int j = 0; j < 30; j++)
+			assertEquals (stats.getFeatureValues()[j] > 40, fs.contains (j));
+	}
+
 	public static Test suite ()
 	{
 		return new TestSuite (TestRankedFeatureVector.class);
@@ -0,0 +1,245 @@
+/* Copyright (C) 2003 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+package org.zndx.oss.mallet.base.types.tests;
+
+import junit.framework.*;
+import org.zndx.oss.mallet.base.classify.*;
+import org.zndx.oss.mallet.base.types.*;
+import org.zndx.oss.mallet.base.util.Random;
+
+import java.io.File;
+import java.io.IOException;
+
+public class TestTieredInstanceList extends TestCase {
+
+  public TestTieredInstanceList (String name)
+  {
+    super (name);
+  }
+
+  public static Test suite ()
+  {
+    return new TestSuite (TestTieredInstanceList.class);
+  }
+
+  private static Alphabet dictOfSize (int size)
+  {
+    Alphabet ret = new Alphabet ();
+    for (int i = 0; i < size; i++)
+      ret.lookupIndex ("feature"+i);
+    return ret;
+  }
+
+  private static File swapDir () throws IOException
+  {
+    File f = File.createTempFile ("tiered", "");
+    f.delete ();
+    f.mkdir ();
+    f.deleteOnExit ();
+    return f;
+  }
+
+  private static void assertSameInstances (InstanceList ilist1, InstanceList ilist2)
+  {
+    assertSameInstances (ilist1, ilist2, true);
+  }
+
+  private static void assertSameInstances (InstanceList ilist1, InstanceList ilist2, boolean sameWeights)
+  {
+    assertEquals (ilist1.size (), ilist2.size ());
+    for (int i = 0; i < ilist1.size (); i++) {
+      FeatureVector fv1 = (FeatureVector) ilist1.getInstance (i).getData ();
+      FeatureVector fv2 = (FeatureVector) ilist2.getInstance (i).getData ();
+      assertEquals (fv1.numLocations (), fv2.numLocations ());
+      for (int loc = 0; loc < fv1.numLocations (); loc++) {
+        assertEquals (fv1.indexAtLocation (loc), fv2.indexAtLocation (loc));
+        assertEquals (fv1.valueAtLocation (loc), fv2.valueAtLocation (loc), 0.0);
+      }
+      assertEquals (ilist1.getInstance (i).getTarget (), ilist2.getInstance (i).getTarget ());
+      if (sameWeights)
+        assertEquals (ilist1.getInstanceWeight (i), ilist2.getInstanceWeight (i), 0.0);
+    }
+  }
+
+  public void testPagedInstances () throws IOException
+  {
+    String[] classNames = new String[] {"class0", "class1", "class2"};
+    InstanceList ilist = new InstanceList (new Random (1), dictOfSize (5), classNames, 105);
+    ilist.setInstanceWeight (3, 2.5);
+
+    // Pages of 10 instances, with room on the heap for only a few of them
+    TieredInstanceList tiered = new TieredInstanceList (ilist.getPipe (), 10, 4000, swapDir ());
+    for (int i = 0; i < ilist.size (); i++)
+      tiered.add (ilist.getInstance (i), ilist.getInstanceWeight (i));
+    assertTrue (tiered.getResidentBytes () <= 4000);
+    assertSameInstances (ilist, tiered);
+    assertTrue (tiered.getNumPageReads () > 0);
+    assertTrue (tiered.getResidentBytes () <= 4000);
+
+    // Replacing an instance in a page that has been written
+    tiered.setInstance (12, ilist.getInstance (50));
+    assertEquals (ilist.getInstance (50).getTarget (), tiered.getInstance (12).getTarget ());
+    tiered.setInstance (12, ilist.getInstance (12));
+
+    // Views split the same way as the original list.  InstanceList's
+    // splits keep the weights by position, rather than by instance.
+    InstanceList[] lists1 = ilist.split (new java.util.Random (2), new double[] {.5, .5});
+    InstanceList[] lists2 = tiered.split (new java.util.Random (2), new double[] {.5, .5});
+    for (int j = 0; j < lists1.length; j++) {
+      assertTrue (lists2[j] instanceof TieredInstanceList);
+      assertSameInstances (lists1[j], lists2[j], false);
+    }
+    assertSameInstances (ilist.splitByModulo (3)[1], tiered.splitByModulo (3)[1], false);
+    assertSameInstances (ilist.sampleWithReplacement (new java.util.Random (3), 50),
+                         tiered.sampleWithReplacement (new java.util.Random (3), 50), false);
+    assertSameInstances (ilist.subList (20, 40), tiered.subList (20, 40), false);
+    assertEquals (2.5, tiered.subList (2, 5).getInstanceWeight (1), 0.0);
+
+    // Hidden labels stay hidden when their pages are read again
+    java.util.BitSet bs = new java.util.BitSet ();
+    bs.set (5);
+    bs.set (104);
+    tiered.hideSomeLabels (bs);
+    assertSameInstances (ilist.subList (0, 5), tiered.subList (0, 5), false);
+    for (int pass = 0; pass < 2; pass++)
+      for (int i = 0; i < ilist.size (); i++) {
+        Instance inst = tiered.getInstance (i);
+        if (bs.get (i)) {
+          assertNull (inst.getTarget ());
+          assertEquals (ilist.getInstance (i).getTarget (), inst.getProperty (InstanceList.TARGET_PROPERTY));
+        } else
+          assertEquals (ilist.getInstance (i).getTarget (), inst.getTarget ());
+      }
+    assertNull (tiered.subList (100, 105).getInstance (4).getTarget ());
+    tiered.unhideAllLabels ();
+    assertSameInstances (ilist, tiered);
+
+    double[] params1 = ((MaxEnt) new MaxEntTrainer ().train (ilist)).getParameters ();
+    double[] params2 = ((MaxEnt) new MaxEntTrainer ().train (tiered)).getParameters ();
+    assertEquals (params1.length, params2.length);
+    for (int i = 0; i < params1.length; i++)
+      assertEquals (params1[i], params2[i], 1e-10);
+    tiered.close ();
+  }
+
+  public void testBagging () throws IOException
+  {
+    String[] classNames = new String[] {"class0", "class1", "class2"};
+    InstanceList ilist = new InstanceList (new Random (1), dictOfSize (3), classNames, 200);
+    ilist.setInstanceWeight (0, 2.0);
+    TieredInstanceList tiered = new TieredInstanceList (ilist.getPipe (), 10, 4000, swapDir ());
+    for (int i = 0; i < ilist.size (); i++)
+      tiered.add (ilist.getInstance (i), ilist.getInstanceWeight (i));
+
+    // Selected instances are read through the pages, repeats and all
+    int[] indices = new int[] {0, 150, 7, 0, 199};
+    InstanceList selected = tiered.select (indices);
+    assertTrue (selected instanceof TieredInstanceList);
+    assertSameInstances (ilist.select (indices), selected);
+    assertEquals (2.0, selected.getInstanceWeight (3), 0.0);
+
+    BaggingTrainer bagging = new BaggingTrainer (new DecisionTreeTrainer (3), 5);
+    bagging.setRandomSeed (4);
+    Classifier expected = bagging.train (ilist);
+    bagging.setRandomSeed (4);
+    bagging.setNumThreads (3);
+    Classifier classifier = bagging.train (tiered);
+    for (int i = 0; i < ilist.size (); i++) {
+      Labeling l1 = expected.classify (ilist.getInstance (i)).getLabeling ();
+      Labeling l2 = classifier.classify (tiered.getInstance (i)).getLabeling ();
+      for (int li = 0; li < classNames.length; li++)
+        assertEquals (l1.value (li), l2.value (li), 0.0);
+    }
+    tiered.close ();
+  }
+
+  // More pages than a process may have memory mappings (vm.max_map_count
+  // is 65530 by default on Linux), each rewritten in place as well
+  public void testManyPages () throws IOException
+  {
+    int numPages = 70000;
+    Alphabet dict = dictOfSize (4);
+    LabelAlphabet labels = new LabelAlphabet ();
+    labels.lookupLabel ("a");
+    labels.lookupLabel ("b");
+    File dir = swapDir ();
+    TieredInstanceList tiered = new TieredInstanceList (new org.zndx.oss.mallet.base.pipe.Noop (dict, labels), 1, 2000, dir);
+    for (int i = 0; i < numPages; i++)
+      tiered.add (new FeatureVector (dict, new int[] {i % 4}), labels.lookupLabel (i % 2), null, null);
+    for (int pass = 0; pass < 2; pass++)
+      for (int i = 0; i < numPages; i++) {
+        Instance inst = tiered.getInstance (i);
+        assertEquals (i % 4, ((FeatureVector) inst.getData ()).indexAtLocation (0));
+        assertEquals (i % 2, ((Label) inst.getTarget ()).getIndex ());
+      }
+    assertTrue (tiered.getNumPageReads () >= numPages);
+    assertTrue (tiered.getResidentBytes () <= 2000);
+
+    // Rewriting a page replaces its file, rather than leaving the old one behind
+    Instance replacement = new Instance (new FeatureVector (dict, new int[] {3}), labels.lookupLabel (1), null, null, tiered.getPipe ());
+    for (int i = 0; i < 1000; i++)
+      tiered.setInstance (i * 70, replacement);
+    assertEquals (numPages, dir.list ().length);
+    for (int i = 0; i < 1000; i++)
+      assertEquals (3, ((FeatureVector) tiered.getInstance (i * 70).getData ()).indexAtLocation (0));
+    tiered.close ();
+    assertEquals (0, dir.list ().length);
+  }
+
+  // Threads reading the same pages see the same Instances as a single reader
+  public void testConcurrentReads () throws Exception
+  {
+    String[] classNames = new String[] {"class0", "class1", "class2"};
+    final InstanceList ilist = new InstanceList (new Random (1), dictOfSize (5), classNames, 300);
+    final TieredInstanceList tiered = new TieredInstanceList (ilist.getPipe (), 10, 6000, swapDir ());
+    for (int i = 0; i < ilist.size (); i++)
+      tiered.add (ilist.getInstance (i));
+    final Throwable[] failure = new Throwable[1];
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      final int offset = t * 75;
+      threads[t] = new Thread () {
+        public void run () {
+          try {
+            for (int pass = 0; pass < 5; pass++)
+              for (int j = 0; j < ilist.size (); j++) {
+                int i = (j + offset) % ilist.size ();
+                assertEquals (ilist.getInstance (i).getTarget (), tiered.getInstance (i).getTarget ());
+                assertEquals (((FeatureVector) ilist.getInstance (i).getData ()).numLocations (),
+                              ((FeatureVector) tiered.getInstance (i).getData ()).numLocations ());
+              }
+          } catch (Throwable e) {
+            synchronized (failure) { failure[0] = e; }
+          }
+        }
+      };
+      threads[t].start ();
+    }
+    for (int t = 0; t < threads.length; t++)
+      threads[t].join ();
+    if (failure[0] != null)
+      throw new AssertionFailedError (failure[0].toString ());
+    assertTrue (tiered.getResidentBytes () <= 6000);
+    tiered.close ();
+  }
+
+  public static void main (String[] args) throws Throwable
+  {
+    TestSuite theSuite;
+    if (args.length > 0) {
+      theSuite = new TestSuite ();
+      for (int i = 0; i < args.length; i++) {
+        theSuite.addTest (new TestTieredInstanceList (args[i]));
+      }
+    } else {
+      theSuite = (TestSuite) suite ();
+    }
+
+    junit.textui.TestRunner.run (theSuite);
+  }
+
+}
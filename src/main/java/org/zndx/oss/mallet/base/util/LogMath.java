@@ -0,0 +1,111 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package org.zndx.oss.mallet.base.util;
+
+/**
+ * Kernels for sums of numbers kept in log space, for the inner loops of
+ * factor marginalization and lattice forward-backward.
+ * <p>
+ * Summing n log values with the two-argument
+ * {@link Maths#sumLogProb(double,double)} costs n calls each to
+ * <tt>Math.exp</tt> and <tt>Math.log</tt>.  These kernels shift by the
+ * maximum instead, so that a sum costs one <tt>exp</tt> per term and a
+ * single <tt>log</tt>.  Where the terms arrive one at a time, as from a
+ * TransitionIterator, the running sums of {@link #accumulateNegLogProb}
+ * do the same, rescaling only when a larger term arrives.
+ * <p>
+ * The methods named <tt>...NegLogProb</tt> work with costs, that is
+ * negated logs, as in {@link org.zndx.oss.mallet.base.fst.Transducer}.
+ */
+public final class LogMath {
+
+	/** Returns log(exp(vals[start]) + ... + exp(vals[end-1])). */
+	public static double logSumExp (double[] vals, int start, int end)
+	{
+		double max = Double.NEGATIVE_INFINITY;
+		for (int i = start; i < end; i++)
+			if (vals[i] > max)
+				max = vals[i];
+		if (max == Double.NEGATIVE_INFINITY || max == Double.POSITIVE_INFINITY)
+			return max;
+		double sum = 0;
+		for (int i = start; i < end; i++)
+			sum += Math.exp (vals[i] - max);
+		return max + Math.log (sum);
+	}
+
+	public static double logSumExp (double[] vals)
+	{
+		return logSumExp (vals, 0, vals.length);
+	}
+
+	/** Returns -log(exp(-costs[start]) + ... + exp(-costs[end-1])). */
+	public static double sumNegLogProb (double[] costs, int start, int end)
+	{
+		double min = Double.POSITIVE_INFINITY;
+		for (int i = start; i < end; i++)
+			if (costs[i] < min)
+				min = costs[i];
+		if (min == Double.POSITIVE_INFINITY || min == Double.NEGATIVE_INFINITY)
+			return min;
+		double sum = 0;
+		for (int i = start; i < end; i++)
+			sum += Math.exp (min - costs[i]);
+		return min - Math.log (sum);
+	}
+
+	/**
+	 * Sums each of <tt>vals[0..n)</tt> in log space into
+	 * <tt>out[groups[i]]</tt>, as when marginalizing a table of log values.
+	 * <tt>out</tt> is overwritten; entries with no terms become negative
+	 * infinity.
+	 */
+	public static void logSumExp (double[] vals, int[] groups, int n, double[] out)
+	{
+		java.util.Arrays.fill (out, Double.NEGATIVE_INFINITY);
+		for (int i = 0; i < n; i++)
+			if (vals[i] > out[groups[i]])
+				out[groups[i]] = vals[i];
+		double[] sums = new double[out.length];
+		for (int i = 0; i < n; i++) {
+			double max = out[groups[i]];
+			if (max != Double.NEGATIVE_INFINITY && max != Double.POSITIVE_INFINITY)
+				sums[groups[i]] += Math.exp (vals[i] - max);
+		}
+		for (int g = 0; g < out.length; g++)
+			if (sums[g] > 0)
+				out[g] += Math.log (sums[g]);
+	}
+
+	/**
+	 * Adds <tt>cost</tt> to the running sum of costs held in
+	 * <tt>min[i]</tt> and <tt>sum[i]</tt>, which start at positive
+	 * infinity and zero.  The running sum is
+	 * <tt>min[i] - log(sum[i])</tt>, as returned by
+	 * {@link #finishNegLogProb}.
+	 */
+	public static void accumulateNegLogProb (double[] min, double[] sum, int i, double cost)
+	{
+		if (cost >= min[i]) {
+			if (cost != Double.POSITIVE_INFINITY)
+				sum[i] += Math.exp (min[i] - cost);
+		} else {
+			sum[i] = sum[i] * Math.exp (cost - min[i]) + 1;
+			min[i] = cost;
+		}
+	}
+
+	/** Returns the cost summed by {@link #accumulateNegLogProb}. */
+	public static double finishNegLogProb (double min, double sum)
+	{
+		if (sum == 0)
+			return Double.POSITIVE_INFINITY;
+		return min - Math.log (sum);
+	}
+
+}
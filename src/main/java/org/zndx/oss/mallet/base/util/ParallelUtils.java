@@ -0,0 +1,140 @@
+/* Copyright (C) 2003 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package org.zndx.oss.mallet.base.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  Static utility methods for running data-parallel work, such as
+ *   computing a function over shards of an InstanceList, on a small
+ *   number of worker threads.
+ *  <p>
+ *  Work is always divided into contiguous shards in a fixed order,
+ *   so callers that combine the shards' results in shard order get the
+ *   same answer on every run with the same number of shards.
+ */
+final public class ParallelUtils {
+
+  private ParallelUtils () {}
+
+  /** Returns the number of processors available to the JVM. */
+  public static int numProcessors ()
+  {
+    return Runtime.getRuntime ().availableProcessors ();
+  }
+
+  /**
+   * Divides the range [0,n) into numShards contiguous shards whose sizes
+   *  differ by at most one.  Shard i is [bounds[i], bounds[i+1]).
+   */
+  public static int[] shardBoundaries (int n, int numShards)
+  {
+    if (numShards < 1)
+      throw new IllegalArgumentException ("Need at least one shard, got "+numShards);
+    int[] bounds = new int [numShards + 1];
+    int base = n / numShards;
+    int extra = n % numShards;
+    for (int i = 0; i < numShards; i++) {
+      bounds[i+1] = bounds[i] + base + (i < extra ? 1 : 0);
+    }
+    return bounds;
+  }
+
+  /**
+   * Creates a fixed-size pool of daemon threads, so that an executor
+   *  that is never shut down does not keep the JVM alive.  Threads left
+   *  idle for a minute exit, and are started again when needed, so that
+   *  such an executor does not hold its threads either.
+   */
+  public static ExecutorService newExecutor (int numThreads, final String name)
+  {
+    final AtomicInteger count = new AtomicInteger (0);
+    ThreadPoolExecutor executor = new ThreadPoolExecutor (numThreads, numThreads, 60L, TimeUnit.SECONDS,
+                                                          new LinkedBlockingQueue (), new ThreadFactory () {
+      public Thread newThread (Runnable r)
+      {
+        Thread t = new Thread (r, name + "-" + count.incrementAndGet ());
+        t.setDaemon (true);
+        return t;
+      }
+    });
+    executor.allowCoreThreadTimeOut (true);
+    return executor;
+  }
+
+  /**
+   * Runs all of the tasks on at most numThreads threads, and returns when
+   *  they have all finished.  If numThreads is 1, or there is only one task,
+   *  the tasks are run on the calling thread.
+   */
+  public static void runAll (Runnable[] tasks, int numThreads)
+  {
+    if (numThreads <= 1 || tasks.length <= 1) {
+      for (int i = 0; i < tasks.length; i++) {
+        tasks[i].run ();
+      }
+      return;
+    }
+
+    ExecutorService executor = newExecutor (Math.min (numThreads, tasks.length), "mallet-worker");
+    try {
+      runAll (tasks, executor);
+    } finally {
+      executor.shutdown ();
+    }
+  }
+
+  /**
+   * Runs all of the tasks on the given executor, and returns when they have
+   *  all finished.  If any task throws an exception, the first one (in task
+   *  order) is rethrown on the calling thread after all tasks have finished.
+   */
+  public static void runAll (Runnable[] tasks, ExecutorService executor)
+  {
+    List futures = new ArrayList (tasks.length);
+    for (int i = 0; i < tasks.length; i++) {
+      futures.add (executor.submit (tasks[i]));
+    }
+
+    Throwable firstError = null;
+    boolean interrupted = false;
+    for (int i = 0; i < futures.size (); i++) {
+      Future future = (Future) futures.get (i);
+      while (true) {
+        try {
+          future.get ();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          if (firstError == null) firstError = e.getCause ();
+          break;
+        }
+      }
+    }
+    if (interrupted) Thread.currentThread ().interrupt ();
+
+    if (firstError instanceof RuntimeException) {
+      throw (RuntimeException) firstError;
+    } else if (firstError instanceof Error) {
+      throw (Error) firstError;
+    } else if (firstError != null) {
+      throw new RuntimeException (firstError);
+    }
+  }
+
+}
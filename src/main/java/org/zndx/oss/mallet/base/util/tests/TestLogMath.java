@@ -0,0 +1,123 @@
+/* Copyright (C) 2003 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+package org.zndx.oss.mallet.base.util.tests;
+
+import junit.framework.*;
+import org.zndx.oss.mallet.base.util.LogMath;
+import org.zndx.oss.mallet.base.util.Maths;
+import org.zndx.oss.mallet.base.fst.Transducer;
+
+public class TestLogMath extends TestCase {
+
+  public TestLogMath (String name)
+  {
+    super (name);
+  }
+
+  private static double[] randomLogs (java.util.Random r, int n)
+  {
+    double[] vals = new double [n];
+    for (int i = 0; i < n; i++)
+      vals[i] = r.nextGaussian () * 20;
+    return vals;
+  }
+
+  private static double pairwiseSum (double[] vals, int start, int end)
+  {
+    double sum = Double.NEGATIVE_INFINITY;
+    for (int i = start; i < end; i++)
+      sum = Maths.sumLogProb (sum, vals[i]);
+    return sum;
+  }
+
+  public void testLogSumExp ()
+  {
+    java.util.Random r = new java.util.Random (1);
+    double[] vals = randomLogs (r, 50);
+    assertEquals (pairwiseSum (vals, 0, 50), LogMath.logSumExp (vals), 1e-10);
+    assertEquals (pairwiseSum (vals, 10, 20), LogMath.logSumExp (vals, 10, 20), 1e-10);
+    assertEquals (Double.NEGATIVE_INFINITY, LogMath.logSumExp (new double[0]), 0);
+    assertEquals (Math.log (2), LogMath.logSumExp (new double[] { Double.NEGATIVE_INFINITY, 0, 0 }), 1e-12);
+
+    double[] costs = new double [vals.length];
+    double[] minCosts = { Double.POSITIVE_INFINITY };
+    double[] sums = { 0 };
+    double cost = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < vals.length; i++) {
+      costs[i] = -vals[i];
+      cost = Transducer.sumNegLogProb (cost, costs[i]);
+      LogMath.accumulateNegLogProb (minCosts, sums, 0, costs[i]);
+    }
+    LogMath.accumulateNegLogProb (minCosts, sums, 0, Double.POSITIVE_INFINITY);
+    assertEquals (cost, LogMath.sumNegLogProb (costs, 0, costs.length), 1e-10);
+    assertEquals (cost, LogMath.finishNegLogProb (minCosts[0], sums[0]), 1e-10);
+    assertEquals (Double.POSITIVE_INFINITY, LogMath.finishNegLogProb (Double.POSITIVE_INFINITY, 0), 0);
+  }
+
+  public void testGroupedLogSumExp ()
+  {
+    java.util.Random r = new java.util.Random (2);
+    double[] vals = randomLogs (r, 40);
+    int[] groups = new int [vals.length];
+    for (int i = 0; i < groups.length; i++)
+      groups[i] = (i * 7) % 5;
+    double[] out = new double [6];
+    LogMath.logSumExp (vals, groups, vals.length, out);
+    for (int g = 0; g < 5; g++) {
+      double expected = Double.NEGATIVE_INFINITY;
+      for (int i = 0; i < vals.length; i++)
+        if (groups[i] == g)
+          expected = Maths.sumLogProb (expected, vals[i]);
+      assertEquals (expected, out[g], 1e-10);
+    }
+    assertEquals (Double.NEGATIVE_INFINITY, out[5], 0);
+  }
+
+  /** Times the pairwise sums against the kernels; the results are printed. */
+  public void testBenchmark ()
+  {
+    java.util.Random r = new java.util.Random (5);
+    int n = 64, reps = 20000;
+    double[] vals = randomLogs (r, n);
+    double[] minCosts = new double [1];
+    double[] sums = new double [1];
+    double pairwise = 0, kernel = 0, accumulated = 0;
+    for (int round = 0; round < 2; round++) {   // the first round warms up
+      long t0 = System.nanoTime ();
+      for (int k = 0; k < reps; k++)
+        pairwise += pairwiseSum (vals, 0, n);
+      long t1 = System.nanoTime ();
+      for (int k = 0; k < reps; k++)
+        kernel += LogMath.logSumExp (vals, 0, n);
+      long t2 = System.nanoTime ();
+      for (int k = 0; k < reps; k++) {
+        minCosts[0] = Double.POSITIVE_INFINITY;
+        sums[0] = 0;
+        for (int i = 0; i < n; i++)
+          LogMath.accumulateNegLogProb (minCosts, sums, 0, -vals[i]);
+        accumulated -= LogMath.finishNegLogProb (minCosts[0], sums[0]);
+      }
+      long t3 = System.nanoTime ();
+      if (round == 1)
+        System.out.println ("Sums of "+n+" log values, ns per sum: pairwise sumLogProb "+(t1-t0)/reps
+                            +", logSumExp "+(t2-t1)/reps+", accumulateNegLogProb "+(t3-t2)/reps);
+    }
+    assertEquals (pairwise, kernel, 1e-3);
+    assertEquals (pairwise, accumulated, 1e-3);
+  }
+
+  public static Test suite ()
+  {
+    return new TestSuite (TestLogMath.class);
+  }
+
+  public static void main (String[] args) throws Throwable
+  {
+    junit.textui.TestRunner.run (suite ());
+  }
+
+}
@@ -93,6 +93,28 @@ public class ACRF implements Serializable {
   public boolean isCacheUnrolledGraphs () { return cacheUnrolledGraphs; }
   public void setCacheUnrolledGraphs (boolean cacheUnrolledGraphs) { this.cacheUnrolledGraphs = cacheUnrolledGraphs; }
 
+  /**
+   * Compiles the weights of every template for fast factor computation.
+   *  This is mainly useful for labeling with a trained ACRF.
+   *  @param ilist Data used to count feature frequencies.  May be null.
+   *  @see Template#compileWeights
+   */
+  public void compileWeights (InstanceList ilist)
+  {
+    int[] counts = (ilist == null) ? null : FeatureMajorWeights.countFeatures (ilist);
+    for (int tidx = 0; tidx < templates.length; tidx++) {
+      if (templates[tidx].getWeights () != null)
+        templates[tidx].compileWeights (counts);
+    }
+  }
+
+  public void discardCompiledWeights ()
+  {
+    for (int tidx = 0; tidx < templates.length; tidx++) {
+      templates[tidx].discardCompiledWeights ();
+    }
+  }
+
   public void setFixedPotentials (Template[] fixed) {
 		this.fixedPtls = java.util.Arrays.asList (fixed);
 		for (int tidx = 0; tidx < fixed.length; tidx++) fixed [tidx].index = -1;
@@ -170,6 +192,7 @@ public class ACRF implements Serializable {
     protected void modifyPotential (UnrolledGraph unrolledGraph, UnrolledVarSet clique, AbstractTableFactor ptl) {};
 
     protected SparseVector[] weights;
+    transient private volatile FeatureMajorWeights compiledWeights;
     private BitSet assignmentsPresent;
     private boolean supportedOnly;
 
@@ -203,6 +226,7 @@ public class ACRF implements Serializable {
 		 */
 		public int initWeights (InstanceList training)
 		{
+      discardCompiledWeights ();
       if (supportedOnly) {
         return initSparseWeights (training);
       } else {
@@ -349,20 +373,47 @@ public class ACRF implements Serializable {
     }
 
 
+    /**
+     * Compiles the weights of this template into a dense, feature-major layout,
+     *  so that computeFactor computes the scores of all assignments to a clique
+     *  in a single scan over the clique's features.  The compiled copy is used until
+     *  the weights are reinitialized or changed through a MaximizableACRF;
+     *  getWeights() is unaffected, so serialization does not change.  The compiled
+     *  copy is built from getWeights(), as the uncompiled path reads it.
+     *
+     * @param featureCounts Frequency of each input feature, used to order the
+     *   compiled rows.  May be null.
+     */
+    public void compileWeights (int[] featureCounts)
+    {
+      compiledWeights = new FeatureMajorWeights (getWeights (), featureCounts);
+    }
+
+    public void discardCompiledWeights () { compiledWeights = null; }
+
+    public boolean isWeightsCompiled () { return compiledWeights != null; }
+
     public AbstractTableFactor computeFactor (UnrolledVarSet clique)
     {
       Matrix phi = createFactorMatrix(clique);
       SparseVector[] weights = getWeights();
+      FeatureMajorWeights compiled = compiledWeights;
+      double[] dps = (compiled == null) ? null : compiled.dotProducts (clique.fv);
 
 //				System.out.println("UnrolledClique "+clique);
 //				System.out.println("FV : "+clique.fv);
 
       for (int loc = 0; loc < phi.numLocations(); loc++) {
         int idx = phi.indexAtLocation(loc);
-        SparseVector w = weights[idx];
+        double dp;
+        if (dps != null) {
+          dp = dps[idx];
+        } else {
+          SparseVector w = weights[idx];
 //					System.out.println("Weights "+i+" : "+w);
 //					w.print();
-        double dp = w.dotProduct(clique.fv);
+          dp = w.dotProduct(clique.fv);
+        }
         dp += getDefaultWeight(idx);
         phi.setValueAtLocation(loc, dp);
       }
@@ -1080,6 +1131,7 @@ public class ACRF implements Serializable {
 																					 " correct dimensions");
 
 	    cachedValueStale = cachedGradientStale = true;
+      discardCompiledWeights ();
 
 	    int idx = 0;
 			for (int tidx = 0; tidx < templates.length; tidx++) {
@@ -6,6 +6,7 @@
    information, see the file `LICENSE' included with this distribution. */
 package org.zndx.oss.mallet.grmm.types;
 
+import org.zndx.oss.mallet.base.util.LogMath;
 import org.zndx.oss.mallet.base.util.Maths;
 import org.zndx.oss.mallet.base.types.SparseMatrixn;
 import org.zndx.oss.mallet.base.types.Matrix;
@@ -98,11 +99,16 @@ public class LogTableFactor extends AbstractTableFactor {
 
   private double logspaceOneNorm ()
   {
-    double sum = Double.NEGATIVE_INFINITY; // That's 0 in log space
-    for (int i = 0; i < probs.numLocations(); i++) {
-      sum = Maths.sumLogProb(sum, probs.valueAtLocation(i));
-    }
-    return sum;
+    return LogMath.logSumExp (logValues ());
+  }
+
+  // The log values at each location of probs
+  private double[] logValues ()
+  {
+    double[] vals = new double [probs.numLocations()];
+    for (int i = 0; i < vals.length; i++)
+      vals[i] = probs.valueAtLocation(i);
+    return vals;
   }
 
   public double sum ()
@@ -187,24 +193,14 @@ public class LogTableFactor extends AbstractTableFactor {
   protected Factor marginalizeInternal (AbstractTableFactor result)
   {
 
-    result.setAll(Double.NEGATIVE_INFINITY);
     int[] projection = largeIdxToSmall(result);
 
-    /* Add each element of the single array of the large potential
-to the correct element in the small potential. */
-    for (int largeLoc = 0; largeLoc < probs.numLocations(); largeLoc++) {
-
-      /* Convert a single-index from this distribution to
- one for the smaller distribution */
-      int smallIdx = projection[largeLoc];
-
-      /* Whew! Now, add it in. */
-      double oldValue = this.probs.valueAtLocation(largeLoc);
-      double currentValue = result.probs.singleValue(smallIdx);
-      result.probs.setValueAtLocation(smallIdx,
-                                      Maths.sumLogProb(oldValue, currentValue));
-
-    }
+    /* Sum each element of the single array of the large potential
+into the correct element in the small potential, all at once. */
+    double[] sums = new double [result.probs.numLocations()];
+    LogMath.logSumExp (logValues (), projection, probs.numLocations(), sums);
+    for (int smallIdx = 0; smallIdx < sums.length; smallIdx++)
+      result.probs.setValueAtLocation(smallIdx, sums[smallIdx]);
 
     return result;
   }
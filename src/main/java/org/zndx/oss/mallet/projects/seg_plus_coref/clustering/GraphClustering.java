@@ -54,16 +54,18 @@ public class GraphClustering extends Clustering
 
     private void buildHash()
     {
+	// one pass over the cluster members rather than testing every
+	// cluster for every vertex
 	verticesToClusters = new HashMap();
-	Iterator vIterator = graph.getVerticesIterator();
-	while (vIterator.hasNext()) {
-	    VertexImpl v = (VertexImpl)vIterator.next();
-	    Iterator clIterator = this.iterator();
-	    while (clIterator.hasNext()) {
-		Set cluster = (Set)clIterator.next();
-		if (cluster.contains(v)) {
-		    verticesToClusters.put(v.getObject(),cluster);
-		}
+	Set graphVertices = graph.getVertexSet();
+	Iterator clIterator = this.iterator();
+	while (clIterator.hasNext()) {
+	    Set cluster = (Set)clIterator.next();
+	    Iterator vIterator = cluster.iterator();
+	    while (vIterator.hasNext()) {
+		Object o = vIterator.next();
+		if (graphVertices.contains(o))
+		    verticesToClusters.put(((VertexImpl)o).getObject(),cluster);
 	    }
 	}
     }
@@ -0,0 +1,128 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+http://www.cs.umass.edu/~mccallum/mallet
+This software is provided under the terms of the Common Public License,
+version 1.0, as published by http://www.opensource.org.  For further
+information, see the file `LICENSE' included with this distribution. */
+
+
+package org.zndx.oss.mallet.projects.seg_plus_coref.coreference;
+
+import com.wcohen.secondstring.StringDistance;
+import com.wcohen.secondstring.StringWrapper;
+import java.util.*;
+
+/**
+ Wraps a secondstring <tt>StringDistance</tt> so that each distinct
+ string is prepared (tokenized, weighted, and so on) only once, and,
+ given a {@link StringDistanceCache}, each distinct pair of strings is
+ scored only once.  A citation's field value is the same string in
+ every pair the citation appears in, so the pipes that score fields
+ (<tt>TitlePipe</tt>, <tt>VenuePipe</tt>, <tt>FieldStringDistancePipe</tt>
+ and the like) can be given a <tt>CachedStringDistance</tt> in place of
+ the distance itself and stop repeating that work.  The prepared strings
+ can be filled in ahead of time with {@link PairFeatureExtractor#prepare}.
+
+ <p>Safe to use from several threads as long as the wrapped distance
+ is; the secondstring distances are once their statistics have been
+ accumulated.
+ */
+public class CachedStringDistance implements StringDistance
+{
+	StringDistance distance;
+	StringDistanceCache scoreCache;
+	HashMap prepared;
+
+	/**
+	 @param scoreCache caches scores by the pair of strings, or null to
+	 cache only the prepared strings
+	 */
+	public CachedStringDistance (StringDistance distance, StringDistanceCache scoreCache)
+	{
+		this.distance = distance;
+		this.scoreCache = scoreCache;
+		this.prepared = new HashMap ();
+	}
+
+	/**
+	 Caches scores in an unbounded {@link HashStringDistanceCache}.
+	 @param symmetric whether <tt>distance</tt> scores <tt>(s,t)</tt> and
+	 <tt>(t,s)</tt> the same, so that the two may share an entry
+	 */
+	public CachedStringDistance (StringDistance distance, boolean symmetric)
+	{
+		this (distance, new HashStringDistanceCache (0, symmetric));
+	}
+
+	/** Caches scores without assuming that the distance is symmetric;
+	 the Level2 distances, for one, match each token of <tt>s</tt> to its
+	 best match in <tt>t</tt>, and are not. */
+	public CachedStringDistance (StringDistance distance)
+	{
+		this (distance, false);
+	}
+
+	/** The wrapped distance. */
+	public StringDistance getDistance () { return distance; }
+
+	public StringDistanceCache getScoreCache () { return scoreCache; }
+
+	public synchronized int getNumPrepared () { return prepared.size(); }
+
+	public StringWrapper prepare (String s)
+	{
+		StringWrapper w;
+		synchronized (this) {
+			w = (StringWrapper)prepared.get (s);
+		}
+		if (w == null) {
+			// prepared outside the lock; two threads may both prepare s,
+			// which is harmless
+			w = distance.prepare (s);
+			synchronized (this) {
+				prepared.put (s, w);
+			}
+		}
+		return w;
+	}
+
+	public double score (String s, String t)
+	{
+		if (scoreCache == null)
+			return distance.score (prepare (s), prepare (t));
+		double score = scoreCache.lookup (s, t);
+		if (Double.isNaN (score)) {
+			score = distance.score (prepare (s), prepare (t));
+			scoreCache.store (s, t, score);
+		}
+		return score;
+	}
+
+	public double score (StringWrapper s, StringWrapper t)
+	{
+		return distance.score (s, t);
+	}
+
+	public String explainScore (String s, String t)
+	{
+		return distance.explainScore (prepare (s), prepare (t));
+	}
+
+	public String explainScore (StringWrapper s, StringWrapper t)
+	{
+		return distance.explainScore (s, t);
+	}
+
+	public synchronized void clear ()
+	{
+		prepared.clear ();
+		if (scoreCache != null)
+			scoreCache.clear ();
+	}
+
+	public String toString ()
+	{
+		return "[cached "+distance+"]";
+	}
+
+}
@@ -0,0 +1,474 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+http://www.cs.umass.edu/~mccallum/mallet
+This software is provided under the terms of the Common Public License,
+version 1.0, as published by http://www.opensource.org.  For further
+information, see the file `LICENSE' included with this distribution. */
+
+
+package org.zndx.oss.mallet.projects.seg_plus_coref.coreference;
+
+import org.zndx.oss.mallet.base.types.*;
+import org.zndx.oss.mallet.base.pipe.iterator.*;
+import java.util.*;
+import java.util.logging.*;
+
+
+/**
+ A blocking alternative to {@link NodePairIterator}.  Rather than
+ materializing all N choose 2 pairs of citations, candidate pairs are
+ drawn from two cheap blocking passes and produced lazily, one
+ <tt>Instance</tt> at a time, so they can be piped straight through
+ <tt>NodePair2FeatureVector</tt> and friends.
+
+ <p>The first pass builds canopies (McCallum, Nigam and Ungar, 2000)
+ using TF-IDF cosine similarity over the tokens of a few citation
+ fields, computed through an inverted index so that only citations
+ sharing a token with the canopy center are ever compared.  Every
+ citation whose similarity to the center is at least
+ <tt>looseThreshold</tt> joins the canopy; those at least
+ <tt>tightThreshold</tt> are no longer eligible to become centers.
+ Pairs are generated within each canopy.
+
+ <p>The second pass is a sorted neighborhood: for each of the sort key
+ fields the citations are sorted by their normalized field value and
+ every pair within <tt>windowSize</tt> positions becomes a candidate.
+ This catches pairs with near-identical keys that canopies miss, for
+ example when a common title word was dropped as too frequent.
+
+ <p>Each candidate pair is produced exactly once.  A canopy pair is
+ emitted only by the first canopy the two citations share, and a
+ neighborhood pair only if it was not already produced by a canopy or
+ an earlier sort key; both tests are done on the fly, so no set of
+ seen pairs is kept.
+
+ <p>As pairs are produced, the iterator counts how many of them are
+ coreferent (according to <tt>Citation.getLabel()</tt>), giving the
+ recall of the blocking and its reduction in pairs relative to N
+ choose 2.  These are logged when the iterator is exhausted; to tune
+ the thresholds without running the feature pipes, simply drain the
+ iterator and call {@link #getStatistics()}.  The graph built by
+ <tt>CorefCluster.clusterMentions</tt> already tolerates an
+ <tt>InstanceList</tt> covering only some of the pairs.
+ */
+public class CanopyNodePairIterator extends AbstractPipeInputIterator
+{
+	private static Logger logger = Logger.getLogger(CanopyNodePairIterator.class.getName());
+
+	public static final String[] DEFAULT_CANOPY_FIELDS = new String[] {
+		Citation.author, Citation.title, Citation.venue };
+	public static final String[] DEFAULT_SORT_FIELDS = new String[] {
+		Citation.title, Citation.author };
+
+	// Tokens occurring in more than this many citations are never used to
+	// look up canopy members, however small maxDocumentFraction is
+	private static final int MIN_STOP_DOCUMENT_FREQUENCY = 20;
+
+	List nodes;
+	int numNodes;
+
+	// canopiesOf[i] holds, in increasing order, the canopies containing node i
+	int[][] canopies;
+	int[][] canopiesOf;
+	// for each sort pass, the nodes in key order and each node's position (-1 if it has no key)
+	int[][] sortedNodes;
+	int[][] sortRanks;
+	int windowSize;
+
+	// position of the iteration: canopy passes first, then the sort passes
+	int pass, block, first, second;
+	NodePair nextPair;
+
+	long numPossiblePairs, numTruePairs;
+	long numCanopyPairs, numNeighborhoodPairs, numTrueCandidatePairs;
+
+	public CanopyNodePairIterator (List nodes) {
+		this (nodes, DEFAULT_CANOPY_FIELDS, 0.2, 0.6, DEFAULT_SORT_FIELDS, 5);
+	}
+
+	/**
+	 @param nodes the Citations to pair up
+	 @param canopyFields fields whose tokens make up the TF-IDF vectors for canopies
+	 @param looseThreshold cosine similarity to a center needed to join its canopy
+	 @param tightThreshold cosine similarity to a center above which a node is not itself used as a center
+	 @param sortFields fields to sort on, one sorted neighborhood pass each; may be empty
+	 @param windowSize size of the sliding window in the sorted neighborhood passes
+	 */
+	public CanopyNodePairIterator (List nodes, String[] canopyFields,
+																 double looseThreshold, double tightThreshold,
+																 String[] sortFields, int windowSize) {
+		this (nodes, canopyFields, looseThreshold, tightThreshold, 0.05,
+					sortFields, windowSize, new java.util.Random (1));
+	}
+
+	/**
+	 @param maxDocumentFraction tokens occurring in more than this fraction of the
+	 citations are ignored for canopy construction
+	 @param r used to choose the order of canopy centers
+	 */
+	public CanopyNodePairIterator (List nodes, String[] canopyFields,
+																 double looseThreshold, double tightThreshold,
+																 double maxDocumentFraction,
+																 String[] sortFields, int windowSize,
+																 java.util.Random r) {
+		if (tightThreshold < looseThreshold)
+			throw new IllegalArgumentException ("tightThreshold "+tightThreshold
+																					+" must be at least looseThreshold "+looseThreshold);
+		if (windowSize < 1)
+			throw new IllegalArgumentException ("windowSize must be positive, was "+windowSize);
+		this.nodes = nodes;
+		this.numNodes = nodes.size();
+		this.windowSize = windowSize;
+		this.numPossiblePairs = (long)numNodes * (numNodes - 1) / 2;
+		countTruePairs ();
+
+		long timeStart = System.currentTimeMillis();
+		makeCanopies (canopyFields, looseThreshold, tightThreshold, maxDocumentFraction, r);
+		sortedNodes = new int[sortFields.length][];
+		sortRanks = new int[sortFields.length][];
+		for (int k = 0; k < sortFields.length; k++)
+			sortByKey (k, sortFields[k]);
+		logger.fine ("Made "+canopies.length+" canopies over "+numNodes+" citations in "
+								 +((System.currentTimeMillis() - timeStart) / 1000.0)+" seconds");
+
+		pass = 0; block = 0; first = 0; second = 0;
+		nextPair = findNextPair ();
+	}
+
+	private Citation getCitation (int i) {
+		return (Citation)nodes.get(i);
+	}
+
+	private boolean sameLabel (int i, int j) {
+		Object label = getCitation(i).getLabel();
+		return label != null && label.equals (getCitation(j).getLabel());
+	}
+
+	private void countTruePairs () {
+		HashMap labelCounts = new HashMap();
+		for (int i = 0; i < numNodes; i++) {
+			Object label = getCitation(i).getLabel();
+			if (label == null)
+				continue;
+			Integer count = (Integer)labelCounts.get(label);
+			labelCounts.put (label, new Integer (count == null ? 1 : count.intValue() + 1));
+		}
+		numTruePairs = 0;
+		for (Iterator it = labelCounts.values().iterator(); it.hasNext();) {
+			long count = ((Integer)it.next()).intValue();
+			numTruePairs += count * (count - 1) / 2;
+		}
+	}
+
+	private static String[] getTokens (Citation c, String field) {
+		String value = c.getField(field).trim();
+		return value.length() == 0 ? new String[0] : value.split("\\s+");
+	}
+
+	private void makeCanopies (String[] fields, double looseThreshold, double tightThreshold,
+														 double maxDocumentFraction, java.util.Random r)
+	{
+		// Unique tokens of each node, as indices into a per-iterator dictionary
+		Alphabet dict = new Alphabet();
+		int[][] nodeTokens = new int[numNodes][];
+		for (int i = 0; i < numNodes; i++) {
+			HashSet seen = new HashSet();
+			Citation c = getCitation(i);
+			for (int f = 0; f < fields.length; f++) {
+				String[] tokens = getTokens (c, fields[f]);
+				for (int t = 0; t < tokens.length; t++)
+					seen.add (fields[f] + "=" + tokens[t]);
+			}
+			nodeTokens[i] = new int[seen.size()];
+			int n = 0;
+			for (Iterator it = seen.iterator(); it.hasNext();)
+				nodeTokens[i][n++] = dict.lookupIndex (it.next());
+		}
+		int numTokens = dict.size();
+		int[] df = new int[numTokens];
+		for (int i = 0; i < numNodes; i++)
+			for (int t = 0; t < nodeTokens[i].length; t++)
+				df[nodeTokens[i][t]]++;
+
+		// Drop too-common tokens, weight the rest by IDF and normalize; the
+		// postings carry each node's normalized weight for the token
+		double maxDf = Math.max (MIN_STOP_DOCUMENT_FREQUENCY, maxDocumentFraction * numNodes);
+		double[] idf = new double[numTokens];
+		int[][] postings = new int[numTokens][];
+		double[][] postingWeights = new double[numTokens][];
+		for (int ti = 0; ti < numTokens; ti++) {
+			if (df[ti] <= maxDf) {
+				idf[ti] = Math.log ((double)numNodes / df[ti]) + 1.0;
+				postings[ti] = new int[df[ti]];
+				postingWeights[ti] = new double[df[ti]];
+			}
+		}
+		double[][] nodeWeights = new double[numNodes][];
+		int[] postingSizes = new int[numTokens];
+		for (int i = 0; i < numNodes; i++) {
+			int[] tokens = nodeTokens[i];
+			double[] weights = new double[tokens.length];
+			double norm = 0;
+			for (int t = 0; t < tokens.length; t++) {
+				weights[t] = idf[tokens[t]];
+				norm += weights[t] * weights[t];
+			}
+			norm = Math.sqrt (norm);
+			for (int t = 0; t < tokens.length; t++) {
+				int ti = tokens[t];
+				if (postings[ti] == null)
+					continue;
+				weights[t] /= norm;
+				postingWeights[ti][postingSizes[ti]] = weights[t];
+				postings[ti][postingSizes[ti]++] = i;
+			}
+			nodeWeights[i] = weights;
+		}
+
+		// Choose centers in random order
+		int[] order = new int[numNodes];
+		for (int i = 0; i < numNodes; i++)
+			order[i] = i;
+		for (int i = numNodes - 1; i > 0; i--) {
+			int j = r.nextInt (i + 1);
+			int tmp = order[i]; order[i] = order[j]; order[j] = tmp;
+		}
+
+		boolean[] removed = new boolean[numNodes];
+		double[] similarity = new double[numNodes];
+		int[] touched = new int[numNodes];
+		ArrayList canopyList = new ArrayList();
+		int[] membershipCounts = new int[numNodes];
+		for (int o = 0; o < numNodes; o++) {
+			int center = order[o];
+			if (removed[center])
+				continue;
+			removed[center] = true;
+			// Accumulate dot products with every node sharing a kept token
+			int numTouched = 0;
+			int[] tokens = nodeTokens[center];
+			double[] weights = nodeWeights[center];
+			for (int t = 0; t < tokens.length; t++) {
+				int[] posting = postings[tokens[t]];
+				if (posting == null)
+					continue;
+				double[] postingWeight = postingWeights[tokens[t]];
+				for (int p = 0; p < posting.length; p++) {
+					int d = posting[p];
+					if (d == center)
+						continue;
+					if (similarity[d] == 0)
+						touched[numTouched++] = d;
+					similarity[d] += weights[t] * postingWeight[p];
+				}
+			}
+			int[] members = new int[numTouched + 1];
+			int numMembers = 0;
+			members[numMembers++] = center;
+			for (int k = 0; k < numTouched; k++) {
+				int d = touched[k];
+				double s = similarity[d];
+				similarity[d] = 0;
+				if (s >= looseThreshold) {
+					members[numMembers++] = d;
+					if (s >= tightThreshold)
+						removed[d] = true;
+				}
+			}
+			if (numMembers < 2)
+				continue;
+			int[] canopy = new int[numMembers];
+			System.arraycopy (members, 0, canopy, 0, numMembers);
+			Arrays.sort (canopy);
+			canopyList.add (canopy);
+			for (int k = 0; k < numMembers; k++)
+				membershipCounts[canopy[k]]++;
+		}
+
+		canopies = (int[][])canopyList.toArray (new int[canopyList.size()][]);
+		canopiesOf = new int[numNodes][];
+		for (int i = 0; i < numNodes; i++)
+			canopiesOf[i] = new int[membershipCounts[i]];
+		Arrays.fill (membershipCounts, 0);
+		for (int c = 0; c < canopies.length; c++)
+			for (int k = 0; k < canopies[c].length; k++) {
+				int i = canopies[c][k];
+				canopiesOf[i][membershipCounts[i]++] = c;
+			}
+	}
+
+	private void sortByKey (int pass, String field) {
+		final String[] keys = new String[numNodes];
+		int numKeyed = 0;
+		for (int i = 0; i < numNodes; i++) {
+			String key = getCitation(i).getField(field).trim();
+			if (key.length() > 0) {
+				keys[i] = key;
+				numKeyed++;
+			}
+		}
+		Integer[] keyed = new Integer[numKeyed];
+		int n = 0;
+		for (int i = 0; i < numNodes; i++)
+			if (keys[i] != null)
+				keyed[n++] = new Integer (i);
+		Arrays.sort (keyed, new Comparator () {
+				public int compare (Object o1, Object o2) {
+					int i1 = ((Integer)o1).intValue(), i2 = ((Integer)o2).intValue();
+					int c = keys[i1].compareTo (keys[i2]);
+					return c != 0 ? c : i1 - i2;
+				}
+			});
+		int[] sorted = new int[numKeyed];
+		int[] ranks = new int[numNodes];
+		Arrays.fill (ranks, -1);
+		for (int k = 0; k < numKeyed; k++) {
+			sorted[k] = keyed[k].intValue();
+			ranks[sorted[k]] = k;
+		}
+		sortedNodes[pass] = sorted;
+		sortRanks[pass] = ranks;
+	}
+
+	// The first canopy containing both i and j, or -1 if there is none
+	private int firstCommonCanopy (int i, int j) {
+		int[] a = canopiesOf[i], b = canopiesOf[j];
+		int x = 0, y = 0;
+		while (x < a.length && y < b.length) {
+			if (a[x] == b[y])
+				return a[x];
+			else if (a[x] < b[y])
+				x++;
+			else
+				y++;
+		}
+		return -1;
+	}
+
+	private boolean withinWindow (int pass, int i, int j) {
+		int ri = sortRanks[pass][i], rj = sortRanks[pass][j];
+		return ri >= 0 && rj >= 0 && Math.abs (ri - rj) < windowSize;
+	}
+
+	// Advance the position to the next pair not produced before
+	private NodePair findNextPair () {
+		// Canopy pass: block is the canopy, first and second index its members
+		while (pass == 0 && block < canopies.length) {
+			int[] canopy = canopies[block];
+			while (first < canopy.length - 1) {
+				if (second <= first)
+					second = first + 1;
+				while (second < canopy.length) {
+					int i = canopy[first], j = canopy[second++];
+					if (firstCommonCanopy (i, j) == block) {
+						numCanopyPairs++;
+						return makePair (i, j);
+					}
+				}
+				first++; second = first + 1;
+			}
+			block++; first = 0; second = 0;
+		}
+		if (pass == 0) {
+			pass = 1; block = 0;
+		}
+		// Sort passes: block is the position in sorted order, first the offset
+		while (pass <= sortedNodes.length) {
+			int p = pass - 1;
+			int[] sorted = sortedNodes[p];
+			while (block < sorted.length - 1) {
+				if (first < 1)
+					first = 1;
+				while (first < windowSize && block + first < sorted.length) {
+					int i = sorted[block], j = sorted[block + first++];
+					if (firstCommonCanopy (i, j) >= 0)
+						continue;
+					boolean seen = false;
+					for (int q = 0; q < p && !seen; q++)
+						seen = withinWindow (q, i, j);
+					if (!seen) {
+						numNeighborhoodPairs++;
+						return makePair (Math.min (i, j), Math.max (i, j));
+					}
+				}
+				block++; first = 1;
+			}
+			pass++; block = 0; first = 1;
+		}
+		logger.info (getStatistics ());
+		return null;
+	}
+
+	private NodePair makePair (int i, int j) {
+		boolean idRel = sameLabel (i, j);
+		if (idRel)
+			numTrueCandidatePairs++;
+		return new NodePair (nodes.get(i), nodes.get(j), idRel);
+	}
+
+	public boolean hasNext () {
+		return nextPair != null;
+	}
+
+	public Instance nextInstance () {
+		if (nextPair == null)
+			return null;
+		NodePair np = nextPair;
+		nextPair = findNextPair ();
+		return new Instance (np, np.getIdRel() ? "yes" : "no", null, null);
+	}
+
+	public Object next () {
+		return (Object)nextInstance();
+	}
+
+	public void remove () { throw new UnsupportedOperationException(); }
+
+	public int getNumCanopies () { return canopies.length; }
+
+	/** The members of canopy <tt>c</tt>, as indices into the citations, in
+	 increasing order. */
+	public int[] getCanopy (int c) { return (int[])canopies[c].clone(); }
+
+	/** The number of N choose 2 pairs that exhaustive pairing would produce. */
+	public long getNumPossiblePairs () { return numPossiblePairs; }
+
+	/** The number of candidate pairs produced so far. */
+	public long getNumCandidatePairs () { return numCanopyPairs + numNeighborhoodPairs; }
+
+	public long getNumCanopyPairs () { return numCanopyPairs; }
+
+	public long getNumNeighborhoodPairs () { return numNeighborhoodPairs; }
+
+	/** The number of coreferent pairs among all N choose 2. */
+	public long getNumTruePairs () { return numTruePairs; }
+
+	/** The number of coreferent pairs among the candidates produced so far. */
+	public long getNumTrueCandidatePairs () { return numTrueCandidatePairs; }
+
+	/** The fraction of coreferent pairs produced so far ("pairs completeness"),
+	 or NaN if the citations have no coreferent pairs. */
+	public double getRecall () {
+		return numTruePairs == 0 ? Double.NaN : (double)numTrueCandidatePairs / numTruePairs;
+	}
+
+	/** One minus the fraction of the N choose 2 pairs produced so far. */
+	public double getReductionRatio () {
+		return numPossiblePairs == 0 ? 0.0 : 1.0 - (double)getNumCandidatePairs() / numPossiblePairs;
+	}
+
+	/** The fraction of the candidates produced so far that are coreferent. */
+	public double getPairsQuality () {
+		long n = getNumCandidatePairs();
+		return n == 0 ? Double.NaN : (double)numTrueCandidatePairs / n;
+	}
+
+	public String getStatistics () {
+		return "Blocking: "+numNodes+" citations, "+canopies.length+" canopies, "
+			+getNumCandidatePairs()+" candidate pairs ("+numCanopyPairs+" from canopies, "
+			+numNeighborhoodPairs+" from sorted neighborhoods) of "+numPossiblePairs
+			+" possible; recall="+getRecall()+" reduction="+getReductionRatio()
+			+" quality="+getPairsQuality();
+	}
+
+}
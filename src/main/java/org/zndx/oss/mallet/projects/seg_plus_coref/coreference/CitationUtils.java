@@ -331,6 +331,25 @@ public class CitationUtils {
 			logger.fine("Time elapses " + timeElapse + " seconds for computing pair iterator.");
 			return ilist;
 		}
+
+	/** Like makePairs, but only pipes the candidate pairs found by
+	 * canopies and sorted neighborhoods rather than all N choose 2.
+	 * @param pairs produces the candidates; its getStatistics() gives recall and pair reduction */
+	public static InstanceList makeCanopyPairs(Pipe instancePipe, CanopyNodePairIterator pairs) {
+		logger.fine("CanopyNodePairIterator...");
+		long timeStart = System.currentTimeMillis();
+		InstanceList ilist = new InstanceList (instancePipe);
+		ilist.add (pairs);
+		long timeEnd = System.currentTimeMillis();
+		double timeElapse = (timeEnd - timeStart)/(1000.000);
+		logger.fine("Time elapses " + timeElapse + " seconds for computing pair iterator.");
+		logger.fine(pairs.getStatistics());
+		return ilist;
+	}
+
+	public static InstanceList makeCanopyPairs(Pipe instancePipe, ArrayList nodes) {
+		return makeCanopyPairs (instancePipe, new CanopyNodePairIterator (nodes));
+	}
 	
 	// this version assumes nodes are actually citations
 	public static Collection makeCollections (ArrayList nodes) {
@@ -177,36 +177,12 @@ public class CorefCluster {
 												 ((Citation)((Node)v.getObject()).getObject()).getBaseString() );
 												 }*/
 		//System.out.println("Top Graph: " + graph);
-		while (true) {
-			double bestEdgeVal = -100000000;
-			WeightedEdge bestEdge = null;
-			//System.out.println("Top Graph: " + graph);
-			Set edgeSet = graph.getEdgeSet();
-			Iterator i1 = edgeSet.iterator();
-			// get highest edge value in this loop
-			while (i1.hasNext()) {
-				WeightedEdge e1 = (WeightedEdge)i1.next();
-				if (e1.getWeight() > bestEdgeVal) {
-					bestEdgeVal = e1.getWeight();
-					bestEdge = e1;
-				}
-			}
-			if (bestEdgeVal < threshold)
-				break;
-			else {
-				if (bestEdge != null) {
-					VertexImpl v1 = (VertexImpl)bestEdge.getVertexA();
-					VertexImpl v2 = (VertexImpl)bestEdge.getVertexB();
-					/*
-					System.out.println("Best edge val: " + bestEdgeVal);
-					System.out.println("Merging vertices: " + v1.getObject()
-					+ " and " + v2.getObject()); */
-					mergeVertices(graph, v1, v2);
-				}
-			}
-		}
-		System.out.println("Final graph now has " + graph.getVertexSet().size() + " nodes");
-		return getCollectionOfOriginalObjects ((Collection)graph.getVertexSet());
+		// Same greedy merging of the highest edge as repeated calls to
+		// mergeVertices, but with incrementally maintained edge scores
+		Collection clustering = CorrelationClusterer.partition (graph, threshold,
+																														CorrelationClusterer.MAX);
+		System.out.println("Final graph now has " + clustering.size() + " nodes");
+		return clustering;
 	}
 
 	/**
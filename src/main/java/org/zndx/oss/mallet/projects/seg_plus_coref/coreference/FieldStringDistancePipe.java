@@ -50,7 +50,10 @@ public class FieldStringDistancePipe extends Pipe {
 				
 				if (f1.length() > 0 && f2.length() > 0) {
 					double dist = 0.0;
-					if (distanceMeasure instanceof NeedlemanWunsch) {
+					StringDistance measure = distanceMeasure;
+					if (measure instanceof CachedStringDistance)
+						measure = ((CachedStringDistance)measure).getDistance();
+					if (measure instanceof NeedlemanWunsch) {
 						dist = 1 - ((Math.abs(distanceMeasure.score(f1, f2)) /
 												 (double)(f1.length() + f2.length())));
 					} else
@@ -0,0 +1,105 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+http://www.cs.umass.edu/~mccallum/mallet
+This software is provided under the terms of the Common Public License,
+version 1.0, as published by http://www.opensource.org.  For further
+information, see the file `LICENSE' included with this distribution. */
+
+
+package org.zndx.oss.mallet.projects.seg_plus_coref.coreference;
+
+import java.util.*;
+
+/**
+ A {@link StringDistanceCache} in a hash table.  With a positive
+ <tt>maxSize</tt> the least recently used scores are dropped once the
+ table is full; otherwise it grows without bound.  For a symmetric
+ distance the two strings of a pair are stored in a fixed order, so
+ that <tt>(s,t)</tt> and <tt>(t,s)</tt> share an entry.
+ */
+public class HashStringDistanceCache implements StringDistanceCache
+{
+	private static class Key
+	{
+		String s, t;
+		int hash;
+
+		Key (String s, String t) {
+			this.s = s;
+			this.t = t;
+			this.hash = s.hashCode() * 31 + t.hashCode();
+		}
+
+		public boolean equals (Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key)o;
+			return hash == k.hash && s.equals (k.s) && t.equals (k.t);
+		}
+
+		public int hashCode () {
+			return hash;
+		}
+	}
+
+	Map scores;
+	boolean symmetric;
+	int hits, misses;
+
+	public HashStringDistanceCache (final int maxSize, boolean symmetric)
+	{
+		this.symmetric = symmetric;
+		if (maxSize > 0)
+			scores = new LinkedHashMap (Math.min (maxSize, 1024), 0.75f, true) {
+					protected boolean removeEldestEntry (Map.Entry eldest) {
+						return size() > maxSize;
+					}
+				};
+		else
+			scores = new HashMap ();
+	}
+
+	/** An unbounded cache, which keeps the scores of <tt>(s,t)</tt> and
+	 <tt>(t,s)</tt> apart, as it must unless the distance is known to be
+	 symmetric. */
+	public HashStringDistanceCache ()
+	{
+		this (0, false);
+	}
+
+	private Key makeKey (String s, String t)
+	{
+		if (symmetric && s.compareTo (t) > 0)
+			return new Key (t, s);
+		return new Key (s, t);
+	}
+
+	public synchronized double lookup (String s, String t)
+	{
+		Double score = (Double)scores.get (makeKey (s, t));
+		if (score == null) {
+			misses++;
+			return Double.NaN;
+		}
+		hits++;
+		return score.doubleValue();
+	}
+
+	public synchronized void store (String s, String t, double score)
+	{
+		scores.put (makeKey (s, t), new Double (score));
+	}
+
+	public synchronized int size () { return scores.size(); }
+
+	public synchronized void clear ()
+	{
+		scores.clear ();
+		hits = misses = 0;
+	}
+
+	public synchronized int getNumHits () { return hits; }
+
+	public synchronized int getNumMisses () { return misses; }
+
+}
@@ -195,9 +195,15 @@ public class MultipleCorefClusterer extends CorefClusterAdv {
 			else {
 				wgraph = createMultipleTypeGraph (ilists, mentions);
 				logger.info ("Created Multi-Graph with " + wgraph.getVerticesCount() + " vertices and " + wgraph.getEdgesCount() + " edges");
-				if (type2index.get (this.VENUE) != null && type2index.get(this.PAPER) != null)
+				Collection clustering;
+				if (type2index.get (this.VENUE) != null && type2index.get(this.PAPER) != null) {
 					this.paperVertex2VenueVertex = getPaper2VenueHash (wgraph);
-				Collection clustering = typicalClusterPartition (wgraph);
+					clustering = typicalClusterPartition (wgraph);
+				} else {
+					// no paper/venue bookkeeping in mergeVertices, so the
+					// incremental clusterer gives the same merges
+					clustering = CorrelationClusterer.partition (wgraph, threshold, CorrelationClusterer.MIDPOINT);
+				}
 				logger.info ("Resulting clustering of all types has " + clustering.size() + " clusters");
 				Collection[] ret =  splitClusteringByType (clustering);
 				for (int cint=0; cint < ret.length; cint++) 
@@ -0,0 +1,192 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+http://www.cs.umass.edu/~mccallum/mallet
+This software is provided under the terms of the Common Public License,
+version 1.0, as published by http://www.opensource.org.  For further
+information, see the file `LICENSE' included with this distribution. */
+
+
+package org.zndx.oss.mallet.projects.seg_plus_coref.coreference;
+
+import org.zndx.oss.mallet.base.types.*;
+import org.zndx.oss.mallet.base.pipe.*;
+import org.zndx.oss.mallet.base.pipe.iterator.*;
+import org.zndx.oss.mallet.base.util.ParallelUtils;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.*;
+
+/**
+ Builds the <tt>InstanceList</tt> of citation pairs on several threads.
+
+ <p>Featurizing a pair is split into two pipes.  The <i>feature
+ pipe</i> holds the pipes that only read the two citations and set
+ features on the <tt>NodePair</tt> (<tt>TitlePipe</tt>,
+ <tt>VenuePipe</tt>, <tt>FieldStringDistancePipe</tt> and so on); it is
+ run on a batch of pairs in parallel, so these pipes must be safe to
+ share between threads.  The <i>instance pipe</i>, typically
+ <tt>NodePair2FeatureVector</tt> followed by <tt>Target2Label</tt>, adds
+ entries to Alphabets and is run on the calling thread in input order,
+ so the Alphabets and Instances are the same as piping serially.  The
+ resulting list's pipe is the instance pipe; lists to be compared with
+ one another should all be built by the same extractor.
+
+ <p>Before extraction, {@link #prepare} can fill in the prepared
+ strings of every {@link CachedStringDistance} registered with
+ {@link #addPreparedFields}, in parallel over the citations, so that
+ each field value is tokenized once rather than once per pair.
+ */
+public class PairFeatureExtractor
+{
+	private static Logger logger = Logger.getLogger(PairFeatureExtractor.class.getName());
+
+	Pipe featurePipe;
+	Pipe instancePipe;
+	int numThreads;
+	int batchSize = 1024;
+	ArrayList preparedDistances = new ArrayList();
+	ArrayList preparedFields = new ArrayList();
+
+	/**
+	 @param featurePipe sets features on each NodePair, run in parallel; may be null
+	 @param instancePipe turns the features into the Instance's data, run serially
+	 */
+	public PairFeatureExtractor (Pipe featurePipe, Pipe instancePipe, int numThreads)
+	{
+		if (numThreads < 1)
+			throw new IllegalArgumentException ("numThreads must be positive, was "+numThreads);
+		this.featurePipe = featurePipe;
+		this.instancePipe = instancePipe;
+		this.numThreads = numThreads;
+	}
+
+	public Pipe getFeaturePipe () { return featurePipe; }
+
+	public Pipe getInstancePipe () { return instancePipe; }
+
+	/** The number of pairs featurized together; larger batches keep the
+	 threads busier at the cost of memory. */
+	public void setBatchSize (int batchSize)
+	{
+		if (batchSize < 1)
+			throw new IllegalArgumentException ("batchSize must be positive, was "+batchSize);
+		this.batchSize = batchSize;
+	}
+
+	/** Have {@link #prepare} fill in <tt>distance</tt>'s prepared strings
+	 for the given citation fields. */
+	public void addPreparedFields (CachedStringDistance distance, String[] fields)
+	{
+		preparedDistances.add (distance);
+		preparedFields.add (fields);
+	}
+
+	/** Prepares the registered fields of every citation, and of the
+	 citations in their n-best lists, for the registered distances. */
+	public void prepare (List citations)
+	{
+		long timeStart = System.currentTimeMillis();
+		final Citation[] cs = (Citation[])citations.toArray (new Citation[citations.size()]);
+		final int[] bounds = ParallelUtils.shardBoundaries (cs.length, numThreads);
+		Runnable[] tasks = new Runnable[numThreads];
+		for (int t = 0; t < numThreads; t++) {
+			final int start = bounds[t], end = bounds[t+1];
+			tasks[t] = new Runnable () {
+					public void run () {
+						for (int i = start; i < end; i++) {
+							prepare (cs[i]);
+							List nBest = cs[i].getNBest();
+							if (nBest != null)
+								for (int n = 0; n < nBest.size(); n++)
+									prepare ((Citation)nBest.get(n));
+						}
+					}
+				};
+		}
+		ParallelUtils.runAll (tasks, numThreads);
+		logger.fine ("Prepared fields of "+cs.length+" citations in "
+								 +((System.currentTimeMillis() - timeStart) / 1000.0)+" seconds");
+	}
+
+	private void prepare (Citation c)
+	{
+		for (int d = 0; d < preparedDistances.size(); d++) {
+			CachedStringDistance distance = (CachedStringDistance)preparedDistances.get(d);
+			String[] fields = (String[])preparedFields.get(d);
+			for (int f = 0; f < fields.length; f++) {
+				String value = c.getField (fields[f]);
+				if (value.length() > 0)
+					distance.prepare (value);
+			}
+		}
+	}
+
+	/** Featurizes all of the pairs produced by <tt>pairs</tt>, such as a
+	 NodePairIterator or CanopyNodePairIterator, into a new list. */
+	public InstanceList extract (PipeInputIterator pairs)
+	{
+		InstanceList ilist = new InstanceList (instancePipe);
+		add (ilist, pairs);
+		return ilist;
+	}
+
+	/** Featurizes all of the pairs produced by <tt>pairs</tt> into
+	 <tt>ilist</tt>, whose pipe must be this extractor's instance pipe. */
+	public void add (InstanceList ilist, PipeInputIterator pairs)
+	{
+		if (ilist.getPipe() != instancePipe)
+			throw new IllegalArgumentException ("InstanceList pipe "+ilist.getPipe()
+																					+" is not the instance pipe "+instancePipe);
+		long timeStart = System.currentTimeMillis();
+		int numPairs = 0;
+		ExecutorService executor = (numThreads > 1 && featurePipe != null)
+			? ParallelUtils.newExecutor (numThreads, "PairFeatureExtractor") : null;
+		try {
+			Instance[] batch = new Instance[batchSize];
+			while (pairs.hasNext()) {
+				int n = 0;
+				while (n < batchSize && pairs.hasNext()) {
+					Instance carrier = pairs.nextInstance();
+					batch[n++] = new Instance (carrier.getData(), carrier.getTarget(),
+																		 carrier.getName(), carrier.getSource());
+				}
+				if (featurePipe != null)
+					pipeFeatures (batch, n, executor);
+				for (int i = 0; i < n; i++) {
+					Instance carrier = batch[i];
+					ilist.add (new Instance (carrier.getData(), carrier.getTarget(),
+																	 carrier.getName(), carrier.getSource(), instancePipe));
+					batch[i] = null;
+				}
+				numPairs += n;
+			}
+		} finally {
+			if (executor != null)
+				executor.shutdown ();
+		}
+		logger.fine ("Extracted features of "+numPairs+" pairs in "
+								 +((System.currentTimeMillis() - timeStart) / 1000.0)+" seconds");
+	}
+
+	private void pipeFeatures (final Instance[] batch, int n, ExecutorService executor)
+	{
+		if (executor == null) {
+			for (int i = 0; i < n; i++)
+				batch[i] = featurePipe.pipe (batch[i]);
+			return;
+		}
+		int[] bounds = ParallelUtils.shardBoundaries (n, numThreads);
+		Runnable[] tasks = new Runnable[numThreads];
+		for (int t = 0; t < numThreads; t++) {
+			final int start = bounds[t], end = bounds[t+1];
+			tasks[t] = new Runnable () {
+					public void run () {
+						for (int i = start; i < end; i++)
+							batch[i] = featurePipe.pipe (batch[i]);
+					}
+				};
+		}
+		ParallelUtils.runAll (tasks, executor);
+	}
+
+}
@@ -20,7 +20,6 @@ import java.io.*;
 
 public class SGMLStringDistances extends Pipe
 {
-	AbstractStringDistance nw;
 	String[] sgmlStartTags;
 	String[] sgmlEndTags;
 
@@ -49,7 +48,8 @@ public class SGMLStringDistances extends Pipe
 		String s1 = (String)((Node)pair.getObject1()).getString(); // assume nodes are strings
 		String s2 = (String)((Node)pair.getObject2()).getString();
 
-		nw = new NeedlemanWunsch();
+		// a new distance per pair, so that pairs can be piped on several threads
+		AbstractStringDistance nw = new NeedlemanWunsch();
 //		nw = new CharJaccard();
 //		nw = new Jaccard();
 
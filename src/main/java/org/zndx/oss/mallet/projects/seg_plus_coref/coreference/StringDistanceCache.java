@@ -0,0 +1,30 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+http://www.cs.umass.edu/~mccallum/mallet
+This software is provided under the terms of the Common Public License,
+version 1.0, as published by http://www.opensource.org.  For further
+information, see the file `LICENSE' included with this distribution. */
+
+
+package org.zndx.oss.mallet.projects.seg_plus_coref.coreference;
+
+/**
+ A cache of string distance scores, keyed by the pair of field values
+ that were compared.  Used by {@link CachedStringDistance}; since many
+ citations share the same author, venue or year strings, the same pair
+ of values is compared over and over when featurizing pairs.
+
+ <p>Implementations must be safe to call from several threads at once.
+ */
+public interface StringDistanceCache
+{
+	/** Returns the cached score of <tt>s</tt> against <tt>t</tt>, or NaN if
+	 there is none. */
+	public double lookup (String s, String t);
+
+	public void store (String s, String t, double score);
+
+	public int size ();
+
+	public void clear ();
+}
@@ -20,8 +20,6 @@ import java.io.*;
 
 public class StringDistances extends Pipe
 {
-	AbstractStringDistance nw;
-
 	public StringDistances (Alphabet dataDict)
 	{
 		super(dataDict, null);
@@ -40,7 +38,7 @@ public class StringDistances extends Pipe
 
 //		nw = new NeedlemanWunsch();
 //		nw = new CharJaccard();
-		nw = new Jaccard();
+		AbstractStringDistance nw = new Jaccard();
 //		double dist = nw.score(new StringWrapper(s1), new StringWrapper(s2));
 		double dist = nw.score(s1, s2);
 
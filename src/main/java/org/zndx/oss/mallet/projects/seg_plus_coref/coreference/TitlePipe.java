@@ -18,9 +18,17 @@ public class TitlePipe extends Pipe
 	boolean useNBest = false;
 	
 	public TitlePipe(double threshold)
+	{
+		this(new NeedlemanWunsch(), threshold);
+	}
+
+	/** Scores titles with <tt>distMetric</tt>.  To build pairs with a
+	 PairFeatureExtractor, pass a CachedStringDistance and register it for
+	 the title field with PairFeatureExtractor.addPreparedFields. */
+	public TitlePipe(StringDistance distMetric, double threshold)
 	{
 		this.threshold = threshold;
-		this.distMetric = new NeedlemanWunsch();
+		this.distMetric = distMetric;
 	}
 
 	public TitlePipe(StringDistance distMetric, boolean useNBest) {
@@ -37,6 +45,8 @@ public class TitlePipe extends Pipe
 		this.distMetric = distMetric;
 	}
 
+	public StringDistance getDistance () { return distMetric; }
+
 	private double computeValue (Citation c1, Citation c2) {
 		String ss1 = c1.getField("title");
 		String ss2 = c2.getField("title");
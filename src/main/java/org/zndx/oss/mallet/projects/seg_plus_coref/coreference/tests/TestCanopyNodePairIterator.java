@@ -0,0 +1,169 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package org.zndx.oss.mallet.projects.seg_plus_coref.coreference.tests;
+
+import org.zndx.oss.mallet.projects.seg_plus_coref.coreference.*;
+import org.zndx.oss.mallet.base.types.Instance;
+import junit.framework.*;
+import java.util.*;
+
+public class TestCanopyNodePairIterator extends TestCase
+{
+	public TestCanopyNodePairIterator (String name)
+	{
+		super (name);
+	}
+
+	static String[][] papers = {
+		{"1", "mccallum", "efficient clustering of high dimensional data sets"},
+		{"1", "a mccallum", "efficient clustering of high dimensional data sets"},
+		{"1", "mccallum nigam ungar", "efficient clustering high dimensional data sets"},
+		{"2", "blei ng jordan", "latent dirichlet allocation"},
+		{"2", "d blei", "latent dirichlet allocation"},
+		{"3", "lafferty", "conditional random fields"},
+		{"3", "j lafferty", "conditional random fields"},
+		{"3", "lafferty mccallum pereira", "conditional random fields"},
+		{"4", "pereira", "shallow parsing"},
+	};
+
+	static List citations (String[][] papers)
+	{
+		ArrayList citations = new ArrayList();
+		for (int i = 0; i < papers.length; i++) {
+			String s = "<meta reference_no=\""+i+"\" cluster_no=\""+papers[i][0]+"\"></meta> "
+								 +"<author>"+papers[i][1]+"</author> <title>"+papers[i][2]+"</title>";
+			citations.add (new Citation (s, papers[i][0], i));
+		}
+		return citations;
+	}
+
+	// The pairs produced, as "i-j" with i < j, failing on a repeat
+	static Set drain (CanopyNodePairIterator iter, List citations)
+	{
+		Set pairs = new HashSet();
+		while (iter.hasNext()) {
+			Instance inst = iter.nextInstance();
+			NodePair pair = (NodePair)inst.getData();
+			int i = citations.indexOf (pair.getObject1());
+			int j = citations.indexOf (pair.getObject2());
+			assertTrue (i >= 0 && j >= 0 && i != j);
+			String key = Math.min (i, j) + "-" + Math.max (i, j);
+			assertTrue ("pair "+key+" produced twice", pairs.add (key));
+			Citation c1 = (Citation)pair.getObject1(), c2 = (Citation)pair.getObject2();
+			assertEquals (c1.getLabel().equals (c2.getLabel()), pair.getIdRel());
+			assertEquals (pair.getIdRel() ? "yes" : "no", inst.getTarget());
+		}
+		assertEquals (pairs.size(), iter.getNumCandidatePairs());
+		return pairs;
+	}
+
+	static Set canopyPairs (CanopyNodePairIterator iter)
+	{
+		Set pairs = new HashSet();
+		for (int c = 0; c < iter.getNumCanopies(); c++) {
+			int[] canopy = iter.getCanopy (c);
+			for (int a = 0; a < canopy.length; a++)
+				for (int b = a + 1; b < canopy.length; b++)
+					pairs.add (canopy[a] + "-" + canopy[b]);
+		}
+		return pairs;
+	}
+
+	public void testCanopyPairs ()
+	{
+		List citations = citations (papers);
+		CanopyNodePairIterator iter = new CanopyNodePairIterator
+			(citations, CanopyNodePairIterator.DEFAULT_CANOPY_FIELDS, 0.2, 0.6, new String[0], 2);
+		Set pairs = drain (iter, citations);
+		assertEquals (canopyPairs (iter), pairs);
+		assertEquals (pairs.size(), iter.getNumCanopyPairs());
+		assertEquals (0, iter.getNumNeighborhoodPairs());
+		// Each paper's citations share a canopy, and the lone one pairs with nothing
+		for (int i = 0; i < papers.length; i++)
+			for (int j = i + 1; j < papers.length; j++)
+				if (papers[i][0].equals (papers[j][0]))
+					assertTrue (i+"-"+j, pairs.contains (i+"-"+j));
+		assertEquals (1.0, iter.getRecall(), 0.0);
+		assertEquals (1 + 3 + 3, iter.getNumTruePairs());
+		assertEquals (papers.length * (papers.length - 1) / 2, iter.getNumPossiblePairs());
+	}
+
+	public void testOverlappingCanopies ()
+	{
+		// With a loose threshold every citation sharing a word joins the
+		// center's canopy, and a tight one of 1 removes no one from being a
+		// center, so the canopies overlap heavily
+		List citations = citations (papers);
+		CanopyNodePairIterator iter = new CanopyNodePairIterator
+			(citations, CanopyNodePairIterator.DEFAULT_CANOPY_FIELDS, 0.01, 1.0, new String[0], 2);
+		Set pairs = drain (iter, citations);
+		assertTrue (iter.getNumCanopies() > 4);
+		assertEquals (canopyPairs (iter), pairs);
+	}
+
+	public void testSortedNeighborhood ()
+	{
+		List citations = citations (papers);
+		// No canopy can form, so every pair comes from the sort passes
+		CanopyNodePairIterator iter = new CanopyNodePairIterator
+			(citations, CanopyNodePairIterator.DEFAULT_CANOPY_FIELDS, 1.1, 1.1,
+			 new String[] {Citation.title, Citation.author}, 2);
+		Set pairs = drain (iter, citations);
+		assertEquals (0, iter.getNumCanopies());
+		// A window of 2 pairs each citation with the next in each order
+		Set expected = new HashSet();
+		String[] fields = new String[] {Citation.title, Citation.author};
+		for (int f = 0; f < fields.length; f++) {
+			final String field = fields[f];
+			final List cs = citations;
+			Integer[] order = new Integer[cs.size()];
+			for (int i = 0; i < order.length; i++)
+				order[i] = new Integer (i);
+			Arrays.sort (order, new Comparator () {
+					public int compare (Object o1, Object o2) {
+						int i1 = ((Integer)o1).intValue(), i2 = ((Integer)o2).intValue();
+						int c = ((Citation)cs.get(i1)).getField(field).trim().compareTo
+							(((Citation)cs.get(i2)).getField(field).trim());
+						return c != 0 ? c : i1 - i2;
+					}
+				});
+			for (int k = 0; k + 1 < order.length; k++) {
+				int i = order[k].intValue(), j = order[k+1].intValue();
+				expected.add (Math.min (i, j) + "-" + Math.max (i, j));
+			}
+		}
+		assertEquals (expected, pairs);
+		assertEquals (pairs.size(), iter.getNumNeighborhoodPairs());
+	}
+
+	public void testDefaults ()
+	{
+		List citations = citations (papers);
+		CanopyNodePairIterator iter = new CanopyNodePairIterator (citations);
+		Set pairs = drain (iter, citations);
+		Set fromCanopies = canopyPairs (iter);
+		assertTrue (pairs.containsAll (fromCanopies));
+		assertEquals (fromCanopies.size(), iter.getNumCanopyPairs());
+		assertEquals (pairs.size() - fromCanopies.size(), iter.getNumNeighborhoodPairs());
+	}
+
+	public static Test suite ()
+	{
+		return new TestSuite (TestCanopyNodePairIterator.class);
+	}
+
+	protected void setUp ()
+	{
+	}
+
+	public static void main (String[] args)
+	{
+		junit.textui.TestRunner.run (suite());
+	}
+
+}
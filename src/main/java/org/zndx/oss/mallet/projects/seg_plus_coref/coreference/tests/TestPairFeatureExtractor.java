@@ -0,0 +1,154 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package org.zndx.oss.mallet.projects.seg_plus_coref.coreference.tests;
+
+import org.zndx.oss.mallet.projects.seg_plus_coref.coreference.*;
+import org.zndx.oss.mallet.base.types.*;
+import org.zndx.oss.mallet.base.pipe.*;
+import com.wcohen.secondstring.*;
+import junit.framework.*;
+import java.util.*;
+
+public class TestPairFeatureExtractor extends TestCase
+{
+	public TestPairFeatureExtractor (String name)
+	{
+		super (name);
+	}
+
+	static String[][] papers = {
+		{"1", "mccallum", "efficiently inducing features of conditional random fields", "uai"},
+		{"1", "a mccallum", "efficiently inducing features of conditional random fields", "uncertainty in artificial intelligence"},
+		{"1", "mccallum a", "inducing features of conditional random fields", "uai"},
+		{"2", "lafferty", "conditional random fields probabilistic models", "icml"},
+		{"2", "j lafferty", "conditional random fields: probabilistic models for segmenting", "icml"},
+		{"3", "blei", "latent dirichlet allocation", "journal of machine learning research"},
+		{"3", "d blei", "latent dirichlet allocation", ""},
+	};
+
+	static List citations ()
+	{
+		ArrayList citations = new ArrayList();
+		for (int i = 0; i < papers.length; i++) {
+			String s = "<meta reference_no=\""+i+"\" cluster_no=\""+papers[i][0]+"\"></meta> "
+								 +"<author>"+papers[i][1]+"</author> <title>"+papers[i][2]+"</title> "
+								 +"<booktitle>"+papers[i][3]+"</booktitle>";
+			citations.add (new Citation (s, papers[i][0], i));
+		}
+		return citations;
+	}
+
+	static Pipe instancePipe ()
+	{
+		// Not binary, so that the similarity values are kept
+		return new SerialPipes (new Pipe[] {
+			new NodePair2FeatureVector (false, false),
+			new Target2Label (),
+		});
+	}
+
+	public void testSameAsSerialPipes ()
+	{
+		List citations = citations ();
+		InstanceList serial = new InstanceList (new SerialPipes (new Pipe[] {
+			new TitlePipe (new NeedlemanWunsch (), 0.9),
+			new VenuePipe (new Jaccard ()),
+			new NodePair2FeatureVector (false, false),
+			new Target2Label (),
+		}));
+		serial.add (new NodePairIterator (citations));
+
+		CachedStringDistance titleDistance = new CachedStringDistance (new NeedlemanWunsch (), true);
+		CachedStringDistance venueDistance = new CachedStringDistance (new Jaccard (), true);
+		PairFeatureExtractor extractor = new PairFeatureExtractor (new SerialPipes (new Pipe[] {
+			new TitlePipe (titleDistance, 0.9),
+			new VenuePipe (venueDistance),
+		}), instancePipe (), 3);
+		extractor.setBatchSize (4);
+		extractor.addPreparedFields (titleDistance, new String[] {Citation.title});
+		extractor.addPreparedFields (venueDistance, new String[] {Citation.venue});
+		extractor.prepare (citations);
+		// Each distinct field value is prepared once
+		assertEquals (5, titleDistance.getNumPrepared ());
+		assertEquals (4, venueDistance.getNumPrepared ());
+		InstanceList parallel = extractor.extract (new NodePairIterator (citations));
+
+		assertEquals (papers.length * (papers.length - 1) / 2, serial.size());
+		assertEquals (serial.size(), parallel.size());
+		Alphabet serialDict = serial.getDataAlphabet();
+		Alphabet parallelDict = parallel.getDataAlphabet();
+		assertEquals (serialDict.size(), parallelDict.size());
+		for (int i = 0; i < serial.size(); i++) {
+			Instance s = serial.getInstance (i);
+			Instance p = parallel.getInstance (i);
+			assertEquals (s.getTarget().toString(), p.getTarget().toString());
+			FeatureVector sv = (FeatureVector) s.getData();
+			FeatureVector pv = (FeatureVector) p.getData();
+			assertEquals (sv.numLocations(), pv.numLocations());
+			for (int loc = 0; loc < sv.numLocations(); loc++) {
+				assertEquals (serialDict.lookupObject (sv.indexAtLocation (loc)),
+											parallelDict.lookupObject (pv.indexAtLocation (loc)));
+				assertEquals (sv.valueAtLocation (loc), pv.valueAtLocation (loc), 1e-12);
+			}
+		}
+		assertTrue (serialDict.contains ("TitleSimilarity"));
+	}
+
+	// One if the first string begins the second, which is not symmetric
+	static class PrefixDistance implements StringDistance
+	{
+		StringDistance preparer = new Jaccard ();
+		public double score (StringWrapper s, StringWrapper t) { return score (s.unwrap(), t.unwrap()); }
+		public double score (String s, String t) { return t.startsWith (s) ? 1 : 0; }
+		public StringWrapper prepare (String s) { return preparer.prepare (s); }
+		public String explainScore (StringWrapper s, StringWrapper t) { return ""+score (s, t); }
+		public String explainScore (String s, String t) { return ""+score (s, t); }
+	}
+
+	public void testCachedScores ()
+	{
+		// Unless told that the distance is symmetric, the cache keeps (s,t) and (t,s) apart
+		CachedStringDistance distance = new CachedStringDistance (new PrefixDistance ());
+		for (int k = 0; k < 2; k++) {
+			assertEquals (1.0, distance.score ("uai", "uai 2002"), 0.0);
+			assertEquals (0.0, distance.score ("uai 2002", "uai"), 0.0);
+		}
+		assertEquals (2, distance.getScoreCache().size ());
+		assertEquals (2, ((HashStringDistanceCache) distance.getScoreCache()).getNumHits ());
+
+		distance = new CachedStringDistance (new Jaccard (), true);
+		double score = distance.score ("icml", "icml 2001");
+		assertEquals (score, distance.score ("icml 2001", "icml"), 0.0);
+		assertEquals (1, distance.getScoreCache().size ());
+	}
+
+	public void testRejectsOtherPipe ()
+	{
+		PairFeatureExtractor extractor = new PairFeatureExtractor (null, instancePipe (), 2);
+		try {
+			extractor.add (new InstanceList (instancePipe ()), new NodePairIterator (citations ()));
+			fail ("added to a list with another pipe");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	public static Test suite ()
+	{
+		return new TestSuite (TestPairFeatureExtractor.class);
+	}
+
+	protected void setUp ()
+	{
+	}
+
+	public static void main (String[] args)
+	{
+		junit.textui.TestRunner.run (suite());
+	}
+
+}
@@ -0,0 +1,435 @@
+/* Copyright (C) 2002 Dept. of Computer Science, Univ. of Massachusetts, Amherst
+
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+
+   This program toolkit free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public License as
+   published by the Free Software Foundation; either version 2 of the
+   License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but
+   WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  For more
+   details see the GNU General Public License and the file README-LEGAL.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA
+   02111-1307, USA. */
+
+
+package org.zndx.oss.mallet.projects.seg_plus_coref.graphs;
+
+import org.zndx.oss.mallet.base.util.search.MinHeap;
+import org.zndx.oss.mallet.base.util.search.QueueElement;
+import gnu.trove.TIntDoubleHashMap;
+import gnu.trove.TIntIntHashMap;
+import java.util.*;
+import salvo.jesus.graph.*;
+
+/**
+	 Greedy agglomerative correlation clustering over a primitive graph.
+
+	 <p>Nodes are the integers <tt>0..numNodes-1</tt> and edges carry float
+	 weights, positive for "same" and negative for "different".  Starting
+	 from singletons, the pair of clusters with the highest linkage score is
+	 merged repeatedly until no pair scores at least the threshold.  The
+	 linkage score of each pair of adjacent clusters is kept in a hash map
+	 per cluster and offered to a heap; when two clusters merge only the
+	 links of the absorbed cluster are revisited, and heap entries made
+	 stale by the merge are discarded when they surface.  A merge therefore
+	 costs O(degree log n) rather than a rescan of every cluster pair, and
+	 the input graph is never copied or modified.
+
+	 <p>The linkage decides how the links of two merged clusters combine:
+	 <ul>
+	 <li>{@link #SUM}: the total weight between the clusters, which is the
+	 change in the correlation clustering objective made by merging them.
+	 A missing edge counts as zero.
+	 <li>{@link #AVERAGE}: the mean weight of the edges between the clusters,
+	 as in <tt>MinimizeDisagreementsClustering.evaluatePair</tt>.
+	 <li>{@link #MAX}: the larger of the two links, the rule of
+	 <tt>CorefCluster.mergeVertices</tt>.
+	 <li>{@link #MIDPOINT}: the mean of the two links, the rule of
+	 <tt>CorefClusterAdv.mergeVertices</tt>.
+	 </ul>
+	 For MAX and MIDPOINT, as in those graph-based versions, a cluster that
+	 is linked to only one of the two merged clusters loses its link, and an
+	 edge weighing {@link #NEGATIVE_INFINITE} or less is treated as absent.
+	 These two linkages revisit the links of both merged clusters.
+ */
+public class CorrelationClusterer
+{
+	public static final int SUM = 0;
+	public static final int AVERAGE = 1;
+	public static final int MAX = 2;
+	public static final int MIDPOINT = 3;
+
+	// the "negative infinite" edge weight used by the coreference clusterers
+	public static final double NEGATIVE_INFINITE = -1000000000;
+
+	int numNodes;
+	int numEdges;
+	int[] edgeSources;
+	int[] edgeTargets;
+	float[] edgeWeights;
+
+	int linkage = SUM;
+	double threshold = 0.0;
+
+	// Clustering state, indexed by the id of a cluster's representative node
+	TIntDoubleHashMap[] links;
+	TIntIntHashMap[] linkCounts; // number of original edges per link, for AVERAGE
+	int[] parent;         // union-find forest over nodes
+	int[] nextMember;     // circular list of the members of each cluster
+	int numClusters;
+	int numMerges;
+	MinHeap heap;
+
+	private static class Candidate implements QueueElement
+	{
+		int a, b;
+		double score;
+		int position = -1;
+
+		Candidate (int a, int b, double score) {
+			this.a = a;
+			this.b = b;
+			this.score = score;
+		}
+
+		// MinHeap extracts the smallest priority first
+		public double getPriority () { return -score; }
+		public void setPriority (double priority) { score = -priority; }
+		public int getPosition () { return position; }
+		public void setPosition (int pos) { position = pos; }
+	}
+
+	public CorrelationClusterer (int numNodes)
+	{
+		this.numNodes = numNodes;
+		edgeSources = new int[16];
+		edgeTargets = new int[16];
+		edgeWeights = new float[16];
+	}
+
+	/** Builds a clusterer whose node <tt>i</tt> is the <tt>i</tt>th of
+			<tt>vertices</tt>, with one edge per edge of <tt>graph</tt>
+			between two of them. */
+	public static CorrelationClusterer fromGraph (WeightedGraph graph, List vertices)
+	{
+		HashMap vertexToNode = new HashMap();
+		for (int i = 0; i < vertices.size(); i++)
+			vertexToNode.put (vertices.get(i), new Integer (i));
+		CorrelationClusterer clusterer = new CorrelationClusterer (vertices.size());
+		Iterator iter = graph.getEdgeSet().iterator();
+		while (iter.hasNext()) {
+			WeightedEdge e = (WeightedEdge)iter.next();
+			Integer a = (Integer)vertexToNode.get (e.getVertexA());
+			Integer b = (Integer)vertexToNode.get (e.getVertexB());
+			if (a != null && b != null)
+				clusterer.addEdge (a.intValue(), b.intValue(), e.getWeight());
+		}
+		return clusterer;
+	}
+
+	/** Clusters the vertices of <tt>graph</tt>, returning a collection of
+			collections of the objects wrapped by the vertices.  Like
+			<tt>CorefCluster.typicalClusterPartition</tt>, a vertex wrapping a
+			<tt>List</tt> contributes the list's elements. */
+	public static Collection partition (WeightedGraph graph, double threshold, int linkage)
+	{
+		List vertices = new ArrayList (graph.getVertexSet());
+		CorrelationClusterer clusterer = fromGraph (graph, vertices);
+		clusterer.setLinkage (linkage);
+		clusterer.setThreshold (threshold);
+		int[][] clusters = clusterer.cluster ();
+		Collection collection = new LinkedHashSet();
+		for (int c = 0; c < clusters.length; c++) {
+			Collection cluster = new LinkedHashSet();
+			for (int k = 0; k < clusters[c].length; k++) {
+				Object o = ((VertexImpl)vertices.get(clusters[c][k])).getObject();
+				if (o instanceof Collection)
+					cluster.addAll ((Collection)o);
+				else if (o != null)
+					cluster.add (o);
+			}
+			if (!cluster.isEmpty())
+				collection.add (cluster);
+		}
+		return collection;
+	}
+
+	public void setLinkage (int linkage)
+	{
+		if (linkage < SUM || linkage > MIDPOINT)
+			throw new IllegalArgumentException ("Unknown linkage "+linkage);
+		this.linkage = linkage;
+	}
+
+	public int getLinkage () { return linkage; }
+
+	/** Clusters are merged while the best linkage score is at least this. */
+	public void setThreshold (double threshold) { this.threshold = threshold; }
+
+	public double getThreshold () { return threshold; }
+
+	public int getNumNodes () { return numNodes; }
+
+	public int getNumEdges () { return numEdges; }
+
+	/** Adds an edge between nodes <tt>i</tt> and <tt>j</tt>.  Adding the same
+			edge again combines the weights as the linkage combines links. */
+	public void addEdge (int i, int j, double weight)
+	{
+		if (i < 0 || i >= numNodes || j < 0 || j >= numNodes)
+			throw new IllegalArgumentException ("Edge "+i+"-"+j+" out of range for "+numNodes+" nodes");
+		if (i == j)
+			throw new IllegalArgumentException ("Self edge on node "+i);
+		if (numEdges == edgeSources.length) {
+			int newLength = numEdges * 2;
+			int[] newSources = new int[newLength];
+			int[] newTargets = new int[newLength];
+			float[] newWeights = new float[newLength];
+			System.arraycopy (edgeSources, 0, newSources, 0, numEdges);
+			System.arraycopy (edgeTargets, 0, newTargets, 0, numEdges);
+			System.arraycopy (edgeWeights, 0, newWeights, 0, numEdges);
+			edgeSources = newSources;
+			edgeTargets = newTargets;
+			edgeWeights = newWeights;
+		}
+		edgeSources[numEdges] = i;
+		edgeTargets[numEdges] = j;
+		edgeWeights[numEdges] = (float)weight;
+		numEdges++;
+	}
+
+	private boolean intersecting () {
+		return linkage == MAX || linkage == MIDPOINT;
+	}
+
+	private double combine (double w1, double w2) {
+		switch (linkage) {
+		case MAX: return Math.max (w1, w2);
+		case MIDPOINT: return (w1 + w2) / 2;
+		default: return w1 + w2;
+		}
+	}
+
+	private double score (int a, int b) {
+		double w = links[a].get (b);
+		return linkage == AVERAGE ? w / linkCounts[a].get (b) : w;
+	}
+
+	private void setLink (int a, int b, double w, int count) {
+		links[a].put (b, w);
+		links[b].put (a, w);
+		if (linkCounts != null) {
+			linkCounts[a].put (b, count);
+			linkCounts[b].put (a, count);
+		}
+	}
+
+	private void removeLink (int a, int b) {
+		links[a].remove (b);
+		if (linkCounts != null)
+			linkCounts[a].remove (b);
+	}
+
+	private void offer (int a, int b) {
+		heap.insert (new Candidate (a, b, score (a, b)));
+	}
+
+	private void initialize ()
+	{
+		links = new TIntDoubleHashMap[numNodes];
+		linkCounts = linkage == AVERAGE ? new TIntIntHashMap[numNodes] : null;
+		parent = new int[numNodes];
+		nextMember = new int[numNodes];
+		for (int i = 0; i < numNodes; i++) {
+			links[i] = new TIntDoubleHashMap();
+			if (linkCounts != null)
+				linkCounts[i] = new TIntIntHashMap();
+			parent[i] = i;
+			nextMember[i] = i;
+		}
+		for (int e = 0; e < numEdges; e++) {
+			int a = edgeSources[e], b = edgeTargets[e];
+			double w = edgeWeights[e];
+			if (intersecting() && w <= NEGATIVE_INFINITE)
+				continue;
+			if (links[a].containsKey (b))
+				setLink (a, b, combine (links[a].get (b), w),
+								 linkCounts == null ? 0 : linkCounts[a].get (b) + 1);
+			else
+				setLink (a, b, w, 1);
+		}
+		heap = new MinHeap (numEdges);
+		for (int a = 0; a < numNodes; a++) {
+			int[] neighbors = links[a].keys();
+			for (int k = 0; k < neighbors.length; k++)
+				if (a < neighbors[k])
+					offer (a, neighbors[k]);
+		}
+		numClusters = numNodes;
+		numMerges = 0;
+	}
+
+	/** Runs the clustering and returns the clusters, each an array of
+			node ids in increasing order, ordered by their smallest node. */
+	public int[][] cluster ()
+	{
+		initialize ();
+		while (mergeBest (threshold))
+			;
+		return getClusters ();
+	}
+
+	/** Merges the best-scoring pair of linked clusters if its score is at
+			least <tt>minScore</tt>, returning whether a merge was made.  After
+			{@link #cluster()}, this continues the clustering past the threshold. */
+	public boolean mergeBest (double minScore)
+	{
+		if (heap == null)
+			throw new IllegalStateException ("cluster() has not been run");
+		while (heap.size() > 0) {
+			Candidate c = (Candidate)heap.min();
+			if (links[c.a] == null || links[c.b] == null || !links[c.a].containsKey (c.b)
+					|| score (c.a, c.b) != c.score) {
+				heap.extractMin(); // stale
+				continue;
+			}
+			if (c.score < minScore)
+				return false;
+			heap.extractMin();
+			merge (c.a, c.b);
+			return true;
+		}
+		return false;
+	}
+
+	private void merge (int a, int b)
+	{
+		// Keep the cluster with more links
+		int keep = a, absorb = b;
+		if (links[a].size() < links[b].size()) {
+			keep = b; absorb = a;
+		}
+		removeLink (keep, absorb);
+		removeLink (absorb, keep);
+		if (intersecting()) {
+			int[] neighbors = links[keep].keys();
+			for (int k = 0; k < neighbors.length; k++) {
+				int n = neighbors[k];
+				if (links[absorb].containsKey (n)) {
+					setLink (keep, n, combine (links[keep].get (n), links[absorb].get (n)), 0);
+					offer (keep, n);
+				} else {
+					removeLink (keep, n);
+					removeLink (n, keep);
+				}
+			}
+			int[] absorbed = links[absorb].keys();
+			for (int k = 0; k < absorbed.length; k++)
+				removeLink (absorbed[k], absorb);
+		} else {
+			int[] absorbed = links[absorb].keys();
+			for (int k = 0; k < absorbed.length; k++) {
+				int n = absorbed[k];
+				double w = links[absorb].get (n);
+				int count = linkCounts == null ? 0 : linkCounts[absorb].get (n);
+				removeLink (n, absorb);
+				if (links[keep].containsKey (n)) {
+					w += links[keep].get (n);
+					if (linkCounts != null)
+						count += linkCounts[keep].get (n);
+				}
+				setLink (keep, n, w, count);
+				offer (keep, n);
+			}
+		}
+		links[absorb] = null;
+		if (linkCounts != null)
+			linkCounts[absorb] = null;
+		parent[absorb] = keep;
+		int tmp = nextMember[keep];
+		nextMember[keep] = nextMember[absorb];
+		nextMember[absorb] = tmp;
+		numClusters--;
+		numMerges++;
+	}
+
+	private int find (int i)
+	{
+		int root = i;
+		while (parent[root] != root)
+			root = parent[root];
+		while (parent[i] != root) {
+			int next = parent[i];
+			parent[i] = root;
+			i = next;
+		}
+		return root;
+	}
+
+	public int getNumClusters () { return numClusters; }
+
+	public int getNumMerges () { return numMerges; }
+
+	/** Returns, for each node, the index of its cluster in {@link #getClusters()}. */
+	public int[] getAssignments ()
+	{
+		if (parent == null)
+			throw new IllegalStateException ("cluster() has not been run");
+		int[] assignments = new int[numNodes];
+		int[] rootToCluster = new int[numNodes];
+		Arrays.fill (rootToCluster, -1);
+		int next = 0;
+		for (int i = 0; i < numNodes; i++) {
+			int root = find (i);
+			if (rootToCluster[root] < 0)
+				rootToCluster[root] = next++;
+			assignments[i] = rootToCluster[root];
+		}
+		return assignments;
+	}
+
+	public int[][] getClusters ()
+	{
+		int[] assignments = getAssignments ();
+		int[][] clusters = new int[numClusters][];
+		for (int i = 0; i < numNodes; i++) {
+			int c = assignments[i];
+			if (clusters[c] != null)
+				continue;
+			int size = 0, m = i;
+			do { size++; m = nextMember[m]; } while (m != i);
+			clusters[c] = new int[size];
+			for (int k = 0; k < size; k++) {
+				clusters[c][k] = m;
+				m = nextMember[m];
+			}
+			Arrays.sort (clusters[c]);
+		}
+		return clusters;
+	}
+
+	/** The correlation clustering objective of the current clustering: the
+			total weight of edges within clusters minus the total weight of
+			edges between them, as in <tt>GraphClustering.evaluateClustering</tt>. */
+	public double getObjective ()
+	{
+		if (parent == null)
+			throw new IllegalStateException ("cluster() has not been run");
+		double value = 0.0;
+		for (int e = 0; e < numEdges; e++) {
+			if (find (edgeSources[e]) == find (edgeTargets[e]))
+				value += edgeWeights[e];
+			else
+				value -= edgeWeights[e];
+		}
+		return value;
+	}
+
+}
@@ -141,6 +141,23 @@ public class MinimizeDisagreementsClustering
 		}
 	}
 
+	// Copies the vertices and edges of g into a new graph.  The vertices
+	// themselves are shared, so removing them from the copy leaves g intact
+	// and is much cheaper than a deepCopy through serialization.
+	public WeightedGraph copyGraph (WeightedGraph g) throws Exception
+	{
+		WeightedGraph copy = new WeightedGraphImpl();
+		Iterator i = g.getVerticesIterator();
+		while (i.hasNext())
+	    copy.add((Vertex)i.next());
+		Iterator e = g.getEdgeSet().iterator();
+		while (e.hasNext()) {
+	    WeightedEdge edge = (WeightedEdge)e.next();
+	    copy.addEdge(edge.getVertexA(), edge.getVertexB(), edge.getWeight());
+		}
+		return copy;
+	}
+
 	private boolean allIntegers (Set vertices)
 	{
 		Iterator i = vertices.iterator();
@@ -155,41 +172,36 @@ public class MinimizeDisagreementsClustering
 
 	/***** 
 				 Greedy aglomerative clustering implemented here....
+
+				 Clusters are merged average-link, as nextBestClustering would,
+				 while the merged pair scores above THRESHOLD, and then once more:
+				 the first merge scoring THRESHOLD or less is still made, as long
+				 as the pair scores above zero.  Unlike nextBestClustering, the
+				 merge steps are not printed one by one, only their total.
 	*/
 
 	public Clustering getClusteringGreedily ()
 	{
-		double cost = 10000.0;
-		boolean notFinished = true;
-		WeightedGraph curGraph = null; // make copy of original graph
+		// Pair scores are kept up to date incrementally rather than
+		// re-evaluated over every pair after each merge
+		List vertices = new ArrayList(origVertices);
+		CorrelationClusterer clusterer = CorrelationClusterer.fromGraph(origGraph, vertices);
+		clusterer.setLinkage(CorrelationClusterer.AVERAGE);
+		// The clusterer merges at scores equal to its threshold
+		clusterer.setThreshold(Math.nextUp(THRESHOLD));
+		clusterer.cluster();
+		clusterer.mergeBest(Double.MIN_VALUE);
+		int[][] clusterIds = clusterer.getClusters();
 
-		try {
-	    if (allIntegers (origGraph.getVertexSet()))
-				System.out.println("All vertex objects are integers");
-	    else
-				System.out.println("At least one vertex object is a non-integer");
-	    curGraph = (WeightedGraph)deepCopy(origGraph); // copy graph, since we muck with it
-		} catch (Exception e) {e.printStackTrace();}
-		vertexMap = createVertexMap(sortSet(curGraph.getVertexSet(), comparator),
-																origVertices); // create map between copy and original	
-
-		Set curSet = curGraph.getVertexSet();
-		Iterator i = curSet.iterator();
 		Clustering curClustering = new Clustering();
-		while (i.hasNext()) {
+		for (int c=0; c < clusterIds.length; c++) {
 	    Cluster cl = new Cluster();
-	    cl.add(i.next());
+	    for (int k=0; k < clusterIds[c].length; k++)
+				cl.add(vertices.get(clusterIds[c][k]));
 	    curClustering.add(cl);
 		}
-
-		System.out.println("Initial clustering: ");
-		curClustering.print();
-
-		while (cost > THRESHOLD) {
-	    cost = nextBestClustering(curClustering, curGraph);
-	    System.out.println("GRAPH COST: " + cost);
-	    curClustering.print();
-		}
+		System.out.println("Merged into " + curClustering.size() + " clusters after "
+											 + clusterer.getNumMerges() + " merges");
 		if (mappedGraph != null) {
 	    System.out.println("Remapping clusters:");
 	    return remapClusters(curClustering);
@@ -248,7 +260,7 @@ public class MinimizeDisagreementsClustering
 		while (i1.hasNext()) {
 	    newCluster.add(i1.next());
 		}
-		Iterator i2 = c1.iterator();
+		Iterator i2 = c2.iterator();
 		while (i2.hasNext()) {
 	    newCluster.add(i2.next());
 		}
@@ -273,7 +285,7 @@ public class MinimizeDisagreementsClustering
 				System.out.println("All vertex objects are integers");
 	    else
 				System.out.println("At least one vertex object is a non-integer");
-	    curGraph = (WeightedGraph)deepCopy(origGraph); // copy graph, since we muck with it
+	    curGraph = copyGraph(origGraph); // copy graph, since we muck with it
 		} catch (Exception e) {e.printStackTrace();}
 		vertexMap = createVertexMap(sortSet(curGraph.getVertexSet(), comparator),
 																origVertices); // create map between copy and original	
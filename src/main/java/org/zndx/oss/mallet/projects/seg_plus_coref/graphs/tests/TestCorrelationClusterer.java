@@ -0,0 +1,98 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package org.zndx.oss.mallet.projects.seg_plus_coref.graphs.tests;
+
+import org.zndx.oss.mallet.projects.seg_plus_coref.graphs.CorrelationClusterer;
+import junit.framework.*;
+import java.util.Arrays;
+
+public class TestCorrelationClusterer extends TestCase
+{
+	public TestCorrelationClusterer (String name)
+	{
+		super (name);
+	}
+
+	// 3-4 merge first and lose their links to 0 and 2, which are linked to
+	// only one of them.  0-1 merge next, and their link to 2 becomes 4 under
+	// MAX and 0.5 under MIDPOINT.
+	static CorrelationClusterer graph (int linkage, double threshold)
+	{
+		CorrelationClusterer clusterer = new CorrelationClusterer (5);
+		clusterer.addEdge (0, 1, 5);
+		clusterer.addEdge (1, 2, 4);
+		clusterer.addEdge (0, 2, -3);
+		clusterer.addEdge (2, 3, 1);
+		clusterer.addEdge (3, 4, 6);
+		clusterer.addEdge (0, 3, -2);
+		clusterer.setLinkage (linkage);
+		clusterer.setThreshold (threshold);
+		return clusterer;
+	}
+
+	static void assertClusters (int[][] expected, int[][] clusters)
+	{
+		assertEquals (expected.length, clusters.length);
+		for (int c = 0; c < expected.length; c++)
+			assertTrue ("cluster "+c+" was "+Arrays.toString (clusters[c]),
+									Arrays.equals (expected[c], clusters[c]));
+	}
+
+	public void testMax ()
+	{
+		CorrelationClusterer clusterer = graph (CorrelationClusterer.MAX, 1.0);
+		assertClusters (new int[][] {{0, 1, 2}, {3, 4}}, clusterer.cluster ());
+		assertEquals (3, clusterer.getNumMerges ());
+		assertTrue (Arrays.equals (new int[] {0, 0, 0, 1, 1}, clusterer.getAssignments ()));
+		// Within: 5 + 4 - 3 + 6, between: 1 - 2
+		assertEquals (13.0, clusterer.getObjective (), 1e-9);
+	}
+
+	public void testMidpoint ()
+	{
+		CorrelationClusterer clusterer = graph (CorrelationClusterer.MIDPOINT, 1.0);
+		assertClusters (new int[][] {{0, 1}, {2}, {3, 4}}, clusterer.cluster ());
+		assertEquals (2, clusterer.getNumMerges ());
+
+		clusterer = graph (CorrelationClusterer.MIDPOINT, 0.5);
+		assertClusters (new int[][] {{0, 1, 2}, {3, 4}}, clusterer.cluster ());
+	}
+
+	public void testAverage ()
+	{
+		CorrelationClusterer clusterer = graph (CorrelationClusterer.AVERAGE, 1.0);
+		assertClusters (new int[][] {{0, 1}, {2, 3, 4}}, clusterer.cluster ());
+	}
+
+	public void testMergeBest ()
+	{
+		CorrelationClusterer clusterer = graph (CorrelationClusterer.MIDPOINT, 1.0);
+		clusterer.cluster ();
+		// One merge past the threshold, as MinimizeDisagreementsClustering makes
+		assertTrue (clusterer.mergeBest (Double.MIN_VALUE));
+		assertClusters (new int[][] {{0, 1, 2}, {3, 4}}, clusterer.getClusters ());
+		// The two clusters are no longer linked
+		assertFalse (clusterer.mergeBest (Double.NEGATIVE_INFINITY));
+		assertEquals (2, clusterer.getNumClusters ());
+	}
+
+	public static Test suite ()
+	{
+		return new TestSuite (TestCorrelationClusterer.class);
+	}
+
+	protected void setUp ()
+	{
+	}
+
+	public static void main (String[] args)
+	{
+		junit.textui.TestRunner.run (suite());
+	}
+
+}